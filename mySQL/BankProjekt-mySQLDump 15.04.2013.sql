@@ -89,3 +89,40 @@ CREATE TABLE transactions (
 INSERT INTO `transactions` (`id`,`sourceAccount`,`targetAccount`,`amount`) VALUES (1,1,2,100);
 INSERT INTO `transactions` (`id`,`sourceAccount`,`targetAccount`,`amount`) VALUES (2,1,2,67.3);
 INSERT INTO `transactions` (`id`,`sourceAccount`,`targetAccount`,`amount`) VALUES (3,2,1,16.5);
+
+# --------------------------------------------------------
+
+#
+# Tabellenstruktur für Tabelle sequences
+#
+# Hier reserviert die Klasse IdAllocator Blöcke von Primärschlüsseln.
+# Fehlende Einträge werden beim ersten Zugriff mit MAX(id) + 1 der
+# jeweiligen Tabelle angelegt.
+#
+
+CREATE TABLE sequences (
+  name varchar(64) NOT NULL,
+  nextId int(11) NOT NULL,
+  PRIMARY KEY  (name)
+) ENGINE=InnoDB;
+
+#
+# Tabellenstruktur für Tabelle account_balances
+#
+# Kontostand je Konto. Er wird vom TransactionMapper bei jeder Buchung
+# fortgeschrieben. Die Einträge werden aus den obigen Buchungen berechnet.
+#
+
+CREATE TABLE account_balances (
+  account int(11) NOT NULL,
+  balance double NOT NULL default 0,
+  PRIMARY KEY  (account)
+) ENGINE=InnoDB;
+
+INSERT INTO account_balances (account, balance)
+SELECT a.id, COALESCE(c.total, 0) - COALESCE(d.total, 0)
+FROM accounts a
+LEFT JOIN (SELECT targetAccount AS account, SUM(amount) AS total
+  FROM transactions GROUP BY targetAccount) c ON c.account=a.id
+LEFT JOIN (SELECT sourceAccount AS account, SUM(amount) AS total
+  FROM transactions GROUP BY sourceAccount) d ON d.account=a.id;
@@ -142,16 +142,23 @@ public class ShowAllCustomersAndTheirAccountsDemo extends Showcase {
       if (accounts != null) {
         if (accounts.size() != 0) {
           StringBuffer ktoNummern = new StringBuffer();
+          int[] ids = new int[accounts.size()];
 
-          for (Account a : accounts) {
+          for (int i = 0; i < ids.length; i++) {
+            Account a = accounts.get(i);
             ktoNummern.append("#" + a.getId() + " ");
+            ids[i] = a.getId();
+          }
 
-            BankAdministrationAsync bankVerwaltung = ClientsideSettings
-                .getBankVerwaltung();
+          /*
+           * Die Kontostände sämtlicher Konten des Kunden erfragen wir mit einem
+           * einzigen Aufruf statt mit einem Aufruf je Konto.
+           */
+          BankAdministrationAsync bankVerwaltung = ClientsideSettings
+              .getBankVerwaltung();
 
-            bankVerwaltung.getBalanceOf(a, new GetBalanceOfAccountCallback(
-                this.showcase, a));
-          }
+          bankVerwaltung.getBalancesOf(ids, new GetBalancesOfAccountsCallback(
+              this.showcase, accounts));
 
           this.showcase
               .append("Erhalte für Kunde " + this.customer.getFirstName() + " "
@@ -183,10 +190,10 @@ public class ShowAllCustomersAndTheirAccountsDemo extends Showcase {
      *    des Kunden verfügbar, also z.B. das Kundenobjekt und als Ergebnis des
      *    Call auch dessen Konten.
      *    
-     *    (Instance of GetBalanceOfAccountCallback
+     *    (Instance of GetBalancesOfAccountsCallback
      *    
      *       Hier sind zusätzlich noch die Infos zum Kontext nach dem zweiten 
-     *       Call, also z.B. der Kontostand des jeweiligen Kontos, verfügbar.
+     *       Call, also z.B. die Kontostände der Konten, verfügbar.
      *    
      *    )
      * )
@@ -198,13 +205,14 @@ public class ShowAllCustomersAndTheirAccountsDemo extends Showcase {
      * @version 1.0
      * 
      */
-    class GetBalanceOfAccountCallback implements AsyncCallback<Float> {
+    class GetBalancesOfAccountsCallback implements
+        AsyncCallback<AccountBalances> {
       private Showcase showcase = null;
-      private Account account = null;
+      private Vector<Account> accounts = null;
 
-      public GetBalanceOfAccountCallback(Showcase c, Account account) {
+      public GetBalancesOfAccountsCallback(Showcase c, Vector<Account> accounts) {
         this.showcase = c;
-        this.account = account;
+        this.accounts = accounts;
       }
 
       @Override
@@ -213,11 +221,16 @@ public class ShowAllCustomersAndTheirAccountsDemo extends Showcase {
       }
 
       @Override
-	public void onSuccess(Float balance) {
-        if (balance != null) {
-          this.showcase.append("Konto #" + this.account.getId() + ", Stand: "
-              + balance.floatValue() + ", Inhaber: " + customer.getFirstName()
-              + " " + customer.getLastName());
+	public void onSuccess(AccountBalances balances) {
+        if (balances != null) {
+          for (Account a : this.accounts) {
+            Float balance = balances.getBalanceOf(a.getId());
+            if (balance != null) {
+              this.showcase.append("Konto #" + a.getId() + ", Stand: "
+                  + balance.floatValue() + ", Inhaber: "
+                  + customer.getFirstName() + " " + customer.getLastName());
+            }
+          }
         }
       }
 
@@ -16,7 +16,7 @@ import de.hdm.thies.bankProjekt.client.ClientsideSettings;
 import de.hdm.thies.bankProjekt.shared.BankAdministrationAsync;
 import de.hdm.thies.bankProjekt.shared.bo.Account;
 import de.hdm.thies.bankProjekt.shared.bo.Customer;
-import de.hdm.thies.bankProjekt.shared.bo.Transaction;
+import de.hdm.thies.bankProjekt.shared.bo.TransactionResult;
 
 /**
  * Formular für die Darstellung des selektierten Kunden
@@ -86,9 +86,10 @@ public class AccountForm extends VerticalPanel {
 
 	/**
 	 * Aktivierung der "Einzahlen"-Schaltfläche führt zum Aufruf der Service
-	 * Methode "createDeposit". Danach muss das Konto aktualisiert werden. Dies
-	 * geschieht durch einen erneuten asynchronen Methodenaufruf, in dem das
-	 * Kontoobjekt abgefragt wird.
+	 * Methode "createDepositWithResult". Danach muss das Konto aktualisiert
+	 * werden. Der Service liefert hierzu mit der Buchung den neuen Stand des
+	 * Kontos, seinen Kontostand und seinen Inhaber, so dass keine weiteren
+	 * asynchronen Methodenaufrufe nötig sind.
 	 * 
 	 * Dies ist ein Beispiel dafür, dass im GUI keine Anwendungslogik
 	 * stattfindet, da nicht immer davon auszugehen ist, dass eine Einzahlung
@@ -116,39 +117,39 @@ public class AccountForm extends VerticalPanel {
 			}
 
 			// Aufruf der des Service
-			bankVerwaltung.createDeposit(accountToDisplay, amount,
+			bankVerwaltung.createDepositWithResult(accountToDisplay, amount,
 					new CreateDepositCallback());
 		}
 	}
 
-	private class CreateDepositCallback implements AsyncCallback<Transaction> {
+	private class CreateDepositCallback implements
+			AsyncCallback<TransactionResult> {
 		@Override
 		public void onFailure(Throwable caught) {
+			Window.alert("Die Einzahlung ist fehlgeschlagen: "
+					+ caught.getMessage());
 		}
 
 		@Override
-		public void onSuccess(Transaction trans) {
-			if (trans != null) {
-				// Von der Transaktion erhalten wird die Kontonummer des Kontos,
-				// das auf der Anzeige aktualisiert werden soll.
-				bankVerwaltung.getAccountById(trans.getTargetAccountID(),
-						new updateAccountByIdCallback());
-			}
+		public void onSuccess(TransactionResult result) {
+			updateFrom(result);
 		}
 	}
 
-	private class updateAccountByIdCallback implements AsyncCallback<Account> {
-		@Override
-		public void onFailure(Throwable caught) {
+	/*
+	 * Von der Buchung erhalten wird das Konto, das auf der Anzeige und im
+	 * Kunden- und Kontobaum aktualisiert werden soll, samt Kontostand und
+	 * Inhaber.
+	 */
+	private void updateFrom(TransactionResult result) {
+		if (result == null || accountToDisplay == null) {
+			return;
 		}
-
-		@Override
-		public void onSuccess(Account a) {
-			if (a != null) {
-				setSelected(a);
-				// Das Konto wird im Kunden- und Kontobaum ebenfalls aktualisiert.
-				catvm.updateAccount(a);
-			}
+		Account a = result.getAccount(accountToDisplay.getId());
+		if (a != null) {
+			Float balance = result.getBalanceOf(a);
+			setSelected(a, balance);
+			catvm.updateAccount(a, result.getOwnerOf(a), balance);
 		}
 	}
 
@@ -172,23 +173,23 @@ public class AccountForm extends VerticalPanel {
 				return;
 			}
 
-			bankVerwaltung.createWithdrawal(accountToDisplay, amount,
+			bankVerwaltung.createWithdrawalWithResult(accountToDisplay, amount,
 					new CreateWithdrawalCallback());
 		}
 	}
 
 	private class CreateWithdrawalCallback implements
-			AsyncCallback<Transaction> {
+			AsyncCallback<TransactionResult> {
 		@Override
 		public void onFailure(Throwable caught) {
+			// z.B. wenn der Kontostand den Betrag nicht deckt
+			Window.alert("Die Abhebung ist fehlgeschlagen: "
+					+ caught.getMessage());
 		}
 
 		@Override
-		public void onSuccess(Transaction trans) {
-			if (trans != null) {
-				bankVerwaltung.getAccountById(accountToDisplay.getId(),
-						new updateAccountByIdCallback());
-			}
+		public void onSuccess(TransactionResult result) {
+			updateFrom(result);
 		}
 	}
 
@@ -328,10 +329,23 @@ public class AccountForm extends VerticalPanel {
 	 * der Kontostand als Ergebnis eines Service-Aufrufs erhalten.
 	 */
 	void setSelected(Account a) {
+		setSelected(a, null);
+	}
+
+	/*
+	 * Ist der Kontostand bereits bekannt, etwa weil er mit dem Kunden- und
+	 * Kontobaum geladen wurde, entfällt der Service-Aufruf.
+	 */
+	void setSelected(Account a, Float balance) {
 		if (a != null) {
 			accountToDisplay = a;
 			idValueLabel.setText(Integer.toString(accountToDisplay.getId()));
-			bankVerwaltung.getBalanceOf(accountToDisplay, new GetBalanceCallback());
+			if (balance != null) {
+				balanceValueLabel.setText(decimalFormatter.format(balance)
+						+ " Euro");
+			} else {
+				refreshBalance();
+			}
 		} else {
 			accountToDisplay = null;
 			this.amountTextBox.setText("");
@@ -340,14 +354,34 @@ public class AccountForm extends VerticalPanel {
 		}
 	}
 
+	/*
+	 * Erneutes Abfragen des Kontostands des angezeigten Kontos, etwa wenn der
+	 * angezeigte Wert aus dem Kunden- und Kontobaum stammt und inzwischen
+	 * veraltet sein kann.
+	 */
+	void refreshBalance() {
+		if (accountToDisplay != null) {
+			bankVerwaltung.getBalanceOf(accountToDisplay,
+					new GetBalanceCallback(accountToDisplay));
+		}
+	}
+
 	private class GetBalanceCallback implements AsyncCallback<Float> {
+		private Account account = null;
+
+		GetBalanceCallback(Account a) {
+			account = a;
+		}
+
 		@Override
 		public void onFailure(Throwable caught) {
 		}
 
 		@Override
 		public void onSuccess(Float result) {
-			if (result != null) {
+			// Inzwischen wurde evtl. ein anderes Konto ausgewählt.
+			if (result != null && accountToDisplay != null
+					&& accountToDisplay.getId() == account.getId()) {
 				balanceValueLabel.setText(decimalFormatter.format(result)
 						+ " Euro");
 			}
@@ -17,6 +17,7 @@ import de.hdm.thies.bankProjekt.shared.BankAdministrationAsync;
 import de.hdm.thies.bankProjekt.shared.bo.Account;
 import de.hdm.thies.bankProjekt.shared.bo.BusinessObject;
 import de.hdm.thies.bankProjekt.shared.bo.Customer;
+import de.hdm.thies.bankProjekt.shared.bo.CustomerTree;
 
 /**
  * Diese Implementierung des TreeViewModels sorgt für die Verwaltung des Kunden-
@@ -27,6 +28,12 @@ import de.hdm.thies.bankProjekt.shared.bo.Customer;
  */
 public class CustomerAccountsTreeViewModel implements TreeViewModel {
 
+	/**
+	 * Anzahl der Kunden, die mit einem Aufruf von
+	 * <code>getCustomerTree</code> geladen werden.
+	 */
+	private static final int TREE_PAGE_SIZE = 100;
+
 	private CustomerForm customerForm;
 	private AccountForm accountForm;
 
@@ -37,9 +44,15 @@ public class CustomerAccountsTreeViewModel implements TreeViewModel {
 	private ListDataProvider<Customer> customerDataProvider = null;
 	/*
 	 * In dieser Map merken wir uns die ListDataProviders für die Kontolisten
-	 * der im Kunden- und Kontobaum expandierten Kundenknoten.
+	 * der mit dem Kunden- und Kontobaum geladenen bzw. expandierten
+	 * Kundenknoten.
 	 */
 	private Map<Customer, ListDataProvider<Account>> accountDataProviders = null;
+	/*
+	 * Die mit dem Kunden- und Kontobaum geladenen Kontostände. Ein Kontostand
+	 * wird verworfen, sobald das Konto geändert wurde.
+	 */
+	private Map<Integer, Float> accountBalances = null;
 
 	/**
 	 * Bildet BusinessObjects auf eindeutige Zahlenobjekte ab, die als Schlüssel
@@ -97,6 +110,7 @@ public class CustomerAccountsTreeViewModel implements TreeViewModel {
 		selectionModel
 				.addSelectionChangeHandler(new SelectionChangeEventHandler());
 		accountDataProviders = new HashMap<Customer, ListDataProvider<Account>>();
+		accountBalances = new HashMap<Integer, Float>();
 	}
 
 	void setCustomerForm(CustomerForm cf) {
@@ -124,13 +138,28 @@ public class CustomerAccountsTreeViewModel implements TreeViewModel {
 
 	/*
 	 * Wenn ein Konto ausgewählt wird, wird auch der ausgewählte Kunde
-	 * angepasst.
+	 * angepasst. Der mit dem Baum geladene Kontostand wird sofort angezeigt,
+	 * aber anschließend vom Server aktualisiert, da er inzwischen veraltet
+	 * sein kann.
 	 */
 	void setSelectedAccount(Account a) {
 		selectedAccount = a;
-		accountForm.setSelected(a);
+		Float balance = a == null ? null : accountBalances.get(new Integer(a
+				.getId()));
+		accountForm.setSelected(a, balance);
+		if (balance != null) {
+			accountForm.refreshBalance();
+		}
 
 		if (a != null) {
+			// Der Inhaber ist meist bereits mit dem Baum geladen worden.
+			for (Customer c : customerDataProvider.getList()) {
+				if (c.getId() == a.getOwnerID()) {
+					selectedCustomer = c;
+					customerForm.setSelected(c);
+					return;
+				}
+			}
 			bankVerwaltung.getCustomerById(a.getOwnerID(),
 					new AsyncCallback<Customer>() {
 						@Override
@@ -175,7 +204,7 @@ public class CustomerAccountsTreeViewModel implements TreeViewModel {
 
 	void addAccountOfCustomer(Account account, Customer customer) {
 		// falls es noch keinen Account Provider für diesen Customer gibt,
-		// wurde der Baumknoten noch nicht geöffnet und wir brauchen nichts tun.
+		// wurden seine Konten noch nicht geladen und wir brauchen nichts tun.
 		if (!accountDataProviders.containsKey(customer)) {
 			return;
 		}
@@ -188,8 +217,9 @@ public class CustomerAccountsTreeViewModel implements TreeViewModel {
 	}
 
 	void removeAccountOfCustomer(Account account, Customer customer) {
+		accountBalances.remove(new Integer(account.getId()));
 		// falls es keinen Account Provider für diesen Customer gibt,
-		// wurde der Baumknoten noch nicht geöffnet und wir brauchen nichts tun.
+		// wurden seine Konten noch nicht geladen und wir brauchen nichts tun.
 		if (!accountDataProviders.containsKey(customer)) {
 			return;
 		}
@@ -203,10 +233,44 @@ public class CustomerAccountsTreeViewModel implements TreeViewModel {
 	 * Baumstruktur noch ein "veraltetes" Kontoobjekt enthalten ist.
 	 */
 	void updateAccount(Account a) {
+		accountBalances.remove(new Integer(a.getId()));
 		bankVerwaltung.getCustomerById(a.getOwnerID(),
 				new UpdateAccountCallback(a));
 	}
 
+	/*
+	 * Sind Inhaber und Kontostand bereits bekannt, etwa als Ergebnis einer
+	 * Buchung, wird das Konto ohne weiteren Service-Aufruf ersetzt.
+	 */
+	void updateAccount(Account a, Customer owner, Float balance) {
+		if (owner == null) {
+			updateAccount(a);
+			return;
+		}
+		if (balance != null) {
+			accountBalances.put(new Integer(a.getId()), balance);
+		} else {
+			accountBalances.remove(new Integer(a.getId()));
+		}
+		replaceAccount(a, owner);
+	}
+
+	private void replaceAccount(Account account, Customer customer) {
+		// falls es keinen Account Provider für diesen Customer gibt,
+		// wurden seine Konten noch nicht geladen und wir brauchen nichts tun.
+		if (!accountDataProviders.containsKey(customer)) {
+			return;
+		}
+		List<Account> accountList = accountDataProviders.get(customer)
+				.getList();
+		for (int i = 0; i < accountList.size(); i++) {
+			if (account.getId() == accountList.get(i).getId()) {
+				accountList.set(i, account);
+				break;
+			}
+		}
+	}
+
 	private class UpdateAccountCallback implements AsyncCallback<Customer> {
 
 		Account account = null;
@@ -221,13 +285,38 @@ public class CustomerAccountsTreeViewModel implements TreeViewModel {
 
 		@Override
 		public void onSuccess(Customer customer) {
-			List<Account> accountList = accountDataProviders.get(customer)
-					.getList();
-			for (int i=0; i<accountList.size(); i++) {
-				if (account.getId() == accountList.get(i).getId()) {
-					accountList.set(i, account);
-					break;
+			replaceAccount(account, customer);
+		}
+	}
+
+	/*
+	 * Eine Seite des Kunden- und Kontenbaums wird in die ListDataProvider
+	 * übernommen. Ist die Seite voll, wird die nächste angefordert.
+	 */
+	private class CustomerTreeCallback implements AsyncCallback<CustomerTree> {
+		@Override
+		public void onFailure(Throwable t) {
+		}
+
+		@Override
+		public void onSuccess(CustomerTree tree) {
+			for (Customer c : tree.getCustomers()) {
+				customerDataProvider.getList().add(c);
+
+				ListDataProvider<Account> accountsProvider = new ListDataProvider<Account>();
+				for (Account a : tree.getAccountsOf(c)) {
+					accountsProvider.getList().add(a);
 				}
+				accountDataProviders.put(c, accountsProvider);
+			}
+			for (int i = 0; i < tree.getAccounts().size(); i++) {
+				accountBalances.put(new Integer(tree.getAccounts().get(i)
+						.getId()), new Float(tree.getBalance(i)));
+			}
+
+			if (tree.getCustomers().size() == TREE_PAGE_SIZE) {
+				bankVerwaltung.getCustomerTree(tree.getLastCustomerLastName(),
+						tree.getLastCustomerID(), TREE_PAGE_SIZE, this);
 			}
 		}
 	}
@@ -239,19 +328,8 @@ public class CustomerAccountsTreeViewModel implements TreeViewModel {
 		if (value.equals("Root")) {
 			// Erzeugen eines ListDataproviders für Customerdaten
 			customerDataProvider = new ListDataProvider<Customer>();
-			bankVerwaltung
-					.getAllCustomers(new AsyncCallback<Vector<Customer>>() {
-						@Override
-						public void onFailure(Throwable t) {
-						}
-
-						@Override
-						public void onSuccess(Vector<Customer> customers) {
-							for (Customer c : customers) {
-								customerDataProvider.getList().add(c);
-							}
-						}
-					});
+			bankVerwaltung.getCustomerTree("", 0, TREE_PAGE_SIZE,
+					new CustomerTreeCallback());
 
 			// Return a node info that pairs the data with a cell.
 			return new DefaultNodeInfo<Customer>(customerDataProvider,
@@ -259,6 +337,13 @@ public class CustomerAccountsTreeViewModel implements TreeViewModel {
 		}
 
 		if (value instanceof Customer) {
+			// Die Konten sind meist bereits mit dem Baum geladen worden.
+			if (accountDataProviders.containsKey(value)) {
+				return new DefaultNodeInfo<Account>(
+						accountDataProviders.get(value), new AccountCell(),
+						selectionModel, null);
+			}
+
 			// Erzeugen eines ListDataproviders für Account-Daten
 			final ListDataProvider<Account> accountsProvider = new ListDataProvider<Account>();
 			accountDataProviders.put((Customer) value, accountsProvider);
@@ -13,6 +13,7 @@ import com.google.gwt.user.client.ui.VerticalPanel;
 
 import de.hdm.thies.bankProjekt.client.ClientsideSettings;
 import de.hdm.thies.bankProjekt.shared.BankAdministrationAsync;
+import de.hdm.thies.bankProjekt.shared.StaleObjectException;
 import de.hdm.thies.bankProjekt.shared.bo.Customer;
 
 /**
@@ -98,16 +99,45 @@ public class CustomerForm extends VerticalPanel {
 	private class SaveCallback implements AsyncCallback<Void> {
 		@Override
 		public void onFailure(Throwable caught) {
-			Window.alert("Die Namensänderung ist fehlgeschlagen!");
+			if (caught instanceof StaleObjectException) {
+				/*
+				 * Der Kunde wurde zwischenzeitlich von anderer Seite geändert.
+				 * Wir zeigen den aktuellen Stand an, die Änderung kann dann
+				 * erneut vorgenommen werden.
+				 */
+				Window.alert("Der Kunde wurde inzwischen geändert. "
+						+ "Es wird der aktuelle Stand angezeigt.");
+				bankVerwaltung.getCustomerById(customerToDisplay.getId(),
+						new ReloadCustomerCallback());
+			} else {
+				Window.alert("Die Namensänderung ist fehlgeschlagen!");
+			}
 		}
 
 		@Override
 		public void onSuccess(Void result) {
+			// Wie auf dem Server steigt die Version mit jeder Änderung um 1.
+			customerToDisplay.setVersion(customerToDisplay.getVersion() + 1);
 			// Die Änderung wird zum Kunden- und Kontenbaum propagiert.
 			catvm.updateCustomer(customerToDisplay);
 		}
 	}
 
+	private class ReloadCustomerCallback implements AsyncCallback<Customer> {
+		@Override
+		public void onFailure(Throwable caught) {
+			Window.alert("Das Laden des Kunden ist fehlgeschlagen!");
+		}
+
+		@Override
+		public void onSuccess(Customer customer) {
+			if (customer != null) {
+				setSelected(customer);
+				catvm.updateCustomer(customer);
+			}
+		}
+	}
+
 	/**
 	 * Das erfolgreiche Löschen eines Kunden führt zur Aktualisierung des
 	 * Kunden- und Kontenbaumes.
@@ -1,9 +1,12 @@
 package de.hdm.thies.bankProjekt.server;
 
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Vector;
 
-import de.hdm.thies.bankProjekt.server.db.*;
+import de.hdm.thies.bankProjekt.server.storage.*;
 import de.hdm.thies.bankProjekt.shared.*;
 import de.hdm.thies.bankProjekt.shared.bo.*;
 
@@ -94,28 +97,61 @@ public class BankAdministrationImpl extends RemoteServiceServlet
    */
   public static final int DEFAULT_CASH_ACCOUNT_ID = 10000;
 
+  /**
+   * Wie viele Objekte darf eine Seite bei seitenweisem Auslesen höchstens
+   * umfassen?
+   */
+  public static final int MAX_PAGE_SIZE = 1000;
+
   /**
    * Referenz auf das zugehörige Bank-Objekt.
    */
   private Bank bank = null;
 
   /**
-   * Referenz auf den DatenbankMapper, der Kundenobjekte mit der Datenbank
-   * abgleicht.
+   * Referenz auf das Speicher-Backend, etwa die Datenbank.
+   */
+  private Storage storage = null;
+
+  /**
+   * Referenz auf den Speicher, der Kundenobjekte dauerhaft ablegt, etwa den
+   * CustomerMapper der Datenbank.
    */
-  private CustomerMapper cMapper = null;
+  private CustomerStorage cMapper = null;
 
   /**
-   * Referenz auf den DatenbankMapper, der Kontoobjekte mit der Datenbank
-   * abgleicht.
+   * Referenz auf den Speicher, der Kontoobjekte dauerhaft ablegt.
    */
-  private AccountMapper aMapper = null;
+  private AccountStorage aMapper = null;
 
   /**
-   * Referenz auf den TransactionMapper, der Buchungsobjekte mit der Datenbank
-   * abgleicht.
+   * Referenz auf den Speicher, der Buchungsobjekte dauerhaft ablegt.
    */
-  private TransactionMapper tMapper = null;
+  private TransactionStorage tMapper = null;
+
+  /**
+   * Referenz auf den Speicher der bei jeder Buchung fortgeschriebenen
+   * Kontostände.
+   */
+  private BalanceStorage bMapper = null;
+
+  /**
+   * Referenz auf den Speicher für Übersichten über Konten, Kunden und
+   * Kontostände.
+   */
+  private OverviewStorage oMapper = null;
+
+  /**
+   * Warteschlange für verzögert gespeicherte Buchungen oder <code>null</code>,
+   * wenn Buchungen sofort gespeichert werden.
+   */
+  private WriteBehindQueue writeBehind = null;
+
+  /**
+   * Referenz auf die Komponente, die Buchungen samt Deckungsprüfung atomar
+   * ausführt.
+   */
+  private TransferEngine transfers = null;
 
   /*
    * Da diese Klasse ein gewisse Größe besitzt - dies ist eigentlich ein
@@ -166,11 +202,41 @@ public void init() throws IllegalArgumentException {
     /*
      * Ganz wesentlich ist, dass die BankAdministration einen vollständigen Satz
      * von Mappern besitzt, mit deren Hilfe sie dann mit der Datenbank
-     * kommunizieren kann.
+     * kommunizieren kann. Welches Backend dahinter steht, legt die
+     * Konfiguration fest (siehe StorageFactory). Das Datenbank-Backend bringt
+     * dabei zunächst das Schema auf den aktuellen Stand.
      */
-    this.cMapper = CustomerMapper.customerMapper();
-    this.aMapper = AccountMapper.accountMapper();
-    this.tMapper = TransactionMapper.transactionMapper();
+    this.storage = StorageFactory.storage();
+    this.cMapper = this.storage.customers();
+    this.aMapper = this.storage.accounts();
+    this.tMapper = this.storage.transactions();
+    this.bMapper = this.storage.balances();
+    this.oMapper = this.storage.overviews();
+    this.writeBehind = WriteBehindQueue.writeBehindQueue();
+    this.transfers = TransferEngine.transferEngine();
+  }
+
+  /**
+   * Vor der Bearbeitung jeder Anfrage wird der Zeitpunkt des letzten
+   * Schreibzugriffs des Clients übernommen, damit dieser seine eigenen
+   * Änderungen auch bei Verwendung lesender Replikate sieht.
+   * 
+   * @see ReadYourWrites
+   */
+  @Override
+  protected void onBeforeRequestDeserialized(String serializedRequest) {
+    ReadYourWrites.begin(getThreadLocalRequest());
+  }
+
+  /**
+   * Nach der Bearbeitung jeder Anfrage wird der Zeitpunkt des letzten
+   * Schreibzugriffs an den Client zurückgegeben.
+   * 
+   * @see ReadYourWrites
+   */
+  @Override
+  protected void onAfterResponseSerialized(String serializedResponse) {
+    ReadYourWrites.end(getThreadLocalResponse());
   }
 
   /*
@@ -232,6 +298,22 @@ public Customer getCustomerById(int id) throws IllegalArgumentException {
     return this.cMapper.findByKey(id);
   }
 
+  /**
+   * Auslesen mehrerer Kunden anhand ihrer Kundennummern. Die Kunden werden
+   * blockweise gelesen, statt für jede Kundennummer eine eigene Anfrage an die
+   * Datenbank zu schicken.
+   */
+  @Override
+public HashMap<Integer, Customer> getCustomersByIds(int[] ids)
+      throws IllegalArgumentException {
+    HashMap<Integer, Customer> result = this.cMapper.findByKeys(ids);
+    if (result == null) {
+      throw new IllegalArgumentException(
+          "Die Kunden konnten nicht ausgelesen werden.");
+    }
+    return result;
+  }
+
   /**
    * Auslesen aller Kunden.
    */
@@ -241,7 +323,36 @@ public Vector<Customer> getAllCustomers() throws IllegalArgumentException {
   }
 
   /**
-   * Speichern eines Kunden.
+   * Schrittweises Verarbeiten sämtlicher Kunden, ohne diese zuvor gesammelt in
+   * den Speicher zu laden. Diese Methode ist nur Server-seitig verfügbar, etwa
+   * für Reports oder Exporte.
+   * 
+   * @param handler erhält nacheinander jeden Kunden
+   * @return die Anzahl der verarbeiteten Kunden
+   * @see CustomerStorage#forEach(ObjectHandler)
+   */
+  public int forEachCustomer(ObjectHandler<Customer> handler) {
+    return this.cMapper.forEach(handler);
+  }
+
+  /**
+   * Seitenweises Auslesen der Kunden.
+   * 
+   * @see CustomerStorage#findPage(int, int)
+   */
+  @Override
+public Vector<Customer> getCustomersPage(int afterId, int limit)
+      throws IllegalArgumentException {
+    return this.cMapper.findPage(afterId, pageSize(limit));
+  }
+
+  /**
+   * Speichern eines Kunden. Die Änderung wird nur übernommen, wenn der Kunde
+   * seit dem Auslesen nicht von anderer Seite geändert wurde. Die Version des
+   * Kunden steigt dabei um 1.
+   * 
+   * @throws StaleObjectException wenn der Kunde inzwischen geändert oder
+   *           gelöscht wurde. Der Client sollte ihn dann neu auslesen.
    */
   @Override
 public void save(Customer c) throws IllegalArgumentException {
@@ -254,11 +365,19 @@ public void save(Customer c) throws IllegalArgumentException {
    * bieten, sondern deren Status z.B von "aktiv" in "ehemalig" ändern. Wir
    * wollen hier aber dennoch zu Demonstrationszwecken eine Löschfunktion
    * vorstellen.
+   * <p>
+   * Gelöscht werden die Buchungen, Konten und der Kunde selbst mit einer
+   * festen Anzahl von Anweisungen in einer einzigen Datenbanktransaktion.
+   * Schlägt ein Schritt fehl, so bleiben alle Daten unverändert.
+   * 
+   * @throws IllegalArgumentException wenn der Kunde nicht gelöscht werden
+   *           konnte
    */
   @Override
 public void delete(Customer c) throws IllegalArgumentException {
     /*
-     * Zunächst werden sämtl. Konten des Kunden aus der DB entfernt.
+     * Zunächst werden sämtl. Buchungen und Konten des Kunden aus der DB
+     * entfernt.
      * 
      * Beachten Sie, dass wir dies auf Ebene der Applikationslogik, konkret: in
      * der Klasse BankVerwaltungImpl, durchführen. Grund: In der Klasse
@@ -272,17 +391,41 @@ public void delete(Customer c) throws IllegalArgumentException {
      * durch einen zu niedrigen Abstraktionsgrad und der Verortung von Aufgaben
      * an einer Stelle (Datenbankschicht), die die zuvor genannte Verflechtung
      * nicht umfänglich kennen kann.
+     * 
+     * Die Mapper bieten hierfür mengenorientierte Methoden, die sämtliche
+     * Buchungen bzw. Konten des Kunden mit je einer Anweisung entfernen. Die
+     * umgebende Transaktion stellt sicher, dass der Vorgang ganz oder gar
+     * nicht ausgeführt wird.
      */
-    Vector<Account> accounts = this.getAccountsOf(c);
+    try {
+      this.storage.beginTransaction();
+      try {
+        int transactions = this.tMapper.deleteTransactionsOf(c);
+        int accounts = transactions < 0 ? -1 : this.aMapper
+            .deleteAccountsOf(c);
+
+        // Anschließend den Kunden entfernen
+        int customers = accounts < 0 ? -1 : this.cMapper.delete(c);
 
-    if (accounts != null) {
-      for (Account a : accounts) {
-        this.delete(a);
+        if (customers < 0) {
+          throw new SQLException("Kunde " + c.getId()
+              + " konnte nicht gelöscht werden.");
+        }
+
+        this.storage.commitTransaction();
+
+        ServersideSettings.getLogger().info(
+            "Kunde " + c.getId() + " gelöscht: " + customers + " Kunde, "
+                + accounts + " Konten, " + transactions + " Buchungen.");
+      }
+      finally {
+        this.storage.rollbackTransaction();
       }
     }
-
-    // Anschließend den Kunden entfernen
-    this.cMapper.delete(c);
+    catch (SQLException e) {
+      e.printStackTrace();
+      throw new IllegalArgumentException(e.getMessage());
+    }
   }
 
   /*
@@ -304,6 +447,65 @@ public Vector<Account> getAllAccounts() throws IllegalArgumentException {
     return this.aMapper.findAll();
   }
 
+  /**
+   * Schrittweises Verarbeiten sämtlicher Konten, ohne diese zuvor gesammelt in
+   * den Speicher zu laden. Diese Methode ist nur Server-seitig verfügbar.
+   * 
+   * @param handler erhält nacheinander jedes Konto
+   * @return die Anzahl der verarbeiteten Konten
+   * @see AccountStorage#forEach(ObjectHandler)
+   */
+  public int forEachAccount(ObjectHandler<Account> handler) {
+    return this.aMapper.forEach(handler);
+  }
+
+  /**
+   * Seitenweises Auslesen der Konten.
+   * 
+   * @see AccountStorage#findPage(int, int)
+   */
+  @Override
+public Vector<Account> getAccountsPage(int afterId, int limit)
+      throws IllegalArgumentException {
+    return this.aMapper.findPage(afterId, pageSize(limit));
+  }
+
+  /**
+   * Seitenweises Auslesen der Kontozusammenfassungen. Konto, Inhaber und
+   * Kontostand werden je Seite gemeinsam ermittelt.
+   * 
+   * @see OverviewStorage#findSummaries(int, int)
+   */
+  @Override
+public Vector<AccountSummary> getAccountSummariesPage(int afterId, int limit)
+      throws IllegalArgumentException {
+    Vector<AccountSummary> result = this.oMapper.findSummaries(afterId,
+        pageSize(limit));
+    if (result == null) {
+      throw new IllegalArgumentException(
+          "Die Kontozusammenfassungen konnten nicht ausgelesen werden.");
+    }
+    return result;
+  }
+
+  /**
+   * Seitenweises Auslesen des Kunden- und Kontenbaums. Kunden, Konten und
+   * Kontostände werden je Seite gemeinsam ermittelt.
+   * 
+   * @see OverviewStorage#findTree(String, int, int)
+   */
+  @Override
+public CustomerTree getCustomerTree(String afterLastName, int afterId,
+      int limit) throws IllegalArgumentException {
+    CustomerTree result = this.oMapper.findTree(afterLastName == null ? ""
+        : afterLastName, afterId, pageSize(limit));
+    if (result == null) {
+      throw new IllegalArgumentException(
+          "Der Kunden- und Kontenbaum konnte nicht ausgelesen werden.");
+    }
+    return result;
+  }
+
   /**
    * Auslesen aller Konten des übergeben Kunden.
    */
@@ -321,35 +523,64 @@ public Account getAccountById(int id) throws IllegalArgumentException {
 	  return aMapper.findByKey(id);
   }
 
+  /**
+   * Auslesen mehrerer Konten anhand ihrer Kontonummern.
+   * 
+   * @see #getCustomersByIds(int[])
+   */
+  @Override
+public HashMap<Integer, Account> getAccountsByIds(int[] ids)
+      throws IllegalArgumentException {
+    HashMap<Integer, Account> result = this.aMapper.findByKeys(ids);
+    if (result == null) {
+      throw new IllegalArgumentException(
+          "Die Konten konnten nicht ausgelesen werden.");
+    }
+    return result;
+  }
+
   /**
    * Löschen des übergebenen Kontos. Beachten Sie bitte auch die Anmerkungen zu
    * {@link #delete(Customer)}. Beim Löschen des Kontos werden sämtliche damit
-   * in Verbindung stehenden Buchungen gelöscht.
+   * in Verbindung stehenden Buchungen gelöscht. Beides erfolgt in einer
+   * gemeinsamen Datenbanktransaktion.
    * 
+   * @throws IllegalArgumentException wenn das Konto nicht gelöscht werden
+   *           konnte
    * @see #delete(Customer)
    */
   @Override
 public void delete(Account a) throws IllegalArgumentException {
-    /*
-     * Zunächst werden sämtl. Buchungen des Kunden aus der DB entfernt.
-     */
-    ArrayList<Transaction> debits = this.getDebitsOf(a);
-    ArrayList<Transaction> credits = this.getCreditsOf(a);
+    try {
+      this.storage.beginTransaction();
+      try {
+        /*
+         * Zunächst werden sämtl. Buchungen des Kontos aus der DB entfernt.
+         */
+        int transactions = this.tMapper.deleteTransactionsOf(a);
 
-    if (debits != null) {
-      for (Transaction t : debits) {
-        this.delete(t);
-      }
-    }
+        // Account aus der DB entfernen
+        int accounts = transactions < 0 ? -1 : this.aMapper.delete(a);
+
+        if (accounts < 0) {
+          throw new SQLException("Konto " + a.getId()
+              + " konnte nicht gelöscht werden.");
+        }
 
-    if (credits != null) {
-      for (Transaction t : credits) {
-        this.delete(t);
+        this.storage.commitTransaction();
+
+        ServersideSettings.getLogger().info(
+            "Konto " + a.getId() + " gelöscht: " + accounts + " Konto, "
+                + transactions + " Buchungen.");
+      }
+      finally {
+        this.storage.rollbackTransaction();
       }
     }
-
-    // Account aus der DB entfernen
-    this.aMapper.delete(a);
+    catch (SQLException e) {
+      e.printStackTrace();
+      throw new IllegalArgumentException(e.getMessage());
+    }
   }
 
   /**
@@ -379,41 +610,184 @@ public Account createAccountFor(Customer c) throws IllegalArgumentException {
 
   /**
    * <p>
-   * Ausgeben des Kontostands des übergebenen Kontos. Dieser wird durch ein
-   * gegeneinander Aufrechnen von Zubuchungen und Abbuchungen auf Basis von
-   * {@link Transaction}-Instanzen bestimmt.
+   * Ausgeben des Kontostands des übergebenen Kontos. Dieser wird bei jeder
+   * Buchung fortgeschrieben und muss daher nur noch ausgelesen werden.
    * </p>
    * 
-   * @param k das Konto, dessen Stand wir berechnen möchten
+   * @param k das Konto, dessen Stand wir auslesen möchten
+   * @see BalanceStorage
    */
   @Override
 public float getBalanceOf(Account k) throws IllegalArgumentException {
-    float creditAmount = 0.0f;
-    float debitAmount = 0.0f;
+    Double balance = this.bMapper.findByAccount(k.getId());
+
+    if (balance != null) {
+      return balance.floatValue();
+    }
 
-    ArrayList<Transaction> credits = this.getCreditsOf(k);
-    ArrayList<Transaction> debits = this.getDebitsOf(k);
+    // Ist der gespeicherte Kontostand nicht lesbar, wird er berechnet.
+    return this.computeBalanceOf(k);
+  }
 
-    if (credits != null) {
-      for (Transaction b : credits) {
-        creditAmount += b.getAmount();
-      }
+  /**
+   * <p>
+   * Ausgeben des Kontostands des übergebenen Kontos nach einer bestimmten
+   * Buchung. Dieser ergibt sich aus dem letzten Zwischenstand vor dieser
+   * Buchung und den seither erfolgten Buchungen des Kontos, so dass nicht die
+   * gesamte Historie des Kontos gelesen werden muss.
+   * </p>
+   * 
+   * @param k das Konto, dessen Stand wir auslesen möchten
+   * @param asOfTransactionID Nummer der letzten zu berücksichtigenden Buchung
+   * @see BalanceStorage#findByAccountAsOf(int, int)
+   */
+  @Override
+public float getBalanceOf(Account k, int asOfTransactionID)
+      throws IllegalArgumentException {
+    Double balance = this.bMapper.findByAccountAsOf(k.getId(),
+        asOfTransactionID);
+
+    if (balance == null) {
+      throw new IllegalArgumentException("Der Kontostand von Konto "
+          + k.getId() + " nach Buchung " + asOfTransactionID
+          + " konnte nicht ermittelt werden.");
     }
+    return balance.floatValue();
+  }
 
-    if (debits != null) {
-      for (Transaction b : debits) {
-        debitAmount += b.getAmount();
-      }
+  /**
+   * Prüfen der gespeicherten Kontostände aller Konten gegen ihre Buchungen.
+   * Abweichungen werden im Log vermerkt. Diese Methode ist nur Server-seitig
+   * verfügbar.
+   * 
+   * @return die Anzahl der Konten mit abweichendem Kontostand oder -1, wenn
+   *         die Prüfung fehlgeschlagen ist
+   * @see BalanceStorage#verify()
+   */
+  public int verifyBalances() {
+    return this.bMapper.verify();
+  }
+
+  /**
+   * Neuberechnen der gespeicherten Kontostände aller Konten aus ihren
+   * Buchungen. Diese Methode ist nur Server-seitig verfügbar.
+   * 
+   * @return <code>true</code>, wenn die Neuberechnung erfolgreich war
+   * @see BalanceStorage#rebuild()
+   */
+  public boolean rebuildBalances() {
+    return this.bMapper.rebuild();
+  }
+
+  /**
+   * Berechnen des Kontostands des übergebenen Kontos durch ein gegeneinander
+   * Aufrechnen von Zubuchungen und Abbuchungen. Die Summen werden dabei von
+   * der Datenbank gebildet, ohne die einzelnen Buchungen zu übertragen.
+   * 
+   * @param k das Konto, dessen Stand wir berechnen möchten
+   * @see TransactionStorage#netBalances(int[])
+   */
+  private float computeBalanceOf(Account k) throws IllegalArgumentException {
+    HashMap<Integer, Double> balances = this.tMapper.netBalances(new int[] { k
+        .getId() });
+
+    if (balances == null) {
+      throw new IllegalArgumentException("Der Kontostand von Konto "
+          + k.getId() + " konnte nicht ermittelt werden.");
     }
 
-    return creditAmount - debitAmount;
+    return balances.get(Integer.valueOf(k.getId())).floatValue();
+  }
+
+  /**
+   * Auslesen der Kontostände mehrerer Konten in einer einzigen Anfrage an die
+   * Datenbank, etwa für Reports. Diese Methode ist nur Server-seitig
+   * verfügbar.
+   * 
+   * @param accounts die Konten, deren Stand wir auslesen möchten
+   * @return die Kontostände je Kontonummer
+   * @throws IllegalArgumentException wenn die Kontostände nicht ermittelt
+   *           werden konnten
+   * @see BalanceStorage#findByAccounts(int[])
+   */
+  public HashMap<Integer, Float> getBalancesOf(Vector<Account> accounts)
+      throws IllegalArgumentException {
+    int[] ids = new int[accounts.size()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = accounts.get(i).getId();
+    }
+
+    AccountBalances balances = this.computeBalancesOf(ids);
+
+    HashMap<Integer, Float> result = new HashMap<Integer, Float>();
+    for (int i = 0; i < balances.size(); i++) {
+      result.put(Integer.valueOf(balances.getAccountID(i)),
+          Float.valueOf(balances.getBalance(i)));
+    }
+
+    return result;
+  }
+
+  /**
+   * Auslesen der Kontostände mehrerer Konten. Sie werden mit einer einzigen,
+   * mengenorientierten Anfrage aus den fortgeschriebenen Kontoständen
+   * gelesen; bei sehr vielen Konten blockweise. Die Anzahl der Konten ist auf
+   * {@link #MAX_PAGE_SIZE} begrenzt.
+   * 
+   * @see BalanceStorage#findByAccounts(int[])
+   */
+  @Override
+public AccountBalances getBalancesOf(int[] accountIDs)
+      throws IllegalArgumentException {
+    if (accountIDs == null) {
+      return new AccountBalances();
+    }
+    if (accountIDs.length > MAX_PAGE_SIZE) {
+      throw new IllegalArgumentException("Es können höchstens "
+          + MAX_PAGE_SIZE + " Kontostände auf einmal ausgelesen werden.");
+    }
+
+    return this.computeBalancesOf(accountIDs);
+  }
+
+  /**
+   * Auslesen der fortgeschriebenen Kontostände mehrerer Konten in einer
+   * Anfrage an den Speicher, ohne die Buchungen der Konten zu summieren.
+   * 
+   * @param accountIDs die Kontonummern
+   * @return die Kontostände, nach Kontonummer sortiert
+   * @throws IllegalArgumentException wenn die Kontostände nicht ermittelt
+   *           werden konnten
+   */
+  private AccountBalances computeBalancesOf(int[] accountIDs)
+      throws IllegalArgumentException {
+    HashMap<Integer, Double> balances = this.bMapper.findByAccounts(accountIDs);
+
+    if (balances == null) {
+      throw new IllegalArgumentException(
+          "Die Kontostände konnten nicht ermittelt werden.");
+    }
+
+    // Doppelte Kontonummern sind in der Map bereits zusammengefasst
+    int[] ids = new int[balances.size()];
+    int i = 0;
+    for (Integer id : balances.keySet()) {
+      ids[i++] = id.intValue();
+    }
+    Arrays.sort(ids);
+
+    float[] values = new float[ids.length];
+    for (i = 0; i < ids.length; i++) {
+      values[i] = balances.get(Integer.valueOf(ids[i])).floatValue();
+    }
+
+    return new AccountBalances(ids, values);
   }
 
   /**
    * <p>
    * Auslesen sämtlicher mit diesem Konto in Verbindung stehenden
-   * Soll-Buchungen. Diese Methode wird in {@link #getBalanceOf(Account)}
-   * verwendet.
+   * Soll-Buchungen.
    * </p>
    * 
    * @param k das Konto, dessen Soll-Buchungen wir bekommen wollen.
@@ -439,8 +813,7 @@ public ArrayList<Transaction> getDebitsOf(Account k)
   /**
    * <p>
    * Auslesen sämtlicher mit diesem Konto in Verbindung stehenden
-   * Haben-Buchungen. Diese Methode wird in {@link #getBalanceOf(Account)}
-   * verwendet.
+   * Haben-Buchungen.
    * </p>
    * 
    * @param k das Konto, dessen Haben-Buchungen wir bekommen wollen.
@@ -464,13 +837,48 @@ public ArrayList<Transaction> getCreditsOf(Account k)
   }
 
   /**
-   * Speichern eines Kontos.
+   * Speichern eines Kontos. Wie bei {@link #save(Customer)} wird die Änderung
+   * nur bei unveränderter Version übernommen.
+   * 
+   * @throws StaleObjectException wenn das Konto inzwischen geändert oder
+   *           gelöscht wurde
    */
   @Override
 public void save(Account a) throws IllegalArgumentException {
     aMapper.update(a);
   }
 
+  /**
+   * Übertragen eines Kontos auf einen anderen Inhaber, etwa im Rahmen eines
+   * Batch-Jobs. Da hier kein Benutzer auf Basis eines älteren Stands
+   * entschieden hat, wird das Konto bei einer gleichzeitigen Änderung neu
+   * gelesen und die Übertragung wiederholt. Diese Methode ist nur
+   * Server-seitig verfügbar.
+   * 
+   * @param accountID Kontonummer
+   * @param ownerID Kundennummer des neuen Inhabers
+   * @return das geänderte Konto
+   * @throws IllegalArgumentException wenn das Konto nicht existiert
+   * @throws StaleObjectException wenn auch der letzte Versuch an einer
+   *           gleichzeitigen Änderung gescheitert ist
+   * @see OptimisticRetry
+   */
+  public Account changeOwner(final int accountID, final int ownerID)
+      throws IllegalArgumentException {
+    return new OptimisticRetry<Account>() {
+      @Override
+      protected Account attempt() throws StaleObjectException {
+        Account a = aMapper.findByKey(accountID);
+        if (a == null) {
+          throw new IllegalArgumentException("Konto " + accountID
+              + " existiert nicht.");
+        }
+        a.setOwnerID(ownerID);
+        return aMapper.update(a);
+      }
+    }.run();
+  }
+
   /*
    * ***************************************************************************
    * ABSCHNITT, Ende: Methoden für Account-Objekte
@@ -483,41 +891,100 @@ public void save(Account a) throws IllegalArgumentException {
    * ***************************************************************************
    */
   /**
-   * Erstellen einer neuen Buchung.
+   * Erstellen einer neuen Buchung. Ist das Quellkonto nicht das Kassenkonto,
+   * muss sein Kontostand den Betrag decken. Prüfung und Buchung erfolgen
+   * atomar, ohne Buchungen anderer Konten aufzuhalten.
    * 
    * @param source das Quellkonto
    * @param target das Zielkonto
    * @param value der Geldwert dieser Buchung
+   * @return die gespeicherte Buchung. Im Write-Behind-Betrieb (siehe
+   *         {@link WriteBehindQueue}) ist sie lediglich eingestellt und hat
+   *         noch den Primärschlüssel 0.
+   * @throws IllegalArgumentException wenn der Betrag ungültig oder nicht
+   *           gedeckt ist oder die Buchung nicht gespeichert werden konnte
+   * @see TransferEngine
    */
   @Override
 public Transaction createTransactionFor(Account source, Account target,
       float value) throws IllegalArgumentException {
+    return this.post(source, target, value, null);
+  }
 
-    /*
-     * Wir legen eine neue, leere Buchung an.
-     */
-    Transaction t = new Transaction();
+  /**
+   * Ausführen einer Buchung über die TransferEngine.
+   * 
+   * @param balancesAfter erhält die Kontostände von Quell- und Zielkonto
+   *          (ohne das Kassenkonto) nach der Buchung, oder <code>null</code>
+   * @see TransferEngine#transfer(int, int, float, java.util.Map)
+   */
+  private Transaction post(Account source, Account target, float value,
+      HashMap<Integer, Double> balancesAfter) throws IllegalArgumentException {
+    if (source == null || target == null) {
+      throw new IllegalArgumentException(
+          "Eine Buchung benötigt ein Quell- und ein Zielkonto.");
+    }
 
     /*
-     * Setzen einer vorläufigen Kontonr. Der insert-Aufruf liefert dann ein
-     * Objekt, dessen Nummer mit der Datenbank konsistent ist.
+     * Die TransferEngine sperrt Quell- und Zielkonto, prüft die Deckung und
+     * speichert die Buchung bzw. stellt sie im Write-Behind-Betrieb ein.
      */
-    t.setId(1);
+    return this.transfers.transfer(source.getId(), target.getId(), value,
+        balancesAfter);
+  }
 
-    /*
-     * Setzen des Quell- und des Zielkontos.
-     */
-    t.setSourceAccountID(source.getId());
-    t.setTargetAccountID(target.getId());
+  /**
+   * Warten, bis sämtliche bisher verzögert eingestellten Buchungen gespeichert
+   * sind. Werden Buchungen sofort gespeichert, kehrt die Methode sofort
+   * zurück. Diese Methode ist nur Server-seitig verfügbar.
+   * 
+   * @param timeout höchste Wartezeit in ms
+   * @return <code>true</code>, wenn alle Buchungen gespeichert sind
+   * @see WriteBehindQueue#flush(long)
+   */
+  public boolean flushTransactions(long timeout) {
+    return this.writeBehind == null || this.writeBehind.flush(timeout);
+  }
 
-    /*
-     * Setzen des Geldwerts, der von Quellkonto zum Zielkontos z.B als Folge
-     * einer Überweisung gebucht werden soll.
-     */
-    t.setAmount(value);
+  /**
+   * Anlegen einer Reihe von Buchungen in einem Schritt. Die TransferEngine
+   * sperrt die Konten aller Buchungen, prüft deren Deckung und speichert die
+   * Buchungen als Batch in einer gemeinsamen Transaktion.
+   * 
+   * @see TransferEngine#transferAll(java.util.List)
+   */
+  @Override
+public int[] createTransactions(Vector<Transaction> transactions)
+      throws IllegalArgumentException {
+    if (transactions == null || transactions.isEmpty()) {
+      return new int[0];
+    }
 
-    // Objekt in der DB speichern.
-    return this.tMapper.insert(t);
+    return this.transfers.transferAll(transactions);
+  }
+
+  /**
+   * Schrittweises Verarbeiten sämtlicher Buchungen, ohne diese zuvor gesammelt
+   * in den Speicher zu laden. Diese Methode ist nur Server-seitig verfügbar.
+   * 
+   * @param handler erhält nacheinander jede Buchung
+   * @return die Anzahl der verarbeiteten Buchungen
+   * @see TransactionStorage#forEach(ObjectHandler)
+   */
+  public int forEachTransaction(ObjectHandler<Transaction> handler) {
+    return this.tMapper.forEach(handler);
+  }
+
+  /**
+   * Seitenweises Auslesen der Buchungen.
+   * 
+   * @see TransactionStorage#findPage(int, int)
+   */
+  @Override
+public ArrayList<Transaction> getTransactionsPage(int afterId, int limit)
+      throws IllegalArgumentException {
+    return new ArrayList<Transaction>(this.tMapper.findPage(afterId,
+        pageSize(limit)));
   }
 
   /**
@@ -540,13 +1007,14 @@ public void delete(Transaction t) throws IllegalArgumentException {
   private Account getCashAccount() {
     Account account = aMapper.findByKey(DEFAULT_CASH_ACCOUNT_ID);
     /* wenn das Kassenkonto nicht gefunden wird, erzeugen wir es mit der entsprechenden
-     * Kontonummer und dem Wert 0 als ownerID.
+     * Kontonummer und dem Wert 0 als ownerID. Gespeichert wird es nicht: save()
+     * ändert nur vorhandene Konten und würde hier einen Konflikt melden, und
+     * Buchungen benötigen lediglich die Kontonummer.
      */
     if (account == null) {
     	account = new Account();
     	account.setId(DEFAULT_CASH_ACCOUNT_ID);
     	account.setOwnerID(0);
-    	save(account);
     	}
     return account;
   }
@@ -567,9 +1035,12 @@ public void delete(Transaction t) throws IllegalArgumentException {
    * @param amount der Betrag, der abgehoben werden soll.
    * @return Ein <code>Transaction</code>-Objekt, das den resultierenden
    *         Buchungssatz darstellt.
+   * @throws IllegalArgumentException wenn der Kontostand den Betrag nicht
+   *           deckt
    */
   @Override
-public Transaction createWithdrawal(Account customerAccount, float amount) {
+public Transaction createWithdrawal(Account customerAccount, float amount)
+      throws IllegalArgumentException {
     Account cashAccount = this.getCashAccount();
     if (cashAccount != null) {
       Transaction trans = this.createTransactionFor(customerAccount,
@@ -599,7 +1070,8 @@ public Transaction createWithdrawal(Account customerAccount, float amount) {
    *         Buchungssatz darstellt.
    */
   @Override
-public Transaction createDeposit(Account customerAccount, float amount) {
+public Transaction createDeposit(Account customerAccount, float amount)
+      throws IllegalArgumentException {
     Account cashAccount = this.getCashAccount();
     if (cashAccount != null) {
       Transaction trans = this.createTransactionFor(cashAccount,
@@ -611,6 +1083,134 @@ public Transaction createDeposit(Account customerAccount, float amount) {
     }
   }
 
+  /**
+   * Erstellen einer neuen Buchung samt dem neuen Stand der betroffenen Konten.
+   * 
+   * @see #createTransactionFor(Account, Account, float)
+   * @see #resultOf(Transaction, HashMap)
+   */
+  @Override
+public TransactionResult createTransactionWithResult(Account source,
+      Account target, float value) throws IllegalArgumentException {
+    HashMap<Integer, Double> balances = new HashMap<Integer, Double>();
+    return this.resultOf(this.post(source, target, value, balances),
+        balances);
+  }
+
+  /**
+   * Barabhebung samt dem neuen Stand des Kundenkontos.
+   * 
+   * @see #createWithdrawal(Account, float)
+   * @see #resultOf(Transaction, HashMap)
+   */
+  @Override
+public TransactionResult createWithdrawalWithResult(Account customerAccount,
+      float amount) throws IllegalArgumentException {
+    Account cashAccount = this.getCashAccount();
+    if (cashAccount == null) {
+      return null;
+    }
+
+    HashMap<Integer, Double> balances = new HashMap<Integer, Double>();
+    return this.resultOf(this.post(customerAccount, cashAccount, amount,
+        balances), balances);
+  }
+
+  /**
+   * Bareinzahlung samt dem neuen Stand des Kundenkontos.
+   * 
+   * @see #createDeposit(Account, float)
+   * @see #resultOf(Transaction, HashMap)
+   */
+  @Override
+public TransactionResult createDepositWithResult(Account customerAccount,
+      float amount) throws IllegalArgumentException {
+    Account cashAccount = this.getCashAccount();
+    if (cashAccount == null) {
+      return null;
+    }
+
+    HashMap<Integer, Double> balances = new HashMap<Integer, Double>();
+    return this.resultOf(this.post(cashAccount, customerAccount, amount,
+        balances), balances);
+  }
+
+  /**
+   * Zusammenstellen des Ergebnisses einer Buchung. Quell- und Zielkonto
+   * (ohne das Kassenkonto) und ihre Inhaber werden mit je einem Zugriff
+   * gelesen. Die Kontostände hat die TransferEngine bereits innerhalb der
+   * Transaktion der Buchung ermittelt; ein späteres Lesen könnte
+   * zwischenzeitliche Buchungen anderer Anfragen enthalten. Im
+   * Write-Behind-Betrieb ist das Ergebnis vorläufig: die Buchung hat noch den
+   * Primärschlüssel 0 und die Kontostände gelten unter der Voraussetzung,
+   * dass sie gespeichert wird.
+   * 
+   * @param t die gespeicherte Buchung
+   * @param balancesAfter die Kontostände nach der Buchung je Kontonummer
+   * @return das Ergebnis oder <code>null</code>, wenn keine Buchung
+   *         übergeben wurde
+   * @throws IllegalArgumentException wenn Konten oder Inhaber nicht gelesen
+   *           werden konnten
+   */
+  private TransactionResult resultOf(Transaction t,
+      HashMap<Integer, Double> balancesAfter) throws IllegalArgumentException {
+    if (t == null) {
+      return null;
+    }
+
+    Vector<Integer> ids = new Vector<Integer>();
+    for (int id : new int[] { t.getSourceAccountID(), t.getTargetAccountID() }) {
+      if (id != DEFAULT_CASH_ACCOUNT_ID) {
+        ids.add(Integer.valueOf(id));
+      }
+    }
+
+    int[] accountIDs = new int[ids.size()];
+    for (int i = 0; i < accountIDs.length; i++) {
+      accountIDs[i] = ids.get(i).intValue();
+    }
+    HashMap<Integer, Account> accounts = this.aMapper.findByKeys(accountIDs);
+    if (accounts == null) {
+      throw new IllegalArgumentException("Die Konten der Buchung konnten "
+          + "nicht ausgelesen werden.");
+    }
+
+    Vector<Account> affected = new Vector<Account>();
+    for (Integer id : ids) {
+      Account a = accounts.get(id);
+      if (a != null) {
+        affected.add(a);
+      }
+    }
+
+    int[] ownerIDs = new int[affected.size()];
+    for (int i = 0; i < ownerIDs.length; i++) {
+      ownerIDs[i] = affected.get(i).getOwnerID();
+    }
+    HashMap<Integer, Customer> owners = this.cMapper.findByKeys(ownerIDs);
+    if (owners == null) {
+      throw new IllegalArgumentException("Die Inhaber der Konten konnten "
+          + "nicht ausgelesen werden.");
+    }
+
+    // Wie bei computeBalancesOf(int[]) nach Kontonummer sortiert
+    int[] balanceIDs = new int[balancesAfter.size()];
+    int i = 0;
+    for (Integer id : balancesAfter.keySet()) {
+      balanceIDs[i++] = id.intValue();
+    }
+    Arrays.sort(balanceIDs);
+
+    float[] values = new float[balanceIDs.length];
+    for (i = 0; i < balanceIDs.length; i++) {
+      values[i] = balancesAfter.get(Integer.valueOf(balanceIDs[i]))
+          .floatValue();
+    }
+
+    return new TransactionResult(t, affected, new Vector<Customer>(
+        owners.values()), new AccountBalances(balanceIDs, values));
+  }
+
   /*
    * ***************************************************************************
    * ABSCHNITT, Ende: Methoden für Transaction-Objekte
@@ -637,6 +1237,52 @@ public Bank getBank() throws IllegalArgumentException {
 public void setBank(Bank b) throws IllegalArgumentException {
     this.bank = b;
   }
+
+  /**
+   * Auslesen der Kennzahlen des Speicher-Backends, etwa für die Überwachung im
+   * Betrieb. Bei der Datenbank sind dies die Kennzahlen der Caches für Kunden
+   * und Konten. Diese Methode ist nur Server-seitig verfügbar.
+   * 
+   * @return Kennzahlen des Backends
+   * @see Storage#getStatistics()
+   */
+  public String getCacheStatistics() {
+    return this.storage.getStatistics();
+  }
+
+  /**
+   * Auslesen der Kennzahlen der Warteschlange für verzögert gespeicherte
+   * Buchungen, also Tiefe, Durchsatz und Blockgrößen. Diese Methode ist nur
+   * Server-seitig verfügbar.
+   * 
+   * @return die Warteschlange oder <code>null</code>, wenn Buchungen sofort
+   *         gespeichert werden
+   * @see WriteBehindQueue
+   */
+  public WriteBehindQueue getWriteBehindQueue() {
+    return this.writeBehind;
+  }
+
+  /**
+   * Auslesen der Komponente, die Buchungen ausführt, etwa für deren
+   * Kennzahlen. Diese Methode ist nur Server-seitig verfügbar.
+   * 
+   * @return die <code>TransferEngine</code>
+   */
+  public TransferEngine getTransferEngine() {
+    return this.transfers;
+  }
+
+  /**
+   * Begrenzen der von einem Client gewünschten Seitengröße auf den Bereich von
+   * 1 bis {@link #MAX_PAGE_SIZE}.
+   * 
+   * @param limit die gewünschte Seitengröße
+   * @return die tatsächlich verwendete Seitengröße
+   */
+  private static int pageSize(int limit) {
+    return Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+  }
   /*
    * ***************************************************************************
    * ABSCHNITT, Ende: Verschiedenes
@@ -0,0 +1,100 @@
+package de.hdm.thies.bankProjekt.server;
+
+import java.util.Random;
+
+import de.hdm.thies.bankProjekt.shared.StaleObjectException;
+
+/**
+ * <p>
+ * Wiederholen einer Server-seitigen Änderung, die an einer gleichzeitigen
+ * Änderung desselben Objekts gescheitert ist (siehe
+ * {@link StaleObjectException}). Eine Subklasse implementiert in
+ * {@link #attempt()} einen vollständigen Versuch: aktuellen Stand auslesen,
+ * ändern und speichern. Da jeder Versuch den Stand neu liest, gelingt ein
+ * späterer Versuch in aller Regel. Im Normalfall ohne Konflikt wird
+ * {@link #attempt()} genau einmal ausgeführt, ohne dass eine Sperre nötig ist.
+ * </p>
+ * <p>
+ * Zwischen zwei Versuchen wird eine zufällige, mit jedem Versuch verdoppelte
+ * Zeit gewartet, damit konkurrierende Threads nicht erneut gleichzeitig
+ * schreiben. Die Anzahl der Versuche ist begrenzt; voreingestellt ist
+ * <code>bankprojekt.retry.maxAttempts</code> (Standard: 3).
+ * </p>
+ * <p>
+ * Änderungen, die ein Benutzer auf Basis eines veralteten Stands vorgenommen
+ * hat, werden dagegen nicht wiederholt. Die Ausnahme wird dann an den Client
+ * weitergereicht (siehe {@link BankAdministrationImpl#save(Customer)}).
+ * </p>
+ *
+ * @param <T> Typ des Ergebnisses eines Versuchs
+ * @see BankAdministrationImpl#changeOwner(int, int)
+ */
+public abstract class OptimisticRetry<T> {
+
+  /**
+   * Wartezeit vor dem zweiten Versuch in ms, sie verdoppelt sich mit jedem
+   * weiteren Versuch.
+   */
+  private static final long BASE_BACKOFF = 2;
+
+  private static final Random random = new Random();
+
+  private final int maxAttempts;
+
+  /**
+   * Anlegen mit der konfigurierten Höchstanzahl an Versuchen.
+   */
+  public OptimisticRetry() {
+    this(ServersideSettings.getIntProperty("bankprojekt.retry.maxAttempts", 3));
+  }
+
+  /**
+   * Anlegen mit einer bestimmten Höchstanzahl an Versuchen.
+   *
+   * @param maxAttempts Höchstanzahl der Versuche, mindestens 1
+   */
+  public OptimisticRetry(int maxAttempts) {
+    this.maxAttempts = Math.max(1, maxAttempts);
+  }
+
+  /**
+   * Ein vollständiger Versuch der Änderung.
+   *
+   * @return das Ergebnis des Versuchs
+   * @throws StaleObjectException wenn das Objekt zwischen Auslesen und
+   *           Speichern geändert wurde
+   */
+  protected abstract T attempt() throws StaleObjectException;
+
+  /**
+   * Ausführen der Änderung mit höchstens <code>maxAttempts</code> Versuchen.
+   *
+   * @return das Ergebnis des erfolgreichen Versuchs
+   * @throws StaleObjectException wenn auch der letzte Versuch gescheitert ist
+   */
+  public T run() throws StaleObjectException {
+    for (int i = 1;; i++) {
+      try {
+        return attempt();
+      }
+      catch (StaleObjectException e) {
+        if (i >= maxAttempts) {
+          ServersideSettings.getLogger().warning(
+              "Änderung nach " + i + " Versuchen aufgegeben: "
+                  + e.getMessage());
+          throw e;
+        }
+      }
+
+      try {
+        long backoff = BASE_BACKOFF << (i - 1);
+        Thread.sleep(1 + (long) (random.nextDouble() * backoff));
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new StaleObjectException(
+            "Die Wiederholung der Änderung wurde unterbrochen.");
+      }
+    }
+  }
+}
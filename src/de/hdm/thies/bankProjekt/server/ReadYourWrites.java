@@ -0,0 +1,85 @@
+package de.hdm.thies.bankProjekt.server;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import de.hdm.thies.bankProjekt.server.db.DBConnection;
+
+/**
+ * <p>
+ * Weitergabe des Zeitpunkts des letzten Schreibzugriffs eines Clients von
+ * Anfrage zu Anfrage. Sind lesende Replikate konfiguriert (siehe
+ * {@link DBConnection}), so liest ein Client nach einer Änderung für ein
+ * kurzes Zeitfenster von der primären Datenbank und sieht damit seine eigenen
+ * Änderungen. Da aufeinander folgende Anfragen desselben Clients von
+ * verschiedenen Threads oder gar Server-Instanzen bearbeitet werden, wird der
+ * Zeitpunkt in einem kurzlebigen Cookie abgelegt.
+ * </p>
+ * <p>
+ * Die RPC-Servlets rufen {@link #begin(HttpServletRequest)} vor und
+ * {@link #end(HttpServletResponse)} nach der Bearbeitung jeder Anfrage auf.
+ * </p>
+ *
+ * @see DBConnection#readConnection()
+ */
+public class ReadYourWrites {
+
+  /**
+   * Name des Cookies mit dem Zeitpunkt des letzten Schreibzugriffs in ms.
+   */
+  private static final String COOKIE_NAME = "bankprojekt_lastWrite";
+
+  /**
+   * Geschützter Konstruktor - die Klasse bietet nur statische Methoden.
+   */
+  protected ReadYourWrites() {
+  }
+
+  /**
+   * Übernehmen des Zeitpunkts des letzten Schreibzugriffs aus dem Cookie der
+   * Anfrage in den aktuellen Thread.
+   *
+   * @param request die Anfrage, darf <code>null</code> sein
+   */
+  public static void begin(HttpServletRequest request) {
+    long lastWrite = 0;
+
+    Cookie[] cookies = request == null ? null : request.getCookies();
+    if (cookies != null) {
+      for (Cookie c : cookies) {
+        if (COOKIE_NAME.equals(c.getName())) {
+          try {
+            lastWrite = Long.parseLong(c.getValue());
+          }
+          catch (NumberFormatException e) {
+            // Ungültiger Wert, die Anfrage darf von Replikaten lesen.
+          }
+        }
+      }
+    }
+
+    DBConnection.beginRequest(lastWrite);
+  }
+
+  /**
+   * Ablegen des Zeitpunkts des letzten Schreibzugriffs in einem Cookie der
+   * Antwort, sofern dieser noch innerhalb des Zeitfensters für
+   * <em>read-your-writes</em> liegt.
+   *
+   * @param response die Antwort, darf <code>null</code> sein
+   */
+  public static void end(HttpServletResponse response) {
+    long lastWrite = DBConnection.endRequest();
+
+    if (lastWrite == 0 || response == null) {
+      return;
+    }
+
+    Cookie c = new Cookie(COOKIE_NAME, String.valueOf(lastWrite));
+    c.setPath("/");
+    // Auf ganze Sekunden aufrunden, um das Zeitfenster vollständig abzudecken
+    c.setMaxAge((int) ((DBConnection.getReadYourWritesWindow() + 999) / 1000));
+    response.addCookie(c);
+  }
+}
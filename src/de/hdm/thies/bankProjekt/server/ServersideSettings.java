@@ -76,4 +76,76 @@ public class ServersideSettings extends CommonSettings {
     return log;
   }
 
+  /**
+   * <p>
+   * Auslesen einer Konfigurationseinstellung. Die Werte werden als System
+   * Properties hinterlegt, die sich z.B. in der Datei
+   * <code>war/WEB-INF/appengine-web.xml</code> im Abschnitt
+   * <code>&lt;system-properties&gt;</code> setzen lassen. Auf diese Weise
+   * können Einstellungen verändert werden, ohne die Software neu kompilieren
+   * zu müssen.
+   * </p>
+   * 
+   * @param name Name der Einstellung, z.B. <code>bankprojekt.db.pool.maxSize</code>
+   * @param defaultValue Wert, der verwendet wird, falls die Einstellung nicht
+   *          gesetzt ist
+   * @return der konfigurierte Wert oder <code>defaultValue</code>
+   */
+  public static String getProperty(String name, String defaultValue) {
+    String value = System.getProperty(name);
+
+    if (value == null || value.trim().length() == 0) {
+      return defaultValue;
+    }
+
+    return value.trim();
+  }
+
+  /**
+   * Auslesen einer ganzzahligen Konfigurationseinstellung. Ist der Wert nicht
+   * gesetzt oder keine gültige Zahl, wird <code>defaultValue</code> verwendet.
+   * 
+   * @see #getProperty(String, String)
+   */
+  public static int getIntProperty(String name, int defaultValue) {
+    return (int) getLongProperty(name, defaultValue);
+  }
+
+  /**
+   * Auslesen einer ganzzahligen Konfigurationseinstellung vom Typ
+   * <code>long</code>, etwa für Zeitangaben in Millisekunden.
+   * 
+   * @see #getProperty(String, String)
+   */
+  public static long getLongProperty(String name, long defaultValue) {
+    String value = getProperty(name, null);
+
+    if (value == null) {
+      return defaultValue;
+    }
+
+    try {
+      return Long.parseLong(value);
+    }
+    catch (NumberFormatException e) {
+      log.warning("Ungültiger Wert für " + name + ": " + value);
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Auslesen einer Konfigurationseinstellung vom Typ <code>boolean</code>.
+   * 
+   * @see #getProperty(String, String)
+   */
+  public static boolean getBooleanProperty(String name, boolean defaultValue) {
+    String value = getProperty(name, null);
+
+    if (value == null) {
+      return defaultValue;
+    }
+
+    return Boolean.parseBoolean(value);
+  }
+
 }
@@ -0,0 +1,528 @@
+package de.hdm.thies.bankProjekt.server;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import de.hdm.thies.bankProjekt.server.storage.BalanceStorage;
+import de.hdm.thies.bankProjekt.server.storage.Storage;
+import de.hdm.thies.bankProjekt.server.storage.StorageFactory;
+import de.hdm.thies.bankProjekt.server.storage.TransactionStorage;
+import de.hdm.thies.bankProjekt.server.storage.WriteBehindQueue;
+import de.hdm.thies.bankProjekt.shared.bo.Transaction;
+
+/**
+ * <p>
+ * Atomares Ausführen von Buchungen samt Deckungsprüfung. Zwischen dem Lesen
+ * des Kontostands des Quellkontos und dem Speichern der Buchung darf keine
+ * andere Buchung dieses Kontos erfolgen, da sonst zwei gleichzeitige
+ * Abhebungen beide gedeckt erscheinen. Eine einzige Sperre für alle Buchungen
+ * würde jedoch die gesamte Bank serialisieren.
+ * </p>
+ * <p>
+ * Stattdessen hält die Klasse eine feste Anzahl von Sperren
+ * (<em>Lock Striping</em>). Jedes Konto ist über seine Kontonummer genau einer
+ * Sperre zugeordnet. Eine Buchung sperrt die Sperren von Quell- und Zielkonto
+ * stets in aufsteigender Reihenfolge ihres Index, so dass sich zwei Buchungen
+ * nicht gegenseitig blockieren können (<em>Deadlock</em>). Buchungen zwischen
+ * Konten verschiedener Sperren laufen vollständig parallel. Das Kassenkonto
+ * ist von der Deckungsprüfung ausgenommen und wird daher nicht gesperrt;
+ * andernfalls würden sämtliche Ein- und Auszahlungen nacheinander ausgeführt.
+ * </p>
+ * <p>
+ * Die Sperren gelten nur innerhalb einer Server-Instanz. Deckungsprüfung und
+ * Buchung erfolgen daher zusätzlich in einer gemeinsamen Transaktion des
+ * Speicher-Backends (siehe {@link Storage#beginTransaction()}), in der die
+ * Kontostände der beteiligten Konten mit
+ * {@link BalanceStorage#findByAccountForUpdate(int)} gesperrt werden. Bei der
+ * Datenbank sind dies Zeilensperren (<code>SELECT ... FOR UPDATE</code>), so
+ * dass auch Buchungen anderer Server-Instanzen bis zum Festschreiben warten.
+ * Die Sperren von Server-Instanz und Datenbank werden jeweils in aufsteigender
+ * Reihenfolge gesetzt.
+ * </p>
+ * <p>
+ * Im Write-Behind-Betrieb (siehe {@link WriteBehindQueue}) wird die Buchung nur
+ * eingestellt. Je Sperre wird die laufende Nummer der zuletzt eingestellten
+ * Buchung vermerkt; vor der nächsten Deckungsprüfung eines Kontos dieser
+ * Sperre wird gewartet, bis diese Buchung gespeichert ist. Gewartet wird,
+ * bevor eine Verbindung zur Datenbank belegt ist, damit der Schreib-Thread
+ * der Warteschlange stets eine Verbindung erhält. Da die Buchung erst danach
+ * gespeichert wird, gilt die Deckungsprüfung in diesem Betrieb nur innerhalb
+ * einer Server-Instanz.
+ * </p>
+ * <p>
+ * Konfiguriert wird die Klasse über die System Properties
+ * <code>bankprojekt.transfer.stripes</code> (Anzahl der Sperren, Standard:
+ * 256) und <code>bankprojekt.transfer.timeout</code> (höchste Wartezeit auf
+ * eingestellte Buchungen in ms, Standard: 5000).
+ * </p>
+ *
+ * @see BankAdministrationImpl#createTransactionFor
+ * @author Thies
+ */
+public class TransferEngine {
+
+  /**
+   * Die Klasse TransferEngine wird nur einmal instantiiert. Man spricht
+   * hierbei von einem sogenannten <b>Singleton</b>.
+   *
+   * @see transferEngine()
+   */
+  private static TransferEngine transferEngine = null;
+
+  /**
+   * Toleranz für Rundungsfehler der als <code>float</code> gespeicherten
+   * Beträge bei der Deckungsprüfung.
+   */
+  private static final double EPSILON = 0.005;
+
+  private final Storage storage;
+
+  private final TransactionStorage tMapper;
+
+  private final BalanceStorage bMapper;
+
+  private final WriteBehindQueue writeBehind;
+
+  /**
+   * Kontonummer des Kassenkontos, das weder gesperrt noch geprüft wird.
+   */
+  private final int cashAccountID;
+
+  private final ReentrantLock[] stripes;
+
+  /**
+   * Laufende Nummer der zuletzt eingestellten Buchung je Sperre. Ein Eintrag
+   * wird nur unter der zugehörigen Sperre gelesen und geschrieben.
+   */
+  private final long[] enqueued;
+
+  private final long timeout;
+
+  /*
+   * Kennzahlen für die Überwachung.
+   */
+  private final AtomicLong transfers = new AtomicLong();
+
+  private final AtomicLong rejected = new AtomicLong();
+
+  private final AtomicLong contended = new AtomicLong();
+
+  /**
+   * Anlegen einer Instanz vor dem angegebenen Speicher.
+   *
+   * @param storage der Speicher für Buchungen und Kontostände
+   * @param writeBehind die Warteschlange für verzögert gespeicherte Buchungen
+   *          oder <code>null</code>
+   * @param cashAccountID Kontonummer des Kassenkontos
+   * @param stripeCount Anzahl der Sperren, wird auf die nächste Zweierpotenz
+   *          aufgerundet
+   * @param timeout höchste Wartezeit auf eingestellte Buchungen in ms
+   */
+  public TransferEngine(Storage storage, WriteBehindQueue writeBehind,
+      int cashAccountID, int stripeCount, long timeout) {
+    int size = 1;
+    while (size < stripeCount) {
+      size <<= 1;
+    }
+
+    this.storage = storage;
+    this.tMapper = storage.transactions();
+    this.bMapper = storage.balances();
+    this.writeBehind = writeBehind;
+    this.cashAccountID = cashAccountID;
+    this.stripes = new ReentrantLock[size];
+    for (int i = 0; i < size; i++) {
+      this.stripes[i] = new ReentrantLock();
+    }
+    this.enqueued = new long[size];
+    this.timeout = timeout;
+  }
+
+  /**
+   * Diese statische Methode kann aufgrufen werden durch
+   * <code>TransferEngine.transferEngine()</code>. Sie liefert die Instanz vor
+   * dem {@link StorageFactory#storage() Speicher-Backend} der Applikation.
+   *
+   * @return DAS <code>TransferEngine</code>-Objekt
+   */
+  public static synchronized TransferEngine transferEngine() {
+    if (transferEngine == null) {
+      transferEngine = new TransferEngine(StorageFactory.storage(),
+          WriteBehindQueue.writeBehindQueue(),
+          BankAdministrationImpl.DEFAULT_CASH_ACCOUNT_ID,
+          ServersideSettings.getIntProperty("bankprojekt.transfer.stripes",
+              256), ServersideSettings.getLongProperty(
+              "bankprojekt.transfer.timeout", 5000));
+    }
+
+    return transferEngine;
+  }
+
+  /**
+   * Ausführen einer Buchung. Ist das Quellkonto nicht das Kassenkonto, muss
+   * sein Kontostand den Betrag decken.
+   *
+   * @param sourceID Kontonummer des Quellkontos
+   * @param targetID Kontonummer des Zielkontos
+   * @param amount der zu buchende Betrag, muss positiv sein
+   * @return die gespeicherte Buchung. Im Write-Behind-Betrieb ist sie
+   *         lediglich eingestellt und hat noch den Primärschlüssel 0.
+   * @throws IllegalArgumentException wenn der Betrag ungültig oder nicht
+   *           gedeckt ist oder die Buchung nicht gespeichert werden konnte
+   */
+  public Transaction transfer(int sourceID, int targetID, float amount)
+      throws IllegalArgumentException {
+    return transfer(sourceID, targetID, amount, null);
+  }
+
+  /**
+   * Ausführen einer Buchung wie {@link #transfer(int, int, float)}, wobei
+   * zusätzlich die Kontostände von Quell- und Zielkonto (ohne das
+   * Kassenkonto) nach der Buchung geliefert werden. Sie werden innerhalb der
+   * Transaktion der Buchung unter den Sperren der Konten ermittelt, enthalten
+   * also genau diese Buchung und keine spätere. Im Write-Behind-Betrieb sind
+   * sie vorläufig: der zuletzt gespeicherte Kontostand zuzüglich der noch
+   * nicht gespeicherten Buchung.
+   *
+   * @param balancesAfter erhält die Kontostände nach der Buchung je
+   *          Kontonummer, oder <code>null</code>
+   */
+  public Transaction transfer(int sourceID, int targetID, float amount,
+      Map<Integer, Double> balancesAfter) throws IllegalArgumentException {
+    Transaction t = new Transaction();
+    t.setSourceAccountID(sourceID);
+    t.setTargetAccountID(targetID);
+    t.setAmount(amount);
+    validate(t);
+
+    ArrayList<Transaction> postings = new ArrayList<Transaction>(1);
+    postings.add(t);
+    int[] locked = stripesOf(postings);
+
+    lock(locked);
+    try {
+      TreeMap<Integer, Double> balances = writeBehind != null ? enqueue(t,
+          locked) : store(postings);
+      if (balancesAfter != null) {
+        balancesAfter.putAll(balances);
+      }
+      transfers.incrementAndGet();
+      return t;
+    }
+    finally {
+      unlock(locked);
+    }
+  }
+
+  /**
+   * Speichern einer Reihe von Buchungen in einer gemeinsamen Transaktion,
+   * z.B. für Sammelüberweisungen. Die Konten aller Buchungen werden wie bei
+   * {@link #transfer(int, int, float)} gesperrt und die Buchungen in ihrer
+   * Reihenfolge auf Deckung geprüft. Entweder werden alle Buchungen
+   * gespeichert oder keine.
+   * <p>
+   * Auch im Write-Behind-Betrieb werden die Buchungen sofort gespeichert,
+   * nachdem die zuvor eingestellten Buchungen der beteiligten Konten
+   * verarbeitet sind.
+   * </p>
+   *
+   * @param postings die Buchungen mit Quell- und Zielkonto sowie Betrag
+   * @return die Primärschlüssel der Buchungen in deren Reihenfolge
+   * @throws IllegalArgumentException wenn eine Buchung ungültig oder nicht
+   *           gedeckt ist oder die Buchungen nicht gespeichert werden konnten
+   */
+  public int[] transferAll(List<Transaction> postings)
+      throws IllegalArgumentException {
+    for (Transaction t : postings) {
+      validate(t);
+    }
+    int[] locked = stripesOf(postings);
+
+    lock(locked);
+    try {
+      awaitEnqueued(locked);
+      store(postings);
+      transfers.addAndGet(postings.size());
+    }
+    finally {
+      unlock(locked);
+    }
+
+    int[] ids = new int[postings.size()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = postings.get(i).getId();
+    }
+    return ids;
+  }
+
+  /**
+   * Prüfen der Angaben einer Buchung vor dem Sperren.
+   */
+  private static void validate(Transaction t) throws IllegalArgumentException {
+    if (!(t.getAmount() > 0) || Float.isInfinite(t.getAmount())) {
+      throw new IllegalArgumentException("Der Betrag " + t.getAmount()
+          + " ist ungültig.");
+    }
+    if (t.getSourceAccountID() == t.getTargetAccountID()) {
+      throw new IllegalArgumentException(
+          "Quell- und Zielkonto einer Buchung müssen verschieden sein.");
+    }
+  }
+
+  /**
+   * Speichern von Buchungen samt Deckungsprüfung in einer gemeinsamen
+   * Transaktion des Speicher-Backends. Die Kontostände der beteiligten Konten
+   * (ohne das Kassenkonto) werden dabei in aufsteigender Reihenfolge der
+   * Kontonummer mit {@link BalanceStorage#findByAccountForUpdate(int)}
+   * gesperrt und ausgelesen. Bis zum Festschreiben kann damit auch keine
+   * andere Server-Instanz diese Kontostände ändern.
+   *
+   * @param postings die Buchungen, die Sperren ihrer Konten sind gesetzt
+   * @return die Kontostände der beteiligten Konten nach den Buchungen
+   */
+  private TreeMap<Integer, Double> store(List<Transaction> postings)
+      throws IllegalArgumentException {
+    try {
+      storage.beginTransaction();
+      try {
+        TreeMap<Integer, Double> balances = new TreeMap<Integer, Double>();
+        for (int accountID : accountsOf(postings)) {
+          Double balance = bMapper.findByAccountForUpdate(accountID);
+          if (balance == null) {
+            throw new IllegalArgumentException("Der Kontostand von Konto "
+                + accountID + " konnte nicht ermittelt werden.");
+          }
+          balances.put(Integer.valueOf(accountID), balance);
+        }
+
+        checkBalances(postings, balances);
+
+        if (postings.size() == 1) {
+          if (tMapper.insert(postings.get(0)) == null) {
+            throw new SQLException("Die Buchung wurde nicht gespeichert.");
+          }
+        }
+        else if (tMapper.insertBatch(postings) == null) {
+          throw new SQLException("Die Buchungen wurden nicht gespeichert.");
+        }
+
+        storage.commitTransaction();
+        return balances;
+      }
+      finally {
+        storage.rollbackTransaction();
+      }
+    }
+    catch (SQLException e) {
+      e.printStackTrace();
+      if (postings.size() > 1) {
+        throw new IllegalArgumentException("Die " + postings.size()
+            + " Buchungen konnten nicht gespeichert werden.");
+      }
+      throw new IllegalArgumentException("Die Buchung von Konto "
+          + postings.get(0).getSourceAccountID() + " auf Konto "
+          + postings.get(0).getTargetAccountID()
+          + " konnte nicht gespeichert werden.");
+    }
+  }
+
+  /**
+   * Einstellen einer Buchung im Write-Behind-Betrieb. Zunächst wird ohne
+   * Verbindung zur Datenbank gewartet, bis die zuvor eingestellten Buchungen
+   * der gesperrten Konten gespeichert sind. Erst danach werden die
+   * Kontostände gelesen, und zwar von der primären Datenbank. Da die Buchung
+   * erst später gespeichert wird, gilt die Deckungsprüfung in diesem Betrieb
+   * nur innerhalb einer Server-Instanz.
+   *
+   * @param t die Buchung, die Sperren ihrer Konten sind gesetzt
+   * @param locked die Indizes der gesetzten Sperren
+   * @return die voraussichtlichen Kontostände der beteiligten Konten nach
+   *         der Buchung
+   */
+  private TreeMap<Integer, Double> enqueue(Transaction t, int[] locked)
+      throws IllegalArgumentException {
+    awaitEnqueued(locked);
+
+    TreeMap<Integer, Double> balances = new TreeMap<Integer, Double>();
+    for (int accountID : accountsOf(Collections.singletonList(t))) {
+      // Ein Replikat enthält die gerade gespeicherten Buchungen ggf. noch nicht
+      Double balance = bMapper.findByAccountFromPrimary(accountID);
+      if (balance == null) {
+        throw new IllegalArgumentException("Der Kontostand von Konto "
+            + accountID + " konnte nicht ermittelt werden.");
+      }
+      balances.put(Integer.valueOf(accountID), balance);
+    }
+
+    checkBalances(Collections.singletonList(t), balances);
+
+    long seq = writeBehind.enqueue(t);
+    for (int stripe : locked) {
+      enqueued[stripe] = seq;
+    }
+    t.setId(0);
+    return balances;
+  }
+
+  /**
+   * Warten, bis die zuletzt eingestellten Buchungen der gesperrten Konten
+   * verarbeitet sind. Außerhalb des Write-Behind-Betriebs kehrt die Methode
+   * sofort zurück.
+   *
+   * @param locked die Indizes der gesetzten Sperren
+   * @throws IllegalArgumentException wenn die Buchungen nicht rechtzeitig
+   *           verarbeitet wurden
+   */
+  private void awaitEnqueued(int[] locked) throws IllegalArgumentException {
+    if (writeBehind == null) {
+      return;
+    }
+    for (int stripe : locked) {
+      if (!writeBehind.awaitProcessed(enqueued[stripe], timeout)) {
+        throw new IllegalArgumentException(
+            "Die vorhergehenden Buchungen der beteiligten Konten sind noch "
+                + "nicht verarbeitet.");
+      }
+    }
+  }
+
+  /**
+   * Prüfen, ob die Kontostände der Quellkonten die Buchungen decken. Die
+   * Buchungen werden dazu in ihrer Reihenfolge auf die Kontostände
+   * angerechnet; das Kassenkonto wird nicht geprüft.
+   *
+   * @param postings die Buchungen
+   * @param balances die aktuellen Kontostände der beteiligten Konten, danach
+   *          die Kontostände nach den Buchungen
+   * @throws IllegalArgumentException wenn ein Betrag nicht gedeckt ist
+   */
+  private void checkBalances(List<Transaction> postings,
+      TreeMap<Integer, Double> balances) throws IllegalArgumentException {
+    for (Transaction t : postings) {
+      Integer source = Integer.valueOf(t.getSourceAccountID());
+      Integer target = Integer.valueOf(t.getTargetAccountID());
+
+      if (source.intValue() != cashAccountID) {
+        double balance = balances.get(source).doubleValue();
+        if (balance + EPSILON < t.getAmount()) {
+          rejected.incrementAndGet();
+          throw new IllegalArgumentException("Der Kontostand von Konto "
+              + source + " deckt den Betrag " + t.getAmount() + " nicht.");
+        }
+        balances.put(source, Double.valueOf(balance - t.getAmount()));
+      }
+      if (target.intValue() != cashAccountID) {
+        balances.put(target, Double.valueOf(balances.get(target)
+            .doubleValue() + t.getAmount()));
+      }
+    }
+  }
+
+  /**
+   * Die an Buchungen beteiligten Konten ohne das Kassenkonto in aufsteigender
+   * Reihenfolge.
+   */
+  private int[] accountsOf(List<Transaction> postings) {
+    TreeSet<Integer> ids = new TreeSet<Integer>();
+    for (Transaction t : postings) {
+      for (int id : new int[] { t.getSourceAccountID(),
+          t.getTargetAccountID() }) {
+        if (id != cashAccountID) {
+          ids.add(Integer.valueOf(id));
+        }
+      }
+    }
+
+    int[] result = new int[ids.size()];
+    int i = 0;
+    for (Integer id : ids) {
+      result[i++] = id.intValue();
+    }
+    return result;
+  }
+
+  /**
+   * Die Sperren der an Buchungen beteiligten Konten in aufsteigender
+   * Reihenfolge ihres Index.
+   */
+  private int[] stripesOf(List<Transaction> postings) {
+    TreeSet<Integer> indexes = new TreeSet<Integer>();
+    for (int accountID : accountsOf(postings)) {
+      indexes.add(Integer.valueOf(stripeOf(accountID)));
+    }
+
+    int[] result = new int[indexes.size()];
+    int i = 0;
+    for (Integer index : indexes) {
+      result[i++] = index.intValue();
+    }
+    return result;
+  }
+
+
+  /**
+   * Zuordnen eines Kontos zu seiner Sperre.
+   *
+   * @return der Index der Sperre oder -1 für das Kassenkonto
+   */
+  private int stripeOf(int accountID) {
+    if (accountID == cashAccountID) {
+      return -1;
+    }
+    return accountID & (stripes.length - 1);
+  }
+
+  /**
+   * Setzen der Sperren in der angegebenen, aufsteigenden Reihenfolge.
+   */
+  private void lock(int[] locked) {
+    for (int stripe : locked) {
+      if (!stripes[stripe].tryLock()) {
+        contended.incrementAndGet();
+        stripes[stripe].lock();
+      }
+    }
+  }
+
+  private void unlock(int[] locked) {
+    for (int i = locked.length - 1; i >= 0; i--) {
+      stripes[locked[i]].unlock();
+    }
+  }
+
+  /**
+   * Anzahl der ausgeführten Buchungen.
+   */
+  public long getTransferCount() {
+    return transfers.get();
+  }
+
+  /**
+   * Anzahl der mangels Deckung abgelehnten Buchungen.
+   */
+  public long getRejectedCount() {
+    return rejected.get();
+  }
+
+  /**
+   * Anzahl der Buchungen, die auf eine bereits gesetzte Sperre warten
+   * mussten.
+   */
+  public long getContendedCount() {
+    return contended.get();
+  }
+
+  @Override
+  public String toString() {
+    return "TransferEngine[stripes=" + stripes.length + ", transfers="
+        + getTransferCount() + ", rejected=" + getRejectedCount()
+        + ", contended=" + getContendedCount() + "]";
+  }
+}
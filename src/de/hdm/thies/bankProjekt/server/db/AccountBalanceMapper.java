@@ -0,0 +1,731 @@
+package de.hdm.thies.bankProjekt.server.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+import de.hdm.thies.bankProjekt.server.ServersideSettings;
+import de.hdm.thies.bankProjekt.server.storage.BalanceStorage;
+
+/**
+ * <p>
+ * Mapper-Klasse für die Tabelle <code>account_balances</code>, in der für
+ * jedes Konto der aktuelle Kontostand vorgehalten wird. Statt bei jeder
+ * Abfrage sämtliche Buchungen eines Kontos zu lesen und aufzusummieren, genügt
+ * so ein einziger Zugriff über den Primärschlüssel.
+ * </p>
+ * <p>
+ * Die Kontostände werden vom {@link TransactionMapper} in derselben
+ * Datenbanktransaktion fortgeschrieben, in der eine Buchung eingefügt,
+ * geändert oder gelöscht wird. Buchung und Kontostand sind damit stets
+ * konsistent. Fehlt für ein Konto ein Eintrag, so gab es noch keine Buchung
+ * und der Kontostand ist 0.
+ * </p>
+ * <p>
+ * Mit {@link #verify()} lassen sich die gespeicherten Kontostände gegen die
+ * Buchungen prüfen, mit {@link #rebuild()} werden sie vollständig neu
+ * berechnet.
+ * </p>
+ * <p>
+ * Für Kontostände zu einem früheren Zeitpunkt dienen die Zwischenstände in
+ * der Tabelle <code>balance_checkpoints</code>. Ein Zwischenstand hält den
+ * Kontostand eines Kontos nach einer bestimmten Buchung fest. Der Kontostand
+ * nach einer beliebigen Buchung ergibt sich dann aus dem letzten
+ * Zwischenstand davor und den wenigen seither erfolgten Buchungen, statt aus
+ * der gesamten Historie des Kontos. Angelegt werden die Zwischenstände vom
+ * {@link BalanceCheckpointer}. Wird eine Buchung eingefügt, geändert oder
+ * gelöscht, entfernt der {@link TransactionMapper} in derselben Transaktion
+ * alle dadurch überholten Zwischenstände der betroffenen Konten.
+ * </p>
+ *
+ * @see TransactionMapper
+ */
+public class AccountBalanceMapper implements BalanceStorage {
+
+  /**
+   * Abweichungen unterhalb dieses Betrags gelten bei {@link #verify()} als
+   * Rundungsfehler und nicht als Drift.
+   */
+  private static final double TOLERANCE = 0.005;
+
+  /**
+   * Berechnung des Kontostands aller Konten aus den Buchungen. Ein Konto
+   * erhält die Summe seiner Haben-Buchungen abzüglich der Summe seiner
+   * Soll-Buchungen.
+   */
+  static final String COMPUTED_BALANCES = "SELECT a.id, "
+      + "COALESCE(c.total, 0) - COALESCE(d.total, 0) AS computed "
+      + "FROM accounts a "
+      + "LEFT JOIN (SELECT targetAccount AS account, SUM(amount) AS total "
+      + "FROM transactions GROUP BY targetAccount) c ON c.account=a.id "
+      + "LEFT JOIN (SELECT sourceAccount AS account, SUM(amount) AS total "
+      + "FROM transactions GROUP BY sourceAccount) d ON d.account=a.id";
+
+  /**
+   * Ein Zwischenstand: der Kontostand eines Kontos nach einer Buchung.
+   */
+  static class Checkpoint {
+    final int account;
+
+    final int transaction;
+
+    final double balance;
+
+    Checkpoint(int account, int transaction, double balance) {
+      this.account = account;
+      this.transaction = transaction;
+      this.balance = balance;
+    }
+  }
+
+  /**
+   * Die Klasse AccountBalanceMapper wird nur einmal instantiiert. Man spricht
+   * hierbei von einem sogenannten <b>Singleton</b>.
+   *
+   * @see accountBalanceMapper()
+   */
+  private static AccountBalanceMapper accountBalanceMapper = null;
+
+  /**
+   * Geschützter Konstruktor - verhindert die Möglichkeit, mit new neue
+   * Instanzen dieser Klasse zu erzeugen.
+   */
+  protected AccountBalanceMapper() {
+  }
+
+  /**
+   * Diese statische Methode kann aufgrufen werden durch
+   * <code>AccountBalanceMapper.accountBalanceMapper()</code>. Sie stellt die
+   * Singleton-Eigenschaft sicher, indem Sie dafür sorgt, dass nur eine einzige
+   * Instanz von <code>AccountBalanceMapper</code> existiert.
+   *
+   * @return DER <code>AccountBalanceMapper</code>-Singleton.
+   */
+  public static synchronized AccountBalanceMapper accountBalanceMapper() {
+    if (accountBalanceMapper == null) {
+      accountBalanceMapper = new AccountBalanceMapper();
+    }
+
+    return accountBalanceMapper;
+  }
+
+  /**
+   * Auslesen des gespeicherten Kontostands eines Kontos.
+   *
+   * @param accountID Kontonummer
+   * @return der Kontostand, 0 für Konten ohne Buchungen oder
+   *         <code>null</code>, wenn der Kontostand nicht gelesen werden konnte.
+   */
+  public Double findByAccount(int accountID) {
+    Connection con = null;
+    ResultSet rs = null;
+
+    try {
+      // Lesende DB-Verbindung holen, ggf. zu einem Replikat
+      con = DBConnection.readConnection();
+
+      PreparedStatement stmt = DBConnection.prepare(con,
+          "SELECT balance FROM account_balances WHERE account=?");
+      stmt.setInt(1, accountID);
+
+      rs = stmt.executeQuery();
+
+      return Double.valueOf(rs.next() ? rs.getDouble(1) : 0.0);
+    }
+    catch (SQLException e) {
+      e.printStackTrace();
+      return null;
+    }
+    finally {
+      // Ergebnis schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.release(con);
+    }
+  }
+
+  /**
+   * Auslesen der Kontostände mehrerer Konten. Die Kontonummern werden
+   * blockweise zu je {@link DBConnection#IN_CHUNK_SIZE} in einer
+   * <code>IN</code>-Liste abgefragt.
+   *
+   * @param accountIDs Kontonummern
+   * @return die Kontostände je Kontonummer oder <code>null</code>, wenn die
+   *         Kontostände nicht gelesen werden konnten
+   */
+  public HashMap<Integer, Double> findByAccounts(int[] accountIDs) {
+    HashMap<Integer, Double> result = new HashMap<Integer, Double>();
+    for (int id : accountIDs) {
+      result.put(Integer.valueOf(id), Double.valueOf(0.0));
+    }
+
+    Connection con = null;
+    ResultSet rs = null;
+
+    try {
+      // Lesende DB-Verbindung holen, ggf. zu einem Replikat
+      con = DBConnection.readConnection();
+
+      for (int from = 0; from < accountIDs.length; from += DBConnection.IN_CHUNK_SIZE) {
+        int to = Math.min(from + DBConnection.IN_CHUNK_SIZE, accountIDs.length);
+        int size = DBConnection.inSize(to - from);
+
+        PreparedStatement stmt = DBConnection.prepare(con,
+            "SELECT account, balance FROM account_balances WHERE account IN ("
+                + DBConnection.placeholders(size) + ")");
+        DBConnection.setIn(stmt, 1, accountIDs, from, to, size);
+
+        rs = stmt.executeQuery();
+        while (rs.next()) {
+          result.put(Integer.valueOf(rs.getInt(1)),
+              Double.valueOf(rs.getDouble(2)));
+        }
+        DBConnection.close(rs);
+        rs = null;
+      }
+    }
+    catch (SQLException e) {
+      e.printStackTrace();
+      return null;
+    }
+    finally {
+      // Ergebnis schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.release(con);
+    }
+
+    return result;
+  }
+
+  /**
+   * Die Anfrage wird als schreibend markiert, so dass
+   * {@link DBConnection#readConnection()} die primäre Datenbank liefert. Das
+   * gilt auch für die weiteren Lesezugriffe der Anfrage, die in der Regel eine
+   * Buchung folgen lässt.
+   */
+  @Override
+  public Double findByAccountFromPrimary(int accountID) {
+    DBConnection.markWrite();
+    return findByAccount(accountID);
+  }
+
+  /**
+   * Sperren und Auslesen des Kontostands eines Kontos. Fehlt der Eintrag des
+   * Kontos, wird er zunächst mit dem Kontostand 0 angelegt, damit auch die
+   * erste Buchung eines Kontos eine Zeile zum Sperren vorfindet. Gelesen wird
+   * stets von der primären Datenbank, innerhalb einer Transaktion über deren
+   * Verbindung; die Zeilensperre gilt dann bis zu deren Ende.
+   *
+   * @param accountID Kontonummer
+   * @return der Kontostand oder <code>null</code>, wenn der Kontostand nicht
+   *         gelesen werden konnte
+   * @see DBConnection#beginTransaction()
+   */
+  public Double findByAccountForUpdate(int accountID) {
+    Connection con = null;
+    ResultSet rs = null;
+
+    try {
+      // DB-Verbindung holen, innerhalb einer Transaktion deren Verbindung
+      con = DBConnection.connection();
+      DBConnection.begin(con);
+
+      PreparedStatement stmt = DBConnection.prepare(con,
+          "INSERT INTO account_balances (account, balance) VALUES (?, 0) "
+              + "ON DUPLICATE KEY UPDATE account=account");
+      stmt.setInt(1, accountID);
+      stmt.executeUpdate();
+
+      stmt = DBConnection.prepare(con,
+          "SELECT balance FROM account_balances WHERE account=? FOR UPDATE");
+      stmt.setInt(1, accountID);
+
+      rs = stmt.executeQuery();
+      Double result = Double.valueOf(rs.next() ? rs.getDouble(1) : 0.0);
+
+      DBConnection.commit(con);
+      return result;
+    }
+    catch (SQLException e) {
+      e.printStackTrace();
+      return null;
+    }
+    finally {
+      // Ergebnis schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.release(con);
+    }
+  }
+
+  /**
+   * Auslesen des Kontostands eines Kontos nach einer bestimmten Buchung.
+   * Ausgangspunkt ist der letzte Zwischenstand bis zu dieser Buchung, zu dem
+   * nur die seither erfolgten Buchungen addiert werden.
+   *
+   * @param accountID Kontonummer
+   * @param transactionID Primärschlüssel der letzten zu berücksichtigenden
+   *          Buchung
+   * @return der Kontostand oder <code>null</code>, wenn der Kontostand nicht
+   *         gelesen werden konnte
+   */
+  public Double findByAccountAsOf(int accountID, int transactionID) {
+    Connection con = null;
+
+    try {
+      // Lesende DB-Verbindung holen, ggf. zu einem Replikat
+      con = DBConnection.readConnection();
+
+      return Double.valueOf(balanceAsOf(con, accountID, transactionID)[0]);
+    }
+    catch (SQLException e) {
+      e.printStackTrace();
+      return null;
+    }
+    finally {
+      // Verbindung an den Pool zurückgeben
+      DBConnection.release(con);
+    }
+  }
+
+  /**
+   * Berechnen des Kontostands eines Kontos nach einer bestimmten Buchung aus
+   * dem letzten Zwischenstand davor und den seither erfolgten Buchungen.
+   *
+   * @param con die zu verwendende Verbindung
+   * @param accountID Kontonummer
+   * @param transactionID Primärschlüssel der letzten zu berücksichtigenden
+   *          Buchung
+   * @return der Kontostand und die Anzahl der Buchungen seit dem letzten
+   *         Zwischenstand
+   * @throws SQLException
+   */
+  double[] balanceAsOf(Connection con, int accountID, int transactionID)
+      throws SQLException {
+    ResultSet rs = null;
+    int since = 0;
+    double balance = 0.0;
+    long postings = 0;
+
+    try {
+      PreparedStatement stmt = DBConnection.prepare(con,
+          "SELECT transaction, balance FROM balance_checkpoints "
+              + "WHERE account=? AND transaction<=? "
+              + "ORDER BY transaction DESC LIMIT 1");
+      stmt.setInt(1, accountID);
+      stmt.setInt(2, transactionID);
+
+      rs = stmt.executeQuery();
+      if (rs.next()) {
+        since = rs.getInt(1);
+        balance = rs.getDouble(2);
+      }
+      DBConnection.close(rs);
+      rs = null;
+
+      // Zu- und Abbuchungen seit dem Zwischenstand, jeweils über den Index
+      stmt = DBConnection.prepare(con,
+          "SELECT SUM(amount), COUNT(*) FROM transactions "
+              + "WHERE targetAccount=? AND id>? AND id<=? "
+              + "UNION ALL SELECT -SUM(amount), COUNT(*) FROM transactions "
+              + "WHERE sourceAccount=? AND id>? AND id<=?");
+      for (int i = 0; i < 2; i++) {
+        stmt.setInt(i * 3 + 1, accountID);
+        stmt.setInt(i * 3 + 2, since);
+        stmt.setInt(i * 3 + 3, transactionID);
+      }
+
+      rs = stmt.executeQuery();
+      while (rs.next()) {
+        balance += rs.getDouble(1);
+        postings += rs.getLong(2);
+      }
+    }
+    finally {
+      DBConnection.close(rs);
+    }
+
+    return new double[] { balance, postings };
+  }
+
+  /**
+   * Ermitteln des Kontostands eines Kontos nach einer bestimmten Buchung und
+   * der Anzahl der Buchungen seit dem letzten Zwischenstand davor. Gelesen
+   * wird stets die primäre Datenbank.
+   *
+   * @param accountID Kontonummer
+   * @param transactionID Primärschlüssel der letzten zu berücksichtigenden
+   *          Buchung
+   * @return Kontostand und Anzahl der Buchungen oder <code>null</code> bei
+   *         einem Fehler
+   * @see BalanceCheckpointer
+   */
+  double[] findCheckpointState(int accountID, int transactionID) {
+    Connection con = null;
+
+    try {
+      con = DBConnection.connection();
+
+      return balanceAsOf(con, accountID, transactionID);
+    }
+    catch (SQLException e) {
+      e.printStackTrace();
+      return null;
+    }
+    finally {
+      DBConnection.release(con);
+    }
+  }
+
+  /**
+   * Speichern von Zwischenständen. Bereits vorhandene Zwischenstände
+   * desselben Kontos zu derselben Buchung werden überschrieben.
+   * <p>
+   * Seit dem Lesen der Buchungen kann eine ältere Buchung eines Kontos
+   * hinzugekommen, geändert oder gelöscht worden sein. Deren Transaktion
+   * konnte den noch nicht vorhandenen Zwischenstand nicht entfernen. Daher
+   * werden in einer Transaktion zunächst die Zeilen der Kontostände in
+   * aufsteigender Reihenfolge der Konten gesperrt; jede Änderung einer
+   * Buchung ändert auch diese Zeilen und wartet nun bis zum Ende dieser
+   * Transaktion. Anschließend wird jeder Zwischenstand mit dem Kontostand zu
+   * seiner Buchung verglichen und nur bei Übereinstimmung gespeichert.
+   *
+   * @param checkpoints die zu speichernden Zwischenstände
+   * @return die Anzahl der gespeicherten Zwischenstände oder -1 bei einem
+   *         Fehler
+   * @see BalanceCheckpointer
+   */
+  int insertCheckpoints(List<Checkpoint> checkpoints) {
+    if (checkpoints.isEmpty()) {
+      return 0;
+    }
+
+    Connection con = null;
+    PreparedStatement stmt = null;
+
+    try {
+      // DB-Verbindung holen und Transaktion beginnen
+      con = DBConnection.connection();
+      DBConnection.begin(con);
+
+      TreeSet<Integer> accounts = new TreeSet<Integer>();
+      for (Checkpoint c : checkpoints) {
+        accounts.add(Integer.valueOf(c.account));
+      }
+      PreparedStatement lock = DBConnection.prepare(con,
+          "SELECT balance FROM account_balances WHERE account=? FOR UPDATE");
+      for (Integer account : accounts) {
+        lock.setInt(1, account.intValue());
+        DBConnection.close(lock.executeQuery());
+      }
+
+      stmt = DBConnection.prepare(con,
+          "INSERT INTO balance_checkpoints (account, transaction, balance) "
+              + "VALUES (?, ?, ?) "
+              + "ON DUPLICATE KEY UPDATE balance=VALUES(balance)");
+      int count = 0;
+      for (Checkpoint c : checkpoints) {
+        double balance = balanceAsOf(con, c.account, c.transaction)[0];
+        if (Math.abs(balance - c.balance) >= TOLERANCE) {
+          ServersideSettings.getLogger().info(
+              "Zwischenstand von Konto " + c.account + " zu Buchung "
+                  + c.transaction + " inzwischen überholt, ausgelassen.");
+          continue;
+        }
+        stmt.setInt(1, c.account);
+        stmt.setInt(2, c.transaction);
+        stmt.setDouble(3, c.balance);
+        stmt.addBatch();
+        count++;
+      }
+      if (count > 0) {
+        stmt.executeBatch();
+      }
+
+      DBConnection.commit(con);
+      return count;
+    }
+    catch (SQLException e) {
+      // Die Transaktion wird von DBConnection.release(con) zurückgerollt.
+      e.printStackTrace();
+      return -1;
+    }
+    finally {
+      // Evtl. verbliebene Batch-Einträge verwerfen, da das Statement im Cache
+      // der Verbindung wiederverwendet wird.
+      if (stmt != null) {
+        try {
+          stmt.clearBatch();
+        }
+        catch (SQLException e) {
+          // Das Statement wird beim Schließen der Verbindung verworfen.
+        }
+      }
+      DBConnection.release(con);
+    }
+  }
+
+  /**
+   * Auslesen des Primärschlüssels der jüngsten Buchung, zu der ein
+   * Zwischenstand vorliegt.
+   *
+   * @return der Primärschlüssel, 0 wenn es keine Zwischenstände gibt, oder -1
+   *         bei einem Fehler
+   */
+  int findLatestCheckpoint() {
+    Connection con = null;
+    ResultSet rs = null;
+
+    try {
+      con = DBConnection.connection();
+
+      rs = DBConnection.prepare(con,
+          "SELECT COALESCE(MAX(transaction), 0) FROM balance_checkpoints")
+          .executeQuery();
+
+      return rs.next() ? rs.getInt(1) : 0;
+    }
+    catch (SQLException e) {
+      e.printStackTrace();
+      return -1;
+    }
+    finally {
+      DBConnection.close(rs);
+      DBConnection.release(con);
+    }
+  }
+
+  /**
+   * Vollständiges Neuberechnen sämtlicher Kontostände aus der Tabelle
+   * <code>transactions</code>. Die Neuberechnung erfolgt in einer einzigen
+   * Datenbanktransaktion, so dass andere Anfragen stets einen vollständigen
+   * Stand sehen.
+   *
+   * @return <code>true</code>, wenn die Neuberechnung erfolgreich war
+   */
+  public boolean rebuild() {
+    Connection con = null;
+
+    try {
+      // DB-Verbindung aus dem Pool holen und Transaktion beginnen
+      con = DBConnection.connection();
+      DBConnection.begin(con);
+
+      DBConnection.prepare(con, "DELETE FROM account_balances").executeUpdate();
+
+      int count = DBConnection.prepare(con,
+          "INSERT INTO account_balances (account, balance) "
+              + COMPUTED_BALANCES).executeUpdate();
+
+      DBConnection.commit(con);
+
+      ServersideSettings.getLogger().info(
+          "Kontostände von " + count + " Konten neu berechnet.");
+
+      return true;
+    }
+    catch (SQLException e) {
+      e.printStackTrace();
+      return false;
+    }
+    finally {
+      // Verbindung in jedem Fall an den Pool zurückgeben
+      DBConnection.release(con);
+    }
+  }
+
+  /**
+   * Prüfen der gespeicherten Kontostände gegen die aus den Buchungen
+   * berechneten Werte. Jedes abweichende Konto wird mit gespeichertem und
+   * berechnetem Stand im Log vermerkt. Die gespeicherten Werte werden dabei
+   * nicht verändert; hierzu dient {@link #rebuild()}.
+   *
+   * @return die Anzahl der Konten mit abweichendem Kontostand oder -1, wenn
+   *         die Prüfung nicht durchgeführt werden konnte
+   */
+  public int verify() {
+    Logger logger = ServersideSettings.getLogger();
+    Connection con = null;
+    ResultSet rs = null;
+    int drift = 0;
+
+    try {
+      // Lesende DB-Verbindung holen, ggf. zu einem Replikat
+      con = DBConnection.readConnection();
+
+      PreparedStatement stmt = DBConnection.prepare(con,
+          "SELECT x.id, COALESCE(b.balance, 0), x.computed FROM ("
+              + COMPUTED_BALANCES + ") x "
+              + "LEFT JOIN account_balances b ON b.account=x.id");
+
+      rs = stmt.executeQuery();
+
+      while (rs.next()) {
+        double stored = rs.getDouble(2);
+        double computed = rs.getDouble(3);
+
+        if (Math.abs(stored - computed) >= TOLERANCE) {
+          drift++;
+          logger.warning("Kontostand von Konto " + rs.getInt(1)
+              + " weicht ab: gespeichert " + stored + ", berechnet "
+              + computed);
+        }
+      }
+    }
+    catch (SQLException e) {
+      e.printStackTrace();
+      return -1;
+    }
+    finally {
+      // Ergebnis schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.release(con);
+    }
+
+    logger.info("Prüfung der Kontostände abgeschlossen, " + drift
+        + " Abweichung(en).");
+
+    return drift;
+  }
+
+  /**
+   * Vormerken der ältesten geänderten Buchung je Konto. Zwischenstände ab
+   * dieser Buchung sind überholt und werden von
+   * {@link #invalidateCheckpoints(Connection, SortedMap)} entfernt.
+   *
+   * @param firsts die älteste geänderte Buchung je Kontonummer
+   * @param source Kontonummer des Quellkontos
+   * @param target Kontonummer des Zielkontos
+   * @param transactionID Primärschlüssel der geänderten Buchung
+   */
+  static void touch(SortedMap<Integer, Integer> firsts, int source,
+      int target, int transactionID) {
+    for (int account : new int[] { source, target }) {
+      Integer first = firsts.get(Integer.valueOf(account));
+      if (first == null || first.intValue() > transactionID) {
+        firsts.put(Integer.valueOf(account), Integer.valueOf(transactionID));
+      }
+    }
+  }
+
+  /**
+   * Entfernen der durch geänderte Buchungen überholten Zwischenstände
+   * innerhalb der laufenden Transaktion der übergebenen Verbindung. Wie bei
+   * {@link #apply(Connection, SortedMap)} werden die Konten in aufsteigender
+   * Reihenfolge bearbeitet.
+   *
+   * @param con Verbindung mit laufender Transaktion
+   * @param firsts die älteste geänderte Buchung je Kontonummer
+   * @throws SQLException
+   */
+  void invalidateCheckpoints(Connection con, SortedMap<Integer, Integer> firsts)
+      throws SQLException {
+    if (firsts.isEmpty()) {
+      return;
+    }
+
+    PreparedStatement stmt = DBConnection.prepare(con,
+        "DELETE FROM balance_checkpoints WHERE account=? AND transaction>=?");
+
+    try {
+      for (Map.Entry<Integer, Integer> first : firsts.entrySet()) {
+        stmt.setInt(1, first.getKey().intValue());
+        stmt.setInt(2, first.getValue().intValue());
+        stmt.addBatch();
+      }
+
+      stmt.executeBatch();
+    }
+    finally {
+      stmt.clearBatch();
+    }
+  }
+
+  /**
+   * Vormerken der Auswirkung einer Buchung auf die Kontostände: Das Quellkonto
+   * wird um <code>amount</code> vermindert, das Zielkonto um
+   * <code>amount</code> erhöht. Zum Stornieren einer Buchung wird ein
+   * negativer Betrag übergeben.
+   *
+   * @param deltas die vorgemerkten Änderungen je Kontonummer
+   * @param source Kontonummer des Quellkontos
+   * @param target Kontonummer des Zielkontos
+   * @param amount der gebuchte Betrag
+   */
+  static void post(SortedMap<Integer, Double> deltas, int source, int target,
+      double amount) {
+    add(deltas, source, -amount);
+    add(deltas, target, amount);
+  }
+
+  /**
+   * Vormerken einer Änderung des Kontostands eines einzelnen Kontos.
+   *
+   * @param deltas die vorgemerkten Änderungen je Kontonummer
+   * @param account Kontonummer
+   * @param amount die Änderung des Kontostands
+   */
+  static void add(SortedMap<Integer, Double> deltas, int account,
+      double amount) {
+    Double old = deltas.get(Integer.valueOf(account));
+    deltas.put(Integer.valueOf(account),
+        Double.valueOf(old == null ? amount : old.doubleValue() + amount));
+  }
+
+  /**
+   * Fortschreiben der Kontostände innerhalb der laufenden Transaktion der
+   * übergebenen Verbindung. Die Konten werden in aufsteigender Reihenfolge
+   * ihrer Kontonummer geändert. Gleichzeitige Buchungen sperren die
+   * betroffenen Zeilen damit stets in derselben Reihenfolge und können sich
+   * nicht gegenseitig blockieren.
+   *
+   * @param con Verbindung mit laufender Transaktion
+   * @param deltas die Änderungen je Kontonummer
+   * @throws SQLException
+   */
+  void apply(Connection con, SortedMap<Integer, Double> deltas)
+      throws SQLException {
+    if (deltas.isEmpty()) {
+      return;
+    }
+
+    PreparedStatement stmt = DBConnection.prepare(con,
+        "INSERT INTO account_balances (account, balance) VALUES (?, ?) "
+            + "ON DUPLICATE KEY UPDATE balance = balance + VALUES(balance)");
+
+    try {
+      for (Map.Entry<Integer, Double> delta : deltas.entrySet()) {
+        if (delta.getValue().doubleValue() == 0.0) {
+          continue;
+        }
+        stmt.setInt(1, delta.getKey().intValue());
+        stmt.setDouble(2, delta.getValue().doubleValue());
+        stmt.addBatch();
+      }
+
+      stmt.executeBatch();
+    }
+    finally {
+      stmt.clearBatch();
+    }
+  }
+
+  /**
+   * Entfernen des Kontostands eines gelöschten Kontos.
+   *
+   * @param con die zu verwendende Verbindung
+   * @param accountID Kontonummer
+   * @throws SQLException
+   */
+  void delete(Connection con, int accountID) throws SQLException {
+    PreparedStatement stmt = DBConnection.prepare(con,
+        "DELETE FROM account_balances WHERE account=?");
+    stmt.setInt(1, accountID);
+    stmt.executeUpdate();
+  }
+}
@@ -1,8 +1,13 @@
 package de.hdm.thies.bankProjekt.server.db;
 
 import java.sql.*;
+import java.util.HashMap;
 import java.util.Vector;
 
+import de.hdm.thies.bankProjekt.server.ServersideSettings;
+import de.hdm.thies.bankProjekt.server.storage.AccountStorage;
+import de.hdm.thies.bankProjekt.server.storage.ObjectHandler;
+import de.hdm.thies.bankProjekt.shared.StaleObjectException;
 import de.hdm.thies.bankProjekt.shared.bo.*;
 
 /**
@@ -15,7 +20,7 @@ import de.hdm.thies.bankProjekt.shared.bo.*;
  * @see CustomerMapper, TransactionMapper
  * @author Thies
  */
-public class AccountMapper {
+public class AccountMapper implements AccountStorage {
 
   /**
    * Die Klasse AccountMapper wird nur einmal instantiiert. Man spricht hierbei
@@ -29,6 +34,17 @@ public class AccountMapper {
    */
   private static AccountMapper accountMapper = null;
 
+  /**
+   * Zwischenspeicher für die mittels {@link #findByKey(int)} gelesenen Konten.
+   * Größe und Lebensdauer der Einträge lassen sich über die System Properties
+   * <code>bankprojekt.cache.accounts.maxSize</code> (Standard: 5000) und
+   * <code>bankprojekt.cache.ttl</code> (in ms, Standard: 30000) einstellen.
+   */
+  private final EntityCache<Account> cache = new EntityCache<Account>(
+      "accounts", ServersideSettings.getIntProperty(
+          "bankprojekt.cache.accounts.maxSize", 5000),
+      ServersideSettings.getLongProperty("bankprojekt.cache.ttl", 30000));
+
   /**
    * Geschützter Konstruktor - verhindert die Möglichkeit, mit <code>new</code>
    * neue Instanzen dieser Klasse zu erzeugen.
@@ -66,37 +82,139 @@ public class AccountMapper {
    *         nicht vorhandenem DB-Tupel.
    */
   public Account findByKey(int id) {
-    // DB-Verbindung holen
-    Connection con = DBConnection.connection();
+    /*
+     * Zunächst im Cache nachsehen, außer der aktuelle Thread hat gerade
+     * geschrieben (read-your-writes)
+     */
+    Account cached = DBConnection.hasRecentWrite() ? null : cache.get(id);
+    if (cached != null) {
+      return copy(cached);
+    }
+
+    long generation = cache.generation();
+    long start = System.nanoTime();
+    Connection con = null;
+    ResultSet rs = null;
 
     try {
-      // Leeres SQL-Statement (JDBC) anlegen
-      Statement stmt = con.createStatement();
+      // Lesende DB-Verbindung holen, ggf. zu einem Replikat
+      con = DBConnection.readConnection();
 
-      // Statement ausfüllen und als Query an die DB schicken
-      ResultSet rs = stmt.executeQuery("SELECT id, owner FROM accounts "
-          + "WHERE id=" + id + " ORDER BY owner");
+      // Vorbereitetes SQL-Statement (JDBC) holen und Parameter setzen
+      PreparedStatement stmt = DBConnection.prepare(con,
+          "SELECT id, owner, version FROM accounts WHERE id=?");
+      stmt.setInt(1, id);
+
+      // Statement als Query an die DB schicken
+      rs = stmt.executeQuery();
 
       /*
        * Da id Primärschlüssel ist, kann max. nur ein Tupel zurückgegeben
        * werden. Prüfe, ob ein Ergebnis vorliegt.
        */
       if (rs.next()) {
-        // Ergebnis-Tupel in Objekt umwandeln
-        Account a = new Account();
-        a.setId(rs.getInt("id"));
-        a.setOwnerID(rs.getInt("owner"));
-        return a;
+        // Ergebnis-Tupel in Objekt umwandeln und eine Kopie im Cache ablegen
+        Account result = createAccount(rs);
+        cache.recordLoad(System.nanoTime() - start);
+        if (DBConnection.isPrimary(con)) {
+          cache.put(id, copy(result), generation);
+        }
+        return result;
       }
     }
     catch (SQLException e2) {
       e2.printStackTrace();
       return null;
     }
+    finally {
+      // Ergebnis schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.release(con);
+    }
 
     return null;
   }
 
+  /**
+   * Suchen mehrerer Konten anhand ihrer Primärschlüssel. Bereits im Cache
+   * vorhandene Konten werden von dort übernommen, die übrigen mit
+   * <code>IN</code>-Anfragen zu je höchstens
+   * {@value DBConnection#IN_CHUNK_SIZE} Schlüsseln gelesen. Für N Schlüssel
+   * sind damit höchstens ceil(N / {@value DBConnection#IN_CHUNK_SIZE})
+   * Anfragen nötig statt N.
+   * 
+   * @param ids Primärschlüssel
+   * @return die gefundenen Konten, indiziert nach Primärschlüssel. Nicht
+   *         vorhandene Schlüssel fehlen in der Map. Bei einem Fehler wird
+   *         <code>null</code> zurückgeliefert.
+   */
+  public HashMap<Integer, Account> findByKeys(int[] ids) {
+    HashMap<Integer, Account> result = new HashMap<Integer, Account>();
+
+    // Zunächst im Cache nachsehen und die fehlenden Schlüssel sammeln
+    int[] missing = new int[ids.length];
+    int missingCount = 0;
+    boolean recentWrite = DBConnection.hasRecentWrite();
+    for (int id : ids) {
+      Account cached = recentWrite ? null : cache.get(id);
+      if (cached != null) {
+        result.put(Integer.valueOf(id), copy(cached));
+      }
+      else {
+        missing[missingCount++] = id;
+      }
+    }
+    if (missingCount == 0) {
+      return result;
+    }
+
+    long generation = cache.generation();
+    Connection con = null;
+    ResultSet rs = null;
+
+    try {
+      // Lesende DB-Verbindung holen, ggf. zu einem Replikat
+      con = DBConnection.readConnection();
+      // Nur von der primären Datenbank Gelesenes in den Cache übernehmen
+      boolean cacheable = DBConnection.isPrimary(con);
+
+      for (int from = 0; from < missingCount; from += DBConnection.IN_CHUNK_SIZE) {
+        int to = Math.min(from + DBConnection.IN_CHUNK_SIZE, missingCount);
+        int size = DBConnection.inSize(to - from);
+        long start = System.nanoTime();
+
+        PreparedStatement stmt = DBConnection.prepare(con,
+            "SELECT id, owner, version FROM accounts WHERE id IN ("
+                + DBConnection.placeholders(size) + ")");
+        DBConnection.setIn(stmt, 1, missing, from, to, size);
+
+        rs = stmt.executeQuery();
+        while (rs.next()) {
+          // Ergebnis-Tupel in Objekt umwandeln und eine Kopie im Cache ablegen
+          Account a = createAccount(rs);
+          if (cacheable) {
+            cache.put(a.getId(), copy(a), generation);
+          }
+          result.put(Integer.valueOf(a.getId()), a);
+        }
+        cache.recordLoad(System.nanoTime() - start);
+        DBConnection.close(rs);
+        rs = null;
+      }
+    }
+    catch (SQLException e2) {
+      e2.printStackTrace();
+      return null;
+    }
+    finally {
+      // Ergebnis schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.release(con);
+    }
+
+    return result;
+  }
+
   /**
    * Auslesen aller Konten.
    * 
@@ -105,35 +223,135 @@ public class AccountMapper {
    *         oder ggf. auch leerer Vetor zurückgeliefert.
    */
   public Vector<Account> findAll() {
-    Connection con = DBConnection.connection();
+    Connection con = null;
+    ResultSet rs = null;
 
     // Ergebnisvektor vorbereiten
     Vector<Account> result = new Vector<Account>();
 
     try {
-      Statement stmt = con.createStatement();
+      // Lesende DB-Verbindung holen, ggf. zu einem Replikat
+      con = DBConnection.readConnection();
 
-      ResultSet rs = stmt.executeQuery("SELECT id, owner FROM accounts "
-          + " ORDER BY id");
+      PreparedStatement stmt = DBConnection.prepare(con,
+          "SELECT id, owner, version FROM accounts ORDER BY id");
+
+      rs = stmt.executeQuery();
 
       // Für jeden Eintrag im Suchergebnis wird nun ein Account-Objekt erstellt.
       while (rs.next()) {
-        Account a = new Account();
-        a.setId(rs.getInt("id"));
-        a.setOwnerID(rs.getInt("owner"));
-
         // Hinzufügen des neuen Objekts zum Ergebnisvektor
-        result.addElement(a);
+        result.addElement(createAccount(rs));
       }
     }
     catch (SQLException e2) {
       e2.printStackTrace();
     }
+    finally {
+      // Ergebnis schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.release(con);
+    }
 
     // Ergebnisvektor zurückgeben
     return result;
   }
 
+  /**
+   * Schrittweises Auslesen aller Konten. Anders als bei {@link #findAll()}
+   * wird das Ergebnis nicht vollständig in den Speicher geladen, sondern über
+   * einen Cursor der Datenbank gelesen. Jedes Account-Objekt wird sofort an
+   * den <code>handler</code> übergeben und danach nicht mehr referenziert.
+   * Damit eignet sich diese Methode auch für sehr große Tabellen, etwa bei
+   * Reports oder Exporten. Die Konten werden nach ihrem Primärschlüssel
+   * sortiert geliefert.
+   * 
+   * @param handler erhält nacheinander jedes Account-Objekt
+   * @return die Anzahl der verarbeiteten Konten. Bei evtl. Exceptions
+   *         wird der Durchlauf abgebrochen.
+   * @see DBConnection#stream(Connection, String)
+   */
+  public int forEach(ObjectHandler<Account> handler) {
+    Connection con = null;
+    PreparedStatement stmt = null;
+    ResultSet rs = null;
+    int count = 0;
+
+    try {
+      // Lesende DB-Verbindung holen, ggf. zu einem Replikat
+      con = DBConnection.readConnection();
+
+      stmt = DBConnection.stream(con,
+          "SELECT id, owner, version FROM accounts ORDER BY id");
+
+      rs = stmt.executeQuery();
+
+      // Jedes Tupel wird einzeln umgewandelt und weitergereicht.
+      while (rs.next()) {
+        handler.handle(createAccount(rs));
+        count++;
+      }
+    }
+    catch (SQLException e) {
+      e.printStackTrace();
+    }
+    finally {
+      // Cursor schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.close(stmt);
+      DBConnection.release(con);
+    }
+
+    return count;
+  }
+
+  /**
+   * Seitenweises Auslesen der Konten. Geliefert werden höchstens
+   * <code>limit</code> Konten, deren Primärschlüssel größer als
+   * <code>afterId</code> ist, aufsteigend nach dem Primärschlüssel sortiert.
+   * Die nächste Seite erhält man, indem man den Schlüssel des letzten Elements
+   * als <code>afterId</code> übergibt. Da die Datenbank dabei direkt über den
+   * Primärschlüssel-Index einsteigt, ist jede Seite gleich schnell gelesen,
+   * egal wie weit man bereits geblättert hat.
+   * 
+   * @param afterId Primärschlüssel des letzten Elements der vorherigen Seite
+   *          bzw. 0 für die erste Seite
+   * @param limit Höchstanzahl der zu liefernden Konten
+   * @return Ein Vektor mit Account-Objekten. Ist er leer, gibt es keine
+   *         weiteren Konten.
+   */
+  public Vector<Account> findPage(int afterId, int limit) {
+    Connection con = null;
+    ResultSet rs = null;
+    Vector<Account> result = new Vector<Account>();
+
+    try {
+      // Lesende DB-Verbindung holen, ggf. zu einem Replikat
+      con = DBConnection.readConnection();
+
+      PreparedStatement stmt = DBConnection.prepare(con,
+          "SELECT id, owner, version FROM accounts WHERE id>? ORDER BY id LIMIT ?");
+      stmt.setInt(1, afterId);
+      stmt.setInt(2, limit);
+
+      rs = stmt.executeQuery();
+
+      while (rs.next()) {
+        result.addElement(createAccount(rs));
+      }
+    }
+    catch (SQLException e) {
+      e.printStackTrace();
+    }
+    finally {
+      // Ergebnis schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.release(con);
+    }
+
+    return result;
+  }
+
   /**
    * Auslesen aller Konten eines durch Fremdschlüssel (Kundennr.) gegebenen
    * Kunden.
@@ -145,28 +363,34 @@ public class AccountMapper {
    *         partiell gefüllter oder ggf. auch leerer Vetor zurückgeliefert.
    */
   public Vector<Account> findByOwner(int ownerID) {
-    Connection con = DBConnection.connection();
+    Connection con = null;
+    ResultSet rs = null;
     Vector<Account> result = new Vector<Account>();
 
     try {
-      Statement stmt = con.createStatement();
+      // Lesende DB-Verbindung holen, ggf. zu einem Replikat
+      con = DBConnection.readConnection();
+
+      PreparedStatement stmt = DBConnection.prepare(con,
+          "SELECT id, owner, version FROM accounts WHERE owner=? ORDER BY id");
+      stmt.setInt(1, ownerID);
 
-      ResultSet rs = stmt.executeQuery("SELECT id, owner FROM accounts "
-          + "WHERE owner=" + ownerID + " ORDER BY id");
+      rs = stmt.executeQuery();
 
       // Für jeden Eintrag im Suchergebnis wird nun ein Account-Objekt erstellt.
       while (rs.next()) {
-        Account a = new Account();
-        a.setId(rs.getInt("id"));
-        a.setOwnerID(rs.getInt("owner"));
-
         // Hinzufügen des neuen Objekts zum Ergebnisvektor
-        result.addElement(a);
+        result.addElement(createAccount(rs));
       }
     }
     catch (SQLException e2) {
       e2.printStackTrace();
     }
+    finally {
+      // Ergebnis schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.release(con);
+    }
 
     // Ergebnisvektor zurückgeben
     return result;
@@ -199,36 +423,38 @@ public class AccountMapper {
    *         <code>id</code>.
    */
   public Account insert(Account a) {
-    Connection con = DBConnection.connection();
+    Connection con = null;
 
     try {
-      Statement stmt = con.createStatement();
-
       /*
-       * Zunächst schauen wir nach, welches der momentan höchste
-       * Primärschlüsselwert ist.
+       * a erhält den nächsten freien Primärschlüssel aus einem zuvor
+       * reservierten Block. Die frühere Anfrage nach dem momentan höchsten
+       * Primärschlüsselwert entfällt damit, und gleichzeitige Einfügeoperationen
+       * können nicht mehr denselben Schlüssel erhalten.
        */
-      ResultSet rs = stmt.executeQuery("SELECT MAX(id) AS maxid "
-          + "FROM accounts ");
+      a.setId(IdAllocator.idAllocator().nextId(IdAllocator.ACCOUNTS));
 
-      // Wenn wir etwas zurückerhalten, kann dies nur einzeilig sein
-      if (rs.next()) {
-        /*
-         * a erhält den bisher maximalen, nun um 1 inkrementierten
-         * Primärschlüssel.
-         */
-        a.setId(rs.getInt("maxid") + 1);
+      // Ein neues Tupel beginnt mit Version 0 (siehe update(Account))
+      a.setVersion(0);
 
-        stmt = con.createStatement();
+      // DB-Verbindung aus dem Pool holen
+      con = DBConnection.connection();
 
-        // Jetzt erst erfolgt die tatsächliche Einfügeoperation
-        stmt.executeUpdate("INSERT INTO accounts (id, owner) " + "VALUES ("
-            + a.getId() + "," + a.getOwnerID() + ")");
-      }
+      PreparedStatement stmt = DBConnection.prepare(con,
+          "INSERT INTO accounts (id, owner) VALUES (?, ?)");
+      stmt.setInt(1, a.getId());
+      stmt.setInt(2, a.getOwnerID());
+
+      // Jetzt erfolgt die tatsächliche Einfügeoperation
+      stmt.executeUpdate();
     }
     catch (SQLException e2) {
       e2.printStackTrace();
     }
+    finally {
+      // Verbindung in jedem Fall an den Pool zurückgeben
+      DBConnection.release(con);
+    }
 
     /*
      * Rückgabe, des evtl. korrigierten Accounts.
@@ -243,24 +469,44 @@ public class AccountMapper {
   }
 
   /**
-   * Wiederholtes Schreiben eines Objekts in die Datenbank.
+   * Wiederholtes Schreiben eines Objekts in die Datenbank. Wie bei
+   * {@link CustomerMapper#update(Customer)} wird das Tupel nur geändert, wenn
+   * seine Version noch der des Objekts entspricht.
    * 
    * @param a das Objekt, das in die DB geschrieben werden soll
-   * @return das als Parameter übergebene Objekt
+   * @return das als Parameter übergebene Objekt mit der neuen Version
+   * @throws StaleObjectException wenn das Konto inzwischen geändert oder
+   *           gelöscht wurde
    */
-  public Account update(Account a) {
-    Connection con = DBConnection.connection();
+  public Account update(Account a) throws StaleObjectException {
+    Connection con = null;
 
     try {
-      Statement stmt = con.createStatement();
-
-      stmt.executeUpdate("UPDATE accounts " + "SET owner=\"" + a.getOwnerID()
-          + "\" " + "WHERE id=" + a.getId());
-
+      // DB-Verbindung aus dem Pool holen
+      con = DBConnection.connection();
+
+      PreparedStatement stmt = DBConnection.prepare(con,
+          "UPDATE accounts SET owner=?, version=version+1 "
+              + "WHERE id=? AND version=?");
+      stmt.setInt(1, a.getOwnerID());
+      stmt.setInt(2, a.getId());
+      stmt.setInt(3, a.getVersion());
+
+      if (stmt.executeUpdate() == 0) {
+        throw new StaleObjectException("Konto " + a.getId()
+            + " wurde inzwischen geändert oder gelöscht.");
+      }
+      a.setVersion(a.getVersion() + 1);
     }
     catch (SQLException e2) {
       e2.printStackTrace();
     }
+    finally {
+      // Verbindung in jedem Fall an den Pool zurückgeben
+      DBConnection.release(con);
+      // Ein evtl. zwischengespeicherter Stand ist nicht mehr gültig
+      cache.invalidateAfterCommit(a.getId());
+    }
 
     // Um Analogie zu insert(Account a) zu wahren, geben wir a zurück
     return a;
@@ -270,18 +516,38 @@ public class AccountMapper {
    * Löschen der Daten eines <code>Account</code>-Objekts aus der Datenbank.
    * 
    * @param a das aus der DB zu löschende "Objekt"
+   * @return die Anzahl der gelöschten Konten oder -1 bei einem Fehler
    */
-  public void delete(Account a) {
-    Connection con = DBConnection.connection();
+  public int delete(Account a) {
+    Connection con = null;
 
     try {
-      Statement stmt = con.createStatement();
+      // DB-Verbindung aus dem Pool holen und Transaktion beginnen
+      con = DBConnection.connection();
+      DBConnection.begin(con);
+
+      PreparedStatement stmt = DBConnection.prepare(con,
+          "DELETE FROM accounts WHERE id=?");
+      stmt.setInt(1, a.getId());
+
+      int count = stmt.executeUpdate();
 
-      stmt.executeUpdate("DELETE FROM accounts " + "WHERE id=" + a.getId());
+      // Der gespeicherte Kontostand wird nicht mehr benötigt.
+      AccountBalanceMapper.accountBalanceMapper().delete(con, a.getId());
 
+      DBConnection.commit(con);
+      return count;
     }
     catch (SQLException e2) {
+      // Die Transaktion wird von DBConnection.release(con) zurückgerollt.
       e2.printStackTrace();
+      return -1;
+    }
+    finally {
+      // Verbindung in jedem Fall an den Pool zurückgeben
+      DBConnection.release(con);
+      // Ein evtl. zwischengespeicherter Stand ist nicht mehr gültig
+      cache.invalidateAfterCommit(a.getId());
     }
   }
 
@@ -291,18 +557,41 @@ public class AccountMapper {
    * -Objekt gelöscht wird.
    * 
    * @param c das <code>Customer</code>-Objekt, zu dem die Konten gehören
+   * @return die Anzahl der gelöschten Konten oder -1 bei einem Fehler
    */
-  public void deleteAccountsOf(Customer c) {
-    Connection con = DBConnection.connection();
+  public int deleteAccountsOf(Customer c) {
+    Connection con = null;
 
     try {
-      Statement stmt = con.createStatement();
+      // DB-Verbindung aus dem Pool holen und Transaktion beginnen
+      con = DBConnection.connection();
+      DBConnection.begin(con);
+
+      // Zunächst die gespeicherten Kontostände, dann die Konten selbst
+      PreparedStatement stmt = DBConnection.prepare(con,
+          "DELETE b FROM account_balances b JOIN accounts a ON b.account=a.id "
+              + "WHERE a.owner=?");
+      stmt.setInt(1, c.getId());
+      stmt.executeUpdate();
+
+      stmt = DBConnection.prepare(con, "DELETE FROM accounts WHERE owner=?");
+      stmt.setInt(1, c.getId());
 
-      stmt.executeUpdate("DELETE FROM accounts " + "WHERE owner=" + c.getId());
+      int count = stmt.executeUpdate();
 
+      DBConnection.commit(con);
+      return count;
     }
     catch (SQLException e2) {
+      // Die Transaktion wird von DBConnection.release(con) zurückgerollt.
       e2.printStackTrace();
+      return -1;
+    }
+    finally {
+      // Verbindung in jedem Fall an den Pool zurückgeben
+      DBConnection.release(con);
+      // Welche Konten betroffen sind, ist nicht bekannt; daher alle verwerfen
+      cache.clearAfterCommit();
     }
   }
 
@@ -323,4 +612,42 @@ public class AccountMapper {
     return CustomerMapper.customerMapper().findByKey(a.getOwnerID());
   }
 
+  /**
+   * Umwandeln des aktuellen Tupels eines <code>ResultSet</code> in ein
+   * <code>Account</code>-Objekt. Das Ergebnis muss die Spalten
+   * <code>id</code>, <code>owner</code> und <code>version</code> enthalten.
+   * 
+   * @param rs das auf dem gewünschten Tupel stehende Ergebnis
+   * @return das neu erzeugte Konto-Objekt
+   * @throws SQLException
+   */
+  private Account createAccount(ResultSet rs) throws SQLException {
+    Account a = new Account();
+    a.setId(rs.getInt("id"));
+    a.setOwnerID(rs.getInt("owner"));
+    a.setVersion(rs.getInt("version"));
+
+    return a;
+  }
+
+  /**
+   * Erzeugen einer Kopie eines Kontos. Im Cache werden nur Kopien abgelegt, so
+   * dass Änderungen an herausgegebenen Objekten den Cache nicht verfälschen.
+   */
+  private static Account copy(Account a) {
+    Account result = new Account();
+    result.setId(a.getId());
+    result.setOwnerID(a.getOwnerID());
+    result.setVersion(a.getVersion());
+
+    return result;
+  }
+
+  /**
+   * Auslesen des Caches für Konten, etwa für dessen Statistik.
+   */
+  public EntityCache<Account> getCache() {
+    return cache;
+  }
+
 }
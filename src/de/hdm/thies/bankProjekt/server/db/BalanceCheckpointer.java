@@ -0,0 +1,272 @@
+package de.hdm.thies.bankProjekt.server.db;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Vector;
+
+import de.hdm.thies.bankProjekt.server.ServersideSettings;
+import de.hdm.thies.bankProjekt.shared.bo.Transaction;
+
+/**
+ * <p>
+ * Hintergrundaufgabe, die Zwischenstände der Kontostände in der Tabelle
+ * <code>balance_checkpoints</code> anlegt. Dazu werden die Buchungen mittels
+ * {@link TransactionMapper} in der Reihenfolge ihres Primärschlüssels gelesen
+ * und die Kontostände der betroffenen Konten mitgeführt. Nach jeweils
+ * <code>bankprojekt.checkpoint.interval</code> Buchungen eines Kontos wird ein
+ * Zwischenstand gespeichert. Der Kontostand zu einer beliebigen Buchung
+ * erfordert damit höchstens so viele Buchungen wie dieses Intervall (siehe
+ * {@link AccountBalanceMapper#findByAccountAsOf(int, int)}).
+ * </p>
+ * <p>
+ * Jeder Durchlauf setzt bei der zuletzt verarbeiteten Buchung fort. Den
+ * Kontostand eines Kontos zu Beginn eines Durchlaufs liefert dessen letzter
+ * Zwischenstand samt den seither erfolgten Buchungen. Die jüngsten
+ * <code>bankprojekt.checkpoint.lag</code> Buchungen werden ausgelassen: Da
+ * Primärschlüssel blockweise vergeben werden (siehe {@link IdAllocator}),
+ * können dort noch Buchungen mit kleineren Primärschlüsseln eingefügt werden.
+ * Wird dennoch eine ältere Buchung eingefügt, geändert oder gelöscht, entfernt
+ * der <code>TransactionMapper</code> die überholten Zwischenstände. Geschieht
+ * dies zwischen dem Lesen der Buchungen und dem Speichern der Zwischenstände,
+ * verwirft {@link AccountBalanceMapper#insertCheckpoints(java.util.List)} die
+ * betroffenen Zwischenstände.
+ * </p>
+ * <p>
+ * Ist <code>bankprojekt.checkpoint.period</code> größer als 0, startet das
+ * {@link JdbcStorage} einen eigenen Thread, der alle <code>period</code> ms
+ * einen Durchlauf ausführt. Da die App Engine keine eigenen Threads erlaubt,
+ * ist dies voreingestellt ausgeschaltet. Ein Durchlauf lässt sich dort mit
+ * {@link #run()} etwa aus einem Cron-Job anstoßen.
+ * </p>
+ *
+ * @see AccountBalanceMapper
+ */
+public class BalanceCheckpointer {
+
+  /**
+   * Die Klasse BalanceCheckpointer wird nur einmal instantiiert. Man spricht
+   * hierbei von einem sogenannten <b>Singleton</b>.
+   *
+   * @see balanceCheckpointer()
+   */
+  private static BalanceCheckpointer balanceCheckpointer = null;
+
+  /**
+   * Anzahl der je Anfrage gelesenen Buchungen.
+   */
+  private static final int PAGE_SIZE = 1000;
+
+  private final AccountBalanceMapper balances = AccountBalanceMapper
+      .accountBalanceMapper();
+
+  private final TransactionMapper transactions = TransactionMapper
+      .transactionMapper();
+
+  /**
+   * Anzahl der Buchungen eines Kontos zwischen zwei Zwischenständen.
+   */
+  private final int interval;
+
+  /**
+   * Anzahl der jüngsten Buchungen, die noch nicht verarbeitet werden.
+   */
+  private final int lag;
+
+  /**
+   * Primärschlüssel der zuletzt verarbeiteten Buchung bzw. -1, wenn dieser
+   * beim nächsten Durchlauf aus den Zwischenständen ermittelt wird.
+   */
+  private int progress = -1;
+
+  private Thread worker = null;
+
+  /*
+   * Kennzahlen, sie werden nur innerhalb von run() verändert.
+   */
+  private long runs = 0;
+
+  private long scanned = 0;
+
+  private long written = 0;
+
+  /**
+   * Geschützter Konstruktor - verhindert die Möglichkeit, mit new neue
+   * Instanzen dieser Klasse zu erzeugen.
+   */
+  protected BalanceCheckpointer() {
+    interval = Math.max(1, ServersideSettings.getIntProperty(
+        "bankprojekt.checkpoint.interval", 1000));
+    lag = Math.max(0, ServersideSettings.getIntProperty(
+        "bankprojekt.checkpoint.lag", 1000));
+  }
+
+  /**
+   * Diese statische Methode kann aufgrufen werden durch
+   * <code>BalanceCheckpointer.balanceCheckpointer()</code>. Sie stellt die
+   * Singleton-Eigenschaft sicher, indem Sie dafür sorgt, dass nur eine einzige
+   * Instanz von <code>BalanceCheckpointer</code> existiert.
+   *
+   * @return DER <code>BalanceCheckpointer</code>-Singleton.
+   */
+  public static synchronized BalanceCheckpointer balanceCheckpointer() {
+    if (balanceCheckpointer == null) {
+      balanceCheckpointer = new BalanceCheckpointer();
+    }
+
+    return balanceCheckpointer;
+  }
+
+  /**
+   * Starten eines Threads, der regelmäßig einen Durchlauf ausführt. Ein
+   * bereits laufender Thread bleibt unverändert.
+   *
+   * @param period Abstand der Durchläufe in ms
+   */
+  public synchronized void start(final long period) {
+    if (worker != null) {
+      return;
+    }
+
+    worker = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        for (;;) {
+          try {
+            Thread.sleep(period);
+          }
+          catch (InterruptedException e) {
+            return;
+          }
+          BalanceCheckpointer.this.run();
+        }
+      }
+    }, "BalanceCheckpointer");
+    worker.setDaemon(true);
+    worker.start();
+
+    ServersideSettings.getLogger().info(
+        "Zwischenstände der Kontostände werden alle " + period
+            + " ms fortgeschrieben.");
+  }
+
+  /**
+   * Ausführen eines Durchlaufs über alle seit dem letzten Durchlauf
+   * hinzugekommenen Buchungen.
+   *
+   * @return die Anzahl der angelegten Zwischenstände oder -1 bei einem Fehler
+   */
+  public synchronized int run() {
+    if (progress < 0) {
+      progress = balances.findLatestCheckpoint();
+      if (progress < 0) {
+        return -1;
+      }
+    }
+
+    int maxKey = transactions.findMaxKey();
+    if (maxKey < 0) {
+      return -1;
+    }
+
+    int limit = maxKey - lag;
+    if (limit <= progress) {
+      return 0;
+    }
+
+    runs++;
+
+    /*
+     * Kontostand und Anzahl der Buchungen seit dem letzten Zwischenstand je
+     * Konto, jeweils nach der zuletzt verarbeiteten Buchung.
+     */
+    HashMap<Integer, double[]> states = new HashMap<Integer, double[]>();
+    int start = progress;
+    int count = 0;
+
+    for (;;) {
+      Vector<Transaction> page = transactions.findRange(progress, limit,
+          PAGE_SIZE);
+      if (page == null) {
+        return -1;
+      }
+
+      ArrayList<AccountBalanceMapper.Checkpoint> checkpoints = new ArrayList<AccountBalanceMapper.Checkpoint>();
+
+      for (Transaction t : page) {
+        double[] source = state(states, t.getSourceAccountID(), start);
+        double[] target = state(states, t.getTargetAccountID(), start);
+        if (source == null || target == null) {
+          return -1;
+        }
+
+        source[0] -= t.getAmount();
+        target[0] += t.getAmount();
+
+        for (int account : new int[] { t.getSourceAccountID(),
+            t.getTargetAccountID() }) {
+          double[] state = states.get(Integer.valueOf(account));
+          if (++state[1] >= interval) {
+            checkpoints.add(new AccountBalanceMapper.Checkpoint(account, t
+                .getId(), state[0]));
+            state[1] = 0;
+          }
+        }
+      }
+
+      int inserted = balances.insertCheckpoints(checkpoints);
+      if (inserted < 0) {
+        return -1;
+      }
+
+      count += inserted;
+      scanned += page.size();
+      written += inserted;
+
+      if (page.size() < PAGE_SIZE) {
+        break;
+      }
+      progress = page.lastElement().getId();
+    }
+
+    progress = limit;
+
+    if (count > 0) {
+      ServersideSettings.getLogger().info(
+          count + " Zwischenstände für die Buchungen " + (start + 1) + " bis "
+              + limit + " angelegt.");
+    }
+
+    return count;
+  }
+
+  /**
+   * Auslesen bzw. erstmaliges Ermitteln des mitgeführten Zustands eines
+   * Kontos.
+   *
+   * @param states die Zustände der bereits gesehenen Konten
+   * @param accountID Kontonummer
+   * @param start Primärschlüssel der letzten Buchung vor diesem Durchlauf
+   * @return Kontostand und Anzahl der Buchungen seit dem letzten
+   *         Zwischenstand oder <code>null</code> bei einem Fehler
+   */
+  private double[] state(HashMap<Integer, double[]> states, int accountID,
+      int start) {
+    double[] state = states.get(Integer.valueOf(accountID));
+    if (state == null) {
+      state = balances.findCheckpointState(accountID, start);
+      if (state != null) {
+        states.put(Integer.valueOf(accountID), state);
+      }
+    }
+    return state;
+  }
+
+  /**
+   * Kennzahlen der Durchläufe für die Überwachung.
+   */
+  @Override
+  public synchronized String toString() {
+    return "BalanceCheckpointer[runs=" + runs + ", scanned=" + scanned
+        + ", written=" + written + ", progress=" + progress + "]";
+  }
+}
@@ -0,0 +1,552 @@
+package de.hdm.thies.bankProjekt.server.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import de.hdm.thies.bankProjekt.server.ServersideSettings;
+
+/**
+ * <p>
+ * Begrenzter Pool von Datenbankverbindungen. Statt einer einzigen, von allen
+ * gleichzeitigen Anfragen gemeinsam genutzten Verbindung erhält jede Anfrage
+ * für die Dauer einer Mapper-Methode eine eigene Verbindung, die sie danach
+ * wieder an den Pool zurückgibt.
+ * </p>
+ * <p>
+ * Der Pool hält mindestens <code>minSize</code> und höchstens
+ * <code>maxSize</code> Verbindungen. Ist keine Verbindung frei, wartet
+ * {@link #borrow()} höchstens <code>borrowTimeout</code> Millisekunden und
+ * wirft dann eine <code>SQLException</code>. Länger als
+ * <code>idleTimeout</code> ungenutzte Verbindungen werden geschlossen, sofern
+ * dadurch <code>minSize</code> nicht unterschritten wird. Vor der Herausgabe
+ * wird eine Verbindung optional auf ihre Funktionsfähigkeit geprüft, so dass
+ * z.B. nach einem Neustart der Datenbank automatisch neue Verbindungen
+ * aufgebaut werden.
+ * </p>
+ * <p>
+ * Jede Verbindung besitzt einen eigenen {@link StatementCache}, über den
+ * Mapper mittels {@link #prepare(Connection, String)} ihre parametrisierten
+ * Statements beziehen.
+ * </p>
+ * <p>
+ * Zur Dimensionierung des Pools werden einige Kennzahlen mitgeschrieben, die
+ * über die <code>get...</code>-Methoden bzw. {@link #toString()} ausgelesen
+ * werden können.
+ * </p>
+ * 
+ * @see DBConnection
+ */
+public class ConnectionPool {
+
+  /**
+   * Eine vom Pool verwaltete Verbindung samt Zeitpunkt ihrer letzten Rückgabe
+   * und ihren vorbereiteten Statements.
+   */
+  static class PooledConnection {
+    final Connection connection;
+
+    final StatementCache statements;
+
+    long lastUsed = System.currentTimeMillis();
+
+    PooledConnection(Connection connection, StatementCache statements) {
+      this.connection = connection;
+      this.statements = statements;
+    }
+  }
+
+  private final String url;
+
+  private final int minSize;
+
+  private final int maxSize;
+
+  private final long borrowTimeout;
+
+  private final long idleTimeout;
+
+  private final boolean validateOnBorrow;
+
+  private final int validationTimeout;
+
+  private final int statementCacheSize;
+
+  /**
+   * Jede verliehene Verbindung belegt eine Genehmigung. Dadurch ist die Zahl
+   * gleichzeitig verliehener Verbindungen auf <code>maxSize</code> begrenzt.
+   */
+  private final Semaphore permits;
+
+  /**
+   * Freie Verbindungen. Zuletzt zurückgegebene Verbindungen werden zuerst
+   * wieder verliehen, so dass sich ungenutzte Verbindungen am Ende sammeln und
+   * dort verdrängt werden können.
+   */
+  private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<PooledConnection>();
+
+  /**
+   * Derzeit verliehene Verbindungen. Der Vergleich erfolgt über die Identität
+   * der <code>Connection</code>-Objekte.
+   */
+  private final Map<Connection, PooledConnection> borrowed = Collections
+      .synchronizedMap(new IdentityHashMap<Connection, PooledConnection>());
+
+  private final ReentrantLock evictionLock = new ReentrantLock();
+
+  private volatile boolean closed = false;
+
+  private final AtomicLong borrowCount = new AtomicLong();
+
+  private final AtomicLong timeoutCount = new AtomicLong();
+
+  private final AtomicLong createdCount = new AtomicLong();
+
+  private final AtomicLong destroyedCount = new AtomicLong();
+
+  private final AtomicLong totalWaitNanos = new AtomicLong();
+
+  private final AtomicLong maxWaitNanos = new AtomicLong();
+
+  private final AtomicLong statementHits = new AtomicLong();
+
+  private final AtomicLong statementMisses = new AtomicLong();
+
+  private final AtomicLong statementEvictions = new AtomicLong();
+
+  /**
+   * Anlegen eines Pools für die übergebene JDBC-URL. Der JDBC-Treiber muss
+   * bereits geladen sein.
+   * 
+   * @param url JDBC-URL der Datenbank
+   * @param minSize Anzahl der Verbindungen, die mindestens vorgehalten werden
+   * @param maxSize Anzahl der Verbindungen, die höchstens gleichzeitig
+   *          existieren
+   * @param borrowTimeout maximale Wartezeit auf eine freie Verbindung in ms
+   * @param idleTimeout Zeit in ms, nach der eine ungenutzte Verbindung
+   *          geschlossen wird
+   * @param validateOnBorrow <code>true</code>, wenn Verbindungen vor der
+   *          Herausgabe geprüft werden sollen
+   * @param validationTimeout maximale Dauer dieser Prüfung in Sekunden
+   * @param statementCacheSize Anzahl vorbereiteter Statements, die je
+   *          Verbindung höchstens zwischengespeichert werden
+   */
+  public ConnectionPool(String url, int minSize, int maxSize,
+      long borrowTimeout, long idleTimeout, boolean validateOnBorrow,
+      int validationTimeout, int statementCacheSize) {
+    if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+      throw new IllegalArgumentException("Ungültige Poolgröße: min=" + minSize
+          + ", max=" + maxSize);
+    }
+
+    this.url = url;
+    this.minSize = minSize;
+    this.maxSize = maxSize;
+    this.borrowTimeout = borrowTimeout;
+    this.idleTimeout = idleTimeout;
+    this.validateOnBorrow = validateOnBorrow;
+    this.validationTimeout = validationTimeout;
+    this.statementCacheSize = statementCacheSize;
+    this.permits = new Semaphore(maxSize, true);
+  }
+
+  /**
+   * Aufbauen der Mindestanzahl an Verbindungen. Schlägt dies fehl, etwa weil
+   * die Datenbank noch nicht erreichbar ist, werden die Verbindungen später bei
+   * Bedarf aufgebaut.
+   */
+  public void fill() {
+    while (!closed && idle.size() + borrowed.size() < minSize) {
+      try {
+        idle.offerLast(create());
+      }
+      catch (SQLException e) {
+        ServersideSettings.getLogger().warning(
+            "Verbindungsaufbau zur Datenbank fehlgeschlagen: " + e.getMessage());
+        return;
+      }
+    }
+  }
+
+  /**
+   * Ausleihen einer Verbindung. Die Verbindung muss nach Gebrauch stets mit
+   * {@link #release(Connection)} zurückgegeben werden, am besten in einem
+   * <code>finally</code>-Block.
+   * 
+   * @return eine funktionsfähige Verbindung im Auto-Commit-Modus
+   * @throws SQLException wenn innerhalb von <code>borrowTimeout</code> keine
+   *           Verbindung frei wird oder keine Verbindung aufgebaut werden kann
+   */
+  public Connection borrow() throws SQLException {
+    if (closed) {
+      throw new SQLException("Der Connection Pool ist geschlossen.");
+    }
+
+    long start = System.nanoTime();
+    boolean acquired = false;
+
+    try {
+      acquired = permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Warten auf eine Datenbankverbindung unterbrochen.");
+    }
+    finally {
+      recordWait(System.nanoTime() - start);
+    }
+
+    if (!acquired) {
+      timeoutCount.incrementAndGet();
+      throw new SQLException("Keine freie Datenbankverbindung innerhalb von "
+          + borrowTimeout + " ms (" + this + ")");
+    }
+
+    try {
+      PooledConnection pc = takeIdle();
+
+      if (pc == null) {
+        pc = create();
+      }
+
+      borrowed.put(pc.connection, pc);
+      borrowCount.incrementAndGet();
+
+      return pc.connection;
+    }
+    catch (SQLException e) {
+      permits.release();
+      throw e;
+    }
+    catch (RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Zurückgeben einer zuvor mit {@link #borrow()} ausgeliehenen Verbindung.
+   * Offene Transaktionen werden dabei zurückgerollt. Verbindungen, die nicht
+   * (mehr) von diesem Pool verliehen sind, werden ignoriert, so dass ein
+   * doppeltes Zurückgeben unschädlich ist.
+   * 
+   * @param con die zurückzugebende Verbindung, darf <code>null</code> sein
+   */
+  public void release(Connection con) {
+    if (con == null) {
+      return;
+    }
+
+    PooledConnection pc = borrowed.remove(con);
+
+    if (pc == null) {
+      return;
+    }
+
+    try {
+      if (closed || con.isClosed()) {
+        destroy(pc);
+      }
+      else {
+        if (!con.getAutoCommit()) {
+          con.rollback();
+          con.setAutoCommit(true);
+        }
+        pc.lastUsed = System.currentTimeMillis();
+        idle.offerFirst(pc);
+      }
+    }
+    catch (SQLException e) {
+      destroy(pc);
+    }
+    finally {
+      permits.release();
+    }
+
+    evictIdle();
+  }
+
+  /**
+   * Auslesen bzw. erstmaliges Vorbereiten eines parametrisierten Statements
+   * auf einer von diesem Pool verliehenen Verbindung. Das Statement wird im
+   * {@link StatementCache} der Verbindung abgelegt und bei erneuter Anfrage mit
+   * demselben SQL-Text wiederverwendet. Es darf daher vom Aufrufer nicht
+   * geschlossen werden; das <code>ResultSet</code> dagegen schon.
+   * 
+   * @param con eine mit {@link #borrow()} ausgeliehene Verbindung
+   * @param sql SQL-Text mit <code>?</code> als Platzhalter für Parameter
+   * @return das vorbereitete Statement
+   * @throws SQLException
+   */
+  public PreparedStatement prepare(Connection con, String sql)
+      throws SQLException {
+    PooledConnection pc = borrowed.get(con);
+
+    if (pc == null) {
+      throw new SQLException("Die Verbindung ist nicht von diesem Pool verliehen.");
+    }
+
+    return pc.statements.prepare(sql);
+  }
+
+  /**
+   * Ist die Verbindung derzeit von diesem Pool verliehen? Verwaltet eine
+   * Applikation mehrere Pools, lässt sich so der zuständige Pool einer
+   * Verbindung ermitteln.
+   *
+   * @param con die zu prüfende Verbindung
+   */
+  public boolean owns(Connection con) {
+    return con != null && borrowed.containsKey(con);
+  }
+
+  /**
+   * Schließen sämtlicher freien Verbindungen, die länger als
+   * <code>idleTimeout</code> ungenutzt sind, solange dadurch
+   * <code>minSize</code> nicht unterschritten wird. Die Methode wird bei jeder
+   * Rückgabe einer Verbindung aufgerufen, so dass kein eigener Hintergrund-Thread
+   * benötigt wird.
+   */
+  public void evictIdle() {
+    if (!evictionLock.tryLock()) {
+      return;
+    }
+
+    try {
+      long limit = System.currentTimeMillis() - idleTimeout;
+
+      while (idle.size() + borrowed.size() > minSize) {
+        PooledConnection pc = idle.pollLast();
+
+        if (pc == null) {
+          break;
+        }
+
+        if (pc.lastUsed > limit) {
+          idle.offerLast(pc);
+          break;
+        }
+
+        destroy(pc);
+      }
+    }
+    finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /**
+   * Schließen des Pools samt aller freien Verbindungen. Verliehene Verbindungen
+   * werden bei ihrer Rückgabe geschlossen.
+   */
+  public void close() {
+    closed = true;
+
+    PooledConnection pc;
+    while ((pc = idle.pollFirst()) != null) {
+      destroy(pc);
+    }
+  }
+
+  /**
+   * Entnehmen einer freien Verbindung. Abgelaufene oder nicht mehr
+   * funktionsfähige Verbindungen werden dabei verworfen.
+   * 
+   * @return eine freie Verbindung oder <code>null</code>, wenn keine vorhanden
+   *         ist
+   */
+  private PooledConnection takeIdle() {
+    long limit = System.currentTimeMillis() - idleTimeout;
+    PooledConnection pc;
+
+    while ((pc = idle.pollFirst()) != null) {
+      if (pc.lastUsed < limit && idle.size() + borrowed.size() >= minSize) {
+        destroy(pc);
+        continue;
+      }
+
+      if (!validateOnBorrow || isValid(pc)) {
+        return pc;
+      }
+
+      destroy(pc);
+    }
+
+    return null;
+  }
+
+  private boolean isValid(PooledConnection pc) {
+    try {
+      return pc.connection.isValid(validationTimeout);
+    }
+    catch (SQLException e) {
+      return false;
+    }
+  }
+
+  private PooledConnection create() throws SQLException {
+    Connection con = DriverManager.getConnection(url);
+    createdCount.incrementAndGet();
+
+    return new PooledConnection(con, new StatementCache(con,
+        statementCacheSize, statementHits, statementMisses, statementEvictions));
+  }
+
+  private void destroy(PooledConnection pc) {
+    destroyedCount.incrementAndGet();
+    pc.statements.clear();
+
+    try {
+      pc.connection.close();
+    }
+    catch (SQLException e) {
+      // Die Verbindung ist ohnehin unbrauchbar.
+    }
+  }
+
+  private void recordWait(long nanos) {
+    totalWaitNanos.addAndGet(nanos);
+
+    long max = maxWaitNanos.get();
+    while (nanos > max && !maxWaitNanos.compareAndSet(max, nanos)) {
+      max = maxWaitNanos.get();
+    }
+  }
+
+  /**
+   * Auslesen der Anzahl derzeit verliehener Verbindungen.
+   */
+  public int getActiveCount() {
+    return borrowed.size();
+  }
+
+  /**
+   * Auslesen der Anzahl derzeit freier Verbindungen.
+   */
+  public int getIdleCount() {
+    return idle.size();
+  }
+
+  /**
+   * Auslesen der Anzahl der Anfragen, die gerade auf eine Verbindung warten.
+   */
+  public int getWaitingCount() {
+    return permits.getQueueLength();
+  }
+
+  public int getMinSize() {
+    return minSize;
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Auslesen der Anzahl bisheriger Ausleihvorgänge.
+   */
+  public long getBorrowCount() {
+    return borrowCount.get();
+  }
+
+  /**
+   * Auslesen der Anzahl der Ausleihvorgänge, die an
+   * <code>borrowTimeout</code> gescheitert sind.
+   */
+  public long getTimeoutCount() {
+    return timeoutCount.get();
+  }
+
+  /**
+   * Auslesen der Anzahl insgesamt aufgebauter Verbindungen.
+   */
+  public long getCreatedCount() {
+    return createdCount.get();
+  }
+
+  /**
+   * Auslesen der Anzahl insgesamt geschlossener Verbindungen.
+   */
+  public long getDestroyedCount() {
+    return destroyedCount.get();
+  }
+
+  /**
+   * Auslesen der insgesamt mit Warten auf eine Verbindung verbrachten Zeit in
+   * Nanosekunden.
+   */
+  public long getTotalWaitNanos() {
+    return totalWaitNanos.get();
+  }
+
+  /**
+   * Auslesen der längsten Wartezeit auf eine Verbindung in Nanosekunden.
+   */
+  public long getMaxWaitNanos() {
+    return maxWaitNanos.get();
+  }
+
+  /**
+   * Auslesen der durchschnittlichen Wartezeit auf eine Verbindung in
+   * Nanosekunden.
+   */
+  public long getAverageWaitNanos() {
+    long count = borrowCount.get() + timeoutCount.get();
+    return count == 0 ? 0 : totalWaitNanos.get() / count;
+  }
+
+  /**
+   * Auslesen der Anzahl der Anfragen, für die ein bereits vorbereitetes
+   * Statement wiederverwendet werden konnte.
+   */
+  public long getStatementCacheHits() {
+    return statementHits.get();
+  }
+
+  /**
+   * Auslesen der Anzahl der Anfragen, für die ein Statement neu vorbereitet
+   * werden musste.
+   */
+  public long getStatementCacheMisses() {
+    return statementMisses.get();
+  }
+
+  /**
+   * Auslesen der Anzahl der Statements, die wegen Überschreitung der
+   * Cache-Größe geschlossen wurden.
+   */
+  public long getStatementCacheEvictions() {
+    return statementEvictions.get();
+  }
+
+  /**
+   * Erzeugen einer einfachen textuellen Darstellung der Pool-Kennzahlen, z.B.
+   * für das Logging.
+   */
+  @Override
+  public String toString() {
+    ArrayList<String> parts = new ArrayList<String>();
+    parts.add("active=" + getActiveCount());
+    parts.add("idle=" + getIdleCount());
+    parts.add("waiting=" + getWaitingCount());
+    parts.add("max=" + maxSize);
+    parts.add("borrows=" + getBorrowCount());
+    parts.add("timeouts=" + getTimeoutCount());
+    parts.add("avgWait=" + getAverageWaitNanos() / 1000 + "us");
+    parts.add("maxWait=" + getMaxWaitNanos() / 1000 + "us");
+    parts.add("stmtHits=" + getStatementCacheHits());
+    parts.add("stmtMisses=" + getStatementCacheMisses());
+
+    return "ConnectionPool" + parts;
+  }
+}
@@ -1,8 +1,13 @@
 package de.hdm.thies.bankProjekt.server.db;
 
 import java.sql.*;
+import java.util.HashMap;
 import java.util.Vector;
 
+import de.hdm.thies.bankProjekt.server.ServersideSettings;
+import de.hdm.thies.bankProjekt.server.storage.CustomerStorage;
+import de.hdm.thies.bankProjekt.server.storage.ObjectHandler;
+import de.hdm.thies.bankProjekt.shared.StaleObjectException;
 import de.hdm.thies.bankProjekt.shared.bo.*;
 
 /**
@@ -20,7 +25,7 @@ import de.hdm.thies.bankProjekt.shared.bo.*;
  * @author Thies
  */
 
-public class CustomerMapper {
+public class CustomerMapper implements CustomerStorage {
 
   /**
    * Die Klasse CustomerMapper wird nur einmal instantiiert. Man spricht hierbei
@@ -34,6 +39,17 @@ public class CustomerMapper {
    */
   private static CustomerMapper customerMapper = null;
 
+  /**
+   * Zwischenspeicher für die mittels {@link #findByKey(int)} gelesenen Kunden.
+   * Größe und Lebensdauer der Einträge lassen sich über die System Properties
+   * <code>bankprojekt.cache.customers.maxSize</code> (Standard: 1000) und
+   * <code>bankprojekt.cache.ttl</code> (in ms, Standard: 30000) einstellen.
+   */
+  private final EntityCache<Customer> cache = new EntityCache<Customer>(
+      "customers", ServersideSettings.getIntProperty(
+          "bankprojekt.cache.customers.maxSize", 1000),
+      ServersideSettings.getLongProperty("bankprojekt.cache.ttl", 30000));
+
   /**
    * Geschützter Konstruktor - verhindert die Möglichkeit, mit new neue
    * Instanzen dieser Klasse zu erzeugen.
@@ -72,40 +88,139 @@ public class CustomerMapper {
    *         nicht vorhandenem DB-Tupel.
    */
   public Customer findByKey(int id) {
-    // DB-Verbindung holen
-    Connection con = DBConnection.connection();
+    /*
+     * Zunächst im Cache nachsehen, außer der aktuelle Thread hat gerade
+     * geschrieben (read-your-writes)
+     */
+    Customer cached = DBConnection.hasRecentWrite() ? null : cache.get(id);
+    if (cached != null) {
+      return copy(cached);
+    }
+
+    long generation = cache.generation();
+    long start = System.nanoTime();
+    Connection con = null;
+    ResultSet rs = null;
 
     try {
-      // Leeres SQL-Statement (JDBC) anlegen
-      Statement stmt = con.createStatement();
+      // Lesende DB-Verbindung holen, ggf. zu einem Replikat
+      con = DBConnection.readConnection();
+
+      // Vorbereitetes SQL-Statement (JDBC) holen und Parameter setzen
+      PreparedStatement stmt = DBConnection.prepare(con,
+          "SELECT id, firstName, lastName, version FROM customers WHERE id=?");
+      stmt.setInt(1, id);
 
-      // Statement ausfüllen und als Query an die DB schicken
-      ResultSet rs = stmt
-          .executeQuery("SELECT id, firstName, lastName FROM customers "
-              + "WHERE id=" + id + " ORDER BY lastName");
+      // Statement als Query an die DB schicken
+      rs = stmt.executeQuery();
 
       /*
        * Da id Primärschlüssel ist, kann max. nur ein Tupel zurückgegeben
        * werden. Prüfe, ob ein Ergebnis vorliegt.
        */
       if (rs.next()) {
-        // Ergebnis-Tupel in Objekt umwandeln
-        Customer c = new Customer();
-        c.setId(rs.getInt("id"));
-        c.setFirstName(rs.getString("firstName"));
-        c.setLastName(rs.getString("lastName"));
-
-        return c;
+        // Ergebnis-Tupel in Objekt umwandeln und eine Kopie im Cache ablegen
+        Customer result = createCustomer(rs);
+        cache.recordLoad(System.nanoTime() - start);
+        if (DBConnection.isPrimary(con)) {
+          cache.put(id, copy(result), generation);
+        }
+        return result;
       }
     }
     catch (SQLException e) {
       e.printStackTrace();
       return null;
     }
+    finally {
+      // Ergebnis schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.release(con);
+    }
 
     return null;
   }
 
+  /**
+   * Suchen mehrerer Kunden anhand ihrer Primärschlüssel. Bereits im Cache
+   * vorhandene Kunden werden von dort übernommen, die übrigen mit
+   * <code>IN</code>-Anfragen zu je höchstens
+   * {@value DBConnection#IN_CHUNK_SIZE} Schlüsseln gelesen. Für N Schlüssel
+   * sind damit höchstens ceil(N / {@value DBConnection#IN_CHUNK_SIZE})
+   * Anfragen nötig statt N.
+   * 
+   * @param ids Primärschlüssel
+   * @return die gefundenen Kunden, indiziert nach Primärschlüssel. Nicht
+   *         vorhandene Schlüssel fehlen in der Map. Bei einem Fehler wird
+   *         <code>null</code> zurückgeliefert.
+   */
+  public HashMap<Integer, Customer> findByKeys(int[] ids) {
+    HashMap<Integer, Customer> result = new HashMap<Integer, Customer>();
+
+    // Zunächst im Cache nachsehen und die fehlenden Schlüssel sammeln
+    int[] missing = new int[ids.length];
+    int missingCount = 0;
+    boolean recentWrite = DBConnection.hasRecentWrite();
+    for (int id : ids) {
+      Customer cached = recentWrite ? null : cache.get(id);
+      if (cached != null) {
+        result.put(Integer.valueOf(id), copy(cached));
+      }
+      else {
+        missing[missingCount++] = id;
+      }
+    }
+    if (missingCount == 0) {
+      return result;
+    }
+
+    long generation = cache.generation();
+    Connection con = null;
+    ResultSet rs = null;
+
+    try {
+      // Lesende DB-Verbindung holen, ggf. zu einem Replikat
+      con = DBConnection.readConnection();
+      // Nur von der primären Datenbank Gelesenes in den Cache übernehmen
+      boolean cacheable = DBConnection.isPrimary(con);
+
+      for (int from = 0; from < missingCount; from += DBConnection.IN_CHUNK_SIZE) {
+        int to = Math.min(from + DBConnection.IN_CHUNK_SIZE, missingCount);
+        int size = DBConnection.inSize(to - from);
+        long start = System.nanoTime();
+
+        PreparedStatement stmt = DBConnection.prepare(con,
+            "SELECT id, firstName, lastName, version FROM customers "
+                + "WHERE id IN (" + DBConnection.placeholders(size) + ")");
+        DBConnection.setIn(stmt, 1, missing, from, to, size);
+
+        rs = stmt.executeQuery();
+        while (rs.next()) {
+          // Ergebnis-Tupel in Objekt umwandeln und eine Kopie im Cache ablegen
+          Customer c = createCustomer(rs);
+          if (cacheable) {
+            cache.put(c.getId(), copy(c), generation);
+          }
+          result.put(Integer.valueOf(c.getId()), c);
+        }
+        cache.recordLoad(System.nanoTime() - start);
+        DBConnection.close(rs);
+        rs = null;
+      }
+    }
+    catch (SQLException e) {
+      e.printStackTrace();
+      return null;
+    }
+    finally {
+      // Ergebnis schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.release(con);
+    }
+
+    return result;
+  }
+
   /**
    * Auslesen aller Kunden.
    * 
@@ -114,36 +229,186 @@ public class CustomerMapper {
    *         oder ggf. auch leerer Vetor zurückgeliefert.
    */
   public Vector<Customer> findAll() {
-    Connection con = DBConnection.connection();
+    Connection con = null;
+    ResultSet rs = null;
     // Ergebnisvektor vorbereiten
     Vector<Customer> result = new Vector<Customer>();
 
     try {
-      Statement stmt = con.createStatement();
+      // Lesende DB-Verbindung holen, ggf. zu einem Replikat
+      con = DBConnection.readConnection();
+
+      PreparedStatement stmt = DBConnection.prepare(con,
+          "SELECT id, firstName, lastName, version FROM customers ORDER BY lastName");
 
-      ResultSet rs = stmt.executeQuery("SELECT id, firstName, lastName "
-          + "FROM customers " + "ORDER BY lastName");
+      rs = stmt.executeQuery();
 
       // Für jeden Eintrag im Suchergebnis wird nun ein Customer-Objekt
       // erstellt.
       while (rs.next()) {
-        Customer c = new Customer();
-        c.setId(rs.getInt("id"));
-        c.setFirstName(rs.getString("firstName"));
-        c.setLastName(rs.getString("lastName"));
-
         // Hinzufügen des neuen Objekts zum Ergebnisvektor
-        result.addElement(c);
+        result.addElement(createCustomer(rs));
       }
     }
     catch (SQLException e) {
       e.printStackTrace();
     }
+    finally {
+      // Ergebnis schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.release(con);
+    }
 
     // Ergebnisvektor zurückgeben
     return result;
   }
 
+  /**
+   * Schrittweises Auslesen aller Kunden. Anders als bei {@link #findAll()}
+   * wird das Ergebnis nicht vollständig in den Speicher geladen, sondern über
+   * einen Cursor der Datenbank gelesen. Jedes Customer-Objekt wird sofort an
+   * den <code>handler</code> übergeben und danach nicht mehr referenziert.
+   * Damit eignet sich diese Methode auch für sehr große Tabellen, etwa bei
+   * Reports oder Exporten. Die Kunden werden nach ihrem Primärschlüssel
+   * sortiert geliefert.
+   * 
+   * @param handler erhält nacheinander jedes Customer-Objekt
+   * @return die Anzahl der verarbeiteten Kunden. Bei evtl. Exceptions
+   *         wird der Durchlauf abgebrochen.
+   * @see DBConnection#stream(Connection, String)
+   */
+  public int forEach(ObjectHandler<Customer> handler) {
+    Connection con = null;
+    PreparedStatement stmt = null;
+    ResultSet rs = null;
+    int count = 0;
+
+    try {
+      // Lesende DB-Verbindung holen, ggf. zu einem Replikat
+      con = DBConnection.readConnection();
+
+      stmt = DBConnection.stream(con,
+          "SELECT id, firstName, lastName, version FROM customers ORDER BY id");
+
+      rs = stmt.executeQuery();
+
+      // Jedes Tupel wird einzeln umgewandelt und weitergereicht.
+      while (rs.next()) {
+        handler.handle(createCustomer(rs));
+        count++;
+      }
+    }
+    catch (SQLException e) {
+      e.printStackTrace();
+    }
+    finally {
+      // Cursor schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.close(stmt);
+      DBConnection.release(con);
+    }
+
+    return count;
+  }
+
+  /**
+   * Seitenweises Auslesen der Kunden. Geliefert werden höchstens
+   * <code>limit</code> Kunden, deren Primärschlüssel größer als
+   * <code>afterId</code> ist, aufsteigend nach dem Primärschlüssel sortiert.
+   * Die nächste Seite erhält man, indem man den Schlüssel des letzten Elements
+   * als <code>afterId</code> übergibt. Da die Datenbank dabei direkt über den
+   * Primärschlüssel-Index einsteigt, ist jede Seite gleich schnell gelesen,
+   * egal wie weit man bereits geblättert hat.
+   * 
+   * @param afterId Primärschlüssel des letzten Elements der vorherigen Seite
+   *          bzw. 0 für die erste Seite
+   * @param limit Höchstanzahl der zu liefernden Kunden
+   * @return Ein Vektor mit Customer-Objekten. Ist er leer, gibt es keine
+   *         weiteren Kunden.
+   */
+  public Vector<Customer> findPage(int afterId, int limit) {
+    Connection con = null;
+    ResultSet rs = null;
+    Vector<Customer> result = new Vector<Customer>();
+
+    try {
+      // Lesende DB-Verbindung holen, ggf. zu einem Replikat
+      con = DBConnection.readConnection();
+
+      PreparedStatement stmt = DBConnection.prepare(con,
+          "SELECT id, firstName, lastName, version FROM customers WHERE id>? ORDER BY id LIMIT ?");
+      stmt.setInt(1, afterId);
+      stmt.setInt(2, limit);
+
+      rs = stmt.executeQuery();
+
+      while (rs.next()) {
+        result.addElement(createCustomer(rs));
+      }
+    }
+    catch (SQLException e) {
+      e.printStackTrace();
+    }
+    finally {
+      // Ergebnis schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.release(con);
+    }
+
+    return result;
+  }
+
+  /**
+   * Seitenweises Auslesen der Kunden in der Reihenfolge ihrer Nachnamen. Wie
+   * bei {@link #findPage(int, int)} wird die Seite über den Schlüssel des
+   * letzten Elements der vorherigen Seite bestimmt, hier zusammengesetzt aus
+   * Nachname und Primärschlüssel, so dass auch gleichnamige Kunden genau
+   * einmal geliefert werden. Die Datenbank steigt dabei über den Index auf
+   * <code>lastName</code> ein.
+   * 
+   * @param afterLastName Nachname des letzten Elements der vorherigen Seite
+   *          bzw. <code>""</code> für die erste Seite
+   * @param afterId Primärschlüssel des letzten Elements der vorherigen Seite
+   *          bzw. 0 für die erste Seite
+   * @param limit Höchstanzahl der zu liefernden Kunden
+   * @return Ein Vektor mit Customer-Objekten. Ist er leer, gibt es keine
+   *         weiteren Kunden.
+   */
+  public Vector<Customer> findPageByLastName(String afterLastName,
+      int afterId, int limit) {
+    Connection con = null;
+    ResultSet rs = null;
+    Vector<Customer> result = new Vector<Customer>();
+
+    try {
+      // Lesende DB-Verbindung holen, ggf. zu einem Replikat
+      con = DBConnection.readConnection();
+
+      PreparedStatement stmt = DBConnection.prepare(con,
+          "SELECT id, firstName, lastName, version FROM customers "
+              + "WHERE (lastName, id) > (?, ?) ORDER BY lastName, id LIMIT ?");
+      stmt.setString(1, afterLastName);
+      stmt.setInt(2, afterId);
+      stmt.setInt(3, limit);
+
+      rs = stmt.executeQuery();
+
+      while (rs.next()) {
+        result.addElement(createCustomer(rs));
+      }
+    }
+    catch (SQLException e) {
+      e.printStackTrace();
+    }
+    finally {
+      // Ergebnis schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.release(con);
+    }
+
+    return result;
+  }
+
   /**
    * Auslesen aller Kunden-Objekte mit gegebenem Nachnamen
    * 
@@ -153,31 +418,41 @@ public class CustomerMapper {
    *         partiell gefüllter oder ggf. auch leerer Vetor zurückgeliefert.
    */
   public Vector<Customer> findByLastName(String name) {
-    Connection con = DBConnection.connection();
+    Connection con = null;
+    ResultSet rs = null;
     Vector<Customer> result = new Vector<Customer>();
 
     try {
-      Statement stmt = con.createStatement();
+      // Lesende DB-Verbindung holen, ggf. zu einem Replikat
+      con = DBConnection.readConnection();
 
-      ResultSet rs = stmt.executeQuery("SELECT id, firstName, lastName "
-          + "FROM customers " + "WHERE lastName LIKE '" + name
-          + "' ORDER BY lastName");
+      /*
+       * Der Nachname wird als Parameter übergeben und nicht in den SQL-Text
+       * eingefügt. Dadurch kann das Statement wiederverwendet werden und
+       * Sonderzeichen im Namen stellen kein Problem dar.
+       */
+      PreparedStatement stmt = DBConnection.prepare(con,
+          "SELECT id, firstName, lastName, version FROM customers "
+              + "WHERE lastName LIKE ? ORDER BY lastName");
+      stmt.setString(1, name);
+
+      rs = stmt.executeQuery();
 
       // Für jeden Eintrag im Suchergebnis wird nun ein Customer-Objekt
       // erstellt.
       while (rs.next()) {
-        Customer c = new Customer();
-        c.setId(rs.getInt("id"));
-        c.setFirstName(rs.getString("firstName"));
-        c.setLastName(rs.getString("lastName"));
-
         // Hinzufügen des neuen Objekts zum Ergebnisvektor
-        result.addElement(c);
+        result.addElement(createCustomer(rs));
       }
     }
     catch (SQLException e) {
       e.printStackTrace();
     }
+    finally {
+      // Ergebnis schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.release(con);
+    }
 
     // Ergebnisvektor zurückgeben
     return result;
@@ -193,37 +468,39 @@ public class CustomerMapper {
    *         <code>id</code>.
    */
   public Customer insert(Customer c) {
-    Connection con = DBConnection.connection();
+    Connection con = null;
 
     try {
-      Statement stmt = con.createStatement();
-
       /*
-       * Zunächst schauen wir nach, welches der momentan höchste
-       * Primärschlüsselwert ist.
+       * c erhält den nächsten freien Primärschlüssel aus einem zuvor
+       * reservierten Block. Die frühere Anfrage nach dem momentan höchsten
+       * Primärschlüsselwert entfällt damit, und gleichzeitige Einfügeoperationen
+       * können nicht mehr denselben Schlüssel erhalten.
        */
-      ResultSet rs = stmt.executeQuery("SELECT MAX(id) AS maxid "
-          + "FROM customers ");
+      c.setId(IdAllocator.idAllocator().nextId(IdAllocator.CUSTOMERS));
 
-      // Wenn wir etwas zurückerhalten, kann dies nur einzeilig sein
-      if (rs.next()) {
-        /*
-         * c erhält den bisher maximalen, nun um 1 inkrementierten
-         * Primärschlüssel.
-         */
-        c.setId(rs.getInt("maxid") + 1);
-
-        stmt = con.createStatement();
-
-        // Jetzt erst erfolgt die tatsächliche Einfügeoperation
-        stmt.executeUpdate("INSERT INTO customers (id, firstName, lastName) "
-            + "VALUES (" + c.getId() + ",'" + c.getFirstName() + "','"
-            + c.getLastName() + "')");
-      }
+      // Ein neues Tupel beginnt mit Version 0 (siehe update(Customer))
+      c.setVersion(0);
+
+      // DB-Verbindung aus dem Pool holen
+      con = DBConnection.connection();
+
+      PreparedStatement stmt = DBConnection.prepare(con,
+          "INSERT INTO customers (id, firstName, lastName) VALUES (?, ?, ?)");
+      stmt.setInt(1, c.getId());
+      stmt.setString(2, c.getFirstName());
+      stmt.setString(3, c.getLastName());
+
+      // Jetzt erfolgt die tatsächliche Einfügeoperation
+      stmt.executeUpdate();
     }
     catch (SQLException e) {
       e.printStackTrace();
     }
+    finally {
+      // Verbindung in jedem Fall an den Pool zurückgeben
+      DBConnection.release(con);
+    }
 
     /*
      * Rückgabe, des evtl. korrigierten Customers.
@@ -238,25 +515,46 @@ public class CustomerMapper {
   }
 
   /**
-   * Wiederholtes Schreiben eines Objekts in die Datenbank.
+   * Wiederholtes Schreiben eines Objekts in die Datenbank. Das Tupel wird nur
+   * geändert, wenn seine Version noch der des Objekts entspricht
+   * (<em>Compare-and-Set</em>). Dabei wird die Version um 1 erhöht. Eine
+   * Sperre ist hierfür nicht nötig.
    * 
    * @param c das Objekt, das in die DB geschrieben werden soll
-   * @return das als Parameter übergebene Objekt
+   * @return das als Parameter übergebene Objekt mit der neuen Version
+   * @throws StaleObjectException wenn der Kunde inzwischen geändert oder
+   *           gelöscht wurde
    */
-  public Customer update(Customer c) {
-    Connection con = DBConnection.connection();
+  public Customer update(Customer c) throws StaleObjectException {
+    Connection con = null;
 
     try {
-      Statement stmt = con.createStatement();
-
-      stmt.executeUpdate("UPDATE customers " + "SET firstName=\""
-          + c.getFirstName() + "\", " + "lastName=\"" + c.getLastName() + "\" "
-          + "WHERE id=" + c.getId());
-
+      // DB-Verbindung aus dem Pool holen
+      con = DBConnection.connection();
+
+      PreparedStatement stmt = DBConnection.prepare(con,
+          "UPDATE customers SET firstName=?, lastName=?, version=version+1 "
+              + "WHERE id=? AND version=?");
+      stmt.setString(1, c.getFirstName());
+      stmt.setString(2, c.getLastName());
+      stmt.setInt(3, c.getId());
+      stmt.setInt(4, c.getVersion());
+
+      if (stmt.executeUpdate() == 0) {
+        throw new StaleObjectException("Kunde " + c.getId()
+            + " wurde inzwischen geändert oder gelöscht.");
+      }
+      c.setVersion(c.getVersion() + 1);
     }
     catch (SQLException e) {
       e.printStackTrace();
     }
+    finally {
+      // Verbindung in jedem Fall an den Pool zurückgeben
+      DBConnection.release(con);
+      // Ein evtl. zwischengespeicherter Stand ist nicht mehr gültig
+      cache.invalidateAfterCommit(c.getId());
+    }
 
     // Um Analogie zu insert(Customer c) zu wahren, geben wir c zurück
     return c;
@@ -266,17 +564,30 @@ public class CustomerMapper {
    * Löschen der Daten eines <code>Customer</code>-Objekts aus der Datenbank.
    * 
    * @param c das aus der DB zu löschende "Objekt"
+   * @return die Anzahl der gelöschten Tupel oder -1 bei einem Fehler
    */
-  public void delete(Customer c) {
-    Connection con = DBConnection.connection();
+  public int delete(Customer c) {
+    Connection con = null;
 
     try {
-      Statement stmt = con.createStatement();
+      // DB-Verbindung aus dem Pool holen
+      con = DBConnection.connection();
 
-      stmt.executeUpdate("DELETE FROM customers " + "WHERE id=" + c.getId());
+      PreparedStatement stmt = DBConnection.prepare(con,
+          "DELETE FROM customers WHERE id=?");
+      stmt.setInt(1, c.getId());
+
+      return stmt.executeUpdate();
     }
     catch (SQLException e) {
       e.printStackTrace();
+      return -1;
+    }
+    finally {
+      // Verbindung in jedem Fall an den Pool zurückgeben
+      DBConnection.release(con);
+      // Ein evtl. zwischengespeicherter Stand ist nicht mehr gültig
+      cache.invalidateAfterCommit(c.getId());
     }
   }
 
@@ -295,4 +606,45 @@ public class CustomerMapper {
      */
     return AccountMapper.accountMapper().findByOwner(c);
   }
+
+  /**
+   * Umwandeln des aktuellen Tupels eines <code>ResultSet</code> in ein
+   * <code>Customer</code>-Objekt. Das Ergebnis muss die Spalten
+   * <code>id</code>, <code>firstName</code>, <code>lastName</code> und
+   * <code>version</code> enthalten.
+   * 
+   * @param rs das auf dem gewünschten Tupel stehende Ergebnis
+   * @return das neu erzeugte Kunden-Objekt
+   * @throws SQLException
+   */
+  private Customer createCustomer(ResultSet rs) throws SQLException {
+    Customer c = new Customer();
+    c.setId(rs.getInt("id"));
+    c.setFirstName(rs.getString("firstName"));
+    c.setLastName(rs.getString("lastName"));
+    c.setVersion(rs.getInt("version"));
+
+    return c;
+  }
+
+  /**
+   * Erzeugen einer Kopie eines Kunden. Im Cache werden nur Kopien abgelegt, so
+   * dass Änderungen an herausgegebenen Objekten den Cache nicht verfälschen.
+   */
+  private static Customer copy(Customer c) {
+    Customer result = new Customer();
+    result.setId(c.getId());
+    result.setFirstName(c.getFirstName());
+    result.setLastName(c.getLastName());
+    result.setVersion(c.getVersion());
+
+    return result;
+  }
+
+  /**
+   * Auslesen des Caches für Kunden, etwa für dessen Statistik.
+   */
+  public EntityCache<Customer> getCache() {
+    return cache;
+  }
 }
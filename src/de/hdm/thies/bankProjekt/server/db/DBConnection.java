@@ -1,40 +1,209 @@
 package de.hdm.thies.bankProjekt.server.db;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.appengine.api.utils.SystemProperty;
 
+import de.hdm.thies.bankProjekt.server.ServersideSettings;
+
 /**
- * Verwalten einer Verbindung zur Datenbank.
+ * Verwalten der Verbindungen zur Datenbank.
  * <p>
  * <b>Vorteil:</b> Sehr einfacher Verbindungsaufbau zur Datenbank.
  * <p>
- * <b>Nachteil:</b> Durch die Singleton-Eigenschaft der Klasse kann nur auf eine
- * fest vorgegebene Datenbank zugegriffen werden.
+ * Da die Applikation mehrere Anfragen gleichzeitig bearbeitet (siehe
+ * <code>&lt;threadsafe&gt;</code> in <code>appengine-web.xml</code>), teilen
+ * sich diese nicht eine einzige Verbindung. Stattdessen verwaltet
+ * <code>DBConnection</code> einen {@link ConnectionPool}. Jede Mapper-Methode
+ * leiht sich mittels {@link #connection()} eine Verbindung aus und gibt sie am
+ * Ende mittels {@link #release(Connection)} wieder zurück.
+ * <p>
+ * Anfragen werden ausschließlich als parametrisierte Statements mittels
+ * {@link #prepare(Connection, String)} gestellt. Diese werden je Verbindung
+ * zwischengespeichert, so dass häufige Anfragen wie
+ * <code>findByKey(...)</code> den bereits erstellten Ausführungsplan der
+ * Datenbank wiederverwenden.
+ * <p>
+ * Sollen die Änderungen mehrerer Mapper-Aufrufe gemeinsam festgeschrieben
+ * werden, so wird mit {@link #beginTransaction()} eine Transaktion für den
+ * aktuellen Thread begonnen. Bis zu ihrem Ende nutzen alle Mapper dieselbe
+ * Verbindung.
  * <p>
- * In der Praxis kommen die meisten Anwendungen mit einer einzigen Datenbank
- * aus. Eine flexiblere Variante für mehrere gleichzeitige
- * Datenbank-Verbindungen wäre sicherlich leistungsfähiger. Dies würde
- * allerdings den Rahmen dieses Projekts sprengen bzw. die Software unnötig
- * verkomplizieren, da dies für diesen Anwendungsfall nicht erforderlich ist.
+ * Neben der primären Datenbank können lesende Replikate konfiguriert werden.
+ * Reine Leseanfragen holen sich ihre Verbindung dann mittels
+ * {@link #readConnection()} und werden auf das Replikat mit den wenigsten
+ * verliehenen Verbindungen verteilt. Schreibende Anfragen nutzen weiterhin
+ * {@link #connection()} und damit stets die primäre Datenbank. Da Replikate
+ * den Änderungen etwas hinterherlaufen, liest ein Thread nach einem
+ * Schreibzugriff für ein kurzes Zeitfenster weiterhin von der primären
+ * Datenbank und sieht so seine eigenen Änderungen (siehe
+ * {@link #beginRequest(long)}). Ist ein Replikat nicht erreichbar, wird es
+ * für eine Weile übergangen und stattdessen die primäre Datenbank gelesen.
+ * Für die Entwicklung genügen hierfür weitere lokale MySQL-Instanzen.
+ * <p>
+ * Die Größe und das Verhalten des Pools lassen sich über folgende System
+ * Properties (siehe <code>appengine-web.xml</code>) einstellen:
+ * <ul>
+ * <li><code>bankprojekt.db.pool.minSize</code>: Mindestanzahl vorgehaltener
+ * Verbindungen (Standard: 2)</li>
+ * <li><code>bankprojekt.db.pool.maxSize</code>: Höchstanzahl gleichzeitiger
+ * Verbindungen (Standard: 10)</li>
+ * <li><code>bankprojekt.db.pool.borrowTimeout</code>: maximale Wartezeit auf
+ * eine freie Verbindung in ms (Standard: 5000)</li>
+ * <li><code>bankprojekt.db.pool.idleTimeout</code>: Zeit in ms, nach der
+ * ungenutzte Verbindungen geschlossen werden (Standard: 300000)</li>
+ * <li><code>bankprojekt.db.pool.validateOnBorrow</code>: Prüfen der Verbindung
+ * vor der Herausgabe (Standard: true)</li>
+ * <li><code>bankprojekt.db.statementCacheSize</code>: Anzahl
+ * zwischengespeicherter Statements je Verbindung (Standard: 50)</li>
+ * <li><code>bankprojekt.db.fetchSize</code>: Anzahl der Tupel, die bei
+ * {@link #stream(Connection, String)} je Abruf von der Datenbank geholt werden
+ * (Standard: 500)</li>
+ * <li><code>bankprojekt.db.replicas</code>: durch Komma getrennte JDBC-URLs
+ * der lesenden Replikate; jedes erhält einen eigenen Pool gleicher Größe
+ * (Standard: keine)</li>
+ * <li><code>bankprojekt.db.readYourWritesWindow</code>: Zeit in ms, die nach
+ * einem Schreibzugriff von der primären Datenbank gelesen wird (Standard:
+ * 2000)</li>
+ * <li><code>bankprojekt.db.replicaRetry</code>: Zeit in ms, für die ein nicht
+ * erreichbares Replikat übergangen wird (Standard: 30000)</li>
+ * <li><code>bankprojekt.db.replicaMaxLag</code>: maximal tolerierter Rückstand
+ * eines Replikats in Sekunden; 0 schaltet die Prüfung ab (Standard: 0)</li>
+ * </ul>
  * 
  * @author Thies
  */
 public class DBConnection {
 
     /**
-     * Die Klasse DBConnection wird nur einmal instantiiert. Man spricht hierbei
+     * Der Connection Pool wird nur einmal instantiiert. Man spricht hierbei
      * von einem sogenannten <b>Singleton</b>.
      * <p>
      * Diese Variable ist durch den Bezeichner <code>static</code> nur einmal
      * für sämtliche eventuellen Instanzen dieser Klasse vorhanden. Sie
-     * speichert die einzige Instanz dieser Klasse.
+     * speichert den einzigen Pool dieser Applikation.
      * 
      * @see AccountMapper.accountMapper()
      * @see CustomerMapper.customerMapper()
      */
-    private static Connection con = null;
+    private static ConnectionPool pool = null;
+
+    /**
+     * Ein lesendes Replikat samt seinem Pool und Zustand.
+     */
+    private static class Replica {
+        final String url;
+
+        final ConnectionPool pool;
+
+        /**
+         * Bis zu diesem Zeitpunkt (in ms) wird das Replikat übergangen.
+         */
+        volatile long unhealthyUntil = 0;
+
+        /**
+         * Zeitpunkt (in ms) der letzten Prüfung des Rückstands.
+         */
+        volatile long lagCheckedAt = 0;
+
+        Replica(String url, ConnectionPool pool) {
+            this.url = url;
+            this.pool = pool;
+        }
+
+        boolean isHealthy(long now) {
+            return unhealthyUntil <= now;
+        }
+
+        void markUnhealthy(String reason) {
+            unhealthyUntil = System.currentTimeMillis() + replicaRetry;
+            ServersideSettings.getLogger().warning(
+                    "Replikat " + url + " wird für " + replicaRetry
+                            + " ms übergangen: " + reason);
+        }
+    }
+
+    /**
+     * Die Replikate der Applikation; leer, wenn keine konfiguriert sind.
+     * Wird zusammen mit {@link #pool} in {@link #pool()} angelegt.
+     */
+    private static Replica[] replicas = new Replica[0];
+
+    /**
+     * Startpunkt der Suche nach einem Replikat, damit sich gleich ausgelastete
+     * Replikate abwechseln.
+     */
+    private static final AtomicInteger nextReplica = new AtomicInteger();
+
+    /**
+     * Zeitpunkt (in ms) des letzten Schreibzugriffs im jeweiligen Thread bzw.
+     * in der jeweiligen Anfrage.
+     */
+    private static final ThreadLocal<Long> lastWrite = new ThreadLocal<Long>();
+
+    private static final long readYourWritesWindow = Math.max(0,
+            ServersideSettings.getLongProperty(
+                    "bankprojekt.db.readYourWritesWindow", 2000));
+
+    private static final long replicaRetry = Math.max(0,
+            ServersideSettings.getLongProperty("bankprojekt.db.replicaRetry",
+                    30000));
+
+    private static final int replicaMaxLag = ServersideSettings
+            .getIntProperty("bankprojekt.db.replicaMaxLag", 0);
+
+    /**
+     * Mindestabstand in ms zwischen zwei Prüfungen des Rückstands eines
+     * Replikats.
+     */
+    private static final long LAG_CHECK_INTERVAL = 5000;
+
+    /**
+     * Eine mit {@link DBConnection#beginTransaction()} begonnene Transaktion
+     * samt ihrer Verbindung.
+     */
+    private static class BoundTransaction {
+        final Connection connection;
+
+        /**
+         * Anzahl der begonnenen, noch nicht festgeschriebenen lokalen
+         * Transaktionen innerhalb dieser Transaktion.
+         */
+        int depth = 0;
+
+        /**
+         * Ist innerhalb der Transaktion ein Fehler aufgetreten?
+         */
+        boolean rollbackOnly = false;
+
+        /**
+         * Die nach dem Festschreiben auszuführenden Aktionen.
+         */
+        final ArrayList<Runnable> afterCommit = new ArrayList<Runnable>();
+
+        BoundTransaction(Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+    /**
+     * Die im jeweiligen Thread laufende Transaktion, sofern vorhanden.
+     */
+    private static final ThreadLocal<BoundTransaction> transaction =
+            new ThreadLocal<BoundTransaction>();
+
+    /**
+     * Anzahl der Tupel, die bei {@link #stream(Connection, String)} je Abruf
+     * von der Datenbank geholt werden.
+     */
+    private static final int fetchSize = Math.max(1,
+            ServersideSettings.getIntProperty("bankprojekt.db.fetchSize", 500));
 
     /**
      * Die URL, mit deren Hilfe die Datenbank angesprochen wird. In einer
@@ -43,36 +212,20 @@ public class DBConnection {
      * mitgegeben, um bei einer Veränderung dieser URL nicht die gesamte
      * Software neu komilieren zu müssen.
      */
-    private static String googleUrl = "jdbc:google:mysql://prof-thies.de:thies-bankproject:thies-bankproject/bankproject?user=demo&password=demo";
-    private static String localUrl = "jdbc:mysql://127.0.0.1:3306/bankproject?user=demo&password=demo";
+    private static String googleUrl = "jdbc:google:mysql://prof-thies.de:thies-bankproject:thies-bankproject/bankproject?user=demo&password=demo&useServerPrepStmts=true&rewriteBatchedStatements=true&useCursorFetch=true";
+    private static String localUrl = "jdbc:mysql://127.0.0.1:3306/bankproject?user=demo&password=demo&useServerPrepStmts=true&rewriteBatchedStatements=true&useCursorFetch=true";
 
     /**
-     * Diese statische Methode kann aufgrufen werden durch
-     * <code>DBConnection.connection()</code>. Sie stellt die
-     * Singleton-Eigenschaft sicher, indem Sie dafür sorgt, dass nur eine
-     * einzige Instanz von <code>DBConnection</code> existiert.
-     * <p>
-     * 
-     * <b>Fazit:</b> DBConnection sollte nicht mittels <code>new</code>
-     * instantiiert werden, sondern stets durch Aufruf dieser statischen
-     * Methode.
-     * <p>
+     * Auslesen des Connection Pools. Beim ersten Aufruf wird der passende
+     * JDBC-Treiber geladen und der Pool gemäß der Konfiguration angelegt.
      * 
-     * <b>Nachteil:</b> Bei Zusammenbruch der Verbindung zur Datenbank - dies
-     * kann z.B. durch ein unbeabsichtigtes Herunterfahren der Datenbank
-     * ausgelöst werden - wird keine neue Verbindung aufgebaut, so dass die in
-     * einem solchen Fall die gesamte Software neu zu starten ist. In einer
-     * robusten Lösung würde man hier die Klasse dahingehend modifizieren, dass
-     * bei einer nicht mehr funktionsfähigen Verbindung stets versucht würde,
-     * eine neue Verbindung aufzubauen. Dies würde allerdings ebenfalls den
-     * Rahmen dieses Projekts sprengen.
-     * 
-     * @return DAS <code>DBConncetion</code>-Objekt.
-     * @see con
-     */
-    public static Connection connection() {
-        // Wenn es bisher keine Conncetion zur DB gab, ...
-        if (con == null) {
+     * @return DER <code>ConnectionPool</code> der Applikation, etwa zum
+     *         Auslesen seiner Kennzahlen.
+     * @throws SQLException wenn der JDBC-Treiber nicht geladen werden kann
+     */
+    public static synchronized ConnectionPool pool() throws SQLException {
+        // Wenn es bisher keinen Pool gab, ...
+        if (pool == null) {
             String url = null;
             try {
                 if (SystemProperty.environment.value() == SystemProperty.Environment.Value.Production) {
@@ -85,23 +238,661 @@ public class DBConnection {
                     Class.forName("com.mysql.jdbc.Driver");
                     url = localUrl;
                 }
-                /*
-                 * Dann erst kann uns der DriverManager eine Verbindung mit den
-                 * oben in der Variable url angegebenen Verbindungsinformationen
-                 * aufbauen.
-                 * 
-                 * Diese Verbindung wird dann in der statischen Variable con
-                 * abgespeichert und fortan verwendet.
-                 */
-                con = DriverManager.getConnection(url);
-            } catch (Exception e) {
-                con = null;
-                e.printStackTrace();
+            } catch (ClassNotFoundException e) {
+                throw new SQLException("JDBC-Treiber nicht gefunden: "
+                        + e.getMessage());
+            }
+
+            /*
+             * Dann erst kann der Pool mit den oben in der Variable url
+             * angegebenen Verbindungsinformationen angelegt werden. Er wird in
+             * der statischen Variable pool abgespeichert und fortan verwendet.
+             */
+            ConnectionPool p = createPool(url);
+            p.fill();
+
+            // Für jedes konfigurierte Replikat entsteht ein eigener Pool
+            ArrayList<Replica> r = new ArrayList<Replica>();
+            String urls = ServersideSettings.getProperty(
+                    "bankprojekt.db.replicas", "");
+            for (String replicaUrl : urls.split(",")) {
+                replicaUrl = replicaUrl.trim();
+                if (replicaUrl.length() > 0) {
+                    ConnectionPool rp = createPool(replicaUrl);
+                    rp.fill();
+                    r.add(new Replica(replicaUrl, rp));
+                }
+            }
+
+            replicas = r.toArray(new Replica[r.size()]);
+            pool = p;
+        }
+
+        return pool;
+    }
+
+    /**
+     * Anlegen eines Pools gemäß der Konfiguration.
+     * 
+     * @param url JDBC-URL der Datenbank
+     */
+    private static ConnectionPool createPool(String url) {
+        return new ConnectionPool(url,
+                ServersideSettings.getIntProperty(
+                        "bankprojekt.db.pool.minSize", 2),
+                ServersideSettings.getIntProperty(
+                        "bankprojekt.db.pool.maxSize", 10),
+                ServersideSettings.getLongProperty(
+                        "bankprojekt.db.pool.borrowTimeout", 5000),
+                ServersideSettings.getLongProperty(
+                        "bankprojekt.db.pool.idleTimeout", 300000),
+                ServersideSettings.getBooleanProperty(
+                        "bankprojekt.db.pool.validateOnBorrow", true),
+                2,
+                ServersideSettings.getIntProperty(
+                        "bankprojekt.db.statementCacheSize", 50));
+    }
+
+    /**
+     * Auslesen der Pools der lesenden Replikate, etwa zum Auslesen ihrer
+     * Kennzahlen.
+     * 
+     * @return die Pools in der konfigurierten Reihenfolge; leer, wenn keine
+     *         Replikate konfiguriert sind
+     * @throws SQLException wenn der JDBC-Treiber nicht geladen werden kann
+     */
+    public static ConnectionPool[] replicaPools() throws SQLException {
+        pool();
+
+        Replica[] r = replicas();
+        ConnectionPool[] result = new ConnectionPool[r.length];
+        for (int i = 0; i < r.length; i++) {
+            result[i] = r[i].pool;
+        }
+        return result;
+    }
+
+    private static synchronized Replica[] replicas() {
+        return replicas;
+    }
+
+    /**
+     * Ermitteln des Pools, der eine Verbindung verliehen hat. Verbindungen
+     * unbekannter Herkunft werden der primären Datenbank zugeordnet.
+     */
+    private static ConnectionPool poolOf(Connection con) throws SQLException {
+        ConnectionPool primary = pool();
+
+        if (!primary.owns(con)) {
+            for (Replica r : replicas()) {
+                if (r.pool.owns(con)) {
+                    return r.pool;
+                }
+            }
+        }
+
+        return primary;
+    }
+
+    /**
+     * Stammt eine Verbindung von der primären Datenbank? Nur dort gelesene
+     * Objekte dürfen in die Caches der Mapper übernommen werden, da ein
+     * Replikat hinterherlaufen kann.
+     * 
+     * @param con eine mit {@link #readConnection()} oder
+     *            {@link #connection()} erhaltene Verbindung
+     */
+    static boolean isPrimary(Connection con) throws SQLException {
+        return poolOf(con) == pool();
+    }
+
+    /**
+     * Diese statische Methode kann aufgrufen werden durch
+     * <code>DBConnection.connection()</code>. Sie leiht eine Verbindung aus dem
+     * Pool der primären Datenbank aus und ist daher für Schreibzugriffe
+     * gedacht; reine Lesezugriffe nutzen {@link #readConnection()}. Ist der
+     * Pool ausgeschöpft, wird höchstens
+     * <code>bankprojekt.db.pool.borrowTimeout</code> Millisekunden auf eine
+     * freie Verbindung gewartet.
+     * <p>
+     * 
+     * <b>Wichtig:</b> Jede so erhaltene Verbindung muss nach Gebrauch durch
+     * {@link #release(Connection)} zurückgegeben werden, am besten in einem
+     * <code>finally</code>-Block. Die Verbindung selbst darf nicht mit
+     * <code>close()</code> geschlossen werden.
+     * <p>
+     * 
+     * Bricht die Verbindung zur Datenbank zusammen - dies kann z.B. durch ein
+     * unbeabsichtigtes Herunterfahren der Datenbank ausgelöst werden - so
+     * erkennt der Pool dies bei der nächsten Herausgabe und baut eine neue
+     * Verbindung auf.
+     * 
+     * @return eine Verbindung zur Datenbank
+     * @throws SQLException wenn keine Verbindung zur Verfügung gestellt werden
+     *             kann
+     * @see #release(Connection)
+     */
+    public static Connection connection() throws SQLException {
+        // Nachfolgende Lesezugriffe sollen diesen Schreibzugriff sehen
+        markWrite();
+
+        // Innerhalb einer Transaktion wird stets deren Verbindung genutzt
+        BoundTransaction tx = transaction.get();
+        if (tx != null) {
+            return tx.connection;
+        }
+
+        return pool().borrow();
+    }
+
+    /**
+     * Vermerken eines Schreibzugriffs im aktuellen Thread, ohne dass dazu eine
+     * Verbindung geholt wird. Nachfolgende Lesezugriffe erfolgen dann für die
+     * Dauer von <code>bankprojekt.db.readYourWritesWindow</code> Millisekunden
+     * auf der primären Datenbank, etwa wenn eine Buchung zunächst nur im
+     * {@link PostingJournal} gespeichert und später eingespielt wird.
+     */
+    static void markWrite() {
+        lastWrite.set(Long.valueOf(System.currentTimeMillis()));
+    }
+
+    /**
+     * Ausleihen einer Verbindung für reine Lesezugriffe. Sind Replikate
+     * konfiguriert, wird das erreichbare Replikat mit den wenigsten verliehenen
+     * Verbindungen gewählt. Die primäre Datenbank wird dagegen gelesen,
+     * <ul>
+     * <li>wenn keine Replikate konfiguriert oder erreichbar sind,</li>
+     * <li>wenn der aktuelle Thread bzw. die aktuelle Anfrage innerhalb der
+     * letzten <code>bankprojekt.db.readYourWritesWindow</code> Millisekunden
+     * geschrieben hat und</li>
+     * <li>innerhalb einer mit {@link #beginTransaction()} begonnenen
+     * Transaktion, deren Verbindung genutzt wird.</li>
+     * </ul>
+     * Über die so erhaltene Verbindung dürfen keine Änderungen erfolgen. Sie
+     * wird wie gewohnt mit {@link #release(Connection)} zurückgegeben.
+     * 
+     * @return eine Verbindung zu einem Replikat oder zur primären Datenbank
+     * @throws SQLException wenn keine Verbindung zur Verfügung gestellt werden
+     *             kann
+     * @see #connection()
+     */
+    public static Connection readConnection() throws SQLException {
+        BoundTransaction tx = transaction.get();
+        if (tx != null) {
+            return tx.connection;
+        }
+
+        ConnectionPool primary = pool();
+        Replica[] r = replicas();
+
+        if (r.length == 0 || hasRecentWrite()) {
+            return primary.borrow();
+        }
+
+        // Das erreichbare Replikat mit den wenigsten verliehenen Verbindungen
+        long now = System.currentTimeMillis();
+        int start = nextReplica.getAndIncrement() & Integer.MAX_VALUE;
+        Replica best = null;
+        for (int i = 0; i < r.length; i++) {
+            Replica candidate = r[(start + i) % r.length];
+            if (!candidate.isHealthy(now)) {
+                continue;
+            }
+            if (best == null || candidate.pool.getActiveCount() < best.pool
+                    .getActiveCount()) {
+                best = candidate;
+            }
+        }
+
+        if (best != null) {
+            Connection con = null;
+            try {
+                con = best.pool.borrow();
+                if (isCurrent(best, con, now)) {
+                    return con;
+                }
+            } catch (SQLException e) {
+                best.markUnhealthy(e.getMessage());
+            }
+            best.pool.release(con);
+        }
+
+        return primary.borrow();
+    }
+
+    /**
+     * Hat der aktuelle Thread innerhalb des Zeitfensters für
+     * <em>read-your-writes</em> geschrieben? Die Mapper umgehen dann ihre
+     * Caches, da diese den Schreibzugriff evtl. noch nicht enthalten.
+     */
+    static boolean hasRecentWrite() {
+        Long last = lastWrite.get();
+        return last != null && System.currentTimeMillis()
+                - last.longValue() < readYourWritesWindow;
+    }
+
+    /**
+     * Prüfen, ob ein Replikat der primären Datenbank höchstens
+     * <code>bankprojekt.db.replicaMaxLag</code> Sekunden hinterherläuft. Die
+     * Prüfung erfolgt je Replikat höchstens alle {@link #LAG_CHECK_INTERVAL}
+     * Millisekunden; dazwischen gilt das Replikat als aktuell.
+     */
+    private static boolean isCurrent(Replica replica, Connection con, long now)
+            throws SQLException {
+        if (replicaMaxLag <= 0
+                || now - replica.lagCheckedAt < LAG_CHECK_INTERVAL) {
+            return true;
+        }
+        replica.lagCheckedAt = now;
+
+        Statement stmt = con.createStatement();
+        try {
+            ResultSet rs = stmt.executeQuery("SHOW SLAVE STATUS");
+            if (!rs.next()) {
+                // Keine Replikation konfiguriert, z.B. bei lokalen Instanzen
+                return true;
+            }
+
+            long lag = rs.getLong("Seconds_Behind_Master");
+            if (rs.wasNull()) {
+                replica.markUnhealthy("Replikation angehalten");
+                return false;
+            }
+            if (lag > replicaMaxLag) {
+                replica.markUnhealthy("Rückstand von " + lag + " s");
+                return false;
             }
+            return true;
+        } finally {
+            close(stmt);
         }
+    }
+
+    /**
+     * Beginnen der Bearbeitung einer Anfrage im aktuellen Thread. Da Threads
+     * von Anfrage zu Anfrage wiederverwendet werden, wird hier der Zeitpunkt
+     * des letzten Schreibzugriffs gesetzt, den der Aufrufer etwa aus einem
+     * Cookie der vorigen Anfrage desselben Clients kennt. So sieht ein Client
+     * seine eigenen Änderungen auch dann, wenn die folgende Anfrage von einem
+     * anderen Thread oder einer anderen Server-Instanz bearbeitet wird.
+     * 
+     * @param lastWriteMillis Zeitpunkt des letzten Schreibzugriffs in ms oder
+     *            0, wenn keiner bekannt ist
+     * @see #endRequest()
+     */
+    public static void beginRequest(long lastWriteMillis) {
+        if (lastWriteMillis > 0) {
+            lastWrite.set(Long.valueOf(lastWriteMillis));
+        } else {
+            lastWrite.remove();
+        }
+    }
+
+    /**
+     * Beenden der Bearbeitung einer Anfrage im aktuellen Thread.
+     * 
+     * @return Zeitpunkt des letzten Schreibzugriffs in ms, solange dieser
+     *         innerhalb des Zeitfensters für <em>read-your-writes</em> liegt,
+     *         sonst 0
+     * @see #beginRequest(long)
+     */
+    public static long endRequest() {
+        long result = hasRecentWrite() ? lastWrite.get().longValue() : 0;
+        lastWrite.remove();
+        return result;
+    }
 
-        // Zurückgegeben der Verbindung
-        return con;
+    /**
+     * Auslesen des Zeitfensters für <em>read-your-writes</em> in ms.
+     */
+    public static long getReadYourWritesWindow() {
+        return readYourWritesWindow;
+    }
+
+    /**
+     * Beginnen einer Transaktion, die mehrere Mapper-Aufrufe des aktuellen
+     * Threads umfasst. Bis zum Aufruf von {@link #commitTransaction()} bzw.
+     * {@link #rollbackTransaction()} liefert {@link #connection()} in diesem
+     * Thread stets dieselbe Verbindung. Sämtliche Änderungen werden dann
+     * gemeinsam festgeschrieben oder verworfen.
+     * <p>
+     * 
+     * Typische Verwendung, etwa in <code>BankAdministrationImpl</code>:
+     * 
+     * <pre>
+     * DBConnection.beginTransaction();
+     * try {
+     *   ... Aufrufe verschiedener Mapper ...
+     *   DBConnection.commitTransaction();
+     * }
+     * finally {
+     *   DBConnection.rollbackTransaction();
+     * }
+     * </pre>
+     * 
+     * Schlägt innerhalb der Transaktion eine schreibende Mapper-Methode fehl,
+     * so wird die Transaktion als gescheitert markiert, und
+     * {@link #commitTransaction()} verwirft alle Änderungen.
+     * 
+     * @throws SQLException wenn keine Verbindung zur Verfügung steht oder
+     *             bereits eine Transaktion läuft
+     */
+    public static void beginTransaction() throws SQLException {
+        if (transaction.get() != null) {
+            throw new SQLException("Es läuft bereits eine Transaktion.");
+        }
+
+        Connection con = pool().borrow();
+        try {
+            con.setAutoCommit(false);
+        } catch (SQLException e) {
+            pool().release(con);
+            throw e;
+        }
+        transaction.set(new BoundTransaction(con));
+    }
+
+    /**
+     * Festschreiben der mit {@link #beginTransaction()} begonnenen
+     * Transaktion und Rückgabe ihrer Verbindung an den Pool.
+     * 
+     * @throws SQLException wenn keine Transaktion läuft, eine Mapper-Methode
+     *             innerhalb der Transaktion fehlgeschlagen ist oder das
+     *             Festschreiben scheitert. Die Transaktion ist dann
+     *             zurückgerollt.
+     */
+    public static void commitTransaction() throws SQLException {
+        BoundTransaction tx = transaction.get();
+        if (tx == null) {
+            throw new SQLException("Es läuft keine Transaktion.");
+        }
+
+        try {
+            if (tx.rollbackOnly) {
+                throw new SQLException(
+                        "Die Transaktion wurde wegen eines Fehlers verworfen.");
+            }
+            tx.connection.commit();
+            tx.connection.setAutoCommit(true);
+            lastWrite.set(Long.valueOf(System.currentTimeMillis()));
+        } finally {
+            // Bei einem Fehler rollt der Pool die Transaktion zurück
+            transaction.remove();
+            pool().release(tx.connection);
+        }
+
+        for (Runnable action : tx.afterCommit) {
+            action.run();
+        }
+    }
+
+    /**
+     * Verwerfen der mit {@link #beginTransaction()} begonnenen Transaktion.
+     * Wurde sie bereits festgeschrieben, so hat diese Methode keine Wirkung.
+     * Sie ist daher für <code>finally</code>-Blöcke gedacht.
+     */
+    public static void rollbackTransaction() {
+        BoundTransaction tx = transaction.get();
+        if (tx == null) {
+            return;
+        }
+
+        transaction.remove();
+        // Der Pool rollt die noch offene Transaktion bei der Rückgabe zurück
+        release(tx.connection);
+    }
+
+    /**
+     * Ausführen einer Aktion, sobald die Änderungen des aktuellen Threads
+     * festgeschrieben sind, etwa das Verwerfen zwischengespeicherter Objekte.
+     * Läuft eine mit {@link #beginTransaction()} begonnene Transaktion, so
+     * wird die Aktion erst nach einem erfolgreichen
+     * {@link #commitTransaction()} ausgeführt und beim Zurückrollen
+     * verworfen. Andernfalls wird sie sofort ausgeführt.
+     * 
+     * @param action die auszuführende Aktion
+     */
+    static void afterCommit(Runnable action) {
+        BoundTransaction tx = transaction.get();
+        if (tx != null) {
+            tx.afterCommit.add(action);
+            return;
+        }
+
+        action.run();
+    }
+
+    /**
+     * Läuft im aktuellen Thread eine mit {@link #beginTransaction()}
+     * begonnene Transaktion?
+     */
+    public static boolean inTransaction() {
+        return transaction.get() != null;
+    }
+
+    /**
+     * Beginnen einer lokalen Transaktion innerhalb einer Mapper-Methode, die
+     * mehrere Anweisungen atomar ausführen muss. Läuft bereits eine mit
+     * {@link #beginTransaction()} begonnene Transaktion, so werden die
+     * Anweisungen einfach Teil dieser Transaktion.
+     * <p>
+     * 
+     * Auf jedes <code>begin(con)</code> folgt im Erfolgsfall
+     * {@link #commit(Connection)}. Fehlt dieses bei {@link #release(Connection)},
+     * so wird die lokale Transaktion zurückgerollt bzw. die umgebende
+     * Transaktion als gescheitert markiert.
+     * 
+     * @param con die mit {@link #connection()} erhaltene Verbindung
+     * @throws SQLException
+     */
+    public static void begin(Connection con) throws SQLException {
+        BoundTransaction tx = transaction.get();
+        if (tx != null && tx.connection == con) {
+            tx.depth++;
+            return;
+        }
+
+        con.setAutoCommit(false);
+    }
+
+    /**
+     * Festschreiben einer mit {@link #begin(Connection)} begonnenen lokalen
+     * Transaktion. Innerhalb einer umgebenden Transaktion erfolgt das
+     * Festschreiben erst mit {@link #commitTransaction()}.
+     * 
+     * @param con die Verbindung der lokalen Transaktion
+     * @throws SQLException
+     */
+    public static void commit(Connection con) throws SQLException {
+        BoundTransaction tx = transaction.get();
+        if (tx != null && tx.connection == con) {
+            tx.depth--;
+            return;
+        }
+
+        con.commit();
+        con.setAutoCommit(true);
+    }
+
+    /**
+     * Höchstanzahl der Werte einer <code>IN</code>-Bedingung, die in einer
+     * einzigen Anfrage abgefragt werden. Größere Mengen teilen die Mapper in
+     * Blöcke dieser Größe auf.
+     */
+    static final int IN_CHUNK_SIZE = 250;
+
+    /**
+     * Erzeugen einer Liste von <code>count</code> Platzhaltern für eine
+     * <code>IN</code>-Bedingung, z.B. <code>?, ?, ?</code>.
+     */
+    static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder(count * 3);
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "?" : ", ?");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Die festen Längen einer <code>IN</code>-Bedingung.
+     */
+    private static final int[] IN_SIZES = { 1, 8, 32, 128, IN_CHUNK_SIZE };
+
+    /**
+     * Anzahl der Platzhalter für einen Block von <code>count</code> Werten
+     * einer <code>IN</code>-Bedingung: die kleinste ausreichende der festen
+     * Längen 1, 8, 32, 128 und {@value #IN_CHUNK_SIZE}. Je Anfrage entstehen
+     * so höchstens fünf verschiedene Statements, statt mit jeder Blockgröße
+     * ein neues, das häufige Statements aus dem Statement-Cache der
+     * Verbindung verdrängt. Die überzähligen Platzhalter belegt
+     * {@link #setIn(PreparedStatement, int, int[], int, int, int)}.
+     */
+    static int inSize(int count) {
+        for (int size : IN_SIZES) {
+            if (count <= size) {
+                return size;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Setzen der Werte <code>values[from]</code> bis
+     * <code>values[to - 1]</code> als Parameter einer <code>IN</code>-Bedingung
+     * mit <code>size</code> Platzhaltern. Die übrigen Platzhalter erhalten den
+     * letzten Wert, was das Ergebnis der Bedingung nicht ändert.
+     * 
+     * @param stmt das Statement
+     * @param first Index des ersten Parameters der Bedingung
+     * @param size Anzahl der Platzhalter, siehe {@link #inSize(int)}
+     */
+    static void setIn(PreparedStatement stmt, int first, int[] values,
+            int from, int to, int size) throws SQLException {
+        for (int i = 0; i < size; i++) {
+            stmt.setInt(first + i, values[Math.min(from + i, to - 1)]);
+        }
+    }
+
+    /**
+     * Auslesen bzw. erstmaliges Vorbereiten eines parametrisierten Statements
+     * auf einer mit {@link #connection()} oder {@link #readConnection()}
+     * ausgeliehenen Verbindung.
+     * <p>
+     * 
+     * <b>Wichtig:</b> Das Statement wird je Verbindung zwischengespeichert und
+     * darf daher nicht geschlossen werden. Das zugehörige
+     * <code>ResultSet</code> muss dagegen stets mittels
+     * {@link #close(ResultSet)} geschlossen werden.
+     * 
+     * @param con die ausgeliehene Verbindung
+     * @param sql SQL-Text mit <code>?</code> als Platzhalter für Parameter
+     * @return das vorbereitete Statement
+     * @throws SQLException
+     * @see ConnectionPool#prepare(Connection, String)
+     */
+    public static PreparedStatement prepare(Connection con, String sql)
+            throws SQLException {
+        return poolOf(con).prepare(con, sql);
+    }
+
+    /**
+     * Vorbereiten eines Statements, dessen Ergebnis nicht vollständig in den
+     * Speicher geladen, sondern schrittweise über einen Cursor der Datenbank
+     * gelesen wird. Je Abruf werden dabei höchstens
+     * <code>bankprojekt.db.fetchSize</code> Tupel übertragen. Dies ist für
+     * Anfragen über ganze Tabellen gedacht, wie sie etwa bei Reports oder
+     * Exporten anfallen.
+     * <p>
+     * 
+     * <b>Wichtig:</b> Im Gegensatz zu {@link #prepare(Connection, String)} wird
+     * das Statement nicht zwischengespeichert und muss daher nach Gebrauch
+     * mittels {@link #close(Statement)} geschlossen werden.
+     * 
+     * @param con die ausgeliehene Verbindung
+     * @param sql SQL-Text mit <code>?</code> als Platzhalter für Parameter
+     * @return das vorbereitete Statement
+     * @throws SQLException
+     */
+    public static PreparedStatement stream(Connection con, String sql)
+            throws SQLException {
+        PreparedStatement stmt = con.prepareStatement(sql,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        stmt.setFetchSize(fetchSize);
+        return QueryMonitor.wrap(stmt, sql);
+    }
+
+    /**
+     * Schließen eines mit {@link #stream(Connection, String)} erzeugten
+     * Statements, ohne dabei auftretende Fehler weiterzugeben. Diese Methode
+     * ist für <code>finally</code>-Blöcke gedacht.
+     * 
+     * @param stmt das zu schließende Statement, darf <code>null</code> sein
+     */
+    public static void close(Statement stmt) {
+        if (stmt != null) {
+            try {
+                stmt.close();
+            } catch (SQLException e) {
+                // Das Statement wird ohnehin nicht mehr benötigt.
+            }
+        }
+    }
+
+    /**
+     * Schließen eines <code>ResultSet</code>-Objekts, ohne dabei auftretende
+     * Fehler weiterzugeben. Diese Methode ist für <code>finally</code>-Blöcke
+     * gedacht.
+     * 
+     * @param rs das zu schließende Ergebnis, darf <code>null</code> sein
+     */
+    public static void close(ResultSet rs) {
+        if (rs != null) {
+            try {
+                rs.close();
+            } catch (SQLException e) {
+                // Das Ergebnis wird ohnehin nicht mehr benötigt.
+            }
+        }
+    }
+
+    /**
+     * Zurückgeben einer mit {@link #connection()} oder {@link #readConnection()}
+     * ausgeliehenen Verbindung an ihren Pool.
+     * 
+     * @param con die Verbindung, darf <code>null</code> sein
+     */
+    public static void release(Connection con) {
+        BoundTransaction tx = transaction.get();
+        if (tx != null && tx.connection == con) {
+            /*
+             * Die Verbindung gehört zur laufenden Transaktion und bleibt
+             * ausgeliehen. Wurde eine lokale Transaktion nicht festgeschrieben,
+             * so ist ein Fehler aufgetreten.
+             */
+            if (tx.depth > 0) {
+                tx.depth = 0;
+                tx.rollbackOnly = true;
+            }
+            return;
+        }
+
+        ConnectionPool p;
+        Replica[] r;
+        synchronized (DBConnection.class) {
+            p = pool;
+            r = replicas;
+        }
+
+        for (Replica replica : r) {
+            if (replica.pool.owns(con)) {
+                replica.pool.release(con);
+                return;
+            }
+        }
+
+        if (p != null) {
+            p.release(con);
+        }
     }
 
 }
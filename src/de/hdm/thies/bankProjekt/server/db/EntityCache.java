@@ -0,0 +1,276 @@
+package de.hdm.thies.bankProjekt.server.db;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Größenbeschränkter Zwischenspeicher für Geschäftsobjekte, die über ihren
+ * Primärschlüssel gelesen werden. Ein Mapper fragt zunächst den Cache und nur
+ * bei einem Fehlschlag die Datenbank (<em>read-through</em>). Ist der Cache
+ * voll, wird das am längsten nicht mehr genutzte Objekt verdrängt (LRU).
+ * Optional verfallen Einträge nach einer festen Zeit, so dass Änderungen
+ * anderer Server-Instanzen spätestens dann sichtbar werden.
+ * </p>
+ * <p>
+ * Ändert oder löscht ein Mapper ein Objekt, so muss er es mittels
+ * {@link #invalidateAfterCommit(int)} aus dem Cache entfernen. Innerhalb einer
+ * Transaktion geschieht dies erst nach deren Festschreiben, da ein anderer
+ * Thread bis dahin weiterhin den alten Stand liest und ablegt. Damit ein gleichzeitig
+ * laufender Lesevorgang danach keinen veralteten Stand ablegt, merkt sich der
+ * Leser vor dem Datenbankzugriff die {@link #generation()}. {@link #put(int,
+ * Object, long)} verwirft das Objekt, wenn zwischenzeitlich invalidiert
+ * wurde.
+ * </p>
+ * <p>
+ * <b>Hinweis:</b> Der Cache gibt die abgelegten Objekte unverändert heraus.
+ * Da Geschäftsobjekte veränderbar sind, legen die Mapper nur Kopien ab und
+ * geben auch nur Kopien heraus.
+ * </p>
+ *
+ * @param <T> der Typ der zwischengespeicherten Objekte
+ * @see CustomerMapper
+ * @see AccountMapper
+ */
+public class EntityCache<T> {
+
+  /**
+   * Ein Eintrag samt Zeitpunkt seines Ladens.
+   */
+  private static class CacheEntry<T> {
+    final T value;
+
+    final long loaded;
+
+    CacheEntry(T value, long loaded) {
+      this.value = value;
+      this.loaded = loaded;
+    }
+  }
+
+  private final String name;
+
+  private final int maxSize;
+
+  private final long ttlNanos;
+
+  private final LinkedHashMap<Integer, CacheEntry<T>> entries;
+
+  /**
+   * Wird bei jeder Invalidierung erhöht.
+   */
+  private long generation = 0;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  private final AtomicLong evictions = new AtomicLong();
+
+  private final AtomicLong expirations = new AtomicLong();
+
+  private final AtomicLong loads = new AtomicLong();
+
+  private final AtomicLong loadNanos = new AtomicLong();
+
+  /**
+   * Anlegen eines Caches.
+   *
+   * @param name Bezeichnung für Log und Statistik, z.B. "customers"
+   * @param maxSize Anzahl der Objekte, die höchstens vorgehalten werden; 0
+   *          schaltet den Cache ab
+   * @param ttl Lebensdauer eines Eintrags in ms; 0 für unbegrenzt
+   */
+  public EntityCache(String name, final int maxSize, long ttl) {
+    this.name = name;
+    this.maxSize = Math.max(0, maxSize);
+    this.ttlNanos = Math.max(0, ttl) * 1000000L;
+    this.entries = new LinkedHashMap<Integer, CacheEntry<T>>(16, 0.75f,
+        true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(
+          Map.Entry<Integer, CacheEntry<T>> eldest) {
+        if (size() <= EntityCache.this.maxSize) {
+          return false;
+        }
+
+        evictions.incrementAndGet();
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Auslesen eines Objekts.
+   *
+   * @param id Primärschlüssel
+   * @return das abgelegte Objekt oder <code>null</code>, wenn es nicht oder
+   *         nicht mehr im Cache liegt
+   */
+  public synchronized T get(int id) {
+    CacheEntry<T> entry = entries.get(Integer.valueOf(id));
+
+    if (entry == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+
+    if (ttlNanos > 0 && System.nanoTime() - entry.loaded > ttlNanos) {
+      entries.remove(Integer.valueOf(id));
+      expirations.incrementAndGet();
+      misses.incrementAndGet();
+      return null;
+    }
+
+    hits.incrementAndGet();
+    return entry.value;
+  }
+
+  /**
+   * Auslesen des aktuellen Invalidierungsstands. Ein Leser ruft diese Methode
+   * vor dem Zugriff auf die Datenbank auf und übergibt das Ergebnis an
+   * {@link #put(int, Object, long)}.
+   */
+  public synchronized long generation() {
+    return generation;
+  }
+
+  /**
+   * Ablegen eines aus der Datenbank gelesenen Objekts. Wurde seit
+   * <code>generation</code> invalidiert, wird das Objekt verworfen, da es
+   * evtl. bereits veraltet ist.
+   *
+   * @param id Primärschlüssel
+   * @param value das Objekt
+   * @param generation das Ergebnis von {@link #generation()} vor dem Lesen
+   */
+  public synchronized void put(int id, T value, long generation) {
+    if (maxSize == 0 || generation != this.generation) {
+      return;
+    }
+
+    entries.put(Integer.valueOf(id),
+        new CacheEntry<T>(value, System.nanoTime()));
+  }
+
+  /**
+   * Entfernen eines geänderten oder gelöschten Objekts.
+   *
+   * @param id Primärschlüssel
+   */
+  public synchronized void invalidate(int id) {
+    generation++;
+    entries.remove(Integer.valueOf(id));
+  }
+
+  /**
+   * Entfernen sämtlicher Objekte, etwa nach Änderungen, die mehrere Objekte
+   * auf einmal betreffen.
+   */
+  public synchronized void clear() {
+    generation++;
+    entries.clear();
+  }
+
+  /**
+   * Entfernen eines geänderten oder gelöschten Objekts, sobald die Änderung
+   * festgeschrieben ist.
+   *
+   * @param id Primärschlüssel
+   * @see DBConnection#afterCommit(Runnable)
+   */
+  public void invalidateAfterCommit(final int id) {
+    DBConnection.afterCommit(new Runnable() {
+      @Override
+      public void run() {
+        invalidate(id);
+      }
+    });
+  }
+
+  /**
+   * Entfernen sämtlicher Objekte, sobald die Änderung festgeschrieben ist.
+   *
+   * @see DBConnection#afterCommit(Runnable)
+   */
+  public void clearAfterCommit() {
+    DBConnection.afterCommit(new Runnable() {
+      @Override
+      public void run() {
+        clear();
+      }
+    });
+  }
+
+  /**
+   * Vermerken eines Ladevorgangs aus der Datenbank für die Statistik.
+   *
+   * @param nanos Dauer des Ladevorgangs in ns
+   */
+  public void recordLoad(long nanos) {
+    loads.incrementAndGet();
+    loadNanos.addAndGet(nanos);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public synchronized int getSize() {
+    return entries.size();
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * Anteil der Treffer an allen Anfragen zwischen 0 und 1.
+   */
+  public double getHitRate() {
+    long h = hits.get();
+    long total = h + misses.get();
+    return total == 0 ? 0.0 : (double) h / total;
+  }
+
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  public long getExpirationCount() {
+    return expirations.get();
+  }
+
+  public long getLoadCount() {
+    return loads.get();
+  }
+
+  /**
+   * Durchschnittliche Dauer eines Ladevorgangs aus der Datenbank in ns.
+   */
+  public long getAverageLoadNanos() {
+    long n = loads.get();
+    return n == 0 ? 0 : loadNanos.get() / n;
+  }
+
+  @Override
+  public String toString() {
+    return "EntityCache[" + name + ": size=" + getSize() + "/" + maxSize
+        + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+        + ", hitRate=" + Math.round(getHitRate() * 100) + "%, evictions="
+        + getEvictionCount() + ", expirations=" + getExpirationCount()
+        + ", loads=" + getLoadCount() + ", avgLoad="
+        + getAverageLoadNanos() / 1000 + "us]";
+  }
+}
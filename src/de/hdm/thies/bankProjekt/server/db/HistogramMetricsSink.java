@@ -0,0 +1,57 @@
+package de.hdm.thies.bankProjekt.server.db;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Voreingestellter {@link MetricsSink}, der je Aufruf ein
+ * {@link LatencyHistogram} im Hauptspeicher führt. Die Histogramme lassen sich
+ * mit {@link #getHistogram(String)} einzeln bzw. mit {@link #toString()}
+ * gesammelt auslesen, letzteres auch über die Statistik des
+ * Speicher-Backends.
+ *
+ * @see QueryMonitor
+ */
+public class HistogramMetricsSink implements MetricsSink {
+
+  private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
+  @Override
+  public void record(String operation, long nanos, long rows, long bytes,
+      boolean failed) {
+    LatencyHistogram h = histograms.get(operation);
+    if (h == null) {
+      LatencyHistogram created = new LatencyHistogram();
+      h = histograms.putIfAbsent(operation, created);
+      if (h == null) {
+        h = created;
+      }
+    }
+    h.record(nanos, rows, bytes, failed);
+  }
+
+  /**
+   * Auslesen des Histogramms eines Aufrufs.
+   *
+   * @param operation Bezeichnung des Aufrufs
+   * @return das Histogramm oder <code>null</code>, wenn der Aufruf bisher
+   *         nicht gemessen wurde
+   */
+  public LatencyHistogram getHistogram(String operation) {
+    return histograms.get(operation);
+  }
+
+  /**
+   * Sämtliche Histogramme, eines je Zeile, nach der Bezeichnung sortiert.
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("Laufzeiten:");
+    for (Map.Entry<String, LatencyHistogram> e : new TreeMap<String, LatencyHistogram>(
+        histograms).entrySet()) {
+      sb.append("\n  ").append(e.getKey()).append(": ").append(e.getValue());
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,246 @@
+package de.hdm.thies.bankProjekt.server.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.hdm.thies.bankProjekt.server.ServersideSettings;
+
+/**
+ * <p>
+ * Vergabe von Primärschlüsseln für neue Datenbank-Tupel nach dem
+ * <em>Hi/Lo</em>-Verfahren. Statt vor jedem <code>INSERT</code> mittels
+ * <code>SELECT MAX(id)</code> den nächsten Schlüssel zu ermitteln - was eine
+ * zusätzliche Anfrage kostet und bei gleichzeitigen Einfügeoperationen zu
+ * doppelt vergebenen Schlüsseln führen kann - reserviert diese Klasse in der
+ * Tabelle <code>sequences</code> jeweils einen ganzen Block von Schlüsseln
+ * und vergibt diese anschließend ohne Datenbankzugriff aus dem Speicher.
+ * </p>
+ * <p>
+ * Die Reservierung eines Blocks erfolgt atomar in einer eigenen, sofort
+ * festgeschriebenen Anweisung. Stürzt der Server ab oder wird eine
+ * Einfügeoperation zurückgerollt, so bleiben die noch nicht vergebenen
+ * Schlüssel des Blocks ungenutzt. Es entstehen also höchstens Lücken, ein
+ * Schlüssel wird jedoch nie zweimal vergeben - auch nicht bei mehreren
+ * Server-Instanzen.
+ * </p>
+ * <p>
+ * Die Blockgröße lässt sich mit der System Property
+ * <code>bankprojekt.db.idBlockSize</code> (Standard: 100) einstellen.
+ * </p>
+ * 
+ * @see CustomerMapper#insert(de.hdm.thies.bankProjekt.shared.bo.Customer)
+ * @see AccountMapper#insert(de.hdm.thies.bankProjekt.shared.bo.Account)
+ * @see TransactionMapper#insert(de.hdm.thies.bankProjekt.shared.bo.Transaction)
+ */
+public class IdAllocator {
+
+  /**
+   * Name der Sequenz für Kundennummern. Er entspricht dem Tabellennamen.
+   */
+  public static final String CUSTOMERS = "customers";
+
+  /**
+   * Name der Sequenz für Kontonummern. Er entspricht dem Tabellennamen.
+   */
+  public static final String ACCOUNTS = "accounts";
+
+  /**
+   * Name der Sequenz für Buchungsnummern. Er entspricht dem Tabellennamen.
+   */
+  public static final String TRANSACTIONS = "transactions";
+
+  /**
+   * Die Klasse IdAllocator wird nur einmal instantiiert. Man spricht hierbei
+   * von einem sogenannten <b>Singleton</b>.
+   * 
+   * @see idAllocator()
+   */
+  private static IdAllocator idAllocator = null;
+
+  /**
+   * Ein reservierter Block von Schlüsseln. Vergeben werden die Werte von
+   * <code>next</code> bis ausschließlich <code>limit</code>.
+   */
+  private static class Block {
+    final AtomicInteger next;
+
+    final int limit;
+
+    Block(int first, int limit) {
+      this.next = new AtomicInteger(first);
+      this.limit = limit;
+    }
+  }
+
+  /**
+   * Die aktuell genutzten Blöcke je Sequenz.
+   */
+  private final ConcurrentHashMap<String, Block> blocks = new ConcurrentHashMap<String, Block>();
+
+  private volatile int blockSize;
+
+  /**
+   * Geschützter Konstruktor - verhindert die Möglichkeit, mit <code>new</code>
+   * neue Instanzen dieser Klasse zu erzeugen.
+   */
+  protected IdAllocator() {
+    this.blockSize = Math.max(1, ServersideSettings.getIntProperty(
+        "bankprojekt.db.idBlockSize", 100));
+  }
+
+  /**
+   * Diese statische Methode kann aufgrufen werden durch
+   * <code>IdAllocator.idAllocator()</code>. Sie stellt die
+   * Singleton-Eigenschaft sicher.
+   * 
+   * @return DAS <code>IdAllocator</code>-Objekt.
+   */
+  public static synchronized IdAllocator idAllocator() {
+    if (idAllocator == null) {
+      idAllocator = new IdAllocator();
+    }
+
+    return idAllocator;
+  }
+
+  /**
+   * Auslesen der Anzahl von Schlüsseln, die je Datenbankzugriff reserviert
+   * werden.
+   */
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  /**
+   * Setzen der Anzahl von Schlüsseln, die je Datenbankzugriff reserviert
+   * werden. Die Änderung wirkt sich ab der nächsten Reservierung aus.
+   * 
+   * @param blockSize die neue Blockgröße, mindestens 1
+   */
+  public void setBlockSize(int blockSize) {
+    if (blockSize < 1) {
+      throw new IllegalArgumentException("Ungültige Blockgröße: " + blockSize);
+    }
+    this.blockSize = blockSize;
+  }
+
+  /**
+   * Vergeben des nächsten freien Schlüssels einer Sequenz. Nur wenn der
+   * aktuelle Block erschöpft ist, wird ein neuer Block aus der Datenbank
+   * reserviert.
+   * 
+   * @param sequence eine der Konstanten {@link #CUSTOMERS}, {@link #ACCOUNTS}
+   *          oder {@link #TRANSACTIONS}
+   * @return ein noch nie vergebener Schlüssel
+   * @throws SQLException wenn kein neuer Block reserviert werden kann
+   */
+  public int nextId(String sequence) throws SQLException {
+    while (true) {
+      Block block = blocks.get(sequence);
+
+      if (block != null) {
+        int id = block.next.getAndIncrement();
+
+        if (id < block.limit) {
+          return id;
+        }
+      }
+
+      /*
+       * Es gibt noch keinen Block oder er ist erschöpft. Nur ein Thread
+       * reserviert einen neuen Block, alle anderen warten darauf und versuchen
+       * es dann erneut.
+       */
+      synchronized (this) {
+        if (blocks.get(sequence) == block) {
+          blocks.put(sequence, reserve(sequence));
+        }
+      }
+    }
+  }
+
+  /**
+   * Reservieren eines neuen Blocks in der Tabelle <code>sequences</code>. Die
+   * MySQL-Funktion <code>LAST_INSERT_ID(expr)</code> liefert den durch das
+   * <code>UPDATE</code> gesetzten Wert verbindungslokal zurück, so dass
+   * Erhöhen und Auslesen ohne explizite Transaktion atomar erfolgen.
+   * 
+   * @param sequence Name der Sequenz
+   * @return der reservierte Block
+   * @throws SQLException
+   */
+  private Block reserve(String sequence) throws SQLException {
+    String table = tableOf(sequence);
+    int size = blockSize;
+    Connection con = null;
+    ResultSet rs = null;
+
+    try {
+      /*
+       * Eigene Verbindung, damit die Reservierung sofort festgeschrieben wird.
+       * Sie wird daher auch innerhalb einer mit beginTransaction() begonnenen
+       * Transaktion direkt aus dem Pool geholt; andernfalls würde die Zeile
+       * der Sequenz bis zu deren Ende gesperrt und bei einem Zurückrollen
+       * derselbe Block erneut vergeben.
+       */
+      con = DBConnection.pool().borrow();
+
+      PreparedStatement stmt = DBConnection.prepare(con,
+          "UPDATE sequences SET nextId=LAST_INSERT_ID(nextId + ?) WHERE name=?");
+      stmt.setInt(1, size);
+      stmt.setString(2, sequence);
+
+      if (stmt.executeUpdate() == 0) {
+        /*
+         * Die Sequenz existiert noch nicht. Sie wird mit dem bisher höchsten
+         * Schlüssel der Tabelle initialisiert. Legen zwei Server die Sequenz
+         * gleichzeitig an, so gewinnt einer; das folgende UPDATE ist für beide
+         * korrekt.
+         */
+        PreparedStatement init = DBConnection.prepare(con,
+            "INSERT IGNORE INTO sequences (name, nextId) "
+                + "SELECT ?, COALESCE(MAX(id), 0) + 1 FROM " + table);
+        init.setString(1, sequence);
+        init.executeUpdate();
+
+        stmt = DBConnection.prepare(con,
+            "UPDATE sequences SET nextId=LAST_INSERT_ID(nextId + ?) WHERE name=?");
+        stmt.setInt(1, size);
+        stmt.setString(2, sequence);
+        stmt.executeUpdate();
+      }
+
+      rs = DBConnection.prepare(con, "SELECT LAST_INSERT_ID()").executeQuery();
+
+      if (!rs.next()) {
+        throw new SQLException("Reservierung für Sequenz " + sequence
+            + " fehlgeschlagen.");
+      }
+
+      int limit = rs.getInt(1);
+
+      return new Block(limit - size, limit);
+    }
+    finally {
+      DBConnection.close(rs);
+      DBConnection.release(con);
+    }
+  }
+
+  /**
+   * Zuordnen einer Sequenz zu ihrer Tabelle. Da der Tabellenname in den
+   * SQL-Text eingefügt wird, sind nur die bekannten Sequenzen zulässig.
+   */
+  private static String tableOf(String sequence) {
+    if (CUSTOMERS.equals(sequence) || ACCOUNTS.equals(sequence)
+        || TRANSACTIONS.equals(sequence)) {
+      return sequence;
+    }
+
+    throw new IllegalArgumentException("Unbekannte Sequenz: " + sequence);
+  }
+}
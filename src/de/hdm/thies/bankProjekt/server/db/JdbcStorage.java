@@ -0,0 +1,191 @@
+package de.hdm.thies.bankProjekt.server.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+
+import de.hdm.thies.bankProjekt.server.ServersideSettings;
+import de.hdm.thies.bankProjekt.server.storage.*;
+
+/**
+ * Speicher-Backend auf Basis einer relationalen Datenbank. Die einzelnen
+ * Speicher sind die Mapper dieses Pakets, Transaktionen werden an
+ * {@link DBConnection} weitergereicht. Beim Anlegen des Backends wird das
+ * Datenbankschema mittels {@link SchemaMigrator} auf den aktuellen Stand
+ * gebracht.
+ * <p>
+ * Ist die System Property <code>bankprojekt.journal.dir</code> gesetzt, werden
+ * einzelne Buchungen zunächst in einem {@link PostingJournal} in diesem
+ * Verzeichnis gesichert und gesammelt in die Datenbank eingespielt.
+ * <p>
+ * Ist <code>bankprojekt.checkpoint.period</code> größer als 0, legt ein
+ * {@link BalanceCheckpointer} regelmäßig Zwischenstände der Kontostände an.
+ * <p>
+ * Ist die System Property <code>bankprojekt.monitor.enabled</code> gesetzt,
+ * werden sämtliche Aufrufe der Speicher durch den {@link QueryMonitor}
+ * gemessen.
+ *
+ * @see StorageFactory
+ * @author Thies
+ */
+public class JdbcStorage implements Storage {
+
+  /**
+   * Die Klasse JdbcStorage wird nur einmal instantiiert. Man spricht hierbei
+   * von einem sogenannten <b>Singleton</b>.
+   *
+   * @see jdbcStorage()
+   */
+  private static JdbcStorage jdbcStorage = null;
+
+  /**
+   * Das Journal für Buchungen oder <code>null</code>, wenn Buchungen direkt in
+   * die Datenbank geschrieben werden.
+   */
+  private PostingJournal journal = null;
+
+  /*
+   * Die Speicher dieses Backends, bei eingeschalteter Messung durch den
+   * QueryMonitor eingepackt.
+   */
+  private final CustomerStorage customers;
+
+  private final AccountStorage accounts;
+
+  private final TransactionStorage transactions;
+
+  private final BalanceStorage balances;
+
+  private final OverviewStorage overviews;
+
+  /**
+   * Geschützter Konstruktor - verhindert die Möglichkeit, mit new neue
+   * Instanzen dieser Klasse zu erzeugen.
+   */
+  protected JdbcStorage() {
+    /*
+     * Vor dem ersten Datenbankzugriff wird das Schema auf den aktuellen Stand
+     * gebracht. Dies geschieht je Server-Instanz nur einmal.
+     */
+    SchemaMigrator.schemaMigrator().migrate();
+
+    String dir = ServersideSettings.getProperty("bankprojekt.journal.dir", "");
+    if (dir.length() > 0) {
+      try {
+        journal = new PostingJournal(new File(dir));
+      }
+      catch (IOException e) {
+        e.printStackTrace();
+        ServersideSettings.getLogger().severe(
+            "Journal in " + dir + " nicht verfügbar, Buchungen werden direkt "
+                + "gespeichert.");
+      }
+    }
+
+    long period = ServersideSettings.getLongProperty(
+        "bankprojekt.checkpoint.period", 0);
+    if (period > 0) {
+      BalanceCheckpointer.balanceCheckpointer().start(period);
+    }
+
+    customers = QueryMonitor.wrap(CustomerStorage.class,
+        CustomerMapper.customerMapper(), "CustomerMapper");
+    accounts = QueryMonitor.wrap(AccountStorage.class,
+        AccountMapper.accountMapper(), "AccountMapper");
+    if (journal != null) {
+      transactions = QueryMonitor.wrap(TransactionStorage.class, journal,
+          "PostingJournal");
+      balances = QueryMonitor.wrap(BalanceStorage.class, journal.balances(),
+          "PostingJournal.balances");
+      overviews = QueryMonitor.wrap(OverviewStorage.class,
+          journal.overviews(), "PostingJournal.overviews");
+    }
+    else {
+      transactions = QueryMonitor.wrap(TransactionStorage.class,
+          TransactionMapper.transactionMapper(), "TransactionMapper");
+      balances = QueryMonitor.wrap(BalanceStorage.class,
+          AccountBalanceMapper.accountBalanceMapper(), "AccountBalanceMapper");
+      overviews = QueryMonitor.wrap(OverviewStorage.class,
+          OverviewMapper.overviewMapper(), "OverviewMapper");
+    }
+  }
+
+  /**
+   * Diese statische Methode kann aufgrufen werden durch
+   * <code>JdbcStorage.jdbcStorage()</code>. Sie stellt die
+   * Singleton-Eigenschaft sicher, indem Sie dafür sorgt, dass nur eine einzige
+   * Instanz von <code>JdbcStorage</code> existiert.
+   *
+   * @return DAS <code>JdbcStorage</code>-Objekt.
+   */
+  public static synchronized JdbcStorage jdbcStorage() {
+    if (jdbcStorage == null) {
+      jdbcStorage = new JdbcStorage();
+    }
+
+    return jdbcStorage;
+  }
+
+  @Override
+  public CustomerStorage customers() {
+    return customers;
+  }
+
+  @Override
+  public AccountStorage accounts() {
+    return accounts;
+  }
+
+  @Override
+  public TransactionStorage transactions() {
+    return transactions;
+  }
+
+  @Override
+  public BalanceStorage balances() {
+    return balances;
+  }
+
+  @Override
+  public OverviewStorage overviews() {
+    return overviews;
+  }
+
+  /**
+   * @see DBConnection#beginTransaction()
+   */
+  @Override
+  public void beginTransaction() throws SQLException {
+    DBConnection.beginTransaction();
+  }
+
+  /**
+   * @see DBConnection#commitTransaction()
+   */
+  @Override
+  public void commitTransaction() throws SQLException {
+    DBConnection.commitTransaction();
+  }
+
+  /**
+   * @see DBConnection#rollbackTransaction()
+   */
+  @Override
+  public void rollbackTransaction() {
+    DBConnection.rollbackTransaction();
+  }
+
+  /**
+   * Liefert die Kennzahlen der Caches für Kunden und Konten sowie ggf. des
+   * Journals und der Laufzeitmessung.
+   *
+   * @see EntityCache
+   */
+  @Override
+  public String getStatistics() {
+    return CustomerMapper.customerMapper().getCache() + "\n"
+        + AccountMapper.accountMapper().getCache()
+        + (journal == null ? "" : "\n" + journal)
+        + (QueryMonitor.isEnabled() ? "\n" + QueryMonitor.getSink() : "");
+  }
+}
@@ -0,0 +1,130 @@
+package de.hdm.thies.bankProjekt.server.db;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * Verteilung der Dauer eines Aufrufs samt der dabei gelesenen Tupel und Bytes.
+ * Die Dauer wird in Klassen mit exponentiell wachsender Breite gezählt: Klasse
+ * 0 umfasst Aufrufe unter 1 µs, Klasse <em>i</em> solche von
+ * 2<sup><em>i</em>-1</sup> bis unter 2<sup><em>i</em></sup> µs. Perzentile
+ * werden als Obergrenze ihrer Klasse angegeben und sind damit höchstens um den
+ * Faktor 2 zu pessimistisch.
+ * </p>
+ * <p>
+ * Sämtliche Zähler sind atomar. Ein Histogramm kann daher ohne Sperre von
+ * beliebig vielen Threads gleichzeitig fortgeschrieben werden.
+ * </p>
+ *
+ * @see HistogramMetricsSink
+ */
+public class LatencyHistogram {
+
+  /**
+   * Anzahl der Klassen. Die letzte Klasse nimmt alle Aufrufe ab 2<sup>30</sup>
+   * µs auf.
+   */
+  private static final int BUCKETS = 32;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+  private final AtomicLong count = new AtomicLong();
+
+  private final AtomicLong failures = new AtomicLong();
+
+  private final AtomicLong totalNanos = new AtomicLong();
+
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  private final AtomicLong rows = new AtomicLong();
+
+  private final AtomicLong bytes = new AtomicLong();
+
+  /**
+   * Vermerken eines Aufrufs.
+   *
+   * @param nanos Dauer in ns
+   * @param rowCount Anzahl der gelesenen Tupel
+   * @param byteCount geschätzte Anzahl der gelesenen Bytes
+   * @param failed ist der Aufruf fehlgeschlagen?
+   */
+  public void record(long nanos, long rowCount, long byteCount, boolean failed) {
+    buckets.incrementAndGet(bucketOf(nanos));
+    count.incrementAndGet();
+    totalNanos.addAndGet(nanos);
+    rows.addAndGet(rowCount);
+    bytes.addAndGet(byteCount);
+    if (failed) {
+      failures.incrementAndGet();
+    }
+
+    long max = maxNanos.get();
+    while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+      max = maxNanos.get();
+    }
+  }
+
+  private static int bucketOf(long nanos) {
+    long micros = nanos / 1000;
+    int bucket = 64 - Long.numberOfLeadingZeros(micros);
+    return Math.min(bucket, BUCKETS - 1);
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getFailureCount() {
+    return failures.get();
+  }
+
+  public long getRowCount() {
+    return rows.get();
+  }
+
+  public long getByteCount() {
+    return bytes.get();
+  }
+
+  public long getMaxNanos() {
+    return maxNanos.get();
+  }
+
+  public long getAverageNanos() {
+    long n = count.get();
+    return n == 0 ? 0 : totalNanos.get() / n;
+  }
+
+  /**
+   * Abschätzen eines Perzentils der Dauer.
+   *
+   * @param p das Perzentil zwischen 0 und 1, z.B. 0.99
+   * @return die Obergrenze der Klasse, in die das Perzentil fällt, in ns
+   */
+  public long getPercentileNanos(double p) {
+    long n = count.get();
+    if (n == 0) {
+      return 0;
+    }
+
+    long rank = (long) Math.ceil(p * n);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += buckets.get(i);
+      if (seen >= rank) {
+        return Math.min((1L << i) * 1000, getMaxNanos());
+      }
+    }
+    return getMaxNanos();
+  }
+
+  @Override
+  public String toString() {
+    return "count=" + getCount() + ", failures=" + getFailureCount()
+        + ", avg=" + getAverageNanos() / 1000 + "us, p50="
+        + getPercentileNanos(0.5) / 1000 + "us, p99="
+        + getPercentileNanos(0.99) / 1000 + "us, max=" + getMaxNanos() / 1000
+        + "us, rows=" + getRowCount() + ", bytes=" + getByteCount();
+  }
+}
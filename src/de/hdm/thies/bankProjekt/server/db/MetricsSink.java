@@ -0,0 +1,31 @@
+package de.hdm.thies.bankProjekt.server.db;
+
+/**
+ * Empfänger der von {@link QueryMonitor} gemessenen Kennzahlen. Je
+ * Mapper-Aufruf und je ausgeführtem Statement wird
+ * {@link #record(String, long, long, long, boolean)} genau einmal aufgerufen.
+ * <p>
+ * Eine Implementierung wird mit der System Property
+ * <code>bankprojekt.monitor.sink</code> über ihren vollständigen Klassennamen
+ * gewählt und benötigt einen öffentlichen, parameterlosen Konstruktor.
+ * Voreingestellt ist {@link HistogramMetricsSink}. Eine Implementierung wird
+ * von allen Threads gleichzeitig aufgerufen und muss daher threadsicher sein.
+ *
+ * @see QueryMonitor
+ */
+public interface MetricsSink {
+
+  /**
+   * Vermerken eines gemessenen Aufrufs.
+   *
+   * @param operation Bezeichnung des Aufrufs, z.B.
+   *          <code>CustomerMapper.findByKey</code> oder die Form eines
+   *          SQL-Statements
+   * @param nanos Dauer in ns
+   * @param rows Anzahl der gelesenen Tupel
+   * @param bytes geschätzte Anzahl der gelesenen Bytes
+   * @param failed ist dabei eine <code>SQLException</code> aufgetreten?
+   */
+  void record(String operation, long nanos, long rows, long bytes,
+      boolean failed);
+}
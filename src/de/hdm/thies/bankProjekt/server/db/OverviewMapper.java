@@ -0,0 +1,274 @@
+package de.hdm.thies.bankProjekt.server.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Vector;
+
+import de.hdm.thies.bankProjekt.server.storage.ObjectHandler;
+import de.hdm.thies.bankProjekt.server.storage.OverviewStorage;
+import de.hdm.thies.bankProjekt.shared.bo.Account;
+import de.hdm.thies.bankProjekt.shared.bo.AccountSummary;
+import de.hdm.thies.bankProjekt.shared.bo.Customer;
+import de.hdm.thies.bankProjekt.shared.bo.CustomerTree;
+
+/**
+ * Mapper-Klasse für Übersichten, die Konten, Kunden und Kontostände
+ * zusammenführen. Statt die Objekte einzeln über {@link AccountMapper},
+ * {@link CustomerMapper} und {@link AccountBalanceMapper} zu lesen, verbindet
+ * die Datenbank die Tabellen <code>accounts</code>, <code>customers</code>
+ * und <code>account_balances</code> in einer einzigen Anfrage.
+ *
+ * @see AccountMapper, CustomerMapper, AccountBalanceMapper
+ */
+public class OverviewMapper implements OverviewStorage {
+
+  /**
+   * Auslesen der Konten zusammen mit Vor- und Nachnamen ihres Inhabers und
+   * ihrem gespeicherten Kontostand. Konten, deren Inhaber gelöscht wurde,
+   * erhalten leere Namen, Konten ohne Buchungen den Kontostand 0.
+   */
+  private static final String SUMMARIES = "SELECT a.id, a.owner, "
+      + "c.firstName, c.lastName, COALESCE(b.balance, 0) AS balance "
+      + "FROM accounts a "
+      + "LEFT JOIN customers c ON c.id=a.owner "
+      + "LEFT JOIN account_balances b ON b.account=a.id";
+
+  /**
+   * Auslesen einer Seite von Kunden zusammen mit ihren Konten und deren
+   * gespeicherten Kontoständen. Die Seite wird in der abgeleiteten Tabelle
+   * <code>c</code> über den Index auf <code>lastName</code> mit dem
+   * zusammengesetzten Schlüssel aus Nachname und Kundennummer begrenzt, erst
+   * danach werden die Konten hinzugefügt. Kunden ohne Konten erscheinen mit
+   * einem Tupel, dessen Kontonummer <code>NULL</code> ist.
+   */
+  private static final String TREE = "SELECT c.id, c.firstName, c.lastName, "
+      + "c.version, a.id AS account, a.version AS accountVersion, "
+      + "COALESCE(b.balance, 0) AS balance "
+      + "FROM (SELECT id, firstName, lastName, version FROM customers "
+      + "WHERE (lastName, id) > (?, ?) ORDER BY lastName, id LIMIT ?) c "
+      + "LEFT JOIN accounts a ON a.owner=c.id "
+      + "LEFT JOIN account_balances b ON b.account=a.id "
+      + "ORDER BY c.lastName, c.id, a.id";
+
+  /**
+   * Die Klasse OverviewMapper wird nur einmal instantiiert. Man spricht hierbei
+   * von einem sogenannten <b>Singleton</b>.
+   *
+   * @see overviewMapper()
+   */
+  private static OverviewMapper overviewMapper = null;
+
+  /**
+   * Geschützter Konstruktor - verhindert die Möglichkeit, mit new neue
+   * Instanzen dieser Klasse zu erzeugen.
+   */
+  protected OverviewMapper() {
+  }
+
+  /**
+   * Diese statische Methode kann aufgrufen werden durch
+   * <code>OverviewMapper.overviewMapper()</code>. Sie stellt die
+   * Singleton-Eigenschaft sicher, indem Sie dafür sorgt, dass nur eine einzige
+   * Instanz von <code>OverviewMapper</code> existiert.
+   *
+   * @return DER <code>OverviewMapper</code>-Singleton.
+   */
+  public static synchronized OverviewMapper overviewMapper() {
+    if (overviewMapper == null) {
+      overviewMapper = new OverviewMapper();
+    }
+
+    return overviewMapper;
+  }
+
+  /**
+   * Seitenweises Auslesen der Kontozusammenfassungen mit einer einzigen
+   * Anfrage über Konten, Kunden und Kontostände. Wie bei
+   * {@link AccountMapper#findPage(int, int)} steigt die Datenbank direkt über
+   * den Primärschlüssel-Index ein.
+   *
+   * @param afterId Kontonummer des letzten Elements der vorherigen Seite bzw.
+   *          0 für die erste Seite
+   * @param limit Höchstanzahl der zu liefernden Zusammenfassungen
+   * @return die Zusammenfassungen oder <code>null</code> bei einem Fehler
+   */
+  public Vector<AccountSummary> findSummaries(int afterId, int limit) {
+    Connection con = null;
+    ResultSet rs = null;
+    Vector<AccountSummary> result = new Vector<AccountSummary>();
+
+    try {
+      // Lesende DB-Verbindung holen, ggf. zu einem Replikat
+      con = DBConnection.readConnection();
+
+      PreparedStatement stmt = DBConnection.prepare(con, SUMMARIES
+          + " WHERE a.id>? ORDER BY a.id LIMIT ?");
+      stmt.setInt(1, afterId);
+      stmt.setInt(2, limit);
+
+      rs = stmt.executeQuery();
+
+      while (rs.next()) {
+        result.addElement(createSummary(rs));
+      }
+    }
+    catch (SQLException e) {
+      e.printStackTrace();
+      return null;
+    }
+    finally {
+      // Ergebnis schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.release(con);
+    }
+
+    return result;
+  }
+
+  /**
+   * Schrittweises Verarbeiten der Zusammenfassungen aller Konten. Das
+   * Ergebnis der Anfrage wird über einen Cursor gelesen (siehe
+   * {@link DBConnection#stream(Connection, String)}), so dass auch sehr
+   * viele Konten ohne großen Speicherbedarf verarbeitet werden können.
+   *
+   * @param handler erhält nacheinander jede Kontozusammenfassung
+   * @return die Anzahl der verarbeiteten Zusammenfassungen
+   */
+  public int forEachSummary(ObjectHandler<AccountSummary> handler) {
+    Connection con = null;
+    PreparedStatement stmt = null;
+    ResultSet rs = null;
+    int count = 0;
+
+    try {
+      // Lesende DB-Verbindung holen, ggf. zu einem Replikat
+      con = DBConnection.readConnection();
+
+      stmt = DBConnection.stream(con, SUMMARIES + " ORDER BY a.id");
+
+      rs = stmt.executeQuery();
+
+      // Jedes Tupel wird einzeln umgewandelt und weitergereicht.
+      while (rs.next()) {
+        handler.handle(createSummary(rs));
+        count++;
+      }
+    }
+    catch (SQLException e) {
+      e.printStackTrace();
+    }
+    finally {
+      // Cursor schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.close(stmt);
+      DBConnection.release(con);
+    }
+
+    return count;
+  }
+
+  /**
+   * Auslesen einer Seite des Kunden- und Kontenbaums mit einer einzigen
+   * Anfrage über {@link #TREE}.
+   *
+   * @param afterLastName Nachname des letzten Kunden der vorherigen Seite bzw.
+   *          <code>""</code> für die erste Seite
+   * @param afterId Kundennummer des letzten Kunden der vorherigen Seite bzw.
+   *          0 für die erste Seite
+   * @param limit Höchstanzahl der zu liefernden Kunden
+   * @return der Ausschnitt oder <code>null</code> bei einem Fehler
+   */
+  public CustomerTree findTree(String afterLastName, int afterId, int limit) {
+    Connection con = null;
+    ResultSet rs = null;
+    Vector<Customer> customers = new Vector<Customer>();
+    Vector<Account> accounts = new Vector<Account>();
+    Vector<Float> balances = new Vector<Float>();
+    Vector<Integer> firstAccount = new Vector<Integer>();
+
+    try {
+      // Lesende DB-Verbindung holen, ggf. zu einem Replikat
+      con = DBConnection.readConnection();
+
+      PreparedStatement stmt = DBConnection.prepare(con, TREE);
+      stmt.setString(1, afterLastName);
+      stmt.setInt(2, afterId);
+      stmt.setInt(3, limit);
+
+      rs = stmt.executeQuery();
+
+      // Die Tupel eines Kunden folgen aufeinander, je Konto eines.
+      while (rs.next()) {
+        int customerID = rs.getInt("id");
+        if (customers.isEmpty()
+            || customers.lastElement().getId() != customerID) {
+          Customer c = new Customer();
+          c.setId(customerID);
+          c.setFirstName(rs.getString("firstName"));
+          c.setLastName(rs.getString("lastName"));
+          c.setVersion(rs.getInt("version"));
+          customers.addElement(c);
+          firstAccount.addElement(Integer.valueOf(accounts.size()));
+        }
+
+        int accountID = rs.getInt("account");
+        if (!rs.wasNull()) {
+          Account a = new Account();
+          a.setId(accountID);
+          a.setOwnerID(customerID);
+          a.setVersion(rs.getInt("accountVersion"));
+          accounts.addElement(a);
+          balances.addElement(Float.valueOf((float) rs.getDouble("balance")));
+        }
+      }
+    }
+    catch (SQLException e) {
+      e.printStackTrace();
+      return null;
+    }
+    finally {
+      // Ergebnis schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.release(con);
+    }
+
+    firstAccount.addElement(Integer.valueOf(accounts.size()));
+    return createTree(customers, accounts, balances, firstAccount);
+  }
+
+  /**
+   * Umwandeln des aktuellen Tupels einer Anfrage über {@link #SUMMARIES} in
+   * ein <code>AccountSummary</code>-Objekt.
+   */
+  private static AccountSummary createSummary(ResultSet rs)
+      throws SQLException {
+    AccountSummary s = new AccountSummary();
+    s.setAccountID(rs.getInt("id"));
+    s.setOwnerID(rs.getInt("owner"));
+    s.setOwnerFirstName(rs.getString("firstName"));
+    s.setOwnerLastName(rs.getString("lastName"));
+    s.setBalance((float) rs.getDouble("balance"));
+    return s;
+  }
+
+  /**
+   * Zusammensetzen eines <code>CustomerTree</code> aus den beim Lesen
+   * gesammelten Listen.
+   */
+  private static CustomerTree createTree(Vector<Customer> customers,
+      Vector<Account> accounts, List<Float> balances,
+      List<Integer> firstAccount) {
+    float[] b = new float[balances.size()];
+    for (int i = 0; i < b.length; i++) {
+      b[i] = balances.get(i).floatValue();
+    }
+    int[] f = new int[firstAccount.size()];
+    for (int i = 0; i < f.length; i++) {
+      f[i] = firstAccount.get(i).intValue();
+    }
+    return new CustomerTree(customers, accounts, b, f);
+  }
+}
@@ -0,0 +1,1223 @@
+package de.hdm.thies.bankProjekt.server.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import de.hdm.thies.bankProjekt.server.ServersideSettings;
+import de.hdm.thies.bankProjekt.server.storage.BalanceStorage;
+import de.hdm.thies.bankProjekt.server.storage.ObjectHandler;
+import de.hdm.thies.bankProjekt.server.storage.OverviewStorage;
+import de.hdm.thies.bankProjekt.server.storage.TransactionStorage;
+import de.hdm.thies.bankProjekt.shared.bo.Account;
+import de.hdm.thies.bankProjekt.shared.bo.AccountSummary;
+import de.hdm.thies.bankProjekt.shared.bo.Customer;
+import de.hdm.thies.bankProjekt.shared.bo.CustomerTree;
+import de.hdm.thies.bankProjekt.shared.bo.Transaction;
+
+/**
+ * <p>
+ * Journal (<em>Write-Ahead-Log</em>), das dem {@link TransactionMapper} beim
+ * Einfügen einzelner Buchungen vorgeschaltet ist. {@link #insert(Transaction)}
+ * vergibt den Primärschlüssel, hängt die Buchung an eine lokale Datei an und
+ * kehrt zurück, sobald diese Datei auf den Datenträger geschrieben ist. Ein
+ * Hintergrund-Thread spielt die Buchungen anschließend gesammelt mittels
+ * {@link TransactionMapper#insertWithKeys(List)} in die Datenbank ein.
+ * </p>
+ * <p>
+ * Das Schreiben auf den Datenträger (<code>fsync</code>) erfolgt als
+ * <em>Group Commit</em>: Der erste wartende Thread schreibt sämtliche bis
+ * dahin angehängten Buchungen, alle übrigen warten auf dessen Ergebnis. Bei
+ * vielen gleichzeitigen Anfragen genügt so ein einziger Schreibvorgang für
+ * viele Buchungen.
+ * </p>
+ * <p>
+ * Noch nicht eingespielte Buchungen werden bei den Abfragen je Konto, den
+ * Summen und den Kontoständen berücksichtigt. Alle übrigen Abfragen und
+ * Änderungen warten zunächst, bis das Journal vollständig eingespielt ist.
+ * Beim Öffnen werden die Buchungen einer vorhandenen Journaldatei erneut
+ * eingespielt, sofern sie noch nicht in der Datenbank vorhanden sind. Ein
+ * unvollständiger letzter Eintrag wird dabei verworfen; dessen Aufrufer hatte
+ * noch keine Bestätigung erhalten.
+ * </p>
+ * <p>
+ * Das Journal wird über die System Property
+ * <code>bankprojekt.journal.dir</code> aktiviert (siehe {@link JdbcStorage}).
+ * Da es ein beschreibbares Dateisystem und einen eigenen Thread benötigt,
+ * steht es in der App Engine nicht zur Verfügung.
+ * </p>
+ *
+ * @see TransactionMapper
+ * @author Thies
+ */
+public class PostingJournal implements TransactionStorage {
+
+  /**
+   * Länge eines Eintrags in Bytes: Primärschlüssel, Quellkonto, Zielkonto,
+   * Betrag und Prüfsumme.
+   */
+  private static final int RECORD_SIZE = 20;
+
+  private static final String FILE_NAME = "postings.wal";
+
+  /**
+   * Sortierung nach dem Primärschlüssel, wie bei den Abfragen je Konto der
+   * Datenbankanbindung.
+   */
+  private static final Comparator<Transaction> BY_ID = new Comparator<Transaction>() {
+    @Override
+    public int compare(Transaction t1, Transaction t2) {
+      int i1 = t1.getId();
+      int i2 = t2.getId();
+      return i1 < i2 ? -1 : (i1 == i2 ? 0 : 1);
+    }
+  };
+
+  /**
+   * Eine angehängte, noch nicht eingespielte Buchung.
+   */
+  private static class Entry {
+    /**
+     * Laufende Nummer des Eintrags im Journal.
+     */
+    final long seq;
+
+    final Transaction transaction;
+
+    /**
+     * Stammt der Eintrag aus einer beim Öffnen vorgefundenen Journaldatei?
+     * Dann ist er möglicherweise bereits eingespielt.
+     */
+    final boolean recovered;
+
+    Entry(long seq, Transaction transaction, boolean recovered) {
+      this.seq = seq;
+      this.transaction = transaction;
+      this.recovered = recovered;
+    }
+  }
+
+  private final TransactionMapper mapper = TransactionMapper
+      .transactionMapper();
+
+  private final File file;
+
+  /**
+   * Höchstanzahl der Buchungen, die gemeinsam eingespielt werden.
+   */
+  private final int flushSize = ServersideSettings.getIntProperty(
+      "bankprojekt.journal.flushSize", 1000);
+
+  /**
+   * Wartezeit des Hintergrund-Threads zwischen zwei Durchläufen in ms.
+   */
+  private final long flushInterval = Math.max(1,
+      ServersideSettings.getLongProperty("bankprojekt.journal.flushInterval",
+          20));
+
+  /**
+   * Dateigröße in Bytes, ab der die noch nicht eingespielten Buchungen in eine
+   * neue Journaldatei übertragen werden.
+   */
+  private final long compactSize = ServersideSettings.getLongProperty(
+      "bankprojekt.journal.compactSize", 4L * 1024 * 1024);
+
+  /**
+   * Höchste Wartezeit in ms, bis das Journal vor einer Abfrage oder Änderung
+   * vollständig eingespielt ist.
+   */
+  private final long drainTimeout = ServersideSettings.getLongProperty(
+      "bankprojekt.journal.drainTimeout", 10000);
+
+  /**
+   * Schützt {@link #channel}, {@link #written}, {@link #applied} und
+   * {@link #pending}.
+   */
+  private final Object appendLock = new Object();
+
+  private FileChannel channel;
+
+  private final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+
+  /**
+   * Laufende Nummer des zuletzt angehängten Eintrags.
+   */
+  private long written = 0;
+
+  /**
+   * Laufende Nummer, bis zu der sämtliche Einträge eingespielt sind.
+   */
+  private long applied = 0;
+
+  /**
+   * Die noch nicht eingespielten Einträge in der Reihenfolge ihres Anhängens.
+   */
+  private final ArrayList<Entry> pending = new ArrayList<Entry>();
+
+  /**
+   * Schützt {@link #synced} und {@link #syncing}.
+   */
+  private final Object syncLock = new Object();
+
+  /**
+   * Laufende Nummer, bis zu der sämtliche Einträge auf dem Datenträger sind.
+   */
+  private long synced = 0;
+
+  /**
+   * Schreibt gerade ein Thread auf den Datenträger?
+   */
+  private boolean syncing = false;
+
+  /**
+   * Der Fehler, nach dem das Journal nicht mehr beschrieben wird, oder
+   * <code>null</code>. Buchungen werden dann direkt in die Datenbank
+   * geschrieben.
+   */
+  private volatile IOException failure = null;
+
+  /**
+   * Beim Einspielen wird die Schreibsperre gehalten, bei den Abfragen, die
+   * noch nicht eingespielte Buchungen berücksichtigen, die Lesesperre. Jede
+   * Buchung ist so entweder in der Datenbank oder im Journal sichtbar.
+   */
+  private final ReentrantReadWriteLock applyLock = new ReentrantReadWriteLock();
+
+  private final Lock readLock = applyLock.readLock();
+
+  private final Lock writeLock = applyLock.writeLock();
+
+  private final BalanceStorage balances = new Balances();
+
+  private final OverviewStorage overviews = new Overviews();
+
+  /**
+   * Öffnen des Journals im angegebenen Verzeichnis. Vorhandene Einträge
+   * werden übernommen und anschließend vom Hintergrund-Thread eingespielt.
+   *
+   * @param directory das Verzeichnis der Journaldatei
+   * @throws IOException wenn das Journal nicht geöffnet werden kann
+   */
+  public PostingJournal(File directory) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Verzeichnis " + directory
+          + " kann nicht angelegt werden.");
+    }
+
+    this.file = new File(directory, FILE_NAME);
+    this.channel = new RandomAccessFile(file, "rw").getChannel();
+
+    recover();
+
+    Thread flusher = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        flushLoop();
+      }
+    }, "PostingJournal");
+    flusher.setDaemon(true);
+    flusher.start();
+  }
+
+  /**
+   * Lesen der vorhandenen Einträge. Ab dem ersten unvollständigen oder
+   * fehlerhaften Eintrag wird die Datei abgeschnitten.
+   */
+  private void recover() throws IOException {
+    ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    long position = 0;
+    long size = channel.size();
+
+    while (position + RECORD_SIZE <= size) {
+      record.clear();
+      while (record.hasRemaining()
+          && channel.read(record, position + record.position()) > 0) {
+        // weiterlesen, bis der Eintrag vollständig ist
+      }
+      record.flip();
+
+      int id = record.getInt();
+      int source = record.getInt();
+      int target = record.getInt();
+      int amount = record.getInt();
+      if (record.getInt() != checksum(id, source, target, amount)) {
+        break;
+      }
+
+      Transaction t = new Transaction();
+      t.setId(id);
+      t.setSourceAccountID(source);
+      t.setTargetAccountID(target);
+      t.setAmount(Float.intBitsToFloat(amount));
+      pending.add(new Entry(++written, t, true));
+
+      position += RECORD_SIZE;
+    }
+
+    if (position < size) {
+      ServersideSettings.getLogger().warning(
+          "Unvollständiger Eintrag in " + file + " wird abgeschnitten ("
+              + (size - position) + " Bytes).");
+      channel.truncate(position);
+      channel.force(false);
+    }
+    channel.position(position);
+    synced = written;
+
+    if (written > 0) {
+      ServersideSettings.getLogger().info(
+          written + " Buchungen aus " + file + " werden erneut eingespielt.");
+    }
+  }
+
+  /*
+   * ***************************************************************************
+   * ABSCHNITT, Beginn: Anhängen und Group Commit
+   * ***************************************************************************
+   */
+
+  /**
+   * Einfügen einer neuen Buchung über das Journal. Die Methode kehrt zurück,
+   * sobald die Buchung auf dem Datenträger ist. Ist das Journal nicht
+   * beschreibbar, wird die Buchung direkt in die Datenbank geschrieben.
+   *
+   * @see TransactionMapper#insert(Transaction)
+   */
+  @Override
+  public Transaction insert(Transaction t) {
+    if (failure != null) {
+      return mapper.insert(t);
+    }
+
+    try {
+      t.setId(IdAllocator.idAllocator().nextId(IdAllocator.TRANSACTIONS));
+    }
+    catch (SQLException e) {
+      // Ohne Schlüssel wird die Buchung weder ins Journal noch in die DB
+      e.printStackTrace();
+      return null;
+    }
+
+    long seq;
+    synchronized (appendLock) {
+      try {
+        buffer.clear();
+        int amount = Float.floatToRawIntBits(t.getAmount());
+        buffer.putInt(t.getId()).putInt(t.getSourceAccountID())
+            .putInt(t.getTargetAccountID()).putInt(amount)
+            .putInt(checksum(t.getId(), t.getSourceAccountID(),
+                t.getTargetAccountID(), amount));
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      }
+      catch (IOException e) {
+        fail(e);
+        return mapper.insert(t);
+      }
+
+      seq = ++written;
+      pending.add(new Entry(seq, copy(t), false));
+    }
+
+    // Nachfolgende Lesezugriffe dieser Anfrage gehen an die primäre Datenbank
+    DBConnection.markWrite();
+
+    if (!sync(seq)) {
+      /*
+       * Die Buchung konnte nicht auf den Datenträger geschrieben werden. Sie
+       * ist erst bestätigt, wenn sie in der Datenbank ist.
+       */
+      awaitApplied(seq);
+    }
+
+    return t;
+  }
+
+  /**
+   * Schreiben aller Einträge bis einschließlich <code>seq</code> auf den
+   * Datenträger. Schreibt bereits ein anderer Thread, wird auf diesen
+   * gewartet; dessen Schreibvorgang umfasst evtl. auch den eigenen Eintrag.
+   *
+   * @return <code>true</code>, wenn die Einträge auf dem Datenträger sind
+   */
+  private boolean sync(long seq) {
+    synchronized (syncLock) {
+      while (synced < seq && syncing && failure == null) {
+        try {
+          syncLock.wait();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+      if (synced >= seq) {
+        return true;
+      }
+      if (failure != null) {
+        return false;
+      }
+      syncing = true;
+    }
+
+    // Dieser Thread schreibt nun alle bisher angehängten Einträge
+    long target;
+    FileChannel ch;
+    synchronized (appendLock) {
+      target = written;
+      ch = channel;
+    }
+
+    boolean ok = true;
+    try {
+      ch.force(false);
+    }
+    catch (IOException e) {
+      fail(e);
+      ok = false;
+    }
+
+    synchronized (syncLock) {
+      if (ok) {
+        synced = Math.max(synced, target);
+      }
+      syncing = false;
+      syncLock.notifyAll();
+    }
+
+    return ok;
+  }
+
+  private void fail(IOException e) {
+    e.printStackTrace();
+    if (failure == null) {
+      failure = e;
+      ServersideSettings.getLogger().severe(
+          "Journal " + file + " nicht beschreibbar, Buchungen werden direkt "
+              + "gespeichert: " + e.getMessage());
+    }
+    synchronized (syncLock) {
+      syncLock.notifyAll();
+    }
+  }
+
+  /*
+   * ***************************************************************************
+   * ABSCHNITT, Ende: Anhängen und Group Commit
+   * ***************************************************************************
+   */
+
+  /*
+   * ***************************************************************************
+   * ABSCHNITT, Beginn: Einspielen in die Datenbank
+   * ***************************************************************************
+   */
+
+  private void flushLoop() {
+    for (;;) {
+      synchronized (appendLock) {
+        try {
+          if (pending.size() < flushSize) {
+            appendLock.wait(flushInterval);
+          }
+        }
+        catch (InterruptedException e) {
+          return;
+        }
+      }
+
+      try {
+        if (!flush()) {
+          // Die Datenbank ist nicht erreichbar, später erneut versuchen
+          Thread.sleep(flushInterval * 10);
+        }
+        compact();
+      }
+      catch (InterruptedException e) {
+        return;
+      }
+      catch (RuntimeException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Einspielen aller derzeit angehängten Einträge in Blöcken von höchstens
+   * <code>bankprojekt.journal.flushSize</code> Buchungen.
+   *
+   * @return <code>false</code>, wenn ein Block nicht eingespielt werden konnte
+   */
+  private boolean flush() {
+    long target;
+    synchronized (appendLock) {
+      if (written == applied) {
+        return true;
+      }
+      target = written;
+    }
+
+    // Eingespielt wird nur, was auch im Journal gesichert ist
+    sync(target);
+
+    for (;;) {
+      ArrayList<Transaction> batch = new ArrayList<Transaction>();
+      HashSet<Integer> recovered = new HashSet<Integer>();
+      long last = 0;
+
+      synchronized (appendLock) {
+        for (int i = 0; i < pending.size() && batch.size() < flushSize; i++) {
+          Entry e = pending.get(i);
+          if (e.seq > target) {
+            break;
+          }
+          batch.add(e.transaction);
+          if (e.recovered) {
+            recovered.add(Integer.valueOf(e.transaction.getId()));
+          }
+          last = e.seq;
+        }
+      }
+
+      if (batch.isEmpty()) {
+        return true;
+      }
+
+      writeLock.lock();
+      try {
+        List<Transaction> missing = batch;
+
+        if (!recovered.isEmpty()) {
+          // Nach einem Absturz evtl. bereits eingespielte Buchungen auslassen
+          missing = withoutExisting(batch, recovered);
+          if (missing == null) {
+            return false;
+          }
+        }
+
+        if (!missing.isEmpty() && !mapper.insertWithKeys(missing)
+            && !insertSingly(missing)) {
+          ServersideSettings.getLogger().warning(
+              batch.size() + " Buchungen aus " + file
+                  + " konnten nicht eingespielt werden.");
+          return false;
+        }
+
+        synchronized (appendLock) {
+          pending.subList(0, batch.size()).clear();
+          applied = last;
+          appendLock.notifyAll();
+        }
+      }
+      finally {
+        writeLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Einzelnes Einspielen der Buchungen eines gescheiterten Blocks. Bereits
+   * vorhandene Buchungen werden ausgelassen, etwa wenn die Bestätigung eines
+   * früheren Commits verloren ging. Fehlt eine Buchung auch nach ihrem
+   * einzelnen Einfügen, obwohl die Datenbank die anschließende Abfrage
+   * beantwortet, ist sie nicht speicherbar. Sie wird dann protokolliert und
+   * übersprungen, damit sie die nachfolgenden Buchungen nicht dauerhaft
+   * aufhält.
+   *
+   * @return <code>false</code>, wenn die Datenbank nicht erreichbar ist und
+   *         der Block später erneut versucht werden soll
+   */
+  private boolean insertSingly(List<Transaction> batch) {
+    List<Transaction> missing = withoutExisting(batch, keysOf(batch));
+    if (missing == null) {
+      return false;
+    }
+
+    ArrayList<Transaction> failed = new ArrayList<Transaction>();
+    for (Transaction t : missing) {
+      if (!mapper.insertWithKeys(Collections.singletonList(t))) {
+        failed.add(t);
+      }
+    }
+    if (failed.isEmpty()) {
+      return true;
+    }
+
+    List<Transaction> unstorable = withoutExisting(failed, keysOf(failed));
+    if (unstorable == null) {
+      return false;
+    }
+    for (Transaction t : unstorable) {
+      ServersideSettings.getLogger().severe(
+          "Buchung " + t.getId() + " aus " + file
+              + " nicht speicherbar, wird übersprungen: " + t);
+    }
+    return true;
+  }
+
+  private static HashSet<Integer> keysOf(List<Transaction> transactions) {
+    HashSet<Integer> keys = new HashSet<Integer>();
+    for (Transaction t : transactions) {
+      keys.add(Integer.valueOf(t.getId()));
+    }
+    return keys;
+  }
+
+  /**
+   * Entfernen der bereits in der Datenbank vorhandenen Buchungen aus
+   * <code>batch</code>.
+   *
+   * @param candidates die Primärschlüssel der evtl. vorhandenen Buchungen
+   * @return die fehlenden Buchungen oder <code>null</code> bei einem Fehler
+   */
+  private List<Transaction> withoutExisting(List<Transaction> batch,
+      HashSet<Integer> candidates) {
+    int[] ids = new int[candidates.size()];
+    int n = 0;
+    for (Integer id : candidates) {
+      ids[n++] = id.intValue();
+    }
+
+    HashSet<Integer> existing = mapper.findExistingKeys(ids);
+    if (existing == null) {
+      return null;
+    }
+
+    ArrayList<Transaction> result = new ArrayList<Transaction>(batch.size());
+    for (Transaction t : batch) {
+      if (!existing.contains(Integer.valueOf(t.getId()))) {
+        result.add(t);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Verkleinern der Journaldatei. Sind alle Einträge eingespielt, wird sie
+   * geleert. Überschreitet sie <code>bankprojekt.journal.compactSize</code>,
+   * werden die noch nicht eingespielten Einträge in eine neue Datei
+   * übertragen, die die bisherige ersetzt.
+   */
+  private void compact() {
+    if (failure != null) {
+      return;
+    }
+
+    synchronized (appendLock) {
+      try {
+        if (pending.isEmpty() ? channel.position() == 0
+            : channel.size() < compactSize) {
+          return;
+        }
+      }
+      catch (IOException e) {
+        fail(e);
+        return;
+      }
+    }
+
+    // Während des Verkleinerns schreibt kein anderer Thread auf den Datenträger
+    synchronized (syncLock) {
+      while (syncing) {
+        try {
+          syncLock.wait();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+      syncing = true;
+    }
+
+    boolean ok = true;
+    long target;
+    synchronized (appendLock) {
+      target = written;
+      try {
+        if (pending.isEmpty()) {
+          channel.truncate(0);
+          channel.position(0);
+          channel.force(false);
+        }
+        else {
+          channel = rewrite();
+        }
+      }
+      catch (IOException e) {
+        fail(e);
+        ok = false;
+      }
+    }
+
+    synchronized (syncLock) {
+      if (ok) {
+        synced = Math.max(synced, target);
+      }
+      syncing = false;
+      syncLock.notifyAll();
+    }
+  }
+
+  /**
+   * Übertragen der noch nicht eingespielten Einträge in eine neue Datei, die
+   * anschließend die bisherige ersetzt. Der Aufrufer hält
+   * <code>appendLock</code>.
+   *
+   * @return der Kanal der neuen Datei
+   */
+  private FileChannel rewrite() throws IOException {
+    File tmp = new File(file.getPath() + ".tmp");
+    FileChannel out = new RandomAccessFile(tmp, "rw").getChannel();
+
+    try {
+      out.truncate(0);
+      ByteBuffer records = ByteBuffer.allocate(pending.size() * RECORD_SIZE);
+      for (Entry e : pending) {
+        Transaction t = e.transaction;
+        int amount = Float.floatToRawIntBits(t.getAmount());
+        records.putInt(t.getId()).putInt(t.getSourceAccountID())
+            .putInt(t.getTargetAccountID()).putInt(amount)
+            .putInt(checksum(t.getId(), t.getSourceAccountID(),
+                t.getTargetAccountID(), amount));
+      }
+      records.flip();
+      while (records.hasRemaining()) {
+        out.write(records);
+      }
+      out.force(false);
+    }
+    catch (IOException e) {
+      out.close();
+      throw e;
+    }
+
+    channel.close();
+    if (!tmp.renameTo(file)) {
+      out.close();
+      throw new IOException(tmp + " kann nicht umbenannt werden.");
+    }
+    return out;
+  }
+
+  /**
+   * Warten, bis sämtliche Einträge bis einschließlich <code>seq</code>
+   * eingespielt sind.
+   *
+   * @return <code>false</code>, wenn dies nicht innerhalb von
+   *         <code>bankprojekt.journal.drainTimeout</code> ms geschah
+   */
+  private boolean awaitApplied(long seq) {
+    long deadline = System.currentTimeMillis() + drainTimeout;
+
+    synchronized (appendLock) {
+      // Den Hintergrund-Thread sofort einspielen lassen
+      appendLock.notifyAll();
+
+      while (applied < seq) {
+        long wait = deadline - System.currentTimeMillis();
+        if (wait <= 0) {
+          ServersideSettings.getLogger().warning(
+              "Journal " + file + " nicht innerhalb von " + drainTimeout
+                  + " ms eingespielt.");
+          return false;
+        }
+        try {
+          appendLock.wait(wait);
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Warten, bis sämtliche bisher angehängten Einträge eingespielt sind.
+   */
+  private boolean drain() {
+    long seq;
+    synchronized (appendLock) {
+      seq = written;
+    }
+    return awaitApplied(seq);
+  }
+
+  /*
+   * ***************************************************************************
+   * ABSCHNITT, Ende: Einspielen in die Datenbank
+   * ***************************************************************************
+   */
+
+  /**
+   * Auslesen der noch nicht eingespielten Buchungen. Der Aufrufer hält die
+   * Lesesperre.
+   */
+  private ArrayList<Transaction> pending() {
+    synchronized (appendLock) {
+      ArrayList<Transaction> result = new ArrayList<Transaction>(pending
+          .size());
+      for (Entry e : pending) {
+        result.add(e.transaction);
+      }
+      return result;
+    }
+  }
+
+  private static Transaction copy(Transaction t) {
+    Transaction result = new Transaction();
+    result.setId(t.getId());
+    result.setSourceAccountID(t.getSourceAccountID());
+    result.setTargetAccountID(t.getTargetAccountID());
+    result.setAmount(t.getAmount());
+    return result;
+  }
+
+  private static int checksum(int id, int source, int target, int amount) {
+    int h = 0x811C9DC5;
+    h = (h ^ id) * 0x01000193;
+    h = (h ^ source) * 0x01000193;
+    h = (h ^ target) * 0x01000193;
+    h = (h ^ amount) * 0x01000193;
+    return h;
+  }
+
+  @Override
+  public Transaction findByKey(int id) {
+    readLock.lock();
+    try {
+      for (Transaction t : pending()) {
+        if (t.getId() == id) {
+          return copy(t);
+        }
+      }
+      return mapper.findByKey(id);
+    }
+    finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public HashMap<Integer, Transaction> findByKeys(int[] ids) {
+    readLock.lock();
+    try {
+      HashMap<Integer, Transaction> result = mapper.findByKeys(ids);
+      if (result == null) {
+        return null;
+      }
+
+      // Noch nicht übernommene Buchungen haben Vorrang vor der Datenbank
+      HashSet<Integer> wanted = new HashSet<Integer>();
+      for (int id : ids) {
+        wanted.add(Integer.valueOf(id));
+      }
+      for (Transaction t : pending()) {
+        if (wanted.contains(Integer.valueOf(t.getId()))) {
+          result.put(Integer.valueOf(t.getId()), copy(t));
+        }
+      }
+      return result;
+    }
+    finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public Vector<Transaction> findAll() {
+    drain();
+    return mapper.findAll();
+  }
+
+  @Override
+  public int forEach(ObjectHandler<Transaction> handler) {
+    drain();
+    return mapper.forEach(handler);
+  }
+
+  @Override
+  public Vector<Transaction> findPage(int afterId, int limit) {
+    drain();
+    return mapper.findPage(afterId, limit);
+  }
+
+  @Override
+  public Vector<Transaction> findBySourceAccount(int accountID) {
+    readLock.lock();
+    try {
+      ArrayList<Transaction> unapplied = pending();
+      Vector<Transaction> result = mapper.findBySourceAccount(accountID);
+      for (Transaction t : unapplied) {
+        if (t.getSourceAccountID() == accountID) {
+          result.addElement(copy(t));
+        }
+      }
+      Collections.sort(result, BY_ID);
+      return result;
+    }
+    finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public Vector<Transaction> findByTargetAccount(int accountID) {
+    readLock.lock();
+    try {
+      ArrayList<Transaction> unapplied = pending();
+      Vector<Transaction> result = mapper.findByTargetAccount(accountID);
+      for (Transaction t : unapplied) {
+        if (t.getTargetAccountID() == accountID) {
+          result.addElement(copy(t));
+        }
+      }
+      Collections.sort(result, BY_ID);
+      return result;
+    }
+    finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public Double sumDebits(int accountID) {
+    readLock.lock();
+    try {
+      ArrayList<Transaction> unapplied = pending();
+      Double sum = mapper.sumDebits(accountID);
+      if (sum == null) {
+        return null;
+      }
+
+      double result = sum.doubleValue();
+      for (Transaction t : unapplied) {
+        if (t.getSourceAccountID() == accountID) {
+          result += t.getAmount();
+        }
+      }
+      return Double.valueOf(result);
+    }
+    finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public Double sumCredits(int accountID) {
+    readLock.lock();
+    try {
+      ArrayList<Transaction> unapplied = pending();
+      Double sum = mapper.sumCredits(accountID);
+      if (sum == null) {
+        return null;
+      }
+
+      double result = sum.doubleValue();
+      for (Transaction t : unapplied) {
+        if (t.getTargetAccountID() == accountID) {
+          result += t.getAmount();
+        }
+      }
+      return Double.valueOf(result);
+    }
+    finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public HashMap<Integer, Double> netBalances(int[] accountIDs) {
+    readLock.lock();
+    try {
+      ArrayList<Transaction> unapplied = pending();
+      HashMap<Integer, Double> result = mapper.netBalances(accountIDs);
+      if (result != null) {
+        adjust(result, unapplied);
+      }
+      return result;
+    }
+    finally {
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * Fortschreiben der Kontostände in <code>balances</code> um die
+   * angegebenen Buchungen. Konten, die nicht in <code>balances</code>
+   * enthalten sind, bleiben unberücksichtigt.
+   */
+  private static void adjust(HashMap<Integer, Double> balances,
+      List<Transaction> transactions) {
+    for (Transaction t : transactions) {
+      add(balances, t.getSourceAccountID(), -t.getAmount());
+      add(balances, t.getTargetAccountID(), t.getAmount());
+    }
+  }
+
+  private static void add(HashMap<Integer, Double> balances, int account,
+      double amount) {
+    Integer key = Integer.valueOf(account);
+    Double balance = balances.get(key);
+    if (balance != null) {
+      balances.put(key, Double.valueOf(balance.doubleValue() + amount));
+    }
+  }
+
+  /**
+   * Gemeinsames Einfügen mehrerer Buchungen. Diese werden wie bisher direkt
+   * in einer Datenbanktransaktion gespeichert.
+   */
+  @Override
+  public int[] insertBatch(List<Transaction> transactions) {
+    return mapper.insertBatch(transactions);
+  }
+
+  @Override
+  public Transaction update(Transaction t) {
+    if (!drain()) {
+      ServersideSettings.getLogger().warning(
+          "Buchung " + t.getId() + " wurde nicht geändert.");
+      return t;
+    }
+    return mapper.update(t);
+  }
+
+  @Override
+  public void delete(Transaction t) {
+    if (!drain()) {
+      ServersideSettings.getLogger().warning(
+          "Buchung " + t.getId() + " wurde nicht gelöscht.");
+      return;
+    }
+    mapper.delete(t);
+  }
+
+  @Override
+  public int deleteTransactionsOf(Account a) {
+    return drain() ? mapper.deleteTransactionsOf(a) : -1;
+  }
+
+  @Override
+  public int deleteTransactionsOf(Customer c) {
+    return drain() ? mapper.deleteTransactionsOf(c) : -1;
+  }
+
+  /**
+   * Auslesen der Kontostände unter Berücksichtigung der noch nicht
+   * eingespielten Buchungen.
+   */
+  public BalanceStorage balances() {
+    return balances;
+  }
+
+  /**
+   * Auslesen der Übersichten über Konten, Kunden und Kontostände unter
+   * Berücksichtigung der noch nicht eingespielten Buchungen.
+   */
+  public OverviewStorage overviews() {
+    return overviews;
+  }
+
+  /**
+   * Die fortgeschriebenen Kontostände der {@link AccountBalanceMapper
+   * Datenbank}, ergänzt um die noch nicht eingespielten Buchungen.
+   */
+  private class Balances implements BalanceStorage {
+
+    private final AccountBalanceMapper bMapper = AccountBalanceMapper
+        .accountBalanceMapper();
+
+    @Override
+    public Double findByAccount(int accountID) {
+      readLock.lock();
+      try {
+        ArrayList<Transaction> unapplied = pending();
+        Double balance = bMapper.findByAccount(accountID);
+        if (balance == null) {
+          return null;
+        }
+
+        HashMap<Integer, Double> result = new HashMap<Integer, Double>();
+        result.put(Integer.valueOf(accountID), balance);
+        adjust(result, unapplied);
+        return result.get(Integer.valueOf(accountID));
+      }
+      finally {
+        readLock.unlock();
+      }
+    }
+
+    @Override
+    public HashMap<Integer, Double> findByAccounts(int[] accountIDs) {
+      readLock.lock();
+      try {
+        ArrayList<Transaction> unapplied = pending();
+        HashMap<Integer, Double> result = bMapper.findByAccounts(accountIDs);
+        if (result != null) {
+          adjust(result, unapplied);
+        }
+        return result;
+      }
+      finally {
+        readLock.unlock();
+      }
+    }
+
+    /**
+     * Die noch nicht eingespielten Buchungen liegen im lokalen Journal dieser
+     * Server-Instanz, eine Zeilensperre der Datenbank erfasst sie nicht.
+     * Zudem wartet das Einspielen unter der Schreibsperre des Journals auf
+     * die Zeilen der Kontostände. Gleichzeitige Buchungen desselben Kontos
+     * verhindern daher allein die Sperren der
+     * {@link de.hdm.thies.bankProjekt.server.TransferEngine TransferEngine}.
+     */
+    @Override
+    public Double findByAccountForUpdate(int accountID) {
+      return findByAccount(accountID);
+    }
+
+    @Override
+    public Double findByAccountFromPrimary(int accountID) {
+      DBConnection.markWrite();
+      return findByAccount(accountID);
+    }
+
+    @Override
+    public Double findByAccountAsOf(int accountID, int transactionID) {
+      readLock.lock();
+      try {
+        ArrayList<Transaction> unapplied = new ArrayList<Transaction>();
+        for (Transaction t : pending()) {
+          if (t.getId() <= transactionID) {
+            unapplied.add(t);
+          }
+        }
+        Double balance = bMapper.findByAccountAsOf(accountID, transactionID);
+        if (balance == null) {
+          return null;
+        }
+
+        HashMap<Integer, Double> result = new HashMap<Integer, Double>();
+        result.put(Integer.valueOf(accountID), balance);
+        adjust(result, unapplied);
+        return result.get(Integer.valueOf(accountID));
+      }
+      finally {
+        readLock.unlock();
+      }
+    }
+
+    @Override
+    public boolean rebuild() {
+      return drain() && bMapper.rebuild();
+    }
+
+    @Override
+    public int verify() {
+      return drain() ? bMapper.verify() : -1;
+    }
+  }
+
+  /**
+   * Die Übersichten des {@link OverviewMapper}, deren Kontostände um die noch
+   * nicht eingespielten Buchungen ergänzt werden.
+   */
+  private class Overviews implements OverviewStorage {
+
+    private final OverviewMapper oMapper = OverviewMapper.overviewMapper();
+
+    @Override
+    public Vector<AccountSummary> findSummaries(int afterId, int limit) {
+      readLock.lock();
+      try {
+        ArrayList<Transaction> unapplied = pending();
+        Vector<AccountSummary> result = oMapper.findSummaries(afterId, limit);
+        if (result == null || unapplied.isEmpty()) {
+          return result;
+        }
+
+        // Noch nicht eingespielte Buchungen auf die Kontostände aufschlagen
+        HashMap<Integer, Double> balances = new HashMap<Integer, Double>();
+        for (AccountSummary summary : result) {
+          balances.put(Integer.valueOf(summary.getAccountID()),
+              Double.valueOf(summary.getBalance()));
+        }
+        adjust(balances, unapplied);
+        for (AccountSummary summary : result) {
+          summary.setBalance(balances.get(
+              Integer.valueOf(summary.getAccountID())).floatValue());
+        }
+        return result;
+      }
+      finally {
+        readLock.unlock();
+      }
+    }
+
+    @Override
+    public int forEachSummary(ObjectHandler<AccountSummary> handler) {
+      drain();
+      return oMapper.forEachSummary(handler);
+    }
+
+    @Override
+    public CustomerTree findTree(String afterLastName, int afterId,
+        int limit) {
+      readLock.lock();
+      try {
+        ArrayList<Transaction> unapplied = pending();
+        CustomerTree result = oMapper.findTree(afterLastName, afterId, limit);
+        if (result == null || unapplied.isEmpty()) {
+          return result;
+        }
+
+        // Noch nicht eingespielte Buchungen auf die Kontostände aufschlagen
+        Vector<Account> accounts = result.getAccounts();
+        HashMap<Integer, Double> balances = new HashMap<Integer, Double>();
+        for (int i = 0; i < accounts.size(); i++) {
+          balances.put(Integer.valueOf(accounts.elementAt(i).getId()),
+              Double.valueOf(result.getBalance(i)));
+        }
+        adjust(balances, unapplied);
+        for (int i = 0; i < accounts.size(); i++) {
+          result.setBalance(i, balances.get(
+              Integer.valueOf(accounts.elementAt(i).getId())).floatValue());
+        }
+        return result;
+      }
+      finally {
+        readLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Kennzahlen des Journals für die Überwachung.
+   */
+  @Override
+  public String toString() {
+    synchronized (appendLock) {
+      return "Journal " + file + ": " + written + " Einträge angehängt, "
+          + pending.size() + " noch nicht eingespielt"
+          + (failure == null ? "" : ", nicht beschreibbar");
+    }
+  }
+}
@@ -0,0 +1,505 @@
+package de.hdm.thies.bankProjekt.server.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.logging.Logger;
+
+import de.hdm.thies.bankProjekt.server.ServersideSettings;
+
+/**
+ * <p>
+ * Messung der Laufzeiten von Mapper-Aufrufen und SQL-Statements. Ist die
+ * Messung eingeschaltet, werden die Mapper des {@link JdbcStorage} sowie
+ * sämtliche über {@link DBConnection#prepare(java.sql.Connection, String)}
+ * bzw. {@link DBConnection#stream(java.sql.Connection, String)} bezogenen
+ * Statements in einen Stellvertreter ({@link Proxy}) eingepackt. Dieser misst
+ * je Aufruf die Dauer, die Anzahl der gelesenen Tupel und eine Schätzung der
+ * gelesenen Bytes und meldet diese an einen {@link MetricsSink}. Für Mapper
+ * wird dabei <code>Mapper.methode</code> als Bezeichnung verwendet, für
+ * Statements deren SQL-Text, in dem Listen von Platzhaltern zusammengefasst
+ * sind.
+ * </p>
+ * <p>
+ * Benötigt ein Statement länger als
+ * <code>bankprojekt.monitor.slowQueryMillis</code>, wird es samt
+ * aufrufendem Mapper und Parameterwerten im {@link ServersideSettings#getLogger()
+ * Log} vermerkt. Ebenso wird jede <code>SQLException</code> mit dem
+ * auslösenden Statement protokolliert, bevor der Mapper sie wie gewohnt
+ * behandelt.
+ * </p>
+ * <p>
+ * Konfiguriert wird die Messung über folgende System Properties:
+ * </p>
+ * <ul>
+ * <li><code>bankprojekt.monitor.enabled</code>: Messung einschalten,
+ * voreingestellt ist <code>false</code></li>
+ * <li><code>bankprojekt.monitor.slowQueryMillis</code>: Schwelle für das Log
+ * langsamer Statements in ms, voreingestellt sind 100</li>
+ * <li><code>bankprojekt.monitor.sink</code>: Klassenname des
+ * {@link MetricsSink}, voreingestellt ist {@link HistogramMetricsSink}</li>
+ * </ul>
+ * <p>
+ * Ist die Messung ausgeschaltet, liefern die <code>wrap</code>-Methoden das
+ * übergebene Objekt unverändert zurück. Es entstehen dann keinerlei Kosten je
+ * Aufruf.
+ * </p>
+ *
+ * @see MetricsSink
+ */
+public class QueryMonitor {
+
+  /**
+   * Maximale Länge der protokollierten Parameterwerte eines Statements.
+   */
+  private static final int MAX_PARAMETERS_LENGTH = 1000;
+
+  private static final boolean enabled = ServersideSettings
+      .getBooleanProperty("bankprojekt.monitor.enabled", false);
+
+  private static final long slowNanos = ServersideSettings.getLongProperty(
+      "bankprojekt.monitor.slowQueryMillis", 100) * 1000000L;
+
+  private static final MetricsSink sink = enabled ? createSink() : null;
+
+  /**
+   * Der gerade laufende Mapper-Aufruf des aktuellen Threads.
+   */
+  private static final ThreadLocal<Call> current = new ThreadLocal<Call>();
+
+  /**
+   * Geschützter Konstruktor - die Klasse bietet nur statische Methoden.
+   */
+  protected QueryMonitor() {
+  }
+
+  private static MetricsSink createSink() {
+    String name = ServersideSettings.getProperty("bankprojekt.monitor.sink",
+        "");
+    if (name.length() > 0) {
+      try {
+        return (MetricsSink) Class.forName(name).getDeclaredConstructor()
+            .newInstance();
+      }
+      catch (Exception e) {
+        e.printStackTrace();
+        ServersideSettings.getLogger().severe(
+            "MetricsSink " + name + " kann nicht angelegt werden, "
+                + "verwende HistogramMetricsSink.");
+      }
+    }
+    return new HistogramMetricsSink();
+  }
+
+  /**
+   * Ist die Messung eingeschaltet?
+   */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Auslesen des Empfängers der Kennzahlen.
+   *
+   * @return der <code>MetricsSink</code> oder <code>null</code>, wenn die
+   *         Messung ausgeschaltet ist
+   */
+  public static MetricsSink getSink() {
+    return sink;
+  }
+
+  /**
+   * Einpacken eines Mappers, so dass jeder Aufruf einer Methode der
+   * Schnittstelle <code>type</code> gemessen wird.
+   *
+   * @param type die Schnittstelle, über die der Mapper genutzt wird
+   * @param target der Mapper
+   * @param name Bezeichnung des Mappers in den Kennzahlen
+   * @return der eingepackte Mapper bzw. <code>target</code> selbst, wenn die
+   *         Messung ausgeschaltet ist
+   */
+  public static <T> T wrap(Class<T> type, T target, String name) {
+    if (!enabled) {
+      return target;
+    }
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(),
+        new Class<?>[] { type }, new MapperHandler(target, name)));
+  }
+
+  /**
+   * Einpacken eines vorbereiteten Statements.
+   *
+   * @param stmt das Statement
+   * @param sql dessen SQL-Text
+   * @return das eingepackte Statement bzw. <code>stmt</code> selbst, wenn die
+   *         Messung ausgeschaltet ist
+   */
+  static PreparedStatement wrap(PreparedStatement stmt, String sql) {
+    if (!enabled) {
+      return stmt;
+    }
+    return (PreparedStatement) Proxy.newProxyInstance(
+        PreparedStatement.class.getClassLoader(),
+        new Class<?>[] { PreparedStatement.class }, new StatementHandler(stmt,
+            sql));
+  }
+
+  /**
+   * Form eines SQL-Statements für Kennzahlen und Log: Leerraum wird
+   * vereinheitlicht und Listen von Platzhaltern, etwa einer
+   * <code>IN</code>-Bedingung, werden zu <code>?, ...</code> zusammengefasst.
+   * Statements, die sich nur in der Anzahl der Werte unterscheiden, werden so
+   * gemeinsam gezählt.
+   */
+  static String shapeOf(String sql) {
+    return sql.trim().replaceAll("\\s+", " ")
+        .replaceAll("\\?( ?, ?\\?)+", "?, ...");
+  }
+
+  /**
+   * Ein laufender Mapper-Aufruf. Gelesene Tupel und Bytes der darin
+   * ausgeführten Statements werden hier gesammelt.
+   */
+  private static class Call {
+    final String name;
+
+    final Call parent;
+
+    long rows = 0;
+
+    long bytes = 0;
+
+    boolean failed = false;
+
+    Call(String name, Call parent) {
+      this.name = name;
+      this.parent = parent;
+    }
+  }
+
+  /**
+   * Kennzeichnung eines Aufrufs, der keine Methode von {@link Object} ist.
+   */
+  private static final Object NOT_HANDLED = new Object();
+
+  /**
+   * Behandlung der Methoden von {@link Object} für einen Stellvertreter: Die
+   * Identität ist die des Stellvertreters, die textuelle Darstellung die des
+   * eingepackten Objekts.
+   *
+   * @return das Ergebnis oder {@link #NOT_HANDLED}, wenn es sich um keine
+   *         Methode von <code>Object</code> handelt
+   */
+  private static Object objectMethod(Object proxy, Object target,
+      Method method, Object[] args) {
+    if (method.getDeclaringClass() != Object.class) {
+      return NOT_HANDLED;
+    }
+    if ("equals".equals(method.getName())) {
+      return Boolean.valueOf(proxy == args[0]);
+    }
+    if ("hashCode".equals(method.getName())) {
+      return Integer.valueOf(System.identityHashCode(proxy));
+    }
+    return target.toString();
+  }
+
+  private static Object invoke(Object target, Method method, Object[] args)
+      throws Throwable {
+    try {
+      return method.invoke(target, args);
+    }
+    catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+    catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Messung der Aufrufe eines Mappers.
+   */
+  private static class MapperHandler implements InvocationHandler {
+
+    private final Object target;
+
+    private final String name;
+
+    MapperHandler(Object target, String name) {
+      this.target = target;
+      this.name = name;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable {
+      Object result = objectMethod(proxy, target, method, args);
+      if (result != NOT_HANDLED) {
+        return result;
+      }
+
+      Call parent = current.get();
+      Call call = new Call(name + "." + method.getName(), parent);
+      current.set(call);
+      long start = System.nanoTime();
+
+      try {
+        return QueryMonitor.invoke(target, method, args);
+      }
+      catch (Throwable t) {
+        call.failed = true;
+        throw t;
+      }
+      finally {
+        long nanos = System.nanoTime() - start;
+        if (parent == null) {
+          current.remove();
+        }
+        else {
+          // Verschachtelte Aufrufe zählen auch beim äußeren Aufruf mit
+          current.set(parent);
+          parent.rows += call.rows;
+          parent.bytes += call.bytes;
+          parent.failed |= call.failed;
+        }
+        sink.record(call.name, nanos, call.rows, call.bytes, call.failed);
+      }
+    }
+  }
+
+  /**
+   * Messung eines vorbereiteten Statements. Die Parameterwerte werden
+   * mitgeschrieben, um sie bei langsamen oder fehlgeschlagenen Statements
+   * protokollieren zu können. Da ein Statement stets nur von dem Thread
+   * genutzt wird, der seine Verbindung ausgeliehen hat, ist keine
+   * Synchronisation erforderlich.
+   */
+  private static class StatementHandler implements InvocationHandler {
+
+    private final PreparedStatement target;
+
+    private final String shape;
+
+    private final ArrayList<Object> parameters = new ArrayList<Object>();
+
+    StatementHandler(PreparedStatement target, String sql) {
+      this.target = target;
+      this.shape = shapeOf(sql);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable {
+      Object result = objectMethod(proxy, target, method, args);
+      if (result != NOT_HANDLED) {
+        return result;
+      }
+
+      String name = method.getName();
+
+      if (name.startsWith("execute")) {
+        Execution execution = new Execution(shape, parameters.toString());
+        long start = System.nanoTime();
+        try {
+          result = QueryMonitor.invoke(target, method, args);
+        }
+        catch (Throwable t) {
+          execution.fail(t);
+          throw t;
+        }
+        finally {
+          execution.nanos += System.nanoTime() - start;
+        }
+
+        if (result instanceof ResultSet) {
+          // Gemessen wird bis zum Ende des Lesens bzw. Schließen
+          return Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+              new Class<?>[] { ResultSet.class }, new ResultSetHandler(
+                  (ResultSet) result, execution));
+        }
+        execution.finish();
+        return result;
+      }
+
+      if ("clearParameters".equals(name)) {
+        parameters.clear();
+      }
+      else if (name.startsWith("set") && args != null && args.length >= 2
+          && args[0] instanceof Integer) {
+        int index = ((Integer) args[0]).intValue() - 1;
+        while (parameters.size() <= index) {
+          parameters.add(null);
+        }
+        parameters.set(index, "setNull".equals(name) ? null : args[1]);
+      }
+
+      return QueryMonitor.invoke(target, method, args);
+    }
+  }
+
+  /**
+   * Messung beim Lesen des Ergebnisses einer Anfrage. Gezählt werden die Zeit
+   * in <code>next()</code>, die gelesenen Tupel und die Größe der ausgelesenen
+   * Werte.
+   */
+  private static class ResultSetHandler implements InvocationHandler {
+
+    private final ResultSet target;
+
+    private final Execution execution;
+
+    ResultSetHandler(ResultSet target, Execution execution) {
+      this.target = target;
+      this.execution = execution;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable {
+      Object result = objectMethod(proxy, target, method, args);
+      if (result != NOT_HANDLED) {
+        return result;
+      }
+
+      String name = method.getName();
+
+      if ("next".equals(name)) {
+        long start = System.nanoTime();
+        try {
+          result = QueryMonitor.invoke(target, method, args);
+        }
+        catch (Throwable t) {
+          execution.fail(t);
+          throw t;
+        }
+        finally {
+          execution.nanos += System.nanoTime() - start;
+        }
+        if (((Boolean) result).booleanValue()) {
+          execution.rows++;
+        }
+        else {
+          execution.finish();
+        }
+        return result;
+      }
+
+      if ("close".equals(name)) {
+        execution.finish();
+        return QueryMonitor.invoke(target, method, args);
+      }
+
+      result = QueryMonitor.invoke(target, method, args);
+      if (name.startsWith("get") && args != null && args.length >= 1) {
+        execution.bytes += sizeOf(result);
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Geschätzte Größe eines gelesenen Werts in Bytes.
+   */
+  private static int sizeOf(Object value) {
+    if (value == null) {
+      return 0;
+    }
+    if (value instanceof String) {
+      return ((String) value).length();
+    }
+    if (value instanceof byte[]) {
+      return ((byte[]) value).length;
+    }
+    if (value instanceof Long || value instanceof Double) {
+      return 8;
+    }
+    if (value instanceof Boolean || value instanceof Byte) {
+      return 1;
+    }
+    if (value instanceof Short) {
+      return 2;
+    }
+    return 4;
+  }
+
+  /**
+   * Eine einzelne Ausführung eines Statements.
+   */
+  private static class Execution {
+
+    final String shape;
+
+    final String parameters;
+
+    long nanos = 0;
+
+    long rows = 0;
+
+    long bytes = 0;
+
+    boolean failed = false;
+
+    boolean finished = false;
+
+    Execution(String shape, String parameters) {
+      this.shape = shape;
+      this.parameters = parameters;
+    }
+
+    /**
+     * Protokollieren eines Fehlers samt Statement und Parameterwerten.
+     */
+    void fail(Throwable t) {
+      failed = true;
+      if (t instanceof SQLException) {
+        ServersideSettings.getLogger().warning(
+            "SQL-Fehler in " + caller() + ": " + t.getMessage() + "\n  "
+                + shape + "\n  Parameter: " + truncate(parameters));
+      }
+      finish();
+    }
+
+    /**
+     * Abschluss der Messung. Die Kennzahlen werden gemeldet, dem laufenden
+     * Mapper-Aufruf zugerechnet und langsame Statements protokolliert.
+     */
+    void finish() {
+      if (finished) {
+        return;
+      }
+      finished = true;
+
+      sink.record(shape, nanos, rows, bytes, failed);
+
+      Call call = current.get();
+      if (call != null) {
+        call.rows += rows;
+        call.bytes += bytes;
+        call.failed |= failed;
+      }
+
+      if (nanos >= slowNanos) {
+        Logger logger = ServersideSettings.getLogger();
+        logger.warning("Langsames Statement in " + caller() + ": "
+            + nanos / 1000000 + " ms, " + rows + " Tupel, " + bytes
+            + " Bytes\n  " + shape + "\n  Parameter: " + truncate(parameters));
+      }
+    }
+
+    private static String caller() {
+      Call call = current.get();
+      return call == null ? "unbekanntem Aufruf" : call.name;
+    }
+
+    private static String truncate(String s) {
+      return s.length() <= MAX_PARAMETERS_LENGTH ? s : s.substring(0,
+          MAX_PARAMETERS_LENGTH) + " ...";
+    }
+  }
+}
@@ -0,0 +1,363 @@
+package de.hdm.thies.bankProjekt.server.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.logging.Logger;
+
+import de.hdm.thies.bankProjekt.server.ServersideSettings;
+
+/**
+ * <p>
+ * Versionierte Fortschreibung des Datenbankschemas. Änderungen am Schema -
+ * etwa neue Tabellen oder Indizes - werden hier als nummerierte
+ * <em>Migrationen</em> hinterlegt und beim Start der Applikation automatisch
+ * ausgeführt. Sie werden damit gemeinsam mit dem Programmcode ausgeliefert und
+ * müssen nicht mehr von Hand in die Datenbank eingespielt werden.
+ * </p>
+ * <p>
+ * Welche Migrationen bereits ausgeführt wurden, wird in der Tabelle
+ * <code>schema_version</code> vermerkt. Jede Migration wird genau einmal
+ * ausgeführt. Damit mehrere gleichzeitig startende Server-Instanzen sich nicht
+ * in die Quere kommen, wird die Fortschreibung mittels
+ * <code>GET_LOCK(...)</code> serialisiert.
+ * </p>
+ * <p>
+ * <b>Wichtig:</b> Bereits ausgelieferte Migrationen dürfen nicht mehr
+ * verändert werden. Jede Schemaänderung erhält eine neue, höhere Nummer am
+ * Ende der Liste in {@link #SchemaMigrator()}. Da MySQL DDL-Anweisungen nicht
+ * zurückrollen kann, sollte jede Migration möglichst nur eine Anweisung
+ * enthalten.
+ * </p>
+ * 
+ * @see de.hdm.thies.bankProjekt.server.BankAdministrationImpl#init()
+ */
+public class SchemaMigrator {
+
+  /**
+   * Name der Datenbanksperre, mit der die Fortschreibung serialisiert wird.
+   */
+  private static final String LOCK_NAME = "bankprojekt.schema";
+
+  /**
+   * Maximale Wartezeit auf die Sperre in Sekunden.
+   */
+  private static final int LOCK_TIMEOUT = 60;
+
+  /**
+   * Die Klasse SchemaMigrator wird nur einmal instantiiert. Man spricht hierbei
+   * von einem sogenannten <b>Singleton</b>.
+   * 
+   * @see schemaMigrator()
+   */
+  private static SchemaMigrator schemaMigrator = null;
+
+  /**
+   * Eine einzelne Migration mit ihrer Versionsnummer.
+   */
+  private static class Migration {
+    final int version;
+
+    final String description;
+
+    final String[] statements;
+
+    Migration(int version, String description, String[] statements) {
+      this.version = version;
+      this.description = description;
+      this.statements = statements;
+    }
+  }
+
+  /**
+   * Sämtliche Migrationen in aufsteigender Reihenfolge.
+   */
+  private final ArrayList<Migration> migrations = new ArrayList<Migration>();
+
+  /**
+   * Wurde das Schema in dieser Server-Instanz bereits fortgeschrieben?
+   */
+  private boolean migrated = false;
+
+  /**
+   * Geschützter Konstruktor - verhindert die Möglichkeit, mit <code>new</code>
+   * neue Instanzen dieser Klasse zu erzeugen. Hier werden sämtliche
+   * Migrationen hinterlegt.
+   */
+  protected SchemaMigrator() {
+    /*
+     * Das Ausgangsschema entspricht dem SQL-Dump im Verzeichnis mySQL. In einer
+     * bereits bestehenden Datenbank bleibt es unverändert.
+     */
+    add(1, "Ausgangsschema",
+        "CREATE TABLE IF NOT EXISTS customers ("
+            + "id INT NOT NULL DEFAULT 0, "
+            + "firstName VARCHAR(100) NOT NULL DEFAULT '', "
+            + "lastName VARCHAR(100) NOT NULL DEFAULT '', "
+            + "PRIMARY KEY (id)) ENGINE=InnoDB",
+        "CREATE TABLE IF NOT EXISTS accounts ("
+            + "id INT NOT NULL DEFAULT 0, owner INT NOT NULL DEFAULT 0, "
+            + "PRIMARY KEY (id)) ENGINE=InnoDB",
+        "CREATE TABLE IF NOT EXISTS transactions ("
+            + "id INT NOT NULL DEFAULT 0, "
+            + "sourceAccount INT NOT NULL DEFAULT 0, "
+            + "targetAccount INT NOT NULL DEFAULT 0, "
+            + "amount FLOAT NOT NULL DEFAULT 0, "
+            + "PRIMARY KEY (id)) ENGINE=InnoDB");
+
+    // Blockweise Vergabe von Primärschlüsseln, siehe IdAllocator
+    add(2, "Sequenzen für Primärschlüssel",
+        "CREATE TABLE IF NOT EXISTS sequences ("
+            + "name VARCHAR(64) NOT NULL, nextId INT NOT NULL, "
+            + "PRIMARY KEY (name)) ENGINE=InnoDB");
+
+    // Fortgeschriebene Kontostände, siehe AccountBalanceMapper
+    add(3, "Kontostände",
+        "CREATE TABLE IF NOT EXISTS account_balances ("
+            + "account INT NOT NULL, balance DOUBLE NOT NULL DEFAULT 0, "
+            + "PRIMARY KEY (account)) ENGINE=InnoDB",
+        "INSERT IGNORE INTO account_balances (account, balance) "
+            + AccountBalanceMapper.COMPUTED_BALANCES);
+
+    /*
+     * Indizes für die häufigsten Anfragen. Die Indizes auf transactions
+     * enthalten auch den Betrag, so dass Summen je Konto allein aus dem Index
+     * berechnet werden können.
+     */
+    add(4, "Index auf transactions(sourceAccount, amount)",
+        "CREATE INDEX transactions_source ON transactions "
+            + "(sourceAccount, amount)");
+    add(5, "Index auf transactions(targetAccount, amount)",
+        "CREATE INDEX transactions_target ON transactions "
+            + "(targetAccount, amount)");
+    add(6, "Index auf accounts(owner)",
+        "CREATE INDEX accounts_owner ON accounts (owner)");
+    add(7, "Index auf customers(lastName)",
+        "CREATE INDEX customers_lastName ON customers (lastName)");
+
+    // Zwischenstände der Kontostände, siehe BalanceCheckpointer
+    add(8, "Zwischenstände der Kontostände",
+        "CREATE TABLE IF NOT EXISTS balance_checkpoints ("
+            + "account INT NOT NULL, transaction INT NOT NULL, "
+            + "balance DOUBLE NOT NULL DEFAULT 0, "
+            + "PRIMARY KEY (account, transaction)) ENGINE=InnoDB");
+
+    /*
+     * Die Buchungen eines Kontos seit einem Zwischenstand werden über einen
+     * Bereich von Primärschlüsseln gelesen. Die bisherigen Indizes auf
+     * (sourceAccount, amount) bzw. (targetAccount, amount) werden daher durch
+     * solche ersetzt, die zusätzlich nach dem Primärschlüssel sortiert sind.
+     * Summen je Konto lassen sich weiterhin allein aus dem Index berechnen.
+     */
+    add(9, "Index auf transactions(sourceAccount, id, amount)",
+        "CREATE INDEX transactions_source_id ON transactions "
+            + "(sourceAccount, id, amount)");
+    add(10, "Index auf transactions(targetAccount, id, amount)",
+        "CREATE INDEX transactions_target_id ON transactions "
+            + "(targetAccount, id, amount)");
+    add(11, "Index transactions_source entfernen",
+        "DROP INDEX transactions_source ON transactions");
+    add(12, "Index transactions_target entfernen",
+        "DROP INDEX transactions_target ON transactions");
+
+    /*
+     * Versionen für optimistische Sperrverfahren, siehe CustomerMapper und
+     * AccountMapper. Bestehende Tupel beginnen mit Version 0.
+     */
+    add(13, "Version in customers",
+        "ALTER TABLE customers ADD COLUMN version INT NOT NULL DEFAULT 0");
+    add(14, "Version in accounts",
+        "ALTER TABLE accounts ADD COLUMN version INT NOT NULL DEFAULT 0");
+  }
+
+  /**
+   * Diese statische Methode kann aufgrufen werden durch
+   * <code>SchemaMigrator.schemaMigrator()</code>. Sie stellt die
+   * Singleton-Eigenschaft sicher.
+   * 
+   * @return DAS <code>SchemaMigrator</code>-Objekt.
+   */
+  public static synchronized SchemaMigrator schemaMigrator() {
+    if (schemaMigrator == null) {
+      schemaMigrator = new SchemaMigrator();
+    }
+
+    return schemaMigrator;
+  }
+
+  /**
+   * Hinzufügen einer Migration am Ende der Liste.
+   * 
+   * @param version die Versionsnummer, größer als die der vorherigen
+   *          Migration
+   * @param description kurze Beschreibung für das Log
+   * @param statements die auszuführenden SQL-Anweisungen
+   */
+  private void add(int version, String description, String... statements) {
+    if (!migrations.isEmpty()
+        && migrations.get(migrations.size() - 1).version >= version) {
+      throw new IllegalStateException("Migration " + version
+          + " ist nicht aufsteigend nummeriert.");
+    }
+    migrations.add(new Migration(version, description, statements));
+  }
+
+  /**
+   * Auslesen der höchsten bekannten Schemaversion.
+   */
+  public int getLatestVersion() {
+    return migrations.isEmpty() ? 0
+        : migrations.get(migrations.size() - 1).version;
+  }
+
+  /**
+   * Ausführen sämtlicher noch nicht ausgeführten Migrationen. Weitere Aufrufe
+   * innerhalb derselben Server-Instanz haben keine Wirkung. Schlägt eine
+   * Migration fehl, so wird dies im Log vermerkt und die Fortschreibung
+   * abgebrochen; beim nächsten Start wird sie mit dieser Migration fortgesetzt.
+   * 
+   * @return <code>true</code>, wenn das Schema auf dem neuesten Stand ist
+   */
+  public synchronized boolean migrate() {
+    if (migrated) {
+      return true;
+    }
+
+    Logger logger = ServersideSettings.getLogger();
+    Connection con = null;
+    boolean locked = false;
+
+    try {
+      // DB-Verbindung aus dem Pool holen
+      con = DBConnection.connection();
+
+      locked = this.lock(con);
+      if (!locked) {
+        logger.severe("Sperre für die Schema-Migration nicht erhalten.");
+        return false;
+      }
+
+      this.execute(con, "CREATE TABLE IF NOT EXISTS schema_version ("
+          + "version INT NOT NULL, description VARCHAR(200) NOT NULL, "
+          + "installed TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
+          + "PRIMARY KEY (version)) ENGINE=InnoDB");
+
+      HashSet<Integer> applied = this.appliedVersions(con);
+
+      for (Migration m : migrations) {
+        if (applied.contains(Integer.valueOf(m.version))) {
+          continue;
+        }
+
+        logger.info("Schema-Migration " + m.version + ": " + m.description);
+
+        for (String sql : m.statements) {
+          this.execute(con, sql);
+        }
+
+        PreparedStatement stmt = DBConnection.prepare(con,
+            "INSERT INTO schema_version (version, description) VALUES (?, ?)");
+        stmt.setInt(1, m.version);
+        stmt.setString(2, m.description);
+        stmt.executeUpdate();
+      }
+
+      migrated = true;
+      return true;
+    }
+    catch (SQLException e) {
+      logger.severe("Schema-Migration fehlgeschlagen: " + e.getMessage());
+      e.printStackTrace();
+      return false;
+    }
+    finally {
+      if (locked) {
+        this.unlock(con);
+      }
+      // Verbindung in jedem Fall an den Pool zurückgeben
+      DBConnection.release(con);
+    }
+  }
+
+  /**
+   * Auslesen der bereits ausgeführten Migrationen.
+   */
+  private HashSet<Integer> appliedVersions(Connection con) throws SQLException {
+    HashSet<Integer> result = new HashSet<Integer>();
+    ResultSet rs = null;
+
+    try {
+      rs = DBConnection.prepare(con, "SELECT version FROM schema_version")
+          .executeQuery();
+      while (rs.next()) {
+        result.add(Integer.valueOf(rs.getInt(1)));
+      }
+    }
+    finally {
+      DBConnection.close(rs);
+    }
+
+    return result;
+  }
+
+  /**
+   * Ausführen einer DDL-Anweisung. Diese wird nicht im Statement-Cache
+   * abgelegt, da sie nur einmal ausgeführt wird.
+   */
+  private void execute(Connection con, String sql) throws SQLException {
+    Statement stmt = con.createStatement();
+    try {
+      stmt.execute(sql);
+    }
+    finally {
+      DBConnection.close(stmt);
+    }
+  }
+
+  /**
+   * Setzen der Datenbanksperre für die Fortschreibung.
+   * 
+   * @return <code>true</code>, wenn die Sperre erhalten wurde
+   */
+  private boolean lock(Connection con) throws SQLException {
+    ResultSet rs = null;
+
+    try {
+      PreparedStatement stmt = DBConnection.prepare(con,
+          "SELECT GET_LOCK(?, ?)");
+      stmt.setString(1, LOCK_NAME);
+      stmt.setInt(2, LOCK_TIMEOUT);
+      rs = stmt.executeQuery();
+
+      return rs.next() && rs.getInt(1) == 1;
+    }
+    finally {
+      DBConnection.close(rs);
+    }
+  }
+
+  /**
+   * Freigeben der Datenbanksperre, ohne dabei auftretende Fehler
+   * weiterzugeben.
+   */
+  private void unlock(Connection con) {
+    ResultSet rs = null;
+
+    try {
+      PreparedStatement stmt = DBConnection.prepare(con,
+          "SELECT RELEASE_LOCK(?)");
+      stmt.setString(1, LOCK_NAME);
+      rs = stmt.executeQuery();
+    }
+    catch (SQLException e) {
+      // Die Sperre endet spätestens mit der Verbindung.
+    }
+    finally {
+      DBConnection.close(rs);
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package de.hdm.thies.bankProjekt.server.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Zwischenspeicher für die <code>PreparedStatement</code>-Objekte einer
+ * einzelnen Datenbankverbindung. Als Schlüssel dient der SQL-Text. Wird
+ * dieselbe Anfrage erneut gestellt, so wird das bereits vorbereitete Statement
+ * wiederverwendet, so dass die Datenbank die Anfrage nicht erneut analysieren
+ * und planen muss.
+ * </p>
+ * <p>
+ * Die Anzahl der Statements je Verbindung ist begrenzt. Bei Überschreitung
+ * wird das am längsten nicht mehr genutzte Statement geschlossen (LRU).
+ * </p>
+ * <p>
+ * <b>Hinweis:</b> Ein Objekt dieser Klasse gehört zu genau einer Verbindung und
+ * wird daher immer nur von dem Thread benutzt, der diese Verbindung gerade aus
+ * dem {@link ConnectionPool} ausgeliehen hat. Eine Synchronisation ist nicht
+ * erforderlich. Lediglich die Zähler werden von allen Verbindungen eines Pools
+ * gemeinsam genutzt.
+ * </p>
+ * 
+ * @see ConnectionPool
+ */
+class StatementCache {
+
+  private final Connection connection;
+
+  private final LinkedHashMap<String, PreparedStatement> statements;
+
+  private final AtomicLong hits;
+
+  private final AtomicLong misses;
+
+  private final AtomicLong evictions;
+
+  /**
+   * Anlegen eines Caches für die übergebene Verbindung.
+   * 
+   * @param connection die Verbindung, deren Statements verwaltet werden
+   * @param maxSize Anzahl der Statements, die höchstens vorgehalten werden
+   * @param hits Zähler für Treffer
+   * @param misses Zähler für Fehlschläge
+   * @param evictions Zähler für verdrängte Statements
+   */
+  StatementCache(Connection connection, final int maxSize, AtomicLong hits,
+      AtomicLong misses, final AtomicLong evictions) {
+    this.connection = connection;
+    this.hits = hits;
+    this.misses = misses;
+    this.evictions = evictions;
+    this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f,
+        true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(
+          Map.Entry<String, PreparedStatement> eldest) {
+        if (size() <= maxSize) {
+          return false;
+        }
+
+        evictions.incrementAndGet();
+        closeQuietly(eldest.getValue());
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Auslesen bzw. erstmaliges Vorbereiten des Statements zu einem SQL-Text. Das
+   * Statement darf vom Aufrufer <em>nicht</em> geschlossen werden.
+   * Zurückgelieferte <code>ResultSet</code>-Objekte sind dagegen stets zu
+   * schließen.
+   * 
+   * @param sql SQL-Text mit <code>?</code> als Platzhalter für Parameter
+   * @return das vorbereitete Statement
+   * @throws SQLException
+   */
+  PreparedStatement prepare(String sql) throws SQLException {
+    PreparedStatement stmt = statements.get(sql);
+
+    if (stmt != null) {
+      hits.incrementAndGet();
+      stmt.clearParameters();
+      return stmt;
+    }
+
+    misses.incrementAndGet();
+    stmt = QueryMonitor.wrap(connection.prepareStatement(sql), sql);
+    statements.put(sql, stmt);
+
+    return stmt;
+  }
+
+  /**
+   * Schließen sämtlicher zwischengespeicherter Statements.
+   */
+  void clear() {
+    for (PreparedStatement stmt : statements.values()) {
+      closeQuietly(stmt);
+    }
+    statements.clear();
+  }
+
+  private static void closeQuietly(PreparedStatement stmt) {
+    try {
+      stmt.close();
+    }
+    catch (SQLException e) {
+      // Das Statement wird ohnehin nicht mehr benötigt.
+    }
+  }
+}
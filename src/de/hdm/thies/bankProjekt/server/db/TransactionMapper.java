@@ -1,8 +1,16 @@
 package de.hdm.thies.bankProjekt.server.db;
 
 import java.sql.*;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.Vector;
 
+import de.hdm.thies.bankProjekt.server.ServersideSettings;
+import de.hdm.thies.bankProjekt.server.storage.ObjectHandler;
+import de.hdm.thies.bankProjekt.server.storage.TransactionStorage;
 import de.hdm.thies.bankProjekt.shared.bo.*;
 
 /**
@@ -11,11 +19,15 @@ import de.hdm.thies.bankProjekt.shared.bo.*;
  * gestellt, mit deren Hilfe z.B. Objekte gesucht, erzeugt, modifiziert und
  * gelöscht werden können. Das Mapping ist bidirektional. D.h., Objekte können
  * in DB-Strukturen und DB-Strukturen in Objekte umgewandelt werden.
+ * <p>
+ * Jede schreibende Operation schreibt in derselben Datenbanktransaktion auch
+ * die Kontostände der betroffenen Konten in der Tabelle
+ * <code>account_balances</code> fort (siehe {@link AccountBalanceMapper}).
  * 
  * @see CustomerMapper, AccountMapper
  * @author Thies
  */
-public class TransactionMapper {
+public class TransactionMapper implements TransactionStorage {
 
   /**
    * Die Klasse TransactionMapper wird nur einmal instantiiert. Man spricht
@@ -29,6 +41,13 @@ public class TransactionMapper {
    */
   private static TransactionMapper transactionMapper = null;
 
+  /**
+   * Anzahl der Buchungen, die bei {@link #insertBatch(List)} gemeinsam in einem
+   * JDBC-Batch an die Datenbank geschickt werden.
+   */
+  private volatile int batchSize = ServersideSettings.getIntProperty(
+      "bankprojekt.db.batchSize", 500);
+
   /**
    * Geschützter Konstruktor - verhindert die Möglichkeit, mit <code>new</code>
    * neue Instanzen dieser Klasse zu erzeugen. 
@@ -66,17 +85,21 @@ public class TransactionMapper {
    *         bei nicht vorhandenem DB-Tupel.
    */
   public Transaction findByKey(int id) {
-    // DB-Verbindung holen
-    Connection con = DBConnection.connection();
+    Connection con = null;
+    ResultSet rs = null;
 
     try {
-      // Leeres SQL-Statement (JDBC) anlegen
-      Statement stmt = con.createStatement();
+      // Lesende DB-Verbindung holen, ggf. zu einem Replikat
+      con = DBConnection.readConnection();
 
-      // Statement ausfüllen und als Query an die DB schicken
-      ResultSet rs = stmt
-          .executeQuery("SELECT id, sourceAccount, targetAccount, amount FROM transactions "
-              + "WHERE id=" + id + " ORDER BY sourceAccount");
+      // Vorbereitetes SQL-Statement (JDBC) holen und Parameter setzen
+      PreparedStatement stmt = DBConnection.prepare(con,
+          "SELECT id, sourceAccount, targetAccount, amount FROM transactions "
+              + "WHERE id=?");
+      stmt.setInt(1, id);
+
+      // Statement als Query an die DB schicken
+      rs = stmt.executeQuery();
 
       /*
        * Da id Primärschlüssel ist, kann max. nur ein Tupel zurückgegeben
@@ -84,22 +107,72 @@ public class TransactionMapper {
        */
       if (rs.next()) {
         // Ergebnis-Tupel in Objekt umwandeln
-        Transaction t = new Transaction();
-        t.setId(rs.getInt("id"));
-        t.setSourceAccountID(rs.getInt("sourceAccount"));
-        t.setTargetAccountID(rs.getInt("targetAccount"));
-        t.setAmount(rs.getFloat("amount"));
-        return t;
+        return createTransaction(rs);
       }
     }
     catch (SQLException e2) {
       e2.printStackTrace();
       return null;
     }
+    finally {
+      // Ergebnis schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.release(con);
+    }
 
     return null;
   }
 
+  /**
+   * Suchen mehrerer Buchungen anhand ihrer Primärschlüssel mit
+   * <code>IN</code>-Anfragen zu je höchstens
+   * {@value DBConnection#IN_CHUNK_SIZE} Schlüsseln.
+   * 
+   * @param ids Primärschlüssel
+   * @return die gefundenen Buchungen, indiziert nach Primärschlüssel. Nicht
+   *         vorhandene Schlüssel fehlen in der Map. Bei einem Fehler wird
+   *         <code>null</code> zurückgeliefert.
+   */
+  public HashMap<Integer, Transaction> findByKeys(int[] ids) {
+    HashMap<Integer, Transaction> result = new HashMap<Integer, Transaction>();
+    Connection con = null;
+    ResultSet rs = null;
+
+    try {
+      // Lesende DB-Verbindung holen, ggf. zu einem Replikat
+      con = DBConnection.readConnection();
+
+      for (int from = 0; from < ids.length; from += DBConnection.IN_CHUNK_SIZE) {
+        int to = Math.min(from + DBConnection.IN_CHUNK_SIZE, ids.length);
+        int size = DBConnection.inSize(to - from);
+
+        PreparedStatement stmt = DBConnection.prepare(con,
+            "SELECT id, sourceAccount, targetAccount, amount FROM transactions "
+                + "WHERE id IN (" + DBConnection.placeholders(size) + ")");
+        DBConnection.setIn(stmt, 1, ids, from, to, size);
+
+        rs = stmt.executeQuery();
+        while (rs.next()) {
+          Transaction t = createTransaction(rs);
+          result.put(Integer.valueOf(t.getId()), t);
+        }
+        DBConnection.close(rs);
+        rs = null;
+      }
+    }
+    catch (SQLException e2) {
+      e2.printStackTrace();
+      return null;
+    }
+    finally {
+      // Ergebnis schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.release(con);
+    }
+
+    return result;
+  }
+
   /**
    * Auslesen aller Buchungen.
    * 
@@ -108,79 +181,232 @@ public class TransactionMapper {
    *         oder ggf. auch leerer Vetor zurückgeliefert.
    */
   public Vector<Transaction> findAll() {
-    Connection con = DBConnection.connection();
+    Connection con = null;
+    ResultSet rs = null;
 
     // Ergebnisvektor vorbereiten
     Vector<Transaction> result = new Vector<Transaction>();
 
     try {
-      Statement stmt = con.createStatement();
+      // Lesende DB-Verbindung holen, ggf. zu einem Replikat
+      con = DBConnection.readConnection();
 
-      ResultSet rs = stmt
-          .executeQuery("SELECT id, sourceAccount, targetAccount, amount FROM transactions "
-              + " ORDER BY sourceAccount");
+      PreparedStatement stmt = DBConnection.prepare(con,
+          "SELECT id, sourceAccount, targetAccount, amount FROM transactions "
+              + "ORDER BY sourceAccount");
+
+      rs = stmt.executeQuery();
 
       // Für jeden Eintrag im Suchergebnis wird nun ein Account-Objekt erstellt.
       while (rs.next()) {
-        Transaction t = new Transaction();
-        t.setId(rs.getInt("id"));
-        t.setSourceAccountID(rs.getInt("sourceAccount"));
-        t.setTargetAccountID(rs.getInt("targetAccount"));
-        t.setAmount(rs.getFloat("amount"));
-
         // Hinzufügen des neuen Objekts zum Ergebnisvektor
-        result.addElement(t);
+        result.addElement(createTransaction(rs));
       }
     }
     catch (SQLException e2) {
       e2.printStackTrace();
     }
+    finally {
+      // Ergebnis schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.release(con);
+    }
 
     // Ergebnisvektor zurückgeben
     return result;
   }
 
   /**
-   * Auslesen aller Ab-Buchungen eines durch Fremdschlüssel (Kontonr.) gegebenen
-   * Kontos.
+   * Schrittweises Auslesen aller Buchungen. Anders als bei {@link #findAll()}
+   * wird das Ergebnis nicht vollständig in den Speicher geladen, sondern über
+   * einen Cursor der Datenbank gelesen. Jedes Transaction-Objekt wird sofort an
+   * den <code>handler</code> übergeben und danach nicht mehr referenziert.
+   * Damit eignet sich diese Methode auch für sehr große Tabellen, etwa bei
+   * Reports oder Exporten. Die Buchungen werden nach ihrem Primärschlüssel
+   * sortiert geliefert.
    * 
-   * @see findByOwner(Customer owner)
-   * @param accountID Schlüssel des zugehörigen Kontos.
-   * @return Ein Vektor mit Transaction-Objekten, die sämtliche Buchungen des
-   *         betreffenden Kontos repräsentieren. Bei evtl. Exceptions wird ein
-   *         partiell gefüllter oder ggf. auch leerer Vetor zurückgeliefert.
+   * @param handler erhält nacheinander jedes Transaction-Objekt
+   * @return die Anzahl der verarbeiteten Buchungen. Bei evtl. Exceptions
+   *         wird der Durchlauf abgebrochen.
+   * @see DBConnection#stream(Connection, String)
    */
-  public Vector<Transaction> findBySourceAccount(int accountID) {
-    Connection con = DBConnection.connection();
+  public int forEach(ObjectHandler<Transaction> handler) {
+    Connection con = null;
+    PreparedStatement stmt = null;
+    ResultSet rs = null;
+    int count = 0;
+
+    try {
+      // Lesende DB-Verbindung holen, ggf. zu einem Replikat
+      con = DBConnection.readConnection();
+
+      stmt = DBConnection.stream(con,
+          "SELECT id, sourceAccount, targetAccount, amount FROM transactions "
+              + "ORDER BY id");
+
+      rs = stmt.executeQuery();
+
+      // Jedes Tupel wird einzeln umgewandelt und weitergereicht.
+      while (rs.next()) {
+        handler.handle(createTransaction(rs));
+        count++;
+      }
+    }
+    catch (SQLException e) {
+      e.printStackTrace();
+    }
+    finally {
+      // Cursor schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.close(stmt);
+      DBConnection.release(con);
+    }
+
+    return count;
+  }
+
+  /**
+   * Seitenweises Auslesen der Buchungen. Geliefert werden höchstens
+   * <code>limit</code> Buchungen, deren Primärschlüssel größer als
+   * <code>afterId</code> ist, aufsteigend nach dem Primärschlüssel sortiert.
+   * Die nächste Seite erhält man, indem man den Schlüssel des letzten Elements
+   * als <code>afterId</code> übergibt. Da die Datenbank dabei direkt über den
+   * Primärschlüssel-Index einsteigt, ist jede Seite gleich schnell gelesen,
+   * egal wie weit man bereits geblättert hat.
+   * 
+   * @param afterId Primärschlüssel des letzten Elements der vorherigen Seite
+   *          bzw. 0 für die erste Seite
+   * @param limit Höchstanzahl der zu liefernden Buchungen
+   * @return Ein Vektor mit Transaction-Objekten. Ist er leer, gibt es keine
+   *         weiteren Buchungen.
+   */
+  public Vector<Transaction> findPage(int afterId, int limit) {
+    Connection con = null;
+    ResultSet rs = null;
     Vector<Transaction> result = new Vector<Transaction>();
 
     try {
-      Statement stmt = con.createStatement();
+      // Lesende DB-Verbindung holen, ggf. zu einem Replikat
+      con = DBConnection.readConnection();
 
-      ResultSet rs = stmt
-          .executeQuery("SELECT id, sourceAccount, targetAccount, amount FROM transactions "
-              + "WHERE sourceAccount=" + accountID + " ORDER BY id");
+      PreparedStatement stmt = DBConnection.prepare(con,
+          "SELECT id, sourceAccount, targetAccount, amount FROM transactions "
+              + "WHERE id>? ORDER BY id LIMIT ?");
+      stmt.setInt(1, afterId);
+      stmt.setInt(2, limit);
+
+      rs = stmt.executeQuery();
 
-      // Für jeden Eintrag im Suchergebnis wird nun ein Account-Objekt erstellt.
       while (rs.next()) {
-        Transaction t = new Transaction();
-        t.setId(rs.getInt("id"));
-        t.setSourceAccountID(rs.getInt("sourceAccount"));
-        t.setTargetAccountID(rs.getInt("targetAccount"));
-        t.setAmount(rs.getFloat("amount"));
+        result.addElement(createTransaction(rs));
+      }
+    }
+    catch (SQLException e2) {
+      e2.printStackTrace();
+    }
+    finally {
+      // Ergebnis schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.release(con);
+    }
 
-        // Hinzufügen des neuen Objekts zum Ergebnisvektor
-        result.addElement(t);
+    return result;
+  }
+
+  /**
+   * Auslesen von höchstens <code>limit</code> Buchungen, deren
+   * Primärschlüssel größer als <code>afterId</code> und höchstens
+   * <code>toId</code> ist, aufsteigend nach dem Primärschlüssel sortiert. Im
+   * Gegensatz zu {@link #findPage(int, int)} wird stets die primäre Datenbank
+   * gelesen, da ein Replikat kürzlich eingefügte Buchungen noch nicht kennen
+   * könnte.
+   * 
+   * @param afterId Primärschlüssel des letzten Elements der vorherigen Seite
+   * @param toId Primärschlüssel der letzten zu liefernden Buchung
+   * @param limit Höchstanzahl der zu liefernden Buchungen
+   * @return die Buchungen oder <code>null</code> bei einem Fehler
+   * @see BalanceCheckpointer
+   */
+  Vector<Transaction> findRange(int afterId, int toId, int limit) {
+    Connection con = null;
+    ResultSet rs = null;
+    Vector<Transaction> result = new Vector<Transaction>();
+
+    try {
+      con = DBConnection.connection();
+
+      PreparedStatement stmt = DBConnection.prepare(con,
+          "SELECT id, sourceAccount, targetAccount, amount FROM transactions "
+              + "WHERE id>? AND id<=? ORDER BY id LIMIT ?");
+      stmt.setInt(1, afterId);
+      stmt.setInt(2, toId);
+      stmt.setInt(3, limit);
+
+      rs = stmt.executeQuery();
+
+      while (rs.next()) {
+        result.addElement(createTransaction(rs));
       }
     }
     catch (SQLException e2) {
       e2.printStackTrace();
+      return null;
+    }
+    finally {
+      // Ergebnis schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.release(con);
     }
 
-    // Ergebnisvektor zurückgeben
     return result;
   }
 
+  /**
+   * Auslesen des höchsten vergebenen Primärschlüssels einer Buchung von der
+   * primären Datenbank.
+   * 
+   * @return der Primärschlüssel, 0 wenn es keine Buchungen gibt, oder -1 bei
+   *         einem Fehler
+   */
+  int findMaxKey() {
+    Connection con = null;
+    ResultSet rs = null;
+
+    try {
+      con = DBConnection.connection();
+
+      rs = DBConnection.prepare(con,
+          "SELECT COALESCE(MAX(id), 0) FROM transactions").executeQuery();
+
+      return rs.next() ? rs.getInt(1) : 0;
+    }
+    catch (SQLException e2) {
+      e2.printStackTrace();
+      return -1;
+    }
+    finally {
+      // Ergebnis schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.release(con);
+    }
+  }
+
+  /**
+   * Auslesen aller Ab-Buchungen eines durch Fremdschlüssel (Kontonr.) gegebenen
+   * Kontos.
+   * 
+   * @see findByOwner(Customer owner)
+   * @param accountID Schlüssel des zugehörigen Kontos.
+   * @return Ein Vektor mit Transaction-Objekten, die sämtliche Buchungen des
+   *         betreffenden Kontos repräsentieren. Bei evtl. Exceptions wird ein
+   *         partiell gefüllter oder ggf. auch leerer Vetor zurückgeliefert.
+   */
+  public Vector<Transaction> findBySourceAccount(int accountID) {
+    return findByAccount(
+        "SELECT id, sourceAccount, targetAccount, amount FROM transactions "
+            + "WHERE sourceAccount=? ORDER BY id", accountID);
+  }
+
   /**
    * Auslesen aller Zu-Buchungen eines durch Fremdschlüssel (Kontonr.) gegebenen
    * Kontos.
@@ -192,36 +418,180 @@ public class TransactionMapper {
    *         partiell gefüllter oder ggf. auch leerer Vetor zurückgeliefert.
    */
   public Vector<Transaction> findByTargetAccount(int accountID) {
-    Connection con = DBConnection.connection();
+    return findByAccount(
+        "SELECT id, sourceAccount, targetAccount, amount FROM transactions "
+            + "WHERE targetAccount=? ORDER BY id", accountID);
+  }
+
+  /**
+   * Gemeinsame Implementierung von {@link #findBySourceAccount(int)} und
+   * {@link #findByTargetAccount(int)}. Beide Anfragen unterscheiden sich nur in
+   * der Spalte, nach der gefiltert wird.
+   * 
+   * @param sql die Anfrage mit der Kontonummer als einzigem Parameter
+   * @param accountID Schlüssel des zugehörigen Kontos.
+   * @return Ein Vektor mit den gefundenen Transaction-Objekten
+   */
+  private Vector<Transaction> findByAccount(String sql, int accountID) {
+    Connection con = null;
+    ResultSet rs = null;
     Vector<Transaction> result = new Vector<Transaction>();
 
     try {
-      Statement stmt = con.createStatement();
+      // Lesende DB-Verbindung holen, ggf. zu einem Replikat
+      con = DBConnection.readConnection();
 
-      ResultSet rs = stmt
-          .executeQuery("SELECT id, sourceAccount, targetAccount, amount FROM transactions "
-              + "WHERE targetAccount=" + accountID + " ORDER BY id");
+      PreparedStatement stmt = DBConnection.prepare(con, sql);
+      stmt.setInt(1, accountID);
+
+      rs = stmt.executeQuery();
 
       // Für jeden Eintrag im Suchergebnis wird nun ein Account-Objekt erstellt.
       while (rs.next()) {
-        Transaction t = new Transaction();
-        t.setId(rs.getInt("id"));
-        t.setSourceAccountID(rs.getInt("sourceAccount"));
-        t.setTargetAccountID(rs.getInt("targetAccount"));
-        t.setAmount(rs.getFloat("amount"));
-
         // Hinzufügen des neuen Objekts zum Ergebnisvektor
-        result.addElement(t);
+        result.addElement(createTransaction(rs));
       }
     }
     catch (SQLException e2) {
       e2.printStackTrace();
     }
+    finally {
+      // Ergebnis schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.release(con);
+    }
 
     // Ergebnisvektor zurückgeben
     return result;
   }
 
+  /**
+   * Summe aller Ab-Buchungen (Soll-Buchungen) eines Kontos. Die Summe wird von
+   * der Datenbank gebildet, die einzelnen Buchungen werden nicht übertragen.
+   * 
+   * @param accountID Schlüssel des zugehörigen Kontos
+   * @return die Summe, 0 für Konten ohne Ab-Buchungen oder <code>null</code>,
+   *         wenn sie nicht ermittelt werden konnte
+   */
+  public Double sumDebits(int accountID) {
+    return this.sum(
+        "SELECT COALESCE(SUM(amount), 0) FROM transactions WHERE sourceAccount=?",
+        accountID);
+  }
+
+  /**
+   * Summe aller Zu-Buchungen (Haben-Buchungen) eines Kontos.
+   * 
+   * @param accountID Schlüssel des zugehörigen Kontos
+   * @return die Summe, 0 für Konten ohne Zu-Buchungen oder <code>null</code>,
+   *         wenn sie nicht ermittelt werden konnte
+   * @see #sumDebits(int)
+   */
+  public Double sumCredits(int accountID) {
+    return this.sum(
+        "SELECT COALESCE(SUM(amount), 0) FROM transactions WHERE targetAccount=?",
+        accountID);
+  }
+
+  /**
+   * Gemeinsame Umsetzung von {@link #sumDebits(int)} und
+   * {@link #sumCredits(int)}.
+   * 
+   * @param sql die Anfrage mit der Kontonummer als einzigem Parameter
+   * @param accountID Schlüssel des zugehörigen Kontos
+   * @return die Summe oder <code>null</code> bei einem Fehler
+   */
+  private Double sum(String sql, int accountID) {
+    Connection con = null;
+    ResultSet rs = null;
+
+    try {
+      // Lesende DB-Verbindung holen, ggf. zu einem Replikat
+      con = DBConnection.readConnection();
+
+      PreparedStatement stmt = DBConnection.prepare(con, sql);
+      stmt.setInt(1, accountID);
+
+      rs = stmt.executeQuery();
+
+      return Double.valueOf(rs.next() ? rs.getDouble(1) : 0.0);
+    }
+    catch (SQLException e2) {
+      e2.printStackTrace();
+      return null;
+    }
+    finally {
+      // Ergebnis schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.release(con);
+    }
+  }
+
+  /**
+   * <p>
+   * Berechnen der Kontostände mehrerer Konten, also jeweils der Summe der
+   * Zu-Buchungen abzüglich der Summe der Ab-Buchungen. Statt für jedes Konto
+   * sämtliche Buchungen zu lesen, ermittelt die Datenbank die Kontostände in
+   * einer einzigen Anfrage mittels <code>GROUP BY</code>. Bei sehr vielen
+   * Konten wird die Anfrage in Blöcke von je {@value DBConnection#IN_CHUNK_SIZE} Konten
+   * aufgeteilt.
+   * </p>
+   * 
+   * @param accountIDs die Kontonummern
+   * @return die Kontostände je Kontonummer. Konten ohne Buchungen erhalten den
+   *         Wert 0. Konnten die Kontostände nicht ermittelt werden, wird
+   *         <code>null</code> zurückgegeben.
+   */
+  public HashMap<Integer, Double> netBalances(int[] accountIDs) {
+    HashMap<Integer, Double> result = new HashMap<Integer, Double>();
+    for (int id : accountIDs) {
+      result.put(Integer.valueOf(id), Double.valueOf(0.0));
+    }
+
+    Connection con = null;
+    ResultSet rs = null;
+
+    try {
+      // Lesende DB-Verbindung holen, ggf. zu einem Replikat
+      con = DBConnection.readConnection();
+
+      for (int from = 0; from < accountIDs.length; from += DBConnection.IN_CHUNK_SIZE) {
+        int to = Math.min(from + DBConnection.IN_CHUNK_SIZE, accountIDs.length);
+        int size = DBConnection.inSize(to - from);
+        String in = DBConnection.placeholders(size);
+
+        PreparedStatement stmt = DBConnection.prepare(con,
+            "SELECT account, SUM(amount) FROM ("
+                + "SELECT targetAccount AS account, amount FROM transactions "
+                + "WHERE targetAccount IN (" + in + ") UNION ALL "
+                + "SELECT sourceAccount AS account, -amount FROM transactions "
+                + "WHERE sourceAccount IN (" + in + ")) x GROUP BY account");
+
+        DBConnection.setIn(stmt, 1, accountIDs, from, to, size);
+        DBConnection.setIn(stmt, 1 + size, accountIDs, from, to, size);
+
+        rs = stmt.executeQuery();
+        while (rs.next()) {
+          result.put(Integer.valueOf(rs.getInt(1)),
+              Double.valueOf(rs.getDouble(2)));
+        }
+        DBConnection.close(rs);
+        rs = null;
+      }
+    }
+    catch (SQLException e2) {
+      e2.printStackTrace();
+      return null;
+    }
+    finally {
+      // Ergebnis schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.release(con);
+    }
+
+    return result;
+  }
+
   /**
    * Einfügen eines <code>Transaction</code>-Objekts in die Datenbank. Dabei
    * wird auch der Primärschlüssel des übergebenen Objekts geprüft und ggf.
@@ -229,43 +599,57 @@ public class TransactionMapper {
    * 
    * @param t das zu speichernde Objekt
    * @return das bereits übergebene Objekt, jedoch mit ggf. korrigierter
-   *         <code>id</code>.
+   *         <code>id</code>, oder <code>null</code>, wenn es nicht gespeichert
+   *         werden konnte.
    */
   public Transaction insert(Transaction t) {
-    Connection con = DBConnection.connection();
+    Connection con = null;
 
     try {
-      Statement stmt = con.createStatement();
+      /*
+       * DB-Verbindung aus dem Pool holen und Transaktion beginnen. Erst danach
+       * wird der Schlüssel vergeben, damit auch ein Fehler dabei eine
+       * umgebende Transaktion scheitern lässt.
+       */
+      con = DBConnection.connection();
+      DBConnection.begin(con);
 
       /*
-       * Zunächst schauen wir nach, welches der momentan höchste
-       * Primärschlüsselwert ist.
+       * t erhält den nächsten freien Primärschlüssel aus einem zuvor
+       * reservierten Block. Die frühere Anfrage nach dem momentan höchsten
+       * Primärschlüsselwert entfällt damit, und gleichzeitige Einfügeoperationen
+       * können nicht mehr denselben Schlüssel erhalten.
        */
-      ResultSet rs = stmt.executeQuery("SELECT MAX(id) AS maxid "
-          + "FROM transactions ");
+      t.setId(IdAllocator.idAllocator().nextId(IdAllocator.TRANSACTIONS));
 
-      // Wenn wir etwas zurückerhalten, kann dies nur einzeilig sein
-      if (rs.next()) {
-        /*
-         * a erhält den bisher maximalen, nun um 1 inkrementierten
-         * Primärschlüssel.
-         */
-        t.setId(rs.getInt("maxid") + 1);
-
-        stmt = con.createStatement();
-
-        // Jetzt erst erfolgt die tatsächliche Einfügeoperation
-        stmt.executeUpdate("INSERT INTO transactions (id, sourceAccount, targetAccount, amount) "
-            + "VALUES ("
-            + t.getId()
-            + ","
-            + t.getSourceAccountID()
-            + ","
-            + t.getTargetAccountID() + "," + t.getAmount() + ")");
-      }
+      PreparedStatement stmt = DBConnection.prepare(con,
+          "INSERT INTO transactions (id, sourceAccount, targetAccount, amount) "
+              + "VALUES (?, ?, ?, ?)");
+      stmt.setInt(1, t.getId());
+      stmt.setInt(2, t.getSourceAccountID());
+      stmt.setInt(3, t.getTargetAccountID());
+      stmt.setFloat(4, t.getAmount());
+
+      // Jetzt erfolgt die tatsächliche Einfügeoperation
+      stmt.executeUpdate();
+
+      // Die Kontostände werden in derselben Transaktion fortgeschrieben.
+      SortedMap<Integer, Double> deltas = new TreeMap<Integer, Double>();
+      AccountBalanceMapper.post(deltas, t.getSourceAccountID(),
+          t.getTargetAccountID(), t.getAmount());
+      AccountBalanceMapper.accountBalanceMapper().apply(con, deltas);
+      invalidateCheckpoints(con, t);
+
+      DBConnection.commit(con);
     }
     catch (SQLException e2) {
+      // Die Transaktion wird von DBConnection.release(con) zurückgerollt.
       e2.printStackTrace();
+      return null;
+    }
+    finally {
+      // Verbindung in jedem Fall an den Pool zurückgeben
+      DBConnection.release(con);
     }
 
     /*
@@ -280,6 +664,200 @@ public class TransactionMapper {
     return t;
   }
 
+  /**
+   * <p>
+   * Einfügen einer ganzen Reihe von <code>Transaction</code>-Objekten in die
+   * Datenbank, etwa für Gehaltsläufe oder Tagesabschlüsse. Statt jede Buchung
+   * einzeln zu schreiben, werden jeweils {@link #getBatchSize()} Buchungen als
+   * JDBC-Batch übertragen. Sämtliche Buchungen werden in einer einzigen
+   * Datenbanktransaktion geschrieben: Entweder alle Buchungen werden
+   * gespeichert oder keine.
+   * </p>
+   * <p>
+   * Wie bei {@link #insert(Transaction)} erhält jede Buchung dabei ihren
+   * Primärschlüssel.
+   * </p>
+   * 
+   * @param transactions die zu speichernden Objekte
+   * @return die vergebenen Primärschlüssel in der Reihenfolge der übergebenen
+   *         Buchungen oder <code>null</code>, wenn die Buchungen nicht
+   *         gespeichert werden konnten.
+   */
+  public int[] insertBatch(List<Transaction> transactions) {
+    int[] ids = new int[transactions.size()];
+
+    try {
+      // Zunächst erhält jede Buchung ihren Primärschlüssel
+      IdAllocator allocator = IdAllocator.idAllocator();
+      for (int i = 0; i < ids.length; i++) {
+        ids[i] = allocator.nextId(IdAllocator.TRANSACTIONS);
+        transactions.get(i).setId(ids[i]);
+      }
+    }
+    catch (SQLException e) {
+      e.printStackTrace();
+      return null;
+    }
+
+    /*
+     * Schlägt das Einfügen fehl, wird die Transaktion zurückgerollt. Die
+     * bereits vergebenen Schlüssel bleiben ungenutzt.
+     */
+    return insertWithKeys(transactions) ? ids : null;
+  }
+
+  /**
+   * Einfügen einer Reihe von <code>Transaction</code>-Objekten, die ihren
+   * Primärschlüssel bereits erhalten haben, in einer einzigen
+   * Datenbanktransaktion. Die Buchungen werden wie bei
+   * {@link #insertBatch(List)} als JDBC-Batch übertragen.
+   * 
+   * @param transactions die zu speichernden Objekte mit gesetztem
+   *          Primärschlüssel
+   * @return <code>true</code>, wenn alle Buchungen gespeichert wurden,
+   *         <code>false</code>, wenn keine gespeichert wurde
+   * @see PostingJournal
+   */
+  boolean insertWithKeys(List<Transaction> transactions) {
+    Connection con = null;
+    PreparedStatement stmt = null;
+
+    try {
+      // DB-Verbindung aus dem Pool holen und Transaktion beginnen
+      con = DBConnection.connection();
+      DBConnection.begin(con);
+
+      stmt = DBConnection.prepare(con,
+          "INSERT INTO transactions (id, sourceAccount, targetAccount, amount) "
+              + "VALUES (?, ?, ?, ?)");
+
+      int size = batchSize;
+      int pending = 0;
+      SortedMap<Integer, Double> deltas = new TreeMap<Integer, Double>();
+      SortedMap<Integer, Integer> firsts = new TreeMap<Integer, Integer>();
+
+      for (Transaction t : transactions) {
+        AccountBalanceMapper.post(deltas, t.getSourceAccountID(),
+            t.getTargetAccountID(), t.getAmount());
+        AccountBalanceMapper.touch(firsts, t.getSourceAccountID(),
+            t.getTargetAccountID(), t.getId());
+
+        stmt.setInt(1, t.getId());
+        stmt.setInt(2, t.getSourceAccountID());
+        stmt.setInt(3, t.getTargetAccountID());
+        stmt.setFloat(4, t.getAmount());
+        stmt.addBatch();
+
+        // Ist der Batch voll, wird er an die Datenbank geschickt
+        if (++pending == size) {
+          stmt.executeBatch();
+          pending = 0;
+        }
+      }
+
+      if (pending > 0) {
+        stmt.executeBatch();
+      }
+
+      // Je Konto genügt eine einzige Änderung des Kontostands.
+      AccountBalanceMapper.accountBalanceMapper().apply(con, deltas);
+      AccountBalanceMapper.accountBalanceMapper().invalidateCheckpoints(con,
+          firsts);
+
+      DBConnection.commit(con);
+
+      return true;
+    }
+    catch (SQLException e2) {
+      // Die Transaktion wird von DBConnection.release(con) zurückgerollt.
+      e2.printStackTrace();
+      return false;
+    }
+    finally {
+      // Evtl. verbliebene Batch-Einträge verwerfen, da das Statement im Cache
+      // der Verbindung wiederverwendet wird.
+      if (stmt != null) {
+        try {
+          stmt.clearBatch();
+        }
+        catch (SQLException e) {
+          // Das Statement wird beim Schließen der Verbindung verworfen.
+        }
+      }
+      DBConnection.release(con);
+    }
+  }
+
+  /**
+   * Ermitteln, welche der angegebenen Primärschlüssel bereits in der Tabelle
+   * <code>transactions</code> vorhanden sind. Gelesen wird stets von der
+   * primären Datenbank, nie von einem Replikat.
+   * 
+   * @param ids die zu prüfenden Primärschlüssel
+   * @return die vorhandenen Primärschlüssel oder <code>null</code> bei einem
+   *         Fehler
+   * @see PostingJournal
+   */
+  HashSet<Integer> findExistingKeys(int[] ids) {
+    HashSet<Integer> result = new HashSet<Integer>();
+    Connection con = null;
+    ResultSet rs = null;
+
+    try {
+      con = DBConnection.connection();
+
+      for (int from = 0; from < ids.length; from += DBConnection.IN_CHUNK_SIZE) {
+        int to = Math.min(from + DBConnection.IN_CHUNK_SIZE, ids.length);
+        int size = DBConnection.inSize(to - from);
+
+        PreparedStatement stmt = DBConnection.prepare(con,
+            "SELECT id FROM transactions WHERE id IN ("
+                + DBConnection.placeholders(size) + ")");
+        DBConnection.setIn(stmt, 1, ids, from, to, size);
+
+        rs = stmt.executeQuery();
+        while (rs.next()) {
+          result.add(Integer.valueOf(rs.getInt(1)));
+        }
+        DBConnection.close(rs);
+        rs = null;
+      }
+    }
+    catch (SQLException e2) {
+      e2.printStackTrace();
+      return null;
+    }
+    finally {
+      // Ergebnis schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.release(con);
+    }
+
+    return result;
+  }
+
+  /**
+   * Auslesen der Anzahl der Buchungen, die bei {@link #insertBatch(List)}
+   * gemeinsam an die Datenbank geschickt werden.
+   */
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Setzen der Anzahl der Buchungen, die bei {@link #insertBatch(List)}
+   * gemeinsam an die Datenbank geschickt werden. Voreingestellt ist der Wert
+   * der System Property <code>bankprojekt.db.batchSize</code> (Standard: 500).
+   * 
+   * @param batchSize die neue Batch-Größe, mindestens 1
+   */
+  public void setBatchSize(int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Ungültige Batch-Größe: " + batchSize);
+    }
+    this.batchSize = batchSize;
+  }
+
   /**
    * Wiederholtes Schreiben eines Objekts in die Datenbank.
    * 
@@ -287,19 +865,47 @@ public class TransactionMapper {
    * @return das als Parameter übergebene Objekt
    */
   public Transaction update(Transaction t) {
-    Connection con = DBConnection.connection();
+    Connection con = null;
 
     try {
-      Statement stmt = con.createStatement();
+      // DB-Verbindung aus dem Pool holen und Transaktion beginnen
+      con = DBConnection.connection();
+      DBConnection.begin(con);
+
+      // Die bisherige Buchung wird gesperrt und storniert ...
+      Transaction old = lock(con, t.getId());
 
-      stmt.executeUpdate("UPDATE transactions SET " + "sourceAccount=\""
-          + t.getSourceAccountID() + "\", " + "targetAccount=\""
-          + t.getTargetAccountID() + "\", " + "amount=\"" + t.getAmount()
-          + "\" " + "WHERE id=" + t.getId());
+      if (old != null) {
+        PreparedStatement stmt = DBConnection.prepare(con,
+            "UPDATE transactions SET sourceAccount=?, targetAccount=?, amount=? "
+                + "WHERE id=?");
+        stmt.setInt(1, t.getSourceAccountID());
+        stmt.setInt(2, t.getTargetAccountID());
+        stmt.setFloat(3, t.getAmount());
+        stmt.setInt(4, t.getId());
+
+        stmt.executeUpdate();
+
+        // ... und in ihrer neuen Form erneut gebucht.
+        SortedMap<Integer, Double> deltas = new TreeMap<Integer, Double>();
+        AccountBalanceMapper.post(deltas, old.getSourceAccountID(),
+            old.getTargetAccountID(), -old.getAmount());
+        AccountBalanceMapper.post(deltas, t.getSourceAccountID(),
+            t.getTargetAccountID(), t.getAmount());
+        AccountBalanceMapper.accountBalanceMapper().apply(con, deltas);
+        invalidateCheckpoints(con, old, t);
+      }
+
+      DBConnection.commit(con);
     }
     catch (SQLException e2) {
+      // Die Transaktion wird von DBConnection.release(con) zurückgerollt.
       e2.printStackTrace();
     }
+    finally {
+      // Verbindung in jedem Fall an den Pool zurückgeben
+      DBConnection.release(con);
+    }
 
     // Um Analogie zu insert(Transaction t) zu wahren, geben wir t zurück
     return t;
@@ -311,17 +917,43 @@ public class TransactionMapper {
    * @param t das aus der DB zu löschende "Objekt"
    */
   public void delete(Transaction t) {
-    Connection con = DBConnection.connection();
+    Connection con = null;
 
     try {
-      Statement stmt = con.createStatement();
+      // DB-Verbindung aus dem Pool holen und Transaktion beginnen
+      con = DBConnection.connection();
+      DBConnection.begin(con);
+
+      /*
+       * Storniert wird die Buchung so, wie sie in der Datenbank steht, nicht
+       * wie sie evtl. veraltet im übergebenen Objekt vorliegt.
+       */
+      Transaction old = lock(con, t.getId());
+
+      if (old != null) {
+        PreparedStatement stmt = DBConnection.prepare(con,
+            "DELETE FROM transactions WHERE id=?");
+        stmt.setInt(1, t.getId());
 
-      stmt.executeUpdate("DELETE FROM transactions " + "WHERE id=" + t.getId());
+        stmt.executeUpdate();
 
+        SortedMap<Integer, Double> deltas = new TreeMap<Integer, Double>();
+        AccountBalanceMapper.post(deltas, old.getSourceAccountID(),
+            old.getTargetAccountID(), -old.getAmount());
+        AccountBalanceMapper.accountBalanceMapper().apply(con, deltas);
+        invalidateCheckpoints(con, old);
+      }
+
+      DBConnection.commit(con);
     }
     catch (SQLException e2) {
+      // Die Transaktion wird von DBConnection.release(con) zurückgerollt.
       e2.printStackTrace();
     }
+    finally {
+      // Verbindung in jedem Fall an den Pool zurückgeben
+      DBConnection.release(con);
+    }
   }
 
   /**
@@ -330,21 +962,162 @@ public class TransactionMapper {
    * <code>Account</code> -Objekt gelöscht wird.
    * 
    * @param a das <code>Account</code>-Objekt, zu dem die Buchungen gehören
+   * @return die Anzahl der gelöschten Buchungen oder -1 bei einem Fehler
    */
-  public void deleteTransactionsOf(Account a) {
-    Connection con = DBConnection.connection();
+  public int deleteTransactionsOf(Account a) {
+    return this.deleteTransactions(a.getId(),
+        "FROM transactions t WHERE t.sourceAccount=?",
+        "FROM transactions t WHERE t.targetAccount=?",
+        "FROM account_balances b WHERE b.account=?");
+  }
+
+  /**
+   * Löschen sämtlicher Buchungen aller Konten eines Kunden mit einer festen
+   * Anzahl von Anweisungen, unabhängig von der Anzahl der Konten und
+   * Buchungen. Diese Methode sollte aufgerufen werden, bevor die Konten eines
+   * Kunden gelöscht werden.
+   * 
+   * @param c der Kunde, zu dessen Konten die Buchungen gehören
+   * @return die Anzahl der gelöschten Buchungen oder -1 bei einem Fehler
+   * @see AccountMapper#deleteAccountsOf(Customer)
+   */
+  public int deleteTransactionsOf(Customer c) {
+    return this.deleteTransactions(c.getId(),
+        "FROM transactions t JOIN accounts a ON t.sourceAccount=a.id "
+            + "WHERE a.owner=?",
+        "FROM transactions t JOIN accounts a ON t.targetAccount=a.id "
+            + "WHERE a.owner=?",
+        "FROM account_balances b JOIN accounts a ON b.account=a.id "
+            + "WHERE a.owner=?");
+  }
+
+  /**
+   * Gemeinsame Umsetzung von {@link #deleteTransactionsOf(Account)} und
+   * {@link #deleteTransactionsOf(Customer)}. Gelöscht werden alle Ab- und
+   * Zu-Buchungen der ausgewählten Konten in einer Transaktion. Die Gegenkonten
+   * werden dabei um die Summe der jeweiligen Buchungen berichtigt. Diese wird
+   * je Kontenpaar von der Datenbank ermittelt, ohne die einzelnen Buchungen zu
+   * lesen. Die ausgewählten Konten selbst haben danach keine Buchungen mehr,
+   * ihr Kontostand ist also 0.
+   * 
+   * @param key der einzige Parameter der folgenden SQL-Fragmente
+   * @param debits <code>FROM</code>-Klausel, die die Ab-Buchungen als
+   *          <code>t</code> auswählt
+   * @param credits <code>FROM</code>-Klausel, die die Zu-Buchungen als
+   *          <code>t</code> auswählt
+   * @param balances <code>FROM</code>-Klausel, die die Kontostände der
+   *          ausgewählten Konten als <code>b</code> auswählt
+   * @return die Anzahl der gelöschten Buchungen oder -1 bei einem Fehler
+   */
+  private int deleteTransactions(int key, String debits, String credits,
+      String balances) {
+    Connection con = null;
+    ResultSet rs = null;
+    int count = 0;
 
     try {
-      Statement stmt = con.createStatement();
+      // DB-Verbindung aus dem Pool holen und Transaktion beginnen
+      con = DBConnection.connection();
+      DBConnection.begin(con);
+
+      SortedMap<Integer, Double> deltas = new TreeMap<Integer, Double>();
+      SortedMap<Integer, Integer> firsts = new TreeMap<Integer, Integer>();
+
+      for (String from : new String[] { debits, credits }) {
+        PreparedStatement stmt = DBConnection.prepare(con,
+            "SELECT t.sourceAccount, t.targetAccount, SUM(t.amount), MIN(t.id) "
+                + from
+                + " GROUP BY t.sourceAccount, t.targetAccount FOR UPDATE");
+        stmt.setInt(1, key);
+        rs = stmt.executeQuery();
+        while (rs.next()) {
+          AccountBalanceMapper.post(deltas, rs.getInt(1), rs.getInt(2),
+              -rs.getDouble(3));
+          AccountBalanceMapper.touch(firsts, rs.getInt(1), rs.getInt(2),
+              rs.getInt(4));
+        }
+        DBConnection.close(rs);
+        rs = null;
+      }
+
+      for (String from : new String[] { debits, credits }) {
+        PreparedStatement stmt = DBConnection.prepare(con, "DELETE t " + from);
+        stmt.setInt(1, key);
+        count += stmt.executeUpdate();
+      }
 
-      stmt.executeUpdate("DELETE FROM transactions " + "WHERE sourceAccount="
-          + a.getId());
-      stmt.executeUpdate("DELETE FROM transactions " + "WHERE targetAccount="
-          + a.getId());
+      AccountBalanceMapper.accountBalanceMapper().apply(con, deltas);
+      AccountBalanceMapper.accountBalanceMapper().invalidateCheckpoints(con,
+          firsts);
 
+      PreparedStatement stmt = DBConnection.prepare(con, "DELETE b "
+          + balances);
+      stmt.setInt(1, key);
+      stmt.executeUpdate();
+
+      DBConnection.commit(con);
     }
     catch (SQLException e2) {
+      // Die Transaktion wird von DBConnection.release(con) zurückgerollt.
       e2.printStackTrace();
+      return -1;
+    }
+    finally {
+      // Ergebnis schließen und Verbindung an den Pool zurückgeben
+      DBConnection.close(rs);
+      DBConnection.release(con);
+    }
+
+    return count;
+  }
+
+  /**
+   * Entfernen der Zwischenstände, die durch die übergebenen Buchungen
+   * überholt sind, innerhalb der laufenden Transaktion der übergebenen
+   * Verbindung.
+   * 
+   * @param con Verbindung mit laufender Transaktion
+   * @param changed die eingefügten, geänderten oder gelöschten Buchungen
+   * @throws SQLException
+   * @see AccountBalanceMapper#invalidateCheckpoints(Connection, SortedMap)
+   */
+  private static void invalidateCheckpoints(Connection con,
+      Transaction... changed) throws SQLException {
+    SortedMap<Integer, Integer> firsts = new TreeMap<Integer, Integer>();
+    for (Transaction t : changed) {
+      AccountBalanceMapper.touch(firsts, t.getSourceAccountID(),
+          t.getTargetAccountID(), t.getId());
+    }
+    AccountBalanceMapper.accountBalanceMapper().invalidateCheckpoints(con,
+        firsts);
+  }
+
+  /**
+   * Auslesen und Sperren einer Buchung innerhalb der laufenden Transaktion der
+   * übergebenen Verbindung. Bis zum Ende der Transaktion kann keine andere
+   * Transaktion diese Buchung ändern oder löschen.
+   * 
+   * @param con Verbindung mit laufender Transaktion
+   * @param id Primärschlüssel der Buchung
+   * @return die Buchung, wie sie in der Datenbank steht, oder
+   *         <code>null</code>, wenn es sie nicht gibt
+   * @throws SQLException
+   */
+  private Transaction lock(Connection con, int id) throws SQLException {
+    ResultSet rs = null;
+
+    try {
+      PreparedStatement stmt = DBConnection.prepare(con,
+          "SELECT id, sourceAccount, targetAccount, amount FROM transactions "
+              + "WHERE id=? FOR UPDATE");
+      stmt.setInt(1, id);
+
+      rs = stmt.executeQuery();
+
+      return rs.next() ? createTransaction(rs) : null;
+    }
+    finally {
+      DBConnection.close(rs);
     }
   }
 
@@ -380,4 +1153,24 @@ public class TransactionMapper {
     return AccountMapper.accountMapper().findByKey(t.getTargetAccountID());
   }
 
+  /**
+   * Umwandeln des aktuellen Tupels eines <code>ResultSet</code> in ein
+   * <code>Transaction</code>-Objekt. Das Ergebnis muss die Spalten
+   * <code>id</code>, <code>sourceAccount</code>, <code>targetAccount</code>
+   * und <code>amount</code> enthalten.
+   * 
+   * @param rs das auf dem gewünschten Tupel stehende Ergebnis
+   * @return das neu erzeugte Buchungs-Objekt
+   * @throws SQLException
+   */
+  private Transaction createTransaction(ResultSet rs) throws SQLException {
+    Transaction t = new Transaction();
+    t.setId(rs.getInt("id"));
+    t.setSourceAccountID(rs.getInt("sourceAccount"));
+    t.setTargetAccountID(rs.getInt("targetAccount"));
+    t.setAmount(rs.getFloat("amount"));
+
+    return t;
+  }
+
 }
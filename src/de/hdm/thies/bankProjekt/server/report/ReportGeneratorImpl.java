@@ -1,11 +1,14 @@
 package de.hdm.thies.bankProjekt.server.report;
 
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Vector;
 
 import com.google.gwt.user.server.rpc.RemoteServiceServlet;
 
 import de.hdm.thies.bankProjekt.server.BankAdministrationImpl;
+import de.hdm.thies.bankProjekt.server.ReadYourWrites;
+import de.hdm.thies.bankProjekt.server.storage.ObjectHandler;
 import de.hdm.thies.bankProjekt.shared.BankAdministration;
 import de.hdm.thies.bankProjekt.shared.ReportGenerator;
 import de.hdm.thies.bankProjekt.shared.bo.*;
@@ -28,7 +31,7 @@ public class ReportGeneratorImpl extends RemoteServiceServlet
    * essentiellen Methoden für die Koexistenz von Datenobjekten (vgl.
    * bo-Package) bietet.
    */
-  private BankAdministration administration = null;
+  private BankAdministrationImpl administration = null;
 
   /**
    * <p>
@@ -64,6 +67,27 @@ public void init() throws IllegalArgumentException {
     this.administration = a;
   }
 
+  /**
+   * Reports werden bevorzugt aus lesenden Replikaten erstellt. Hat der Client
+   * jedoch soeben etwas geändert, so wird von der primären Datenbank gelesen.
+   * 
+   * @see ReadYourWrites
+   */
+  @Override
+  protected void onBeforeRequestDeserialized(String serializedRequest) {
+    ReadYourWrites.begin(getThreadLocalRequest());
+  }
+
+  /**
+   * Weitergeben des Zeitpunkts des letzten Schreibzugriffs an den Client.
+   * 
+   * @see ReadYourWrites
+   */
+  @Override
+  protected void onAfterResponseSerialized(String serializedResponse) {
+    ReadYourWrites.end(getThreadLocalResponse());
+  }
+
   /**
    * Auslesen der zugehörigen BankAdministration (interner Gebrauch).
    * 
@@ -180,9 +204,12 @@ public AllAccountsOfCustomerReport createAllAccountsOfCustomerReport(
 
     /*
      * Nun werden sämtliche Konten des Kunden ausgelesen und deren Kto.-Nr. und
-     * Kontostand sukzessive in die Tabelle eingetragen.
+     * Kontostand sukzessive in die Tabelle eingetragen. Die Kontostände
+     * sämtlicher Konten werden dabei mit einer einzigen Anfrage ermittelt.
      */
     Vector<Account> accounts = this.administration.getAccountsOf(c);
+    HashMap<Integer, Float> balances = this.administration
+        .getBalancesOf(accounts);
 
     for (Account a : accounts) {
       // Eine leere Zeile anlegen.
@@ -192,8 +219,8 @@ public AllAccountsOfCustomerReport createAllAccountsOfCustomerReport(
       accountRow.addColumn(new Column(String.valueOf(a.getId())));
 
       // Zweite Spalte: Kontostand hinzufügen
-      accountRow.addColumn(new Column(String.valueOf(this.administration
-          .getBalanceOf(a))));
+      accountRow.addColumn(new Column(String.valueOf(balances.get(Integer
+          .valueOf(a.getId())))));
 
       // und schließlich die Zeile dem Report hinzufügen.
       result.addRow(accountRow);
@@ -248,15 +275,21 @@ public AllAccountsOfAllCustomersReport createAllAccountsOfAllCustomersReport()
      * sukzessive der result-Variable hinzugefügt. Sie ist vom Typ
      * AllAccountsOfAllCustomersReport, welches eine Subklasse von
      * CompositeReport ist.
+     * 
+     * Die Kunden werden dabei nicht zuvor gesammelt ausgelesen, sondern
+     * schrittweise aus der Datenbank gelesen und sofort verarbeitet.
      */
-    Vector<Customer> allCustomers = this.administration.getAllCustomers();
-
-    for (Customer c : allCustomers) {
-      /*
-       * Anlegen des jew. Teil-Reports und Hinzufügen zum Gesamt-Report.
-       */
-      result.addSubReport(this.createAllAccountsOfCustomerReport(c));
-    }
+    final AllAccountsOfAllCustomersReport report = result;
+
+    this.administration.forEachCustomer(new ObjectHandler<Customer>() {
+      @Override
+      public void handle(Customer c) {
+        /*
+         * Anlegen des jew. Teil-Reports und Hinzufügen zum Gesamt-Report.
+         */
+        report.addSubReport(createAllAccountsOfCustomerReport(c));
+      }
+    });
 
     /*
      * Zu guter Letzt müssen wir noch den fertigen Report zurückgeben.
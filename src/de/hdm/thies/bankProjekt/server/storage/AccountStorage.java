@@ -0,0 +1,116 @@
+package de.hdm.thies.bankProjekt.server.storage;
+
+import java.util.HashMap;
+import java.util.Vector;
+
+import de.hdm.thies.bankProjekt.shared.StaleObjectException;
+import de.hdm.thies.bankProjekt.shared.bo.Account;
+import de.hdm.thies.bankProjekt.shared.bo.Customer;
+
+/**
+ * Schnittstelle für das dauerhafte Speichern von <code>Account</code>-Objekten.
+ * Wie bei {@link CustomerStorage} sind herausgegebene Objekte stets Kopien.
+ *
+ * @see Storage#accounts()
+ * @author Thies
+ */
+public interface AccountStorage {
+
+  /**
+   * Suchen eines Kontos mit vorgegebener Kontonummer.
+   *
+   * @param id Primärschlüssel
+   * @return das Konto oder <code>null</code>, wenn es kein solches gibt
+   */
+  Account findByKey(int id);
+
+  /**
+   * Suchen mehrerer Konten anhand ihrer Primärschlüssel mit möglichst wenigen
+   * Zugriffen auf den Speicher.
+   *
+   * @param ids Primärschlüssel
+   * @return die gefundenen Konten, indiziert nach Primärschlüssel. Nicht
+   *         vorhandene Schlüssel fehlen in der Map. Bei einem Fehler wird
+   *         <code>null</code> zurückgeliefert.
+   */
+  HashMap<Integer, Account> findByKeys(int[] ids);
+
+  /**
+   * Auslesen aller Konten, sortiert nach ihrem Primärschlüssel.
+   */
+  Vector<Account> findAll();
+
+  /**
+   * Schrittweises Verarbeiten aller Konten in der Reihenfolge ihres
+   * Primärschlüssels.
+   *
+   * @param handler erhält nacheinander jedes Konto
+   * @return die Anzahl der verarbeiteten Konten
+   */
+  int forEach(ObjectHandler<Account> handler);
+
+  /**
+   * Auslesen von höchstens <code>limit</code> Konten, deren Primärschlüssel
+   * größer als <code>afterId</code> ist, aufsteigend nach dem Primärschlüssel
+   * sortiert.
+   *
+   * @param afterId Primärschlüssel des letzten Elements der vorherigen Seite
+   *          bzw. 0 für die erste Seite
+   * @param limit Höchstanzahl der zu liefernden Konten
+   */
+  Vector<Account> findPage(int afterId, int limit);
+
+  /**
+   * Auslesen aller Konten eines Kunden, sortiert nach ihrem Primärschlüssel.
+   *
+   * @param ownerID Kundennummer des Inhabers
+   */
+  Vector<Account> findByOwner(int ownerID);
+
+  /**
+   * Auslesen aller Konten eines Kunden.
+   *
+   * @param owner der Inhaber
+   * @see #findByOwner(int)
+   */
+  Vector<Account> findByOwner(Customer owner);
+
+  /**
+   * Einfügen eines neuen Kontos. Dieses erhält dabei seinen Primärschlüssel.
+   *
+   * @param a das zu speichernde Konto
+   * @return dasselbe Konto mit gesetztem Primärschlüssel
+   */
+  Account insert(Account a);
+
+  /**
+   * Übernehmen der Änderungen eines Kontos. Wie bei
+   * {@link CustomerStorage#update(Customer)} gelingt dies nur bei
+   * unveränderter Version.
+   *
+   * @param a das geänderte Konto
+   * @return dasselbe Konto mit der neuen Version
+   * @throws StaleObjectException wenn das Konto inzwischen geändert oder
+   *           gelöscht wurde
+   */
+  Account update(Account a) throws StaleObjectException;
+
+  /**
+   * Löschen eines Kontos samt seinem gespeicherten Kontostand. Die Buchungen
+   * des Kontos müssen zuvor mittels
+   * {@link TransactionStorage#deleteTransactionsOf(Account)} entfernt werden.
+   *
+   * @param a das zu löschende Konto
+   * @return die Anzahl der gelöschten Konten oder -1 bei einem Fehler
+   */
+  int delete(Account a);
+
+  /**
+   * Löschen sämtlicher Konten eines Kunden samt ihrer gespeicherten
+   * Kontostände.
+   *
+   * @param c der Inhaber der Konten
+   * @return die Anzahl der gelöschten Konten oder -1 bei einem Fehler
+   */
+  int deleteAccountsOf(Customer c);
+}
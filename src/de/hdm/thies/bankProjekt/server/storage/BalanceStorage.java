@@ -0,0 +1,87 @@
+package de.hdm.thies.bankProjekt.server.storage;
+
+import java.util.HashMap;
+
+
+/**
+ * Schnittstelle für die bei jeder Buchung fortgeschriebenen Kontostände.
+ *
+ * @see Storage#balances()
+ * @author Thies
+ */
+public interface BalanceStorage {
+
+  /**
+   * Auslesen des gespeicherten Kontostands eines Kontos.
+   *
+   * @param accountID Kontonummer
+   * @return der Kontostand, 0 für Konten ohne Buchungen oder
+   *         <code>null</code>, wenn der Kontostand nicht gelesen werden konnte
+   */
+  Double findByAccount(int accountID);
+
+  /**
+   * Auslesen der gespeicherten Kontostände mehrerer Konten in einem Schritt,
+   * ohne die Buchungen der Konten zu summieren.
+   *
+   * @param accountIDs Kontonummern, doppelte Angaben sind erlaubt
+   * @return die Kontostände je Kontonummer, 0 für Konten ohne Buchungen, oder
+   *         <code>null</code>, wenn die Kontostände nicht gelesen werden
+   *         konnten
+   */
+  HashMap<Integer, Double> findByAccounts(int[] accountIDs);
+
+  /**
+   * Sperren und Auslesen des gespeicherten Kontostands eines Kontos innerhalb
+   * der mit {@link Storage#beginTransaction()} begonnenen Transaktion. Bis zu
+   * deren Ende kann keine andere Transaktion den Kontostand ändern oder
+   * ebenfalls sperren, auch nicht die einer anderen Server-Instanz. Außerhalb
+   * einer Transaktion entspricht die Methode {@link #findByAccount(int)}.
+   *
+   * @param accountID Kontonummer
+   * @return der Kontostand, 0 für Konten ohne Buchungen oder
+   *         <code>null</code>, wenn der Kontostand nicht gelesen werden konnte
+   */
+  Double findByAccountForUpdate(int accountID);
+
+  /**
+   * Auslesen des gespeicherten Kontostands eines Kontos wie mit
+   * {@link #findByAccount(int)}, jedoch nie aus einem nachlaufenden Replikat.
+   * Der Kontostand enthält damit alle bereits gespeicherten Buchungen, auch
+   * die gerade erst von einem anderen Thread gespeicherten.
+   *
+   * @param accountID Kontonummer
+   * @return der Kontostand, 0 für Konten ohne Buchungen oder
+   *         <code>null</code>, wenn der Kontostand nicht gelesen werden konnte
+   */
+  Double findByAccountFromPrimary(int accountID);
+
+  /**
+   * Auslesen des Kontostands eines Kontos nach einer bestimmten Buchung, d.h.
+   * unter Berücksichtigung aller Buchungen mit einem Primärschlüssel bis
+   * einschließlich <code>transactionID</code>.
+   *
+   * @param accountID Kontonummer
+   * @param transactionID Primärschlüssel der letzten zu berücksichtigenden
+   *          Buchung
+   * @return der Kontostand, 0 für Konten ohne solche Buchungen oder
+   *         <code>null</code>, wenn der Kontostand nicht gelesen werden konnte
+   */
+  Double findByAccountAsOf(int accountID, int transactionID);
+
+  /**
+   * Vollständiges Neuberechnen sämtlicher Kontostände aus den Buchungen.
+   *
+   * @return <code>true</code>, wenn die Neuberechnung erfolgreich war
+   */
+  boolean rebuild();
+
+  /**
+   * Prüfen der gespeicherten Kontostände gegen die aus den Buchungen
+   * berechneten Werte. Abweichungen werden im Log vermerkt.
+   *
+   * @return die Anzahl der Konten mit abweichendem Kontostand oder -1, wenn
+   *         die Prüfung nicht durchgeführt werden konnte
+   */
+  int verify();
+}
@@ -0,0 +1,120 @@
+package de.hdm.thies.bankProjekt.server.storage;
+
+import java.util.HashMap;
+import java.util.Vector;
+
+import de.hdm.thies.bankProjekt.shared.StaleObjectException;
+import de.hdm.thies.bankProjekt.shared.bo.Customer;
+
+/**
+ * Schnittstelle für das dauerhafte Speichern von <code>Customer</code>-Objekten.
+ * Die Applikationslogik greift ausschließlich über diese Schnittstelle auf die
+ * Kunden zu und ist damit unabhängig davon, ob diese in einer relationalen
+ * Datenbank oder etwa im Hauptspeicher liegen.
+ * <p>
+ * Herausgegebene Objekte sind stets Kopien. Änderungen daran werden erst mit
+ * {@link #update(Customer)} übernommen.
+ *
+ * @see Storage#customers()
+ * @author Thies
+ */
+public interface CustomerStorage {
+
+  /**
+   * Suchen eines Kunden mit vorgegebener Kundennummer.
+   *
+   * @param id Primärschlüssel
+   * @return der Kunde oder <code>null</code>, wenn es keinen solchen gibt
+   */
+  Customer findByKey(int id);
+
+  /**
+   * Suchen mehrerer Kunden anhand ihrer Primärschlüssel mit möglichst wenigen
+   * Zugriffen auf den Speicher.
+   *
+   * @param ids Primärschlüssel
+   * @return die gefundenen Kunden, indiziert nach Primärschlüssel. Nicht
+   *         vorhandene Schlüssel fehlen in der Map. Bei einem Fehler wird
+   *         <code>null</code> zurückgeliefert.
+   */
+  HashMap<Integer, Customer> findByKeys(int[] ids);
+
+  /**
+   * Auslesen aller Kunden, sortiert nach ihrem Nachnamen.
+   */
+  Vector<Customer> findAll();
+
+  /**
+   * Schrittweises Verarbeiten aller Kunden in der Reihenfolge ihres
+   * Primärschlüssels, ohne diese zuvor gesammelt in den Speicher zu laden.
+   *
+   * @param handler erhält nacheinander jeden Kunden
+   * @return die Anzahl der verarbeiteten Kunden
+   */
+  int forEach(ObjectHandler<Customer> handler);
+
+  /**
+   * Auslesen von höchstens <code>limit</code> Kunden, deren Primärschlüssel
+   * größer als <code>afterId</code> ist, aufsteigend nach dem Primärschlüssel
+   * sortiert.
+   *
+   * @param afterId Primärschlüssel des letzten Elements der vorherigen Seite
+   *          bzw. 0 für die erste Seite
+   * @param limit Höchstanzahl der zu liefernden Kunden
+   */
+  Vector<Customer> findPage(int afterId, int limit);
+
+  /**
+   * Auslesen von höchstens <code>limit</code> Kunden, aufsteigend sortiert
+   * nach Nachname und Primärschlüssel, die in dieser Reihenfolge auf den
+   * Kunden mit dem Nachnamen <code>afterLastName</code> und dem
+   * Primärschlüssel <code>afterId</code> folgen. Groß- und Kleinschreibung
+   * werden wie bei {@link #findAll()} nicht unterschieden.
+   *
+   * @param afterLastName Nachname des letzten Elements der vorherigen Seite
+   *          bzw. <code>""</code> für die erste Seite
+   * @param afterId Primärschlüssel des letzten Elements der vorherigen Seite
+   *          bzw. 0 für die erste Seite
+   * @param limit Höchstanzahl der zu liefernden Kunden
+   */
+  Vector<Customer> findPageByLastName(String afterLastName, int afterId,
+      int limit);
+
+  /**
+   * Auslesen aller Kunden, deren Nachname dem Muster entspricht. Das Muster
+   * folgt den Regeln von SQL <code>LIKE</code>, d.h. <code>%</code> steht für
+   * beliebig viele, <code>_</code> für genau ein Zeichen. Groß- und
+   * Kleinschreibung werden nicht unterschieden.
+   *
+   * @param name Nachname bzw. Muster
+   */
+  Vector<Customer> findByLastName(String name);
+
+  /**
+   * Einfügen eines neuen Kunden. Dieser erhält dabei seinen Primärschlüssel.
+   *
+   * @param c der zu speichernde Kunde
+   * @return derselbe Kunde mit gesetztem Primärschlüssel
+   */
+  Customer insert(Customer c);
+
+  /**
+   * Übernehmen der Änderungen eines Kunden. Dies gelingt nur, wenn der
+   * gespeicherte Kunde noch dieselbe Version wie <code>c</code> hat; die
+   * Version wird dabei um 1 erhöht.
+   *
+   * @param c der geänderte Kunde
+   * @return derselbe Kunde mit der neuen Version
+   * @throws StaleObjectException wenn der Kunde inzwischen geändert oder
+   *           gelöscht wurde
+   */
+  Customer update(Customer c) throws StaleObjectException;
+
+  /**
+   * Löschen eines Kunden. Seine Konten bleiben davon unberührt.
+   *
+   * @param c der zu löschende Kunde
+   * @return die Anzahl der gelöschten Kunden oder -1 bei einem Fehler
+   */
+  int delete(Customer c);
+}
@@ -0,0 +1,29 @@
+package de.hdm.thies.bankProjekt.server.storage;
+
+/**
+ * Rückruf-Schnittstelle für das schrittweise Verarbeiten von Suchergebnissen.
+ * <p>
+ * Die <code>forEach(...)</code>-Methoden der Speicher liefern ihre
+ * Ergebnisse nicht gesammelt in einem <code>Vector</code>, sondern übergeben
+ * jedes gelesene Objekt sofort an {@link #handle(Object)}. Danach wird das
+ * Objekt nicht mehr referenziert. Der Speicherbedarf bleibt so unabhängig von
+ * der Größe der Tabelle konstant.
+ * <p>
+ * Bei der Datenbankanbindung bleibt die Verbindung während des gesamten
+ * Durchlaufs ausgeliehen. Implementierungen sollten daher zügig arbeiten.
+ * 
+ * @param <T> der Typ der verarbeiteten Objekte, z.B. <code>Customer</code>
+ * @author Thies
+ * @see CustomerStorage#forEach(ObjectHandler)
+ * @see AccountStorage#forEach(ObjectHandler)
+ * @see TransactionStorage#forEach(ObjectHandler)
+ */
+public interface ObjectHandler<T> {
+
+  /**
+   * Verarbeiten eines einzelnen Objekts.
+   * 
+   * @param object das soeben gelesene Objekt
+   */
+  void handle(T object);
+}
@@ -0,0 +1,60 @@
+package de.hdm.thies.bankProjekt.server.storage;
+
+import java.util.Vector;
+
+import de.hdm.thies.bankProjekt.shared.bo.AccountSummary;
+import de.hdm.thies.bankProjekt.shared.bo.CustomerTree;
+
+/**
+ * Schnittstelle für Übersichten, die Konten, Kunden und Kontostände
+ * zusammenführen. Die einzelnen Speicher kennen jeweils nur ihre eigenen
+ * Objekte; erst das Backend weiß, wie sich diese am günstigsten gemeinsam
+ * lesen lassen, etwa mit einer einzigen Anfrage über mehrere Tabellen.
+ *
+ * @see Storage#overviews()
+ * @author Thies
+ */
+public interface OverviewStorage {
+
+  /**
+   * Auslesen von höchstens <code>limit</code> Kontozusammenfassungen, deren
+   * Kontonummer größer als <code>afterId</code> ist, aufsteigend nach der
+   * Kontonummer sortiert. Konto, Inhaber und Kontostand werden dabei
+   * gemeinsam ermittelt, nicht je Konto einzeln.
+   *
+   * @param afterId Kontonummer des letzten Elements der vorherigen Seite bzw.
+   *          0 für die erste Seite
+   * @param limit Höchstanzahl der zu liefernden Zusammenfassungen
+   * @return die Zusammenfassungen oder <code>null</code> bei einem Fehler
+   */
+  Vector<AccountSummary> findSummaries(int afterId, int limit);
+
+  /**
+   * Schrittweises Verarbeiten der Zusammenfassungen aller Konten in der
+   * Reihenfolge ihrer Kontonummer, ohne diese zuvor gesammelt in den Speicher
+   * zu laden.
+   *
+   * @param handler erhält nacheinander jede Kontozusammenfassung
+   * @return die Anzahl der verarbeiteten Zusammenfassungen
+   */
+  int forEachSummary(ObjectHandler<AccountSummary> handler);
+
+  /**
+   * Auslesen von höchstens <code>limit</code> Kunden, aufsteigend sortiert
+   * nach Nachname und Kundennummer, zusammen mit all ihren Konten und deren
+   * Kontoständen. Die Seite beginnt nach dem Kunden mit dem Nachnamen
+   * <code>afterLastName</code> und der Kundennummer <code>afterId</code>.
+   * Kunden, Konten und Kontostände werden dabei gemeinsam ermittelt, nicht je
+   * Kunde oder Konto einzeln.
+   *
+   * @param afterLastName Nachname des letzten Kunden der vorherigen Seite bzw.
+   *          <code>""</code> für die erste Seite
+   * @param afterId Kundennummer des letzten Kunden der vorherigen Seite bzw.
+   *          0 für die erste Seite
+   * @param limit Höchstanzahl der zu liefernden Kunden
+   * @return der Ausschnitt des Kunden- und Kontenbaums oder
+   *         <code>null</code> bei einem Fehler
+   * @see CustomerStorage#findPageByLastName(String, int, int)
+   */
+  CustomerTree findTree(String afterLastName, int afterId, int limit);
+}
@@ -0,0 +1,80 @@
+package de.hdm.thies.bankProjekt.server.storage;
+
+import java.sql.SQLException;
+
+/**
+ * <p>
+ * Ein Speicher-Backend der Applikation. Es stellt für jede Art von
+ * Geschäftsobjekt eine Schnittstelle zum dauerhaften Speichern bereit und
+ * erlaubt es, mehrere Änderungen gemeinsam auszuführen.
+ * </p>
+ * <p>
+ * Die Applikationslogik in <code>BankAdministrationImpl</code> kennt nur diese
+ * Schnittstellen. Welches Backend verwendet wird, legt
+ * {@link StorageFactory#storage()} anhand der Konfiguration fest. Neben der
+ * relationalen Datenbank (siehe <code>JdbcStorage</code>) steht mit
+ * <code>MemoryStorage</code> ein Backend im Hauptspeicher zur Verfügung, etwa
+ * für Last- und Performancetests der Applikationslogik ohne Datenbank.
+ * </p>
+ *
+ * @see StorageFactory
+ * @author Thies
+ */
+public interface Storage {
+
+  /**
+   * Auslesen des Speichers für Kunden.
+   */
+  CustomerStorage customers();
+
+  /**
+   * Auslesen des Speichers für Konten.
+   */
+  AccountStorage accounts();
+
+  /**
+   * Auslesen des Speichers für Buchungen.
+   */
+  TransactionStorage transactions();
+
+  /**
+   * Auslesen des Speichers für die fortgeschriebenen Kontostände.
+   */
+  BalanceStorage balances();
+
+  /**
+   * Auslesen des Speichers für Übersichten über Konten, Kunden und
+   * Kontostände.
+   */
+  OverviewStorage overviews();
+
+  /**
+   * Beginnen einer Transaktion, die mehrere Aufrufe der Speicher im aktuellen
+   * Thread umfasst. Auf jedes <code>beginTransaction()</code> folgt im
+   * Erfolgsfall {@link #commitTransaction()} und in jedem Fall, etwa in einem
+   * <code>finally</code>-Block, {@link #rollbackTransaction()}.
+   *
+   * @throws SQLException wenn die Transaktion nicht begonnen werden kann
+   */
+  void beginTransaction() throws SQLException;
+
+  /**
+   * Festschreiben der laufenden Transaktion.
+   *
+   * @throws SQLException wenn das Festschreiben scheitert; die Transaktion ist
+   *           dann verworfen
+   */
+  void commitTransaction() throws SQLException;
+
+  /**
+   * Verwerfen der laufenden Transaktion. Wurde sie bereits festgeschrieben, so
+   * hat diese Methode keine Wirkung.
+   */
+  void rollbackTransaction();
+
+  /**
+   * Erzeugen einer textuellen Darstellung der Kennzahlen des Backends, etwa
+   * für die Überwachung im Betrieb.
+   */
+  String getStatistics();
+}
@@ -0,0 +1,80 @@
+package de.hdm.thies.bankProjekt.server.storage;
+
+import java.io.IOException;
+
+import de.hdm.thies.bankProjekt.server.ServersideSettings;
+import de.hdm.thies.bankProjekt.server.db.JdbcStorage;
+import de.hdm.thies.bankProjekt.server.storage.ledger.LedgerStorage;
+import de.hdm.thies.bankProjekt.server.storage.memory.MemoryStorage;
+
+/**
+ * Auswahl des Speicher-Backends der Applikation. Das Backend wird über die
+ * System Property <code>bankprojekt.storage</code> (siehe
+ * <code>appengine-web.xml</code>) festgelegt:
+ * <ul>
+ * <li><code>jdbc</code>: relationale Datenbank über {@link JdbcStorage}
+ * (Standard)</li>
+ * <li><code>memory</code>: flüchtiger Speicher im Hauptspeicher über
+ * {@link MemoryStorage}</li>
+ * <li><code>ledger</code>: Buchungen in Segmentdateien über
+ * {@link LedgerStorage}, Kunden und Konten in der Datenbank</li>
+ * </ul>
+ *
+ * @see Storage
+ * @author Thies
+ */
+public class StorageFactory {
+
+  /**
+   * Das gewählte Backend. Es wird nur einmal angelegt und von allen Servlets
+   * gemeinsam genutzt.
+   */
+  private static Storage storage = null;
+
+  /**
+   * Geschützter Konstruktor - die Klasse bietet nur statische Methoden.
+   */
+  protected StorageFactory() {
+  }
+
+  /**
+   * Auslesen des konfigurierten Speicher-Backends. Beim ersten Aufruf wird
+   * dieses angelegt.
+   *
+   * @return DAS <code>Storage</code>-Objekt der Applikation
+   * @throws IllegalArgumentException wenn ein unbekanntes Backend konfiguriert
+   *           ist
+   */
+  public static synchronized Storage storage()
+      throws IllegalArgumentException {
+    if (storage == null) {
+      String name = ServersideSettings.getProperty("bankprojekt.storage",
+          "jdbc");
+
+      if ("jdbc".equals(name)) {
+        storage = JdbcStorage.jdbcStorage();
+      }
+      else if ("memory".equals(name)) {
+        storage = new MemoryStorage();
+      }
+      else if ("ledger".equals(name)) {
+        try {
+          storage = new LedgerStorage();
+        }
+        catch (IOException e) {
+          e.printStackTrace();
+          throw new IllegalArgumentException(
+              "Das Journal kann nicht geöffnet werden: " + e.getMessage());
+        }
+      }
+      else {
+        throw new IllegalArgumentException("Unbekanntes Speicher-Backend: "
+            + name);
+      }
+
+      ServersideSettings.getLogger().info("Speicher-Backend: " + name);
+    }
+
+    return storage;
+  }
+}
@@ -0,0 +1,160 @@
+package de.hdm.thies.bankProjekt.server.storage;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Vector;
+
+import de.hdm.thies.bankProjekt.shared.bo.Account;
+import de.hdm.thies.bankProjekt.shared.bo.Customer;
+import de.hdm.thies.bankProjekt.shared.bo.Transaction;
+
+/**
+ * Schnittstelle für das dauerhafte Speichern von
+ * <code>Transaction</code>-Objekten. Jede schreibende Operation schreibt auch
+ * die Kontostände der betroffenen Konten fort (siehe {@link BalanceStorage}).
+ * Wie bei {@link CustomerStorage} sind herausgegebene Objekte stets Kopien.
+ *
+ * @see Storage#transactions()
+ * @author Thies
+ */
+public interface TransactionStorage {
+
+  /**
+   * Suchen einer Buchung mit vorgegebenem Primärschlüssel.
+   *
+   * @param id Primärschlüssel
+   * @return die Buchung oder <code>null</code>, wenn es keine solche gibt
+   */
+  Transaction findByKey(int id);
+
+  /**
+   * Suchen mehrerer Buchungen anhand ihrer Primärschlüssel mit möglichst wenigen
+   * Zugriffen auf den Speicher.
+   *
+   * @param ids Primärschlüssel
+   * @return die gefundenen Buchungen, indiziert nach Primärschlüssel. Nicht
+   *         vorhandene Schlüssel fehlen in der Map. Bei einem Fehler wird
+   *         <code>null</code> zurückgeliefert.
+   */
+  HashMap<Integer, Transaction> findByKeys(int[] ids);
+
+  /**
+   * Auslesen aller Buchungen, sortiert nach ihrem Quellkonto.
+   */
+  Vector<Transaction> findAll();
+
+  /**
+   * Schrittweises Verarbeiten aller Buchungen in der Reihenfolge ihres
+   * Primärschlüssels.
+   *
+   * @param handler erhält nacheinander jede Buchung
+   * @return die Anzahl der verarbeiteten Buchungen
+   */
+  int forEach(ObjectHandler<Transaction> handler);
+
+  /**
+   * Auslesen von höchstens <code>limit</code> Buchungen, deren
+   * Primärschlüssel größer als <code>afterId</code> ist, aufsteigend nach dem
+   * Primärschlüssel sortiert.
+   *
+   * @param afterId Primärschlüssel des letzten Elements der vorherigen Seite
+   *          bzw. 0 für die erste Seite
+   * @param limit Höchstanzahl der zu liefernden Buchungen
+   */
+  Vector<Transaction> findPage(int afterId, int limit);
+
+  /**
+   * Auslesen aller Ab-Buchungen eines Kontos, sortiert nach ihrem
+   * Primärschlüssel.
+   *
+   * @param accountID Kontonummer des Quellkontos
+   */
+  Vector<Transaction> findBySourceAccount(int accountID);
+
+  /**
+   * Auslesen aller Zu-Buchungen eines Kontos, sortiert nach ihrem
+   * Primärschlüssel.
+   *
+   * @param accountID Kontonummer des Zielkontos
+   */
+  Vector<Transaction> findByTargetAccount(int accountID);
+
+  /**
+   * Summe aller Ab-Buchungen eines Kontos.
+   *
+   * @param accountID Kontonummer
+   * @return die Summe, 0 für Konten ohne Ab-Buchungen oder <code>null</code>
+   *         bei einem Fehler
+   */
+  Double sumDebits(int accountID);
+
+  /**
+   * Summe aller Zu-Buchungen eines Kontos.
+   *
+   * @param accountID Kontonummer
+   * @return die Summe, 0 für Konten ohne Zu-Buchungen oder <code>null</code>
+   *         bei einem Fehler
+   */
+  Double sumCredits(int accountID);
+
+  /**
+   * Berechnen der Kontostände mehrerer Konten aus ihren Buchungen.
+   *
+   * @param accountIDs die Kontonummern
+   * @return die Kontostände je Kontonummer, 0 für Konten ohne Buchungen, oder
+   *         <code>null</code> bei einem Fehler
+   */
+  HashMap<Integer, Double> netBalances(int[] accountIDs);
+
+  /**
+   * Einfügen einer neuen Buchung. Diese erhält dabei ihren Primärschlüssel.
+   *
+   * @param t die zu speichernde Buchung
+   * @return dieselbe Buchung mit gesetztem Primärschlüssel oder
+   *         <code>null</code>, wenn sie nicht gespeichert werden konnte. In
+   *         einer mit {@link Storage#beginTransaction()} begonnenen
+   *         Transaktion kann diese dann nicht mehr festgeschrieben werden.
+   */
+  Transaction insert(Transaction t);
+
+  /**
+   * Gemeinsames Einfügen mehrerer Buchungen. Es werden entweder alle oder
+   * keine Buchungen gespeichert.
+   *
+   * @param transactions die zu speichernden Buchungen
+   * @return die vergebenen Primärschlüssel in der Reihenfolge der Buchungen
+   *         oder <code>null</code> bei einem Fehler
+   */
+  int[] insertBatch(List<Transaction> transactions);
+
+  /**
+   * Übernehmen der Änderungen einer Buchung.
+   *
+   * @param t die geänderte Buchung
+   * @return dieselbe Buchung
+   */
+  Transaction update(Transaction t);
+
+  /**
+   * Löschen einer Buchung.
+   *
+   * @param t die zu löschende Buchung
+   */
+  void delete(Transaction t);
+
+  /**
+   * Löschen sämtlicher Ab- und Zu-Buchungen eines Kontos.
+   *
+   * @param a das Konto
+   * @return die Anzahl der gelöschten Buchungen oder -1 bei einem Fehler
+   */
+  int deleteTransactionsOf(Account a);
+
+  /**
+   * Löschen sämtlicher Ab- und Zu-Buchungen aller Konten eines Kunden.
+   *
+   * @param c der Kunde
+   * @return die Anzahl der gelöschten Buchungen oder -1 bei einem Fehler
+   */
+  int deleteTransactionsOf(Customer c);
+}
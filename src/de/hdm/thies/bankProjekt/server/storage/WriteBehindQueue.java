@@ -0,0 +1,585 @@
+package de.hdm.thies.bankProjekt.server.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+import de.hdm.thies.bankProjekt.server.ServersideSettings;
+import de.hdm.thies.bankProjekt.shared.bo.Transaction;
+
+/**
+ * <p>
+ * Warteschlange für das verzögerte Speichern von Buchungen
+ * (<em>Write-Behind</em>). Beliebig viele Threads stellen Buchungen ein, ein
+ * eigener Schreib-Thread entnimmt sie und speichert sie blockweise mittels
+ * {@link TransactionStorage#insertBatch(java.util.List)}. Der Aufrufer wartet
+ * also nicht auf die Datenbank; eine Buchung ist erst gespeichert, wenn
+ * {@link #awaitPersisted(long, long)} bzw. {@link #flush(long)} dies mit
+ * <code>true</code> bestätigt.
+ * </p>
+ * <p>
+ * Die Warteschlange ist ein Ringpuffer fester Größe ohne Sperren: Einstellende
+ * Threads reservieren ihren Platz per <em>Compare-and-Set</em> auf dem Ende
+ * der Warteschlange, nur der Schreib-Thread verändert deren Anfang. Ein Platz
+ * wird erst frei, wenn seine Buchung gespeichert ist. Ist die Warteschlange
+ * voll, warten einstellende Threads, bis wieder Platz ist
+ * (<em>Backpressure</em>), höchstens jedoch
+ * <code>bankprojekt.writeBehind.offerTimeout</code> ms.
+ * </p>
+ * <p>
+ * Scheitert das Speichern eines Blocks, werden dessen Buchungen einzeln
+ * gespeichert. Buchungen, die auch einzeln nicht gespeichert werden können,
+ * werden verworfen und protokolliert. Ihre laufenden Nummern werden vermerkt,
+ * so dass {@link #awaitPersisted(long, long)} und {@link #flush(long)} für sie
+ * <code>false</code> liefern. Scheitern sämtliche Buchungen, gilt die
+ * Datenbank als nicht erreichbar und der Block wird später erneut versucht.
+ * Scheitert auch der {@link #MAX_RETRIES}-te Versuch, wird die erste Buchung
+ * des Blocks verworfen, damit eine nie speicherbare Buchung die
+ * nachfolgenden nicht dauerhaft aufhält.
+ * </p>
+ * <p>
+ * Konfiguriert wird die Warteschlange über die System Properties
+ * <code>bankprojekt.writeBehind.capacity</code>,
+ * <code>bankprojekt.writeBehind.batchSize</code> und
+ * <code>bankprojekt.writeBehind.offerTimeout</code>. Da sie einen eigenen
+ * Thread benötigt, steht sie in der App Engine nicht zur Verfügung.
+ * </p>
+ *
+ * @see de.hdm.thies.bankProjekt.server.BankAdministrationImpl#createTransactionFor
+ * @author Thies
+ */
+public class WriteBehindQueue {
+
+  /**
+   * Die Klasse WriteBehindQueue wird nur einmal instantiiert. Man spricht
+   * hierbei von einem sogenannten <b>Singleton</b>.
+   *
+   * @see writeBehindQueue()
+   */
+  private static WriteBehindQueue writeBehindQueue = null;
+
+  /**
+   * Wartezeit eines einstellenden Threads bei voller Warteschlange, bevor er
+   * erneut prüft, in ns.
+   */
+  private static final long FULL_WAIT = 100000L;
+
+  /**
+   * Höchste Wartezeit des Schreib-Threads bei leerer Warteschlange in ns.
+   */
+  private static final long IDLE_WAIT = 50000000L;
+
+  /**
+   * Wartezeit des Schreib-Threads, wenn die Datenbank nicht erreichbar ist,
+   * in ms.
+   */
+  private static final long RETRY_WAIT = 1000L;
+
+  /**
+   * Höchstanzahl der gescheiterten Versuche für die erste Buchung der
+   * Warteschlange, bevor sie verworfen wird.
+   */
+  private static final int MAX_RETRIES = 60;
+
+  /**
+   * Höchstanzahl der vermerkten laufenden Nummern verworfener Buchungen. Ist
+   * sie erreicht, werden die ältesten Einträge vergessen.
+   */
+  private static final int DROPPED_LIMIT = 65536;
+
+  private final TransactionStorage storage;
+
+  private final AtomicReferenceArray<Transaction> slots;
+
+  private final int mask;
+
+  private final int batchSize;
+
+  /**
+   * Höchste Wartezeit bei voller Warteschlange in ms.
+   */
+  private final long offerTimeout;
+
+  /**
+   * Laufende Nummer der zuletzt eingestellten Buchung. Wird von den
+   * einstellenden Threads per Compare-and-Set erhöht.
+   */
+  private final AtomicLong tail = new AtomicLong();
+
+  /**
+   * Laufende Nummer der zuletzt verarbeiteten Buchung. Wird nur vom
+   * Schreib-Thread verändert.
+   */
+  private volatile long head = 0;
+
+  private final Thread writer;
+
+  /**
+   * Wartet der Schreib-Thread auf neue Buchungen?
+   */
+  private volatile boolean idle = false;
+
+  /**
+   * Anzahl der Threads in {@link #awaitPersisted(long, long)}.
+   */
+  private final AtomicInteger waiters = new AtomicInteger();
+
+  private final Object persistedMonitor = new Object();
+
+  /**
+   * Anzahl der gescheiterten Versuche für die erste Buchung der
+   * Warteschlange. Wird nur vom Schreib-Thread verändert.
+   */
+  private int retries = 0;
+
+  /**
+   * Laufende Nummern der verworfenen Buchungen, höchstens
+   * {@link #DROPPED_LIMIT} Einträge. Wird nur vom Schreib-Thread verändert.
+   */
+  private final ConcurrentSkipListSet<Long> droppedSeqs =
+      new ConcurrentSkipListSet<Long>();
+
+  /*
+   * Kennzahlen, sie werden nur vom Schreib-Thread verändert.
+   */
+  private volatile long persisted = 0;
+
+  private volatile long dropped = 0;
+
+  private volatile long batches = 0;
+
+  private volatile int lastBatchSize = 0;
+
+  private volatile int maxBatchSize = 0;
+
+  private volatile double drainRate = 0.0;
+
+  private long windowStart = 0;
+
+  private long windowCount = 0;
+
+  private boolean measured = false;
+
+  /**
+   * Anzahl der Aufrufe, die wegen voller Warteschlange warten mussten.
+   */
+  private final AtomicLong fullWaits = new AtomicLong();
+
+  /**
+   * Anlegen einer Warteschlange vor dem angegebenen Speicher. Der
+   * Schreib-Thread wird sofort gestartet.
+   *
+   * @param storage der Speicher für Buchungen
+   * @param capacity Höchstanzahl der nicht gespeicherten Buchungen, wird auf
+   *          die nächste Zweierpotenz aufgerundet
+   * @param batchSize Höchstanzahl der gemeinsam gespeicherten Buchungen
+   * @param offerTimeout höchste Wartezeit bei voller Warteschlange in ms
+   */
+  public WriteBehindQueue(TransactionStorage storage, int capacity,
+      int batchSize, long offerTimeout) {
+    int size = 2;
+    while (size < capacity) {
+      size <<= 1;
+    }
+
+    this.storage = storage;
+    this.slots = new AtomicReferenceArray<Transaction>(size);
+    this.mask = size - 1;
+    this.batchSize = Math.max(1, batchSize);
+    this.offerTimeout = offerTimeout;
+
+    writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        drainLoop();
+      }
+    }, "WriteBehindQueue");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Diese statische Methode kann aufgrufen werden durch
+   * <code>WriteBehindQueue.writeBehindQueue()</code>. Sie liefert die
+   * Warteschlange vor dem {@link StorageFactory#storage() Speicher-Backend}
+   * der Applikation, sofern sie mit
+   * <code>bankprojekt.writeBehind.enabled</code> eingeschaltet ist.
+   *
+   * @return DAS <code>WriteBehindQueue</code>-Objekt oder <code>null</code>,
+   *         wenn Buchungen sofort gespeichert werden
+   */
+  public static synchronized WriteBehindQueue writeBehindQueue() {
+    if (writeBehindQueue == null
+        && ServersideSettings.getBooleanProperty(
+            "bankprojekt.writeBehind.enabled", false)) {
+      writeBehindQueue = new WriteBehindQueue(StorageFactory.storage()
+          .transactions(), ServersideSettings.getIntProperty(
+          "bankprojekt.writeBehind.capacity", 65536), ServersideSettings
+          .getIntProperty("bankprojekt.writeBehind.batchSize", 500),
+          ServersideSettings.getLongProperty(
+              "bankprojekt.writeBehind.offerTimeout", 5000));
+
+      ServersideSettings.getLogger().info(
+          "Buchungen werden verzögert gespeichert (Write-Behind).");
+    }
+
+    return writeBehindQueue;
+  }
+
+  /**
+   * Einstellen einer Buchung. Ist die Warteschlange voll, wartet die Methode,
+   * bis der Schreib-Thread Platz geschaffen hat.
+   *
+   * @param t die zu speichernde Buchung. Sie wird kopiert; ihr
+   *          Primärschlüssel wird erst beim Speichern vergeben.
+   * @return die laufende Nummer der Buchung für
+   *         {@link #awaitPersisted(long, long)}
+   * @throws IllegalArgumentException wenn die Warteschlange auch nach
+   *           <code>bankprojekt.writeBehind.offerTimeout</code> ms noch voll
+   *           ist
+   */
+  public long enqueue(Transaction t) throws IllegalArgumentException {
+    Transaction copy = new Transaction();
+    copy.setSourceAccountID(t.getSourceAccountID());
+    copy.setTargetAccountID(t.getTargetAccountID());
+    copy.setAmount(t.getAmount());
+
+    long deadline = System.currentTimeMillis() + offerTimeout;
+    boolean waited = false;
+
+    for (;;) {
+      long pos = tail.get();
+
+      if (pos - head > mask) {
+        // Voll: warten, bis der Schreib-Thread Buchungen gespeichert hat
+        if (!waited) {
+          fullWaits.incrementAndGet();
+          waited = true;
+        }
+        if (System.currentTimeMillis() > deadline) {
+          throw new IllegalArgumentException(
+              "Die Warteschlange für Buchungen ist voll.");
+        }
+        LockSupport.unpark(writer);
+        LockSupport.parkNanos(FULL_WAIT);
+        continue;
+      }
+
+      if (tail.compareAndSet(pos, pos + 1)) {
+        slots.set((int) pos & mask, copy);
+        if (idle) {
+          LockSupport.unpark(writer);
+        }
+        return pos + 1;
+      }
+    }
+  }
+
+  /**
+   * Warten, bis die Buchung mit der laufenden Nummer <code>seq</code>
+   * gespeichert ist.
+   *
+   * @param seq laufende Nummer aus {@link #enqueue(Transaction)}
+   * @param timeout höchste Wartezeit in ms
+   * @return <code>true</code>, wenn die Buchung gespeichert ist,
+   *         <code>false</code>, wenn sie nicht rechtzeitig verarbeitet oder
+   *         verworfen wurde
+   */
+  public boolean awaitPersisted(long seq, long timeout) {
+    return awaitProcessed(seq, timeout)
+        && !droppedSeqs.contains(Long.valueOf(seq));
+  }
+
+  /**
+   * Warten, bis sämtliche Buchungen bis einschließlich der laufenden Nummer
+   * <code>seq</code> verarbeitet, d.h. gespeichert oder verworfen sind. Ein
+   * danach gelesener Kontostand enthält also alle gespeicherten Buchungen bis
+   * zu dieser Nummer.
+   *
+   * @param seq laufende Nummer aus {@link #enqueue(Transaction)}
+   * @param timeout höchste Wartezeit in ms
+   * @return <code>true</code>, wenn die Buchungen verarbeitet sind
+   */
+  public boolean awaitProcessed(long seq, long timeout) {
+    if (head >= seq) {
+      return true;
+    }
+
+    long deadline = System.currentTimeMillis() + timeout;
+    waiters.incrementAndGet();
+    try {
+      synchronized (persistedMonitor) {
+        while (head < seq) {
+          long wait = deadline - System.currentTimeMillis();
+          if (wait <= 0) {
+            return false;
+          }
+          persistedMonitor.wait(wait);
+        }
+      }
+      return true;
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    finally {
+      waiters.decrementAndGet();
+    }
+  }
+
+  /**
+   * Warten, bis sämtliche bisher eingestellten Buchungen verarbeitet sind.
+   *
+   * @param timeout höchste Wartezeit in ms
+   * @return <code>true</code>, wenn die Buchungen gespeichert sind,
+   *         <code>false</code>, wenn sie nicht rechtzeitig verarbeitet wurden
+   *         oder eine der bei Aufruf noch nicht verarbeiteten Buchungen
+   *         verworfen wurde
+   */
+  public boolean flush(long timeout) {
+    long from = head;
+    long to = tail.get();
+    return awaitProcessed(to, timeout)
+        && droppedSeqs.subSet(Long.valueOf(from + 1), Long.valueOf(to + 1))
+            .isEmpty();
+  }
+
+  /*
+   * ***************************************************************************
+   * ABSCHNITT, Beginn: Schreib-Thread
+   * ***************************************************************************
+   */
+
+  private void drainLoop() {
+    ArrayList<Transaction> batch = new ArrayList<Transaction>(batchSize);
+
+    for (;;) {
+      long h = head;
+      batch.clear();
+
+      while (batch.size() < batchSize) {
+        // Ein Platz ist evtl. schon reserviert, aber noch nicht befüllt
+        Transaction t = slots.get((int) (h + batch.size()) & mask);
+        if (t == null) {
+          break;
+        }
+        batch.add(t);
+      }
+
+      if (batch.isEmpty()) {
+        idle = true;
+        if (slots.get((int) h & mask) == null) {
+          LockSupport.parkNanos(IDLE_WAIT);
+        }
+        idle = false;
+        continue;
+      }
+
+      long started = System.currentTimeMillis();
+      int processed;
+      try {
+        processed = store(batch, h);
+      }
+      catch (RuntimeException e) {
+        ServersideSettings.getLogger().log(Level.SEVERE,
+            batch.size() + " Buchungen konnten nicht gespeichert werden.", e);
+        processed = 0;
+      }
+
+      if (processed == 0) {
+        if (++retries < MAX_RETRIES) {
+          try {
+            Thread.sleep(RETRY_WAIT);
+          }
+          catch (InterruptedException e) {
+            return;
+          }
+          continue;
+        }
+
+        // Die erste Buchung hält die Warteschlange auf
+        ServersideSettings.getLogger().severe(
+            "Buchung " + (h + 1) + " nach " + retries
+                + " Versuchen verworfen: " + batch.get(0));
+        drop(h + 1);
+        processed = 1;
+      }
+      retries = 0;
+
+      // Plätze freigeben, erst danach den Anfang verschieben
+      for (int i = 0; i < processed; i++) {
+        slots.set((int) (h + i) & mask, null);
+      }
+      head = h + processed;
+      record(processed, started);
+
+      if (waiters.get() > 0) {
+        synchronized (persistedMonitor) {
+          persistedMonitor.notifyAll();
+        }
+      }
+    }
+  }
+
+  /**
+   * Speichern eines Blocks, notfalls Buchung für Buchung.
+   *
+   * @param batch die Buchungen
+   * @param h laufende Nummer der Buchung vor dem Block
+   * @return die Anzahl der verarbeiteten Buchungen, d.h. die Größe des
+   *         Blocks, oder 0, wenn der Block später erneut versucht werden soll
+   */
+  private int store(ArrayList<Transaction> batch, long h) {
+    if (storage.insertBatch(batch) != null) {
+      persisted += batch.size();
+      return batch.size();
+    }
+
+    int stored = 0;
+    ArrayList<Long> rejected = new ArrayList<Long>();
+    for (int i = 0; i < batch.size(); i++) {
+      if (storage.insertBatch(Collections.singletonList(batch.get(i))) != null) {
+        stored++;
+      }
+      else {
+        rejected.add(Long.valueOf(h + i + 1));
+      }
+    }
+
+    if (stored == 0) {
+      ServersideSettings.getLogger().warning(
+          batch.size() + " Buchungen konnten nicht gespeichert werden, "
+              + "neuer Versuch in " + RETRY_WAIT + " ms.");
+      return 0;
+    }
+
+    for (Long seq : rejected) {
+      ServersideSettings.getLogger().severe(
+          "Buchung " + seq + " verworfen, da nicht speicherbar: "
+              + batch.get((int) (seq.longValue() - h - 1)));
+      drop(seq.longValue());
+    }
+    persisted += stored;
+    return batch.size();
+  }
+
+  /**
+   * Vermerken einer verworfenen Buchung.
+   *
+   * @param seq laufende Nummer der Buchung
+   */
+  private void drop(long seq) {
+    droppedSeqs.add(Long.valueOf(seq));
+    if (droppedSeqs.size() > DROPPED_LIMIT) {
+      droppedSeqs.pollFirst();
+    }
+    dropped++;
+  }
+
+  private void record(int size, long started) {
+    if (batches++ == 0) {
+      windowStart = started;
+    }
+    lastBatchSize = size;
+    maxBatchSize = Math.max(maxBatchSize, size);
+
+    windowCount += size;
+    long now = System.currentTimeMillis();
+    if (now - windowStart >= 1000) {
+      drainRate = windowCount * 1000.0 / (now - windowStart);
+      windowStart = now;
+      windowCount = 0;
+      measured = true;
+    }
+    else if (!measured) {
+      // Vorläufiger Wert bis zum Ende der ersten Sekunde
+      drainRate = windowCount * 1000.0 / Math.max(1, now - windowStart);
+    }
+  }
+
+  /*
+   * ***************************************************************************
+   * ABSCHNITT, Ende: Schreib-Thread
+   * ***************************************************************************
+   */
+
+  /**
+   * Anzahl der eingestellten, noch nicht verarbeiteten Buchungen.
+   */
+  public int getDepth() {
+    return (int) (tail.get() - head);
+  }
+
+  /**
+   * Höchstanzahl der nicht verarbeiteten Buchungen.
+   */
+  public int getCapacity() {
+    return mask + 1;
+  }
+
+  /**
+   * Anzahl der gespeicherten Buchungen seit dem Start.
+   */
+  public long getPersistedCount() {
+    return persisted;
+  }
+
+  /**
+   * Anzahl der verworfenen Buchungen seit dem Start.
+   */
+  public long getDroppedCount() {
+    return dropped;
+  }
+
+  /**
+   * Verarbeitete Buchungen je Sekunde, gemessen über die letzte volle Sekunde
+   * mit Buchungen.
+   */
+  public double getDrainRate() {
+    return drainRate;
+  }
+
+  /**
+   * Durchschnittliche Anzahl der Buchungen je gespeichertem Block.
+   */
+  public double getAverageBatchSize() {
+    long b = batches;
+    return b == 0 ? 0.0 : (double) head / b;
+  }
+
+  public int getLastBatchSize() {
+    return lastBatchSize;
+  }
+
+  public int getMaxBatchSize() {
+    return maxBatchSize;
+  }
+
+  /**
+   * Anzahl der Aufrufe von {@link #enqueue(Transaction)}, die wegen voller
+   * Warteschlange warten mussten.
+   */
+  public long getFullWaits() {
+    return fullWaits.get();
+  }
+
+  /**
+   * Kennzahlen der Warteschlange für die Überwachung.
+   */
+  @Override
+  public String toString() {
+    return "Write-Behind: Tiefe " + getDepth() + "/" + getCapacity()
+        + ", gespeichert " + getPersistedCount() + ", verworfen "
+        + getDroppedCount() + ", " + Math.round(getDrainRate())
+        + " Buchungen/s, Blockgröße Ø "
+        + Math.round(getAverageBatchSize() * 10) / 10.0 + " (zuletzt "
+        + getLastBatchSize() + ", max. " + getMaxBatchSize()
+        + "), gewartet " + getFullWaits() + "x";
+  }
+}
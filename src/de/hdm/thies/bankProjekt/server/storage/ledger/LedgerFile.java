@@ -0,0 +1,310 @@
+package de.hdm.thies.bankProjekt.server.storage.ledger;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import de.hdm.thies.bankProjekt.server.ServersideSettings;
+
+/**
+ * <p>
+ * Eine Folge von Datensätzen fester Länge, die ausschließlich angefügt und nie
+ * überschrieben werden. Die Datensätze liegen in Segmentdateien gleicher
+ * Größe (<code>ledger-00000000.seg</code>, <code>ledger-00000001.seg</code>,
+ * ...), die vollständig in den Speicher abgebildet werden
+ * (<em>memory-mapped</em>). Ist ein Segment voll, wird das nächste angelegt.
+ * Lesen und Schreiben erfolgen damit ohne Systemaufrufe direkt im
+ * Seitencache des Betriebssystems.
+ * </p>
+ * <p>
+ * Jeder Datensatz umfasst {@value #RECORD_SIZE} Bytes:
+ * </p>
+ * <pre>
+ *  0  int   Art ({@link #POSTING} oder {@link #TOMBSTONE}), 0 = frei
+ *  4  int   Primärschlüssel der Buchung
+ *  8  int   Quellkonto
+ * 12  int   Zielkonto
+ * 16  float Betrag
+ * 20  long  Zeitpunkt des Schreibens in ms
+ * 28  int   Prüfsumme über die vorigen Felder
+ * </pre>
+ * <p>
+ * Die Prüfsumme wird zuletzt geschrieben. Bricht das Schreiben ab, etwa durch
+ * einen Absturz, so passt sie nicht zum Inhalt. Beim Öffnen wird ein solcher
+ * unvollständiger Datensatz am Ende abgeschnitten. Ein fehlerhafter Datensatz
+ * mitten in der Folge gilt dagegen als Beschädigung.
+ * </p>
+ * <p>
+ * Die Klasse ist nicht threadsicher. Lesende Zugriffe auf bereits
+ * geschriebene Datensätze dürfen jedoch parallel erfolgen, solange das
+ * Anfügen durch eine Sperre abgesichert ist.
+ * </p>
+ *
+ * @see LedgerTransactionStorage
+ * @author Thies
+ */
+class LedgerFile {
+
+  static final int RECORD_SIZE = 32;
+
+  /**
+   * Art eines Datensatzes: Speichern einer Buchung. Ein späterer Datensatz mit
+   * demselben Primärschlüssel ersetzt einen früheren.
+   */
+  static final int POSTING = 1;
+
+  /**
+   * Art eines Datensatzes: Löschen einer Buchung.
+   */
+  static final int TOMBSTONE = 2;
+
+  private static final String PREFIX = "ledger-";
+
+  private static final String SUFFIX = ".seg";
+
+  private final File directory;
+
+  private final int recordsPerSegment;
+
+  private final ArrayList<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+
+  /**
+   * Anzahl der geschriebenen Datensätze und damit Nummer des nächsten.
+   */
+  private int size = 0;
+
+  /**
+   * Öffnen bzw. Anlegen einer Folge. Vorhandene Segmente werden abgebildet
+   * und geprüft.
+   *
+   * @param directory das Verzeichnis der Segmentdateien
+   * @param segmentSize Größe eines Segments in Bytes
+   * @throws IOException wenn die Segmente nicht geöffnet werden können oder
+   *           beschädigt sind
+   */
+  LedgerFile(File directory, long segmentSize) throws IOException {
+    this.directory = directory;
+    this.recordsPerSegment = (int) Math.min(Integer.MAX_VALUE / RECORD_SIZE,
+        Math.max(1, segmentSize / RECORD_SIZE));
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Verzeichnis " + directory
+          + " kann nicht angelegt werden.");
+    }
+
+    String[] names = directory.list(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+      }
+    });
+    Arrays.sort(names);
+
+    for (int i = 0; i < names.length; i++) {
+      if (!names[i].equals(segmentName(i))) {
+        throw new IOException("Segment " + segmentName(i) + " fehlt in "
+            + directory);
+      }
+      segments.add(map(i));
+    }
+
+    recover();
+  }
+
+  /**
+   * Ermitteln des Endes der Folge. Ein unvollständiger Datensatz am Ende wird
+   * dabei gelöscht.
+   */
+  private void recover() throws IOException {
+    int total = segments.size() * recordsPerSegment;
+
+    for (int record = 0; record < total; record++) {
+      if (type(record) == 0) {
+        size = record;
+        break;
+      }
+
+      if (!isValid(record)) {
+        // Nur der letzte Datensatz darf unvollständig sein.
+        if (record + 1 < total && type(record + 1) != 0) {
+          throw new IOException("Datensatz " + record + " in " + directory
+              + " ist beschädigt.");
+        }
+
+        ServersideSettings.getLogger().warning(
+            "Unvollständiger Datensatz " + record + " in " + directory
+                + " wird abgeschnitten.");
+        clear(record);
+        size = record;
+        break;
+      }
+
+      size = record + 1;
+    }
+
+    // Alle Segmente vor dem letzten müssen vollständig gefüllt sein.
+    if (size < total - recordsPerSegment) {
+      throw new IOException("Lücke nach Datensatz " + size + " in "
+          + directory + ".");
+    }
+  }
+
+  /**
+   * Sicherstellen, dass die nächsten <code>count</code> Datensätze ohne
+   * Anlegen weiterer Segmente geschrieben werden können. Danach kann
+   * {@link #append(int, int, int, int, float)} nicht mehr scheitern.
+   *
+   * @param count Anzahl der zu schreibenden Datensätze
+   * @throws IOException wenn ein Segment nicht angelegt werden kann
+   */
+  void reserve(int count) throws IOException {
+    if ((long) size + count > Integer.MAX_VALUE) {
+      throw new IOException("Die Höchstanzahl an Datensätzen ist erreicht.");
+    }
+
+    while ((long) segments.size() * recordsPerSegment < (long) size + count) {
+      if (!segments.isEmpty()) {
+        // Das volle Segment wird vor dem Anlegen des nächsten gesichert.
+        segments.get(segments.size() - 1).force();
+      }
+      segments.add(map(segments.size()));
+    }
+  }
+
+  /**
+   * Anfügen eines Datensatzes. Zuvor muss mittels {@link #reserve(int)}
+   * ausreichend Platz geschaffen worden sein.
+   *
+   * @return die Nummer des Datensatzes
+   */
+  int append(int type, int id, int source, int target, float amount) {
+    int record = size;
+    MappedByteBuffer segment = segments.get(record / recordsPerSegment);
+    int offset = (record % recordsPerSegment) * RECORD_SIZE;
+    long timestamp = System.currentTimeMillis();
+
+    segment.putInt(offset + 4, id);
+    segment.putInt(offset + 8, source);
+    segment.putInt(offset + 12, target);
+    segment.putFloat(offset + 16, amount);
+    segment.putLong(offset + 20, timestamp);
+    segment.putInt(offset, type);
+    // Die Prüfsumme zuletzt, sie schließt den Datensatz ab
+    segment.putInt(offset + 28, checksum(type, id, source, target,
+        Float.floatToRawIntBits(amount), timestamp));
+
+    size++;
+    return record;
+  }
+
+  /**
+   * Schreiben aller Änderungen auf den Datenträger.
+   */
+  void force() {
+    if (!segments.isEmpty()) {
+      segments.get((Math.max(0, size - 1)) / recordsPerSegment).force();
+    }
+  }
+
+  int size() {
+    return size;
+  }
+
+  int segmentCount() {
+    return segments.size();
+  }
+
+  int type(int record) {
+    return segment(record).getInt(offset(record));
+  }
+
+  int id(int record) {
+    return segment(record).getInt(offset(record) + 4);
+  }
+
+  int source(int record) {
+    return segment(record).getInt(offset(record) + 8);
+  }
+
+  int target(int record) {
+    return segment(record).getInt(offset(record) + 12);
+  }
+
+  float amount(int record) {
+    return segment(record).getFloat(offset(record) + 16);
+  }
+
+  long timestamp(int record) {
+    return segment(record).getLong(offset(record) + 20);
+  }
+
+  private boolean isValid(int record) {
+    MappedByteBuffer segment = segment(record);
+    int offset = offset(record);
+
+    return segment.getInt(offset + 28) == checksum(segment.getInt(offset),
+        segment.getInt(offset + 4), segment.getInt(offset + 8),
+        segment.getInt(offset + 12), segment.getInt(offset + 16),
+        segment.getLong(offset + 20));
+  }
+
+  private void clear(int record) {
+    MappedByteBuffer segment = segment(record);
+    int offset = offset(record);
+    for (int i = 0; i < RECORD_SIZE; i += 4) {
+      segment.putInt(offset + i, 0);
+    }
+    segment.force();
+  }
+
+  private MappedByteBuffer segment(int record) {
+    return segments.get(record / recordsPerSegment);
+  }
+
+  private int offset(int record) {
+    return (record % recordsPerSegment) * RECORD_SIZE;
+  }
+
+  private String segmentName(int index) {
+    return PREFIX + String.format("%08d", Integer.valueOf(index)) + SUFFIX;
+  }
+
+  /**
+   * Abbilden eines Segments in den Speicher. Eine neue Segmentdatei wird dabei
+   * auf ihre volle Größe gebracht und ist mit Nullen gefüllt.
+   */
+  private MappedByteBuffer map(int index) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(new File(directory,
+        segmentName(index)), "rw");
+    try {
+      // Die Abbildung bleibt auch nach dem Schließen der Datei gültig.
+      return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+          (long) recordsPerSegment * RECORD_SIZE);
+    }
+    finally {
+      file.close();
+    }
+  }
+
+  /**
+   * Prüfsumme (FNV-1a über die einzelnen Felder). Sie ist nie 0, so dass ein
+   * mit Nullen gefüllter Datensatz nie gültig ist.
+   */
+  private static int checksum(int type, int id, int source, int target,
+      int amountBits, long timestamp) {
+    int h = 0x811C9DC5;
+    h = (h ^ type) * 0x01000193;
+    h = (h ^ id) * 0x01000193;
+    h = (h ^ source) * 0x01000193;
+    h = (h ^ target) * 0x01000193;
+    h = (h ^ amountBits) * 0x01000193;
+    h = (h ^ (int) timestamp) * 0x01000193;
+    h = (h ^ (int) (timestamp >>> 32)) * 0x01000193;
+    return h == 0 ? 1 : h;
+  }
+}
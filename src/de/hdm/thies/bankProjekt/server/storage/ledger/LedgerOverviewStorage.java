@@ -0,0 +1,141 @@
+package de.hdm.thies.bankProjekt.server.storage.ledger;
+
+import java.util.HashMap;
+import java.util.Vector;
+
+import de.hdm.thies.bankProjekt.server.storage.AccountStorage;
+import de.hdm.thies.bankProjekt.server.storage.BalanceStorage;
+import de.hdm.thies.bankProjekt.server.storage.CustomerStorage;
+import de.hdm.thies.bankProjekt.server.storage.ObjectHandler;
+import de.hdm.thies.bankProjekt.server.storage.OverviewStorage;
+import de.hdm.thies.bankProjekt.shared.bo.Account;
+import de.hdm.thies.bankProjekt.shared.bo.AccountSummary;
+import de.hdm.thies.bankProjekt.shared.bo.Customer;
+import de.hdm.thies.bankProjekt.shared.bo.CustomerTree;
+
+/**
+ * Übersichten über Konten, Kunden und Kontostände des {@link LedgerStorage}.
+ * Konten und Kunden liegen in der Datenbank, die Kontostände im Journal. Eine
+ * gemeinsame Anfrage ist daher nicht möglich; stattdessen wird je Seite mit
+ * einem einzigen Aufruf je Speicher gelesen.
+ *
+ * @see LedgerStorage
+ * @author Thies
+ */
+class LedgerOverviewStorage implements OverviewStorage {
+
+  /**
+   * Anzahl der Zusammenfassungen, die bei
+   * {@link #forEachSummary(ObjectHandler)} je Seite gelesen werden.
+   */
+  private static final int CHUNK_SIZE = 1000;
+
+  private final CustomerStorage customers;
+
+  private final AccountStorage accounts;
+
+  private final BalanceStorage balances;
+
+  LedgerOverviewStorage(CustomerStorage customers, AccountStorage accounts,
+      BalanceStorage balances) {
+    this.customers = customers;
+    this.accounts = accounts;
+    this.balances = balances;
+  }
+
+  /**
+   * Auslesen der Kontozusammenfassungen. Konten werden seitenweise aus dem
+   * Kontospeicher gelesen, die Inhaber einer Seite mit einem einzigen
+   * {@link CustomerStorage#findByKeys(int[])} und ihre Kontostände mit einem
+   * einzigen {@link BalanceStorage#findByAccounts(int[])}.
+   */
+  @Override
+  public Vector<AccountSummary> findSummaries(int afterId, int limit) {
+    Vector<Account> page = accounts.findPage(afterId, limit);
+    int[] ownerIDs = new int[page.size()];
+    int[] accountIDs = new int[page.size()];
+    for (int i = 0; i < page.size(); i++) {
+      ownerIDs[i] = page.elementAt(i).getOwnerID();
+      accountIDs[i] = page.elementAt(i).getId();
+    }
+    HashMap<Integer, Customer> owners = customers.findByKeys(ownerIDs);
+    HashMap<Integer, Double> amounts = balances.findByAccounts(accountIDs);
+    if (owners == null || amounts == null) {
+      return null;
+    }
+
+    Vector<AccountSummary> result = new Vector<AccountSummary>(page.size());
+    for (Account a : page) {
+      Customer owner = owners.get(Integer.valueOf(a.getOwnerID()));
+      Double balance = amounts.get(Integer.valueOf(a.getId()));
+
+      AccountSummary s = new AccountSummary();
+      s.setAccountID(a.getId());
+      s.setOwnerID(a.getOwnerID());
+      if (owner != null) {
+        s.setOwnerFirstName(owner.getFirstName());
+        s.setOwnerLastName(owner.getLastName());
+      }
+      s.setBalance(balance == null ? 0.0f : balance.floatValue());
+      result.addElement(s);
+    }
+
+    return result;
+  }
+
+  @Override
+  public int forEachSummary(ObjectHandler<AccountSummary> handler) {
+    int count = 0;
+    int afterId = 0;
+
+    for (;;) {
+      Vector<AccountSummary> chunk = findSummaries(afterId, CHUNK_SIZE);
+      if (chunk == null) {
+        return count;
+      }
+      for (AccountSummary s : chunk) {
+        handler.handle(s);
+        count++;
+      }
+      if (chunk.size() < CHUNK_SIZE) {
+        return count;
+      }
+      afterId = chunk.lastElement().getAccountID();
+    }
+  }
+
+  /**
+   * Auslesen einer Seite des Kunden- und Kontenbaums. Die Konten werden je
+   * Kunde aus dem Kontospeicher gelesen, ihre Kontostände anschließend mit
+   * einem einzigen {@link BalanceStorage#findByAccounts(int[])}.
+   */
+  @Override
+  public CustomerTree findTree(String afterLastName, int afterId, int limit) {
+    Vector<Customer> page = customers.findPageByLastName(afterLastName,
+        afterId, limit);
+    Vector<Account> owned = new Vector<Account>();
+    int[] firstAccount = new int[page.size() + 1];
+    for (int i = 0; i < page.size(); i++) {
+      firstAccount[i] = owned.size();
+      owned.addAll(accounts.findByOwner(page.elementAt(i)));
+    }
+    firstAccount[page.size()] = owned.size();
+
+    int[] accountIDs = new int[owned.size()];
+    for (int i = 0; i < accountIDs.length; i++) {
+      accountIDs[i] = owned.elementAt(i).getId();
+    }
+    HashMap<Integer, Double> amounts = balances.findByAccounts(accountIDs);
+    if (amounts == null) {
+      return null;
+    }
+
+    float[] b = new float[accountIDs.length];
+    for (int i = 0; i < b.length; i++) {
+      Double balance = amounts.get(Integer.valueOf(accountIDs[i]));
+      b[i] = balance == null ? 0.0f : balance.floatValue();
+    }
+
+    return new CustomerTree(page, owned, b, firstAccount);
+  }
+}
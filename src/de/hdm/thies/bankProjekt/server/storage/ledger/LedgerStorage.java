@@ -0,0 +1,123 @@
+package de.hdm.thies.bankProjekt.server.storage.ledger;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+
+import de.hdm.thies.bankProjekt.server.ServersideSettings;
+import de.hdm.thies.bankProjekt.server.db.JdbcStorage;
+import de.hdm.thies.bankProjekt.server.storage.*;
+
+/**
+ * <p>
+ * Speicher-Backend, das Buchungen und Kontostände in einem Journal aus
+ * Segmentdateien ({@link LedgerTransactionStorage}) führt. Kunden und Konten
+ * verbleiben in der Datenbank ({@link JdbcStorage}). Es wird mit der System
+ * Property <code>bankprojekt.storage=ledger</code> gewählt (siehe
+ * {@link StorageFactory}).
+ * </p>
+ * <p>
+ * Konfiguriert wird das Journal über folgende System Properties:
+ * </p>
+ * <ul>
+ * <li><code>bankprojekt.ledger.dir</code>: Verzeichnis der Segmentdateien,
+ * voreingestellt ist <code>ledger</code></li>
+ * <li><code>bankprojekt.ledger.segmentSize</code>: Größe eines Segments in
+ * Bytes, voreingestellt sind 64 MB</li>
+ * <li><code>bankprojekt.ledger.force</code>: Sollen Änderungen sofort auf den
+ * Datenträger geschrieben werden? Andernfalls übernimmt dies das
+ * Betriebssystem, und nach einem Absturz des Rechners können die letzten
+ * Buchungen fehlen.</li>
+ * </ul>
+ * <p>
+ * Änderungen am Journal sind nicht Teil der Datenbanktransaktionen von
+ * {@link #beginTransaction()}. Sie werden sofort wirksam und beim Zurückrollen
+ * nicht rückgängig gemacht. Zudem benötigt das Journal ein beschreibbares
+ * Dateisystem, das in der App Engine nicht zur Verfügung steht. Das Backend
+ * ist daher für den Betrieb auf einem eigenen Server gedacht.
+ * </p>
+ *
+ * @author Thies
+ */
+public class LedgerStorage implements Storage {
+
+  private final JdbcStorage jdbc = JdbcStorage.jdbcStorage();
+
+  private final LedgerTransactionStorage ledger;
+
+  private final LedgerOverviewStorage overviews;
+
+  /**
+   * Öffnen des konfigurierten Journals.
+   *
+   * @throws IOException wenn das Journal nicht geöffnet werden kann oder
+   *           beschädigt ist
+   */
+  public LedgerStorage() throws IOException {
+    File directory = new File(ServersideSettings.getProperty(
+        "bankprojekt.ledger.dir", "ledger"));
+    long segmentSize = ServersideSettings.getLongProperty(
+        "bankprojekt.ledger.segmentSize", 64L * 1024 * 1024);
+    boolean force = ServersideSettings.getBooleanProperty(
+        "bankprojekt.ledger.force", false);
+
+    this.ledger = new LedgerTransactionStorage(directory, segmentSize, force,
+        jdbc.accounts());
+    this.overviews = new LedgerOverviewStorage(jdbc.customers(),
+        jdbc.accounts(), ledger);
+  }
+
+  @Override
+  public CustomerStorage customers() {
+    return jdbc.customers();
+  }
+
+  @Override
+  public AccountStorage accounts() {
+    return jdbc.accounts();
+  }
+
+  @Override
+  public TransactionStorage transactions() {
+    return ledger;
+  }
+
+  @Override
+  public BalanceStorage balances() {
+    return ledger;
+  }
+
+  @Override
+  public OverviewStorage overviews() {
+    return overviews;
+  }
+
+  /**
+   * @see JdbcStorage#beginTransaction()
+   */
+  @Override
+  public void beginTransaction() throws SQLException {
+    jdbc.beginTransaction();
+  }
+
+  /**
+   * @see JdbcStorage#commitTransaction()
+   */
+  @Override
+  public void commitTransaction() throws SQLException {
+    jdbc.commitTransaction();
+  }
+
+  /**
+   * @see JdbcStorage#rollbackTransaction()
+   */
+  @Override
+  public void rollbackTransaction() {
+    jdbc.rollbackTransaction();
+  }
+
+  @Override
+  public String getStatistics() {
+    return jdbc.getStatistics() + "\n" + ledger;
+  }
+}
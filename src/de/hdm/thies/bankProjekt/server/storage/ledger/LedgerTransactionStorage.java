@@ -0,0 +1,758 @@
+package de.hdm.thies.bankProjekt.server.storage.ledger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+import de.hdm.thies.bankProjekt.server.ServersideSettings;
+import de.hdm.thies.bankProjekt.server.storage.AccountStorage;
+import de.hdm.thies.bankProjekt.server.storage.BalanceStorage;
+import de.hdm.thies.bankProjekt.server.storage.ObjectHandler;
+import de.hdm.thies.bankProjekt.server.storage.TransactionStorage;
+import de.hdm.thies.bankProjekt.server.storage.memory.IntList;
+import de.hdm.thies.bankProjekt.server.storage.memory.IntObjectHashMap;
+import de.hdm.thies.bankProjekt.shared.bo.Account;
+import de.hdm.thies.bankProjekt.shared.bo.Customer;
+import de.hdm.thies.bankProjekt.shared.bo.Transaction;
+
+/**
+ * <p>
+ * Speicher für Buchungen in einem {@link LedgerFile}. Jede Änderung wird als
+ * neuer Datensatz angefügt: Eine geänderte Buchung ersetzt ihre frühere
+ * Fassung, eine gelöschte wird durch einen Grabstein-Datensatz
+ * ({@link LedgerFile#TOMBSTONE}) beendet. Vorhandene Datensätze werden nie
+ * überschrieben.
+ * </p>
+ * <p>
+ * Im Hauptspeicher wird lediglich ein Index geführt: zu jedem Primärschlüssel
+ * die Nummer des gültigen Datensatzes, sowie zu jedem Konto die
+ * Primärschlüssel seiner Ab- und Zu-Buchungen und deren Summen. Die Abfragen
+ * je Konto lesen die Felder der Buchungen direkt aus den abgebildeten
+ * Segmenten, ohne die Datei zu durchlaufen. Der Index wird beim Öffnen durch
+ * einmaliges Lesen aller Datensätze aufgebaut.
+ * </p>
+ * <p>
+ * Die fortgeschriebenen Kontostände ergeben sich unmittelbar aus den Summen
+ * des Index, daher implementiert diese Klasse zugleich {@link BalanceStorage}.
+ * </p>
+ *
+ * @see LedgerStorage
+ * @author Thies
+ */
+public class LedgerTransactionStorage implements TransactionStorage,
+    BalanceStorage {
+
+  /**
+   * Abweichungen unterhalb dieses Betrags gelten bei {@link #verify()} als
+   * Rundungsfehler und nicht als Drift.
+   */
+  private static final double TOLERANCE = 0.005;
+
+  /**
+   * Sortierung nach dem Quellkonto, wie bei {@link #findAll()} der
+   * Datenbankanbindung.
+   */
+  private static final Comparator<Transaction> BY_SOURCE_ACCOUNT = new Comparator<Transaction>() {
+    @Override
+    public int compare(Transaction t1, Transaction t2) {
+      int s1 = t1.getSourceAccountID();
+      int s2 = t2.getSourceAccountID();
+      return s1 < s2 ? -1 : (s1 == s2 ? 0 : 1);
+    }
+  };
+
+  /**
+   * Anzahl der Buchungen, die bei {@link #forEach(ObjectHandler)} je
+   * Sperrvorgang gelesen werden.
+   */
+  private static final int CHUNK_SIZE = 1000;
+
+  /**
+   * Der Index eines Kontos. Die Listen enthalten die Primärschlüssel der
+   * Buchungen in aufsteigender Reihenfolge.
+   */
+  private static class AccountIndex {
+    final IntList debits = new IntList();
+
+    final IntList credits = new IntList();
+
+    double debitTotal = 0.0;
+
+    double creditTotal = 0.0;
+  }
+
+  private final LedgerFile file;
+
+  private final AccountStorage accounts;
+
+  /**
+   * Sollen Änderungen sofort auf den Datenträger geschrieben werden?
+   */
+  private final boolean force;
+
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private final Lock readLock = lock.readLock();
+
+  private final Lock writeLock = lock.writeLock();
+
+  /**
+   * Nummer des gültigen Datensatzes je Primärschlüssel, um 1 erhöht. 0 steht
+   * für eine nicht vorhandene Buchung.
+   */
+  private int[] positions = new int[1024];
+
+  /**
+   * Primärschlüssel aller vorhandenen Buchungen in aufsteigender Reihenfolge.
+   */
+  private final IntList ids = new IntList(1024);
+
+  private final IntObjectHashMap<AccountIndex> indexes = new IntObjectHashMap<AccountIndex>();
+
+  /**
+   * Der nächste zu vergebende Primärschlüssel.
+   */
+  private int nextId = 1;
+
+  /**
+   * Öffnen des Journals im angegebenen Verzeichnis und Aufbau des Index.
+   *
+   * @param directory das Verzeichnis der Segmentdateien
+   * @param segmentSize Größe eines Segments in Bytes
+   * @param force sollen Änderungen sofort auf den Datenträger geschrieben
+   *          werden?
+   * @param accounts der Speicher für Konten, benötigt für
+   *          {@link #deleteTransactionsOf(Customer)}
+   * @throws IOException wenn das Journal nicht geöffnet werden kann oder
+   *           beschädigt ist
+   */
+  public LedgerTransactionStorage(File directory, long segmentSize,
+      boolean force, AccountStorage accounts) throws IOException {
+    this.file = new LedgerFile(directory, segmentSize);
+    this.force = force;
+    this.accounts = accounts;
+
+    replay();
+
+    ServersideSettings.getLogger().info(
+        ids.size() + " Buchungen aus " + file.size() + " Datensätzen in "
+            + file.segmentCount() + " Segment(en) von " + directory
+            + " geladen.");
+  }
+
+  /**
+   * Aufbau des Index durch Lesen aller Datensätze in ihrer Reihenfolge.
+   */
+  private void replay() {
+    for (int record = 0; record < file.size(); record++) {
+      int id = file.id(record);
+      int old = position(id);
+
+      if (old >= 0) {
+        unindex(old);
+      }
+
+      if (file.type(record) == LedgerFile.POSTING) {
+        if (old < 0) {
+          ids.addSorted(id);
+        }
+        setPosition(id, record);
+        index(record);
+      }
+      else if (old >= 0) {
+        ids.removeSorted(id);
+        setPosition(id, -1);
+      }
+
+      nextId = Math.max(nextId, id + 1);
+    }
+  }
+
+  /**
+   * Nummer des gültigen Datensatzes einer Buchung oder -1.
+   */
+  private int position(int id) {
+    return id > 0 && id < positions.length ? positions[id] - 1 : -1;
+  }
+
+  private void setPosition(int id, int record) {
+    if (id >= positions.length) {
+      positions = Arrays.copyOf(positions, Math.max(id + 1,
+          positions.length << 1));
+    }
+    positions[id] = record + 1;
+  }
+
+  private AccountIndex index(int accountID, boolean create) {
+    AccountIndex i = indexes.get(accountID);
+    if (i == null && create) {
+      i = new AccountIndex();
+      indexes.put(accountID, i);
+    }
+    return i;
+  }
+
+  /**
+   * Vermerken eines Datensatzes im Index seines Quell- und Zielkontos.
+   */
+  private void index(int record) {
+    int id = file.id(record);
+    float amount = file.amount(record);
+
+    AccountIndex source = index(file.source(record), true);
+    source.debits.addSorted(id);
+    source.debitTotal += amount;
+
+    AccountIndex target = index(file.target(record), true);
+    target.credits.addSorted(id);
+    target.creditTotal += amount;
+  }
+
+  /**
+   * Entfernen eines Datensatzes aus dem Index seines Quell- und Zielkontos.
+   */
+  private void unindex(int record) {
+    int id = file.id(record);
+    float amount = file.amount(record);
+
+    AccountIndex source = index(file.source(record), false);
+    if (source != null && source.debits.removeSorted(id)) {
+      source.debitTotal -= amount;
+    }
+
+    AccountIndex target = index(file.target(record), false);
+    if (target != null && target.credits.removeSorted(id)) {
+      target.creditTotal -= amount;
+    }
+  }
+
+  /**
+   * Erzeugen einer Buchung aus den Feldern eines Datensatzes.
+   */
+  private Transaction read(int record) {
+    Transaction t = new Transaction();
+    t.setId(file.id(record));
+    t.setSourceAccountID(file.source(record));
+    t.setTargetAccountID(file.target(record));
+    t.setAmount(file.amount(record));
+    return t;
+  }
+
+  private Vector<Transaction> read(IntList ids) {
+    Vector<Transaction> result = new Vector<Transaction>(ids.size());
+    for (int i = 0; i < ids.size(); i++) {
+      result.addElement(read(position(ids.get(i))));
+    }
+    return result;
+  }
+
+  /**
+   * Anfügen eines Datensatzes samt Fortschreiben des Index. Der Aufrufer hält
+   * die Schreibsperre und hat mittels {@link LedgerFile#reserve(int)} Platz
+   * geschaffen.
+   */
+  private void append(int type, Transaction t) {
+    int old = position(t.getId());
+    if (old >= 0) {
+      unindex(old);
+    }
+
+    int record = file.append(type, t.getId(), t.getSourceAccountID(),
+        t.getTargetAccountID(), t.getAmount());
+
+    if (type == LedgerFile.POSTING) {
+      if (old < 0) {
+        ids.addSorted(t.getId());
+      }
+      setPosition(t.getId(), record);
+      index(record);
+    }
+    else {
+      ids.removeSorted(t.getId());
+      setPosition(t.getId(), -1);
+    }
+  }
+
+  private void flush() {
+    if (force) {
+      file.force();
+    }
+  }
+
+  @Override
+  public Transaction findByKey(int id) {
+    readLock.lock();
+    try {
+      int record = position(id);
+      return record < 0 ? null : read(record);
+    }
+    finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public HashMap<Integer, Transaction> findByKeys(int[] ids) {
+    HashMap<Integer, Transaction> result = new HashMap<Integer, Transaction>();
+    readLock.lock();
+    try {
+      for (int id : ids) {
+        int record = position(id);
+        if (record >= 0) {
+          result.put(Integer.valueOf(id), read(record));
+        }
+      }
+      return result;
+    }
+    finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public Vector<Transaction> findAll() {
+    Vector<Transaction> result = findPage(0, Integer.MAX_VALUE);
+    Collections.sort(result, BY_SOURCE_ACCOUNT);
+    return result;
+  }
+
+  @Override
+  public int forEach(ObjectHandler<Transaction> handler) {
+    int count = 0;
+    int afterId = 0;
+
+    // Blockweise lesen, damit die Sperre nicht während des Handlers gilt
+    for (;;) {
+      Vector<Transaction> chunk = findPage(afterId, CHUNK_SIZE);
+      for (Transaction t : chunk) {
+        handler.handle(t);
+        count++;
+      }
+      if (chunk.size() < CHUNK_SIZE) {
+        return count;
+      }
+      afterId = chunk.lastElement().getId();
+    }
+  }
+
+  @Override
+  public Vector<Transaction> findPage(int afterId, int limit) {
+    Vector<Transaction> result = new Vector<Transaction>();
+
+    readLock.lock();
+    try {
+      for (int i = ids.indexAfter(afterId); i < ids.size()
+          && result.size() < limit; i++) {
+        result.addElement(read(position(ids.get(i))));
+      }
+    }
+    finally {
+      readLock.unlock();
+    }
+
+    return result;
+  }
+
+  @Override
+  public Vector<Transaction> findBySourceAccount(int accountID) {
+    readLock.lock();
+    try {
+      AccountIndex i = indexes.get(accountID);
+      return i == null ? new Vector<Transaction>() : read(i.debits);
+    }
+    finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public Vector<Transaction> findByTargetAccount(int accountID) {
+    readLock.lock();
+    try {
+      AccountIndex i = indexes.get(accountID);
+      return i == null ? new Vector<Transaction>() : read(i.credits);
+    }
+    finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public Double sumDebits(int accountID) {
+    readLock.lock();
+    try {
+      AccountIndex i = indexes.get(accountID);
+      return Double.valueOf(i == null ? 0.0 : i.debitTotal);
+    }
+    finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public Double sumCredits(int accountID) {
+    readLock.lock();
+    try {
+      AccountIndex i = indexes.get(accountID);
+      return Double.valueOf(i == null ? 0.0 : i.creditTotal);
+    }
+    finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public HashMap<Integer, Double> netBalances(int[] accountIDs) {
+    HashMap<Integer, Double> result = new HashMap<Integer, Double>();
+
+    readLock.lock();
+    try {
+      for (int id : accountIDs) {
+        AccountIndex i = indexes.get(id);
+        result.put(Integer.valueOf(id),
+            Double.valueOf(i == null ? 0.0 : i.creditTotal - i.debitTotal));
+      }
+    }
+    finally {
+      readLock.unlock();
+    }
+
+    return result;
+  }
+
+  @Override
+  public Transaction insert(Transaction t) {
+    writeLock.lock();
+    try {
+      file.reserve(1);
+      t.setId(nextId++);
+      append(LedgerFile.POSTING, t);
+      flush();
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+      return null;
+    }
+    finally {
+      writeLock.unlock();
+    }
+
+    return t;
+  }
+
+  @Override
+  public int[] insertBatch(List<Transaction> transactions) {
+    int[] result = new int[transactions.size()];
+
+    writeLock.lock();
+    try {
+      /*
+       * Der Platz für sämtliche Datensätze wird vorab geschaffen. Danach kann
+       * das Anfügen nicht mehr scheitern, so dass entweder alle oder keine
+       * Buchungen gespeichert werden.
+       */
+      file.reserve(result.length);
+
+      for (int i = 0; i < result.length; i++) {
+        Transaction t = transactions.get(i);
+        t.setId(nextId++);
+        append(LedgerFile.POSTING, t);
+        result[i] = t.getId();
+      }
+      flush();
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+      return null;
+    }
+    finally {
+      writeLock.unlock();
+    }
+
+    return result;
+  }
+
+  @Override
+  public Transaction update(Transaction t) {
+    writeLock.lock();
+    try {
+      if (position(t.getId()) >= 0) {
+        file.reserve(1);
+        append(LedgerFile.POSTING, t);
+        flush();
+      }
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+    }
+    finally {
+      writeLock.unlock();
+    }
+
+    return t;
+  }
+
+  @Override
+  public void delete(Transaction t) {
+    writeLock.lock();
+    try {
+      int record = position(t.getId());
+      if (record >= 0) {
+        file.reserve(1);
+        append(LedgerFile.TOMBSTONE, read(record));
+        flush();
+      }
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+    }
+    finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public int deleteTransactionsOf(Account a) {
+    return deleteTransactions(new int[] { a.getId() });
+  }
+
+  @Override
+  public int deleteTransactionsOf(Customer c) {
+    Vector<Account> owned = accounts.findByOwner(c);
+    int[] accountIDs = new int[owned.size()];
+    for (int i = 0; i < accountIDs.length; i++) {
+      accountIDs[i] = owned.elementAt(i).getId();
+    }
+    return deleteTransactions(accountIDs);
+  }
+
+  /**
+   * Löschen sämtlicher Buchungen der angegebenen Konten durch je einen
+   * Grabstein-Datensatz.
+   *
+   * @param accountIDs die Kontonummern
+   * @return die Anzahl der gelöschten Buchungen oder -1 bei einem Fehler
+   */
+  private int deleteTransactions(int[] accountIDs) {
+    writeLock.lock();
+    try {
+      // Primärschlüssel vorab kopieren, da append(...) den Index ändert
+      int[][] lists = new int[accountIDs.length * 2][];
+      int total = 0;
+      for (int n = 0; n < accountIDs.length; n++) {
+        AccountIndex i = indexes.get(accountIDs[n]);
+        lists[2 * n] = i == null ? new int[0] : i.debits.toArray();
+        lists[2 * n + 1] = i == null ? new int[0] : i.credits.toArray();
+        total += lists[2 * n].length + lists[2 * n + 1].length;
+      }
+
+      file.reserve(total);
+
+      int count = 0;
+      for (int[] list : lists) {
+        for (int id : list) {
+          int record = position(id);
+          // Buchungen zwischen zwei betroffenen Konten nur einmal löschen
+          if (record >= 0) {
+            append(LedgerFile.TOMBSTONE, read(record));
+            count++;
+          }
+        }
+      }
+      flush();
+
+      for (int id : accountIDs) {
+        indexes.remove(id);
+      }
+
+      return count;
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+      return -1;
+    }
+    finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public Double findByAccount(int accountID) {
+    readLock.lock();
+    try {
+      AccountIndex i = indexes.get(accountID);
+      return Double.valueOf(i == null ? 0.0 : i.creditTotal - i.debitTotal);
+    }
+    finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public HashMap<Integer, Double> findByAccounts(int[] accountIDs) {
+    HashMap<Integer, Double> result = new HashMap<Integer, Double>();
+    readLock.lock();
+    try {
+      for (int id : accountIDs) {
+        AccountIndex i = indexes.get(id);
+        result.put(Integer.valueOf(id), Double.valueOf(i == null ? 0.0
+            : i.creditTotal - i.debitTotal));
+      }
+      return result;
+    }
+    finally {
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * Die Buchungen liegen in einer lokalen Datei, die nur von dieser
+   * Server-Instanz geschrieben wird. Gleichzeitige Buchungen desselben Kontos
+   * verhindern hier bereits die Sperren der
+   * {@link de.hdm.thies.bankProjekt.server.TransferEngine TransferEngine}.
+   */
+  @Override
+  public Double findByAccountForUpdate(int accountID) {
+    return findByAccount(accountID);
+  }
+
+  /**
+   * Die lokale Datei hat keine Replikate.
+   */
+  @Override
+  public Double findByAccountFromPrimary(int accountID) {
+    return findByAccount(accountID);
+  }
+
+  /**
+   * Wie beim {@link de.hdm.thies.bankProjekt.server.storage.memory.MemoryStorage
+   * Speicher im Hauptspeicher} wird nur über den kleineren Teil der
+   * aufsteigend sortierten Buchungen des Kontos summiert.
+   */
+  @Override
+  public Double findByAccountAsOf(int accountID, int transactionID) {
+    readLock.lock();
+    try {
+      AccountIndex i = indexes.get(accountID);
+      if (i == null) {
+        return Double.valueOf(0.0);
+      }
+      return Double.valueOf(sumAsOf(i.credits, i.creditTotal, transactionID)
+          - sumAsOf(i.debits, i.debitTotal, transactionID));
+    }
+    finally {
+      readLock.unlock();
+    }
+  }
+
+  private double sumAsOf(IntList ids, double total, int transactionID) {
+    int split = ids.indexAfter(transactionID);
+    double sum = 0.0;
+    if (split <= ids.size() / 2) {
+      for (int i = 0; i < split; i++) {
+        sum += file.amount(position(ids.get(i)));
+      }
+      return sum;
+    }
+    for (int i = split; i < ids.size(); i++) {
+      sum += file.amount(position(ids.get(i)));
+    }
+    return total - sum;
+  }
+
+  /**
+   * Neuaufbau des Index durch erneutes Lesen aller Datensätze.
+   */
+  @Override
+  public boolean rebuild() {
+    writeLock.lock();
+    try {
+      Arrays.fill(positions, 0);
+      ids.clear();
+      indexes.clear();
+      nextId = 1;
+
+      replay();
+
+      ServersideSettings.getLogger().info(
+          "Kontostände aus " + ids.size() + " Buchungen neu berechnet.");
+
+      return true;
+    }
+    finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public int verify() {
+    Logger logger = ServersideSettings.getLogger();
+    int drift = 0;
+
+    readLock.lock();
+    try {
+      // Kontostände aller Konten aus den gültigen Datensätzen berechnen
+      IntObjectHashMap<double[]> computed = new IntObjectHashMap<double[]>(
+          indexes.size());
+      for (int i = 0; i < ids.size(); i++) {
+        int record = position(ids.get(i));
+        sum(computed, file.source(record))[0] -= file.amount(record);
+        sum(computed, file.target(record))[0] += file.amount(record);
+      }
+
+      for (int id : indexes.keys()) {
+        AccountIndex i = indexes.get(id);
+        double stored = i.creditTotal - i.debitTotal;
+        double[] c = computed.get(id);
+        double expected = c == null ? 0.0 : c[0];
+
+        if (Math.abs(stored - expected) >= TOLERANCE) {
+          drift++;
+          logger.warning("Kontostand von Konto " + id
+              + " weicht ab: gespeichert " + stored + ", berechnet "
+              + expected);
+        }
+      }
+    }
+    finally {
+      readLock.unlock();
+    }
+
+    logger.info("Prüfung der Kontostände abgeschlossen, " + drift
+        + " Abweichung(en).");
+
+    return drift;
+  }
+
+  private static double[] sum(IntObjectHashMap<double[]> sums, int accountID) {
+    double[] s = sums.get(accountID);
+    if (s == null) {
+      s = new double[1];
+      sums.put(accountID, s);
+    }
+    return s;
+  }
+
+  /**
+   * Kennzahlen des Journals für die Überwachung.
+   */
+  @Override
+  public String toString() {
+    readLock.lock();
+    try {
+      return "Journal: " + ids.size() + " Buchungen, " + file.size()
+          + " Datensätze, " + file.segmentCount() + " Segment(e)";
+    }
+    finally {
+      readLock.unlock();
+    }
+  }
+}
@@ -0,0 +1,128 @@
+package de.hdm.thies.bankProjekt.server.storage.memory;
+
+import java.util.Arrays;
+
+/**
+ * Wachsende Liste von Werten des primitiven Typs <code>int</code>. Sie dient
+ * den Speicher-Backends wie {@link MemoryStorage} als Index, etwa für die
+ * Buchungen eines Kontos. Da
+ * Primärschlüssel fortlaufend vergeben und stets am Ende angefügt werden, sind
+ * diese Listen aufsteigend sortiert. Suchen und Entfernen erfolgen dann per
+ * binärer Suche.
+ * <p>
+ * Die Klasse ist nicht threadsicher.
+ *
+ * @author Thies
+ */
+public class IntList {
+
+  private int[] elements;
+
+  private int size = 0;
+
+  public IntList() {
+    this(4);
+  }
+
+  public IntList(int capacity) {
+    elements = new int[Math.max(1, capacity)];
+  }
+
+  public void add(int value) {
+    if (size == elements.length) {
+      elements = Arrays.copyOf(elements, size << 1);
+    }
+    elements[size++] = value;
+  }
+
+  /**
+   * Einfügen eines Werts in eine aufsteigend sortierte Liste. Ist der Wert
+   * größer als alle bisherigen, wird er einfach angefügt.
+   */
+  public void addSorted(int value) {
+    if (size == 0 || elements[size - 1] < value) {
+      add(value);
+      return;
+    }
+
+    int i = indexAfter(value);
+    if (size == elements.length) {
+      elements = Arrays.copyOf(elements, size << 1);
+    }
+    System.arraycopy(elements, i, elements, i + 1, size - i);
+    elements[i] = value;
+    size++;
+  }
+
+  public int get(int index) {
+    if (index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + ", Größe " + size);
+    }
+    return elements[index];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Position des ersten Elements, das größer als <code>value</code> ist, in
+   * einer aufsteigend sortierten Liste.
+   */
+  public int indexAfter(int value) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (elements[mid] <= value) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Entfernen eines Werts aus einer aufsteigend sortierten Liste.
+   *
+   * @return <code>true</code>, wenn der Wert enthalten war
+   */
+  public boolean removeSorted(int value) {
+    int i = Arrays.binarySearch(elements, 0, size, value);
+    if (i < 0) {
+      return false;
+    }
+    System.arraycopy(elements, i + 1, elements, i, size - i - 1);
+    size--;
+    return true;
+  }
+
+  /**
+   * Entfernen aller Werte, die nicht (mehr) als Schlüssel in
+   * <code>live</code> enthalten sind. Dies ist nach dem Löschen vieler
+   * Objekte günstiger als ein wiederholtes {@link #removeSorted(int)}.
+   *
+   * @return die Anzahl der entfernten Werte
+   */
+  public int retainKeys(IntObjectHashMap<?> live) {
+    int n = 0;
+    for (int i = 0; i < size; i++) {
+      if (live.containsKey(elements[i])) {
+        elements[n++] = elements[i];
+      }
+    }
+    int removed = size - n;
+    size = n;
+    return removed;
+  }
+
+  public int[] toArray() {
+    return Arrays.copyOf(elements, size);
+  }
+
+  public void clear() {
+    size = 0;
+  }
+}
@@ -0,0 +1,199 @@
+package de.hdm.thies.bankProjekt.server.storage.memory;
+
+import java.util.Arrays;
+
+/**
+ * Hash-Tabelle mit Schlüsseln vom primitiven Typ <code>int</code>. Anders als
+ * bei <code>HashMap&lt;Integer, V&gt;</code> entstehen beim Einfügen und Suchen
+ * keine <code>Integer</code>- und <code>Entry</code>-Objekte. Schlüssel und
+ * Werte liegen in zwei parallelen Arrays, Kollisionen werden durch lineares
+ * Sondieren aufgelöst. Beim Entfernen werden nachfolgende Einträge
+ * zurückgeschoben, so dass keine Grabsteine entstehen.
+ * <p>
+ * Die Klasse ist nicht threadsicher; die Speicher-Backends wie
+ * {@link MemoryStorage} sichern alle Zugriffe durch eine Sperre ab.
+ *
+ * @param <V> der Typ der Werte
+ * @author Thies
+ */
+public class IntObjectHashMap<V> {
+
+  /**
+   * Höchster Füllgrad, bevor die Tabelle verdoppelt wird.
+   */
+  private static final float LOAD_FACTOR = 0.6f;
+
+  private int[] keys;
+
+  private Object[] values;
+
+  private int size = 0;
+
+  /**
+   * Anzahl der Einträge, ab der die Tabelle vergrößert wird.
+   */
+  private int threshold;
+
+  public IntObjectHashMap() {
+    this(16);
+  }
+
+  /**
+   * @param expected erwartete Anzahl der Einträge
+   */
+  public IntObjectHashMap(int expected) {
+    int capacity = 16;
+    while (capacity * LOAD_FACTOR < expected) {
+      capacity <<= 1;
+    }
+    allocate(capacity);
+  }
+
+  private void allocate(int capacity) {
+    keys = new int[capacity];
+    values = new Object[capacity];
+    threshold = (int) (capacity * LOAD_FACTOR);
+  }
+
+  /**
+   * Ermitteln der Startposition eines Schlüssels. Die Multiplikation verteilt
+   * auch fortlaufende Schlüssel gleichmäßig über die Tabelle.
+   */
+  private int slot(int key) {
+    int h = key * 0x9E3779B9;
+    return (h ^ (h >>> 16)) & (keys.length - 1);
+  }
+
+  /**
+   * Position des Schlüssels in der Tabelle oder -1.
+   */
+  private int indexOf(int key) {
+    int mask = keys.length - 1;
+    for (int i = slot(key);; i = (i + 1) & mask) {
+      if (values[i] == null) {
+        return -1;
+      }
+      if (keys[i] == key) {
+        return i;
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  public V get(int key) {
+    int i = indexOf(key);
+    return i < 0 ? null : (V) values[i];
+  }
+
+  public boolean containsKey(int key) {
+    return indexOf(key) >= 0;
+  }
+
+  /**
+   * Einfügen bzw. Ersetzen eines Eintrags.
+   *
+   * @param key der Schlüssel
+   * @param value der Wert, nicht <code>null</code>
+   * @return der bisherige Wert oder <code>null</code>
+   */
+  @SuppressWarnings("unchecked")
+  public V put(int key, V value) {
+    if (value == null) {
+      throw new IllegalArgumentException("Werte dürfen nicht null sein.");
+    }
+
+    int mask = keys.length - 1;
+    int i = slot(key);
+    while (values[i] != null) {
+      if (keys[i] == key) {
+        V old = (V) values[i];
+        values[i] = value;
+        return old;
+      }
+      i = (i + 1) & mask;
+    }
+
+    keys[i] = key;
+    values[i] = value;
+    if (++size > threshold) {
+      rehash(keys.length << 1);
+    }
+    return null;
+  }
+
+  /**
+   * Entfernen eines Eintrags.
+   *
+   * @param key der Schlüssel
+   * @return der bisherige Wert oder <code>null</code>
+   */
+  @SuppressWarnings("unchecked")
+  public V remove(int key) {
+    int i = indexOf(key);
+    if (i < 0) {
+      return null;
+    }
+
+    V old = (V) values[i];
+    size--;
+
+    /*
+     * Nachfolgende Einträge derselben Kette rücken auf die frei gewordene
+     * Position, sofern sie dort noch über ihre Startposition erreichbar sind.
+     */
+    int mask = keys.length - 1;
+    int gap = i;
+    for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+      int home = slot(keys[j]);
+      if (((j - home) & mask) >= ((j - gap) & mask)) {
+        keys[gap] = keys[j];
+        values[gap] = values[j];
+        gap = j;
+      }
+    }
+    values[gap] = null;
+
+    return old;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public void clear() {
+    Arrays.fill(values, null);
+    size = 0;
+  }
+
+  /**
+   * Auslesen aller Schlüssel in unbestimmter Reihenfolge.
+   */
+  public int[] keys() {
+    int[] result = new int[size];
+    int n = 0;
+    for (int i = 0; i < keys.length; i++) {
+      if (values[i] != null) {
+        result[n++] = keys[i];
+      }
+    }
+    return result;
+  }
+
+  private void rehash(int capacity) {
+    int[] oldKeys = keys;
+    Object[] oldValues = values;
+    allocate(capacity);
+
+    int mask = capacity - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldValues[i] != null) {
+        int j = slot(oldKeys[i]);
+        while (values[j] != null) {
+          j = (j + 1) & mask;
+        }
+        keys[j] = oldKeys[i];
+        values[j] = oldValues[i];
+      }
+    }
+  }
+}
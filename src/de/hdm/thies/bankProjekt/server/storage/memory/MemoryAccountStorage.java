@@ -0,0 +1,225 @@
+package de.hdm.thies.bankProjekt.server.storage.memory;
+
+import java.util.HashMap;
+import java.util.Vector;
+
+import de.hdm.thies.bankProjekt.server.storage.AccountStorage;
+import de.hdm.thies.bankProjekt.server.storage.ObjectHandler;
+import de.hdm.thies.bankProjekt.shared.StaleObjectException;
+import de.hdm.thies.bankProjekt.shared.bo.Account;
+import de.hdm.thies.bankProjekt.shared.bo.Customer;
+
+/**
+ * Speicher für Konten im Hauptspeicher. Neben den Konten selbst wird je Kunde
+ * die Liste seiner Kontonummern geführt.
+ *
+ * @see MemoryStorage
+ * @author Thies
+ */
+class MemoryAccountStorage implements AccountStorage {
+
+  private final MemoryStorage store;
+
+  MemoryAccountStorage(MemoryStorage store) {
+    this.store = store;
+  }
+
+  @Override
+  public Account findByKey(int id) {
+    store.readLock.lock();
+    try {
+      Account a = store.accounts.get(id);
+      return a == null ? null : MemoryStorage.copy(a);
+    }
+    finally {
+      store.readLock.unlock();
+    }
+  }
+
+  @Override
+  public HashMap<Integer, Account> findByKeys(int[] ids) {
+    HashMap<Integer, Account> result = new HashMap<Integer, Account>();
+    store.readLock.lock();
+    try {
+      for (int id : ids) {
+        Account a = store.accounts.get(id);
+        if (a != null) {
+          result.put(Integer.valueOf(id), MemoryStorage.copy(a));
+        }
+      }
+      return result;
+    }
+    finally {
+      store.readLock.unlock();
+    }
+  }
+
+  @Override
+  public Vector<Account> findAll() {
+    return findPage(0, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int forEach(ObjectHandler<Account> handler) {
+    int count = 0;
+    int afterId = 0;
+
+    // Blockweise kopieren, damit die Sperre nicht während des Handlers gilt
+    for (;;) {
+      Vector<Account> chunk = findPage(afterId, MemoryStorage.CHUNK_SIZE);
+      for (Account a : chunk) {
+        handler.handle(a);
+        count++;
+      }
+      if (chunk.size() < MemoryStorage.CHUNK_SIZE) {
+        return count;
+      }
+      afterId = chunk.lastElement().getId();
+    }
+  }
+
+  @Override
+  public Vector<Account> findPage(int afterId, int limit) {
+    Vector<Account> result = new Vector<Account>();
+
+    store.readLock.lock();
+    try {
+      IntList ids = store.accountIds;
+      for (int i = ids.indexAfter(afterId); i < ids.size()
+          && result.size() < limit; i++) {
+        result.addElement(MemoryStorage.copy(store.accounts.get(ids.get(i))));
+      }
+    }
+    finally {
+      store.readLock.unlock();
+    }
+
+    return result;
+  }
+
+  @Override
+  public Vector<Account> findByOwner(int ownerID) {
+    Vector<Account> result = new Vector<Account>();
+
+    store.readLock.lock();
+    try {
+      IntList ids = store.accountsByOwner.get(ownerID);
+      if (ids != null) {
+        for (int i = 0; i < ids.size(); i++) {
+          result.addElement(MemoryStorage.copy(store.accounts.get(ids.get(i))));
+        }
+      }
+    }
+    finally {
+      store.readLock.unlock();
+    }
+
+    return result;
+  }
+
+  @Override
+  public Vector<Account> findByOwner(Customer owner) {
+    return findByOwner(owner.getId());
+  }
+
+  @Override
+  public Account insert(Account a) {
+    store.writeLock.lock();
+    try {
+      a.setId(store.nextAccountId());
+      a.setVersion(0);
+      store.accounts.put(a.getId(), MemoryStorage.copy(a));
+      store.accountIds.addSorted(a.getId());
+      addToOwner(a);
+    }
+    finally {
+      store.writeLock.unlock();
+    }
+
+    return a;
+  }
+
+  @Override
+  public Account update(Account a) throws StaleObjectException {
+    store.writeLock.lock();
+    try {
+      // Wie bei UPDATE nur vorhandene Konten mit unveränderter Version
+      Account old = store.accounts.get(a.getId());
+      if (old == null || old.getVersion() != a.getVersion()) {
+        throw new StaleObjectException("Konto " + a.getId()
+            + " wurde inzwischen geändert oder gelöscht.");
+      }
+      a.setVersion(a.getVersion() + 1);
+      store.accounts.put(a.getId(), MemoryStorage.copy(a));
+      if (old.getOwnerID() != a.getOwnerID()) {
+        removeFromOwner(old);
+        addToOwner(a);
+      }
+    }
+    finally {
+      store.writeLock.unlock();
+    }
+
+    return a;
+  }
+
+  @Override
+  public int delete(Account a) {
+    store.writeLock.lock();
+    try {
+      Account old = store.accounts.remove(a.getId());
+      // Der Kontostand wird in jedem Fall entfernt, wie in account_balances
+      store.ledgers.remove(a.getId());
+      if (old == null) {
+        return 0;
+      }
+      store.accountIds.removeSorted(a.getId());
+      removeFromOwner(old);
+      return 1;
+    }
+    finally {
+      store.writeLock.unlock();
+    }
+  }
+
+  @Override
+  public int deleteAccountsOf(Customer c) {
+    store.writeLock.lock();
+    try {
+      IntList ids = store.accountsByOwner.remove(c.getId());
+      if (ids == null) {
+        return 0;
+      }
+
+      for (int i = 0; i < ids.size(); i++) {
+        store.accounts.remove(ids.get(i));
+        store.ledgers.remove(ids.get(i));
+      }
+      store.accountIds.retainKeys(store.accounts);
+
+      return ids.size();
+    }
+    finally {
+      store.writeLock.unlock();
+    }
+  }
+
+  private void addToOwner(Account a) {
+    IntList ids = store.accountsByOwner.get(a.getOwnerID());
+    if (ids == null) {
+      ids = new IntList();
+      store.accountsByOwner.put(a.getOwnerID(), ids);
+    }
+    ids.addSorted(a.getId());
+  }
+
+  private void removeFromOwner(Account a) {
+    IntList ids = store.accountsByOwner.get(a.getOwnerID());
+    if (ids != null) {
+      ids.removeSorted(a.getId());
+      if (ids.size() == 0) {
+        store.accountsByOwner.remove(a.getOwnerID());
+      }
+    }
+  }
+}
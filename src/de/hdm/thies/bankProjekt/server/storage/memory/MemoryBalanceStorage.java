@@ -0,0 +1,189 @@
+package de.hdm.thies.bankProjekt.server.storage.memory;
+
+import java.util.HashMap;
+import java.util.logging.Logger;
+
+import de.hdm.thies.bankProjekt.server.ServersideSettings;
+import de.hdm.thies.bankProjekt.server.storage.BalanceStorage;
+import de.hdm.thies.bankProjekt.shared.bo.Transaction;
+
+/**
+ * Zugriff auf die in den {@link MemoryStorage.Ledger Buchungsübersichten}
+ * fortgeschriebenen Kontostände.
+ *
+ * @see MemoryStorage
+ * @author Thies
+ */
+class MemoryBalanceStorage implements BalanceStorage {
+
+  /**
+   * Abweichungen unterhalb dieses Betrags gelten bei {@link #verify()} als
+   * Rundungsfehler und nicht als Drift.
+   */
+  private static final double TOLERANCE = 0.005;
+
+  private final MemoryStorage store;
+
+  MemoryBalanceStorage(MemoryStorage store) {
+    this.store = store;
+  }
+
+  @Override
+  public Double findByAccount(int accountID) {
+    store.readLock.lock();
+    try {
+      MemoryStorage.Ledger l = store.ledgers.get(accountID);
+      return Double.valueOf(l == null ? 0.0 : l.balance());
+    }
+    finally {
+      store.readLock.unlock();
+    }
+  }
+
+  @Override
+  public HashMap<Integer, Double> findByAccounts(int[] accountIDs) {
+    HashMap<Integer, Double> result = new HashMap<Integer, Double>();
+    store.readLock.lock();
+    try {
+      for (int id : accountIDs) {
+        MemoryStorage.Ledger l = store.ledgers.get(id);
+        result.put(Integer.valueOf(id), Double.valueOf(l == null ? 0.0 : l
+            .balance()));
+      }
+      return result;
+    }
+    finally {
+      store.readLock.unlock();
+    }
+  }
+
+  /**
+   * Eine Transaktion hält die Schreibsperre des gesamten Speichers, der
+   * Kontostand ist damit bereits gesperrt.
+   */
+  @Override
+  public Double findByAccountForUpdate(int accountID) {
+    return findByAccount(accountID);
+  }
+
+  /**
+   * Der Speicher hat keine Replikate.
+   */
+  @Override
+  public Double findByAccountFromPrimary(int accountID) {
+    return findByAccount(accountID);
+  }
+
+  /**
+   * Die Buchungen eines Kontos liegen aufsteigend sortiert vor. Summiert wird
+   * daher nur über den kleineren Teil: entweder die Buchungen bis
+   * <code>transactionID</code> oder die danach, die dann vom aktuellen
+   * Kontostand abgezogen werden.
+   */
+  @Override
+  public Double findByAccountAsOf(int accountID, int transactionID) {
+    store.readLock.lock();
+    try {
+      MemoryStorage.Ledger l = store.ledgers.get(accountID);
+      if (l == null) {
+        return Double.valueOf(0.0);
+      }
+      return Double.valueOf(sumAsOf(l.credits, l.creditTotal, transactionID)
+          - sumAsOf(l.debits, l.debitTotal, transactionID));
+    }
+    finally {
+      store.readLock.unlock();
+    }
+  }
+
+  private double sumAsOf(IntList ids, double total, int transactionID) {
+    int split = ids.indexAfter(transactionID);
+    double sum = 0.0;
+    if (split <= ids.size() / 2) {
+      for (int i = 0; i < split; i++) {
+        sum += store.transactions.get(ids.get(i)).getAmount();
+      }
+      return sum;
+    }
+    for (int i = split; i < ids.size(); i++) {
+      sum += store.transactions.get(ids.get(i)).getAmount();
+    }
+    return total - sum;
+  }
+
+  /**
+   * Neuaufbau sämtlicher Buchungsübersichten aus den gespeicherten Buchungen.
+   */
+  @Override
+  public boolean rebuild() {
+    store.writeLock.lock();
+    try {
+      store.ledgers.clear();
+
+      IntList ids = store.transactionIds;
+      for (int i = 0; i < ids.size(); i++) {
+        store.post(store.transactions.get(ids.get(i)));
+      }
+
+      ServersideSettings.getLogger().info(
+          "Kontostände aus " + ids.size() + " Buchungen neu berechnet.");
+
+      return true;
+    }
+    finally {
+      store.writeLock.unlock();
+    }
+  }
+
+  @Override
+  public int verify() {
+    Logger logger = ServersideSettings.getLogger();
+    int drift = 0;
+
+    store.readLock.lock();
+    try {
+      // Kontostände aller Konten aus den Buchungen berechnen
+      IntObjectHashMap<double[]> computed = new IntObjectHashMap<double[]>(
+          store.accounts.size());
+      IntList ids = store.transactionIds;
+      for (int i = 0; i < ids.size(); i++) {
+        Transaction t = store.transactions.get(ids.get(i));
+        sum(computed, t.getSourceAccountID())[0] -= t.getAmount();
+        sum(computed, t.getTargetAccountID())[0] += t.getAmount();
+      }
+
+      IntList accounts = store.accountIds;
+      for (int i = 0; i < accounts.size(); i++) {
+        int id = accounts.get(i);
+        MemoryStorage.Ledger l = store.ledgers.get(id);
+        double stored = l == null ? 0.0 : l.balance();
+        double[] c = computed.get(id);
+        double expected = c == null ? 0.0 : c[0];
+
+        if (Math.abs(stored - expected) >= TOLERANCE) {
+          drift++;
+          logger.warning("Kontostand von Konto " + id
+              + " weicht ab: gespeichert " + stored + ", berechnet "
+              + expected);
+        }
+      }
+    }
+    finally {
+      store.readLock.unlock();
+    }
+
+    logger.info("Prüfung der Kontostände abgeschlossen, " + drift
+        + " Abweichung(en).");
+
+    return drift;
+  }
+
+  private static double[] sum(IntObjectHashMap<double[]> sums, int accountID) {
+    double[] s = sums.get(accountID);
+    if (s == null) {
+      s = new double[1];
+      sums.put(accountID, s);
+    }
+    return s;
+  }
+}
@@ -0,0 +1,293 @@
+package de.hdm.thies.bankProjekt.server.storage.memory;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Vector;
+
+import de.hdm.thies.bankProjekt.server.storage.CustomerStorage;
+import de.hdm.thies.bankProjekt.server.storage.ObjectHandler;
+import de.hdm.thies.bankProjekt.shared.StaleObjectException;
+import de.hdm.thies.bankProjekt.shared.bo.Customer;
+
+/**
+ * Speicher für Kunden im Hauptspeicher.
+ *
+ * @see MemoryStorage
+ * @author Thies
+ */
+class MemoryCustomerStorage implements CustomerStorage {
+
+  /**
+   * Sortierung nach dem Nachnamen ohne Unterscheidung von Groß- und
+   * Kleinschreibung, wie bei <code>ORDER BY lastName</code> in MySQL.
+   */
+  private static final Comparator<Customer> BY_LAST_NAME = new Comparator<Customer>() {
+    @Override
+    public int compare(Customer c1, Customer c2) {
+      return String.CASE_INSENSITIVE_ORDER.compare(c1.getLastName(),
+          c2.getLastName());
+    }
+  };
+
+  /**
+   * Sortierung nach dem Nachnamen wie {@link #BY_LAST_NAME}, bei gleichem
+   * Nachnamen nach dem Primärschlüssel.
+   */
+  private static final Comparator<Customer> BY_LAST_NAME_AND_ID = new Comparator<Customer>() {
+    @Override
+    public int compare(Customer c1, Customer c2) {
+      int result = BY_LAST_NAME.compare(c1, c2);
+      if (result != 0) {
+        return result;
+      }
+      return c1.getId() < c2.getId() ? -1 : (c1.getId() == c2.getId() ? 0
+          : 1);
+    }
+  };
+
+  private final MemoryStorage store;
+
+  MemoryCustomerStorage(MemoryStorage store) {
+    this.store = store;
+  }
+
+  @Override
+  public Customer findByKey(int id) {
+    store.readLock.lock();
+    try {
+      Customer c = store.customers.get(id);
+      return c == null ? null : MemoryStorage.copy(c);
+    }
+    finally {
+      store.readLock.unlock();
+    }
+  }
+
+  @Override
+  public HashMap<Integer, Customer> findByKeys(int[] ids) {
+    HashMap<Integer, Customer> result = new HashMap<Integer, Customer>();
+    store.readLock.lock();
+    try {
+      for (int id : ids) {
+        Customer c = store.customers.get(id);
+        if (c != null) {
+          result.put(Integer.valueOf(id), MemoryStorage.copy(c));
+        }
+      }
+      return result;
+    }
+    finally {
+      store.readLock.unlock();
+    }
+  }
+
+  @Override
+  public Vector<Customer> findAll() {
+    Vector<Customer> result = findPage(0, Integer.MAX_VALUE);
+    Collections.sort(result, BY_LAST_NAME);
+    return result;
+  }
+
+  @Override
+  public int forEach(ObjectHandler<Customer> handler) {
+    int count = 0;
+    int afterId = 0;
+
+    // Blockweise kopieren, damit die Sperre nicht während des Handlers gilt
+    for (;;) {
+      Vector<Customer> chunk = findPage(afterId, MemoryStorage.CHUNK_SIZE);
+      for (Customer c : chunk) {
+        handler.handle(c);
+        count++;
+      }
+      if (chunk.size() < MemoryStorage.CHUNK_SIZE) {
+        return count;
+      }
+      afterId = chunk.lastElement().getId();
+    }
+  }
+
+  @Override
+  public Vector<Customer> findPage(int afterId, int limit) {
+    Vector<Customer> result = new Vector<Customer>();
+
+    store.readLock.lock();
+    try {
+      IntList ids = store.customerIds;
+      for (int i = ids.indexAfter(afterId); i < ids.size()
+          && result.size() < limit; i++) {
+        result.addElement(MemoryStorage.copy(store.customers.get(ids.get(i))));
+      }
+    }
+    finally {
+      store.readLock.unlock();
+    }
+
+    return result;
+  }
+
+  /**
+   * Die Kunden sind nur nach dem Primärschlüssel geordnet. Es werden daher
+   * alle auf den Schlüssel folgenden Kunden gesammelt und sortiert.
+   */
+  @Override
+  public Vector<Customer> findPageByLastName(String afterLastName,
+      int afterId, int limit) {
+    Customer after = new Customer();
+    after.setLastName(afterLastName);
+    after.setId(afterId);
+
+    Vector<Customer> result = new Vector<Customer>();
+
+    store.readLock.lock();
+    try {
+      IntList ids = store.customerIds;
+      for (int i = 0; i < ids.size(); i++) {
+        Customer c = store.customers.get(ids.get(i));
+        if (BY_LAST_NAME_AND_ID.compare(c, after) > 0) {
+          result.addElement(MemoryStorage.copy(c));
+        }
+      }
+    }
+    finally {
+      store.readLock.unlock();
+    }
+
+    Collections.sort(result, BY_LAST_NAME_AND_ID);
+    if (result.size() > limit) {
+      result.setSize(limit);
+    }
+    return result;
+  }
+
+  @Override
+  public Vector<Customer> findByLastName(String name) {
+    Vector<Customer> result = new Vector<Customer>();
+
+    store.readLock.lock();
+    try {
+      IntList ids = store.customerIds;
+      for (int i = 0; i < ids.size(); i++) {
+        Customer c = store.customers.get(ids.get(i));
+        if (like(c.getLastName(), name)) {
+          result.addElement(MemoryStorage.copy(c));
+        }
+      }
+    }
+    finally {
+      store.readLock.unlock();
+    }
+
+    Collections.sort(result, BY_LAST_NAME);
+    return result;
+  }
+
+  @Override
+  public Customer insert(Customer c) {
+    store.writeLock.lock();
+    try {
+      c.setId(store.nextCustomerId());
+      c.setVersion(0);
+      store.customers.put(c.getId(), MemoryStorage.copy(c));
+      store.customerIds.addSorted(c.getId());
+    }
+    finally {
+      store.writeLock.unlock();
+    }
+
+    return c;
+  }
+
+  @Override
+  public Customer update(Customer c) throws StaleObjectException {
+    store.writeLock.lock();
+    try {
+      // Wie bei UPDATE nur vorhandene Kunden mit unveränderter Version
+      Customer old = store.customers.get(c.getId());
+      if (old == null || old.getVersion() != c.getVersion()) {
+        throw new StaleObjectException("Kunde " + c.getId()
+            + " wurde inzwischen geändert oder gelöscht.");
+      }
+      c.setVersion(c.getVersion() + 1);
+      store.customers.put(c.getId(), MemoryStorage.copy(c));
+    }
+    finally {
+      store.writeLock.unlock();
+    }
+
+    return c;
+  }
+
+  @Override
+  public int delete(Customer c) {
+    store.writeLock.lock();
+    try {
+      if (store.customers.remove(c.getId()) == null) {
+        return 0;
+      }
+      store.customerIds.removeSorted(c.getId());
+      return 1;
+    }
+    finally {
+      store.writeLock.unlock();
+    }
+  }
+
+  /**
+   * Vergleich einer Zeichenkette mit einem Muster nach den Regeln von SQL
+   * <code>LIKE</code>: <code>%</code> steht für beliebig viele,
+   * <code>_</code> für genau ein Zeichen, <code>\</code> hebt die Sonderbedeutung
+   * des folgenden Zeichens auf. Groß- und Kleinschreibung werden nicht
+   * unterschieden.
+   */
+  static boolean like(String value, String pattern) {
+    if (value == null || pattern == null) {
+      return false;
+    }
+
+    int v = 0;
+    int p = 0;
+    // Position des letzten % im Muster und die dazu passende Stelle im Wert
+    int star = -1;
+    int starValue = 0;
+
+    while (v < value.length()) {
+      if (p < pattern.length()) {
+        char c = pattern.charAt(p);
+
+        if (c == '%') {
+          star = p++;
+          starValue = v;
+          continue;
+        }
+
+        boolean escaped = c == '\\' && p + 1 < pattern.length();
+        char expected = escaped ? pattern.charAt(p + 1) : c;
+
+        if ((!escaped && c == '_') || sameChar(expected, value.charAt(v))) {
+          p += escaped ? 2 : 1;
+          v++;
+          continue;
+        }
+      }
+
+      // Kein Treffer: das letzte % ein Zeichen mehr umfassen lassen
+      if (star < 0) {
+        return false;
+      }
+      p = star + 1;
+      v = ++starValue;
+    }
+
+    while (p < pattern.length() && pattern.charAt(p) == '%') {
+      p++;
+    }
+    return p == pattern.length();
+  }
+
+  private static boolean sameChar(char c1, char c2) {
+    return c1 == c2
+        || Character.toLowerCase(c1) == Character.toLowerCase(c2);
+  }
+}
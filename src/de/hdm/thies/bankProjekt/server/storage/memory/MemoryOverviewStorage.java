@@ -0,0 +1,110 @@
+package de.hdm.thies.bankProjekt.server.storage.memory;
+
+import java.util.Vector;
+
+import de.hdm.thies.bankProjekt.server.storage.ObjectHandler;
+import de.hdm.thies.bankProjekt.server.storage.OverviewStorage;
+import de.hdm.thies.bankProjekt.shared.bo.Account;
+import de.hdm.thies.bankProjekt.shared.bo.AccountSummary;
+import de.hdm.thies.bankProjekt.shared.bo.Customer;
+import de.hdm.thies.bankProjekt.shared.bo.CustomerTree;
+
+/**
+ * Übersichten über Konten, Kunden und Kontostände, die unter einer einzigen
+ * Lesesperre direkt aus den Tabellen des {@link MemoryStorage} gelesen werden.
+ *
+ * @see MemoryStorage
+ * @author Thies
+ */
+class MemoryOverviewStorage implements OverviewStorage {
+
+  private final MemoryStorage store;
+
+  MemoryOverviewStorage(MemoryStorage store) {
+    this.store = store;
+  }
+
+  @Override
+  public Vector<AccountSummary> findSummaries(int afterId, int limit) {
+    Vector<AccountSummary> result = new Vector<AccountSummary>();
+
+    store.readLock.lock();
+    try {
+      IntList ids = store.accountIds;
+      for (int i = ids.indexAfter(afterId); i < ids.size()
+          && result.size() < limit; i++) {
+        Account a = store.accounts.get(ids.get(i));
+        Customer owner = store.customers.get(a.getOwnerID());
+        MemoryStorage.Ledger l = store.ledgers.get(a.getId());
+
+        AccountSummary s = new AccountSummary();
+        s.setAccountID(a.getId());
+        s.setOwnerID(a.getOwnerID());
+        if (owner != null) {
+          s.setOwnerFirstName(owner.getFirstName());
+          s.setOwnerLastName(owner.getLastName());
+        }
+        s.setBalance((float) (l == null ? 0.0 : l.balance()));
+        result.addElement(s);
+      }
+    }
+    finally {
+      store.readLock.unlock();
+    }
+
+    return result;
+  }
+
+  @Override
+  public int forEachSummary(ObjectHandler<AccountSummary> handler) {
+    int count = 0;
+    int afterId = 0;
+
+    // Blockweise erstellen, damit die Sperre nicht während des Handlers gilt
+    for (;;) {
+      Vector<AccountSummary> chunk = findSummaries(afterId,
+          MemoryStorage.CHUNK_SIZE);
+      for (AccountSummary s : chunk) {
+        handler.handle(s);
+        count++;
+      }
+      if (chunk.size() < MemoryStorage.CHUNK_SIZE) {
+        return count;
+      }
+      afterId = chunk.lastElement().getAccountID();
+    }
+  }
+
+  @Override
+  public CustomerTree findTree(String afterLastName, int afterId, int limit) {
+    Vector<Account> accounts = new Vector<Account>();
+
+    store.readLock.lock();
+    try {
+      Vector<Customer> customers = store.customers().findPageByLastName(
+          afterLastName, afterId, limit);
+
+      int[] firstAccount = new int[customers.size() + 1];
+      for (int i = 0; i < customers.size(); i++) {
+        firstAccount[i] = accounts.size();
+        IntList owned = store.accountsByOwner.get(customers.get(i).getId());
+        for (int j = 0; owned != null && j < owned.size(); j++) {
+          accounts.addElement(MemoryStorage.copy(store.accounts.get(owned
+              .get(j))));
+        }
+      }
+      firstAccount[customers.size()] = accounts.size();
+
+      float[] balances = new float[accounts.size()];
+      for (int i = 0; i < balances.length; i++) {
+        MemoryStorage.Ledger l = store.ledgers.get(accounts.get(i).getId());
+        balances[i] = (float) (l == null ? 0.0 : l.balance());
+      }
+
+      return new CustomerTree(customers, accounts, balances, firstAccount);
+    }
+    finally {
+      store.readLock.unlock();
+    }
+  }
+}
@@ -0,0 +1,295 @@
+package de.hdm.thies.bankProjekt.server.storage.memory;
+
+import java.sql.SQLException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import de.hdm.thies.bankProjekt.server.storage.*;
+import de.hdm.thies.bankProjekt.shared.bo.*;
+
+/**
+ * <p>
+ * Speicher-Backend im Hauptspeicher. Sämtliche Geschäftsobjekte liegen in
+ * Hash-Tabellen mit primitiven <code>int</code>-Schlüsseln
+ * ({@link IntObjectHashMap}). Für jedes Konto führt ein {@link Ledger} die
+ * Primärschlüssel seiner Ab- und Zu-Buchungen sowie deren Summen. Buchungen,
+ * Summen und Kontostände eines Kontos sind damit ohne Durchlaufen aller
+ * Buchungen abrufbar, und eine Buchung kostet nur wenige Array-Zugriffe.
+ * </p>
+ * <p>
+ * Der Inhalt ist flüchtig und geht beim Beenden der Server-Instanz verloren.
+ * Das Backend ist daher für Last- und Performancetests der Applikationslogik
+ * gedacht, nicht für den Produktivbetrieb. Es wird mit der System Property
+ * <code>bankprojekt.storage=memory</code> gewählt (siehe
+ * {@link StorageFactory}).
+ * </p>
+ * <p>
+ * Sämtliche Zugriffe sind durch eine gemeinsame Lese-/Schreibsperre
+ * abgesichert: Lesende Zugriffe laufen parallel, schreibende nacheinander.
+ * Eine mit {@link #beginTransaction()} begonnene Transaktion hält die
+ * Schreibsperre bis zu ihrem Ende und ist damit gegenüber anderen Threads
+ * isoliert. Ein Zurückrollen bereits ausgeführter Änderungen ist jedoch nicht
+ * möglich. Da die Operationen dieses Backends nicht fehlschlagen, ist dies für
+ * die Applikationslogik ohne Belang.
+ * </p>
+ * <p>
+ * Herausgegebene und übernommene Objekte werden stets kopiert, so dass
+ * Änderungen an ihnen erst mit <code>update(...)</code> wirksam werden.
+ * </p>
+ *
+ * @author Thies
+ */
+public class MemoryStorage implements Storage {
+
+  /**
+   * Anzahl der Objekte, die bei <code>forEach(...)</code> je Sperrvorgang
+   * kopiert werden. Zwischen zwei Blöcken können schreibende Zugriffe erfolgen.
+   */
+  static final int CHUNK_SIZE = 1000;
+
+  /**
+   * Die Buchungsübersicht eines Kontos. Die Listen enthalten die
+   * Primärschlüssel der Buchungen in aufsteigender Reihenfolge.
+   */
+  static class Ledger {
+    final IntList debits = new IntList();
+
+    final IntList credits = new IntList();
+
+    double debitTotal = 0.0;
+
+    double creditTotal = 0.0;
+
+    double balance() {
+      return creditTotal - debitTotal;
+    }
+
+    void clear() {
+      debits.clear();
+      credits.clear();
+      debitTotal = 0.0;
+      creditTotal = 0.0;
+    }
+  }
+
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  final Lock readLock = lock.readLock();
+
+  final Lock writeLock = lock.writeLock();
+
+  final IntObjectHashMap<Customer> customers = new IntObjectHashMap<Customer>();
+
+  final IntList customerIds = new IntList(1024);
+
+  final IntObjectHashMap<Account> accounts = new IntObjectHashMap<Account>();
+
+  final IntList accountIds = new IntList(1024);
+
+  /**
+   * Die Kontonummern je Kundennummer.
+   */
+  final IntObjectHashMap<IntList> accountsByOwner = new IntObjectHashMap<IntList>();
+
+  final IntObjectHashMap<Transaction> transactions = new IntObjectHashMap<Transaction>(
+      1 << 16);
+
+  final IntList transactionIds = new IntList(1 << 16);
+
+  /**
+   * Die Buchungsübersichten je Kontonummer. Wie bei der Tabelle
+   * <code>account_balances</code> können hier auch Konten auftauchen, die
+   * (noch) nicht angelegt wurden, etwa das Kassenkonto der Bank.
+   */
+  final IntObjectHashMap<Ledger> ledgers = new IntObjectHashMap<Ledger>(1024);
+
+  private int nextCustomerId = 1;
+
+  private int nextAccountId = 1;
+
+  private int nextTransactionId = 1;
+
+  private final MemoryCustomerStorage customerStorage = new MemoryCustomerStorage(
+      this);
+
+  private final MemoryAccountStorage accountStorage = new MemoryAccountStorage(
+      this);
+
+  private final MemoryTransactionStorage transactionStorage = new MemoryTransactionStorage(
+      this);
+
+  private final MemoryBalanceStorage balanceStorage = new MemoryBalanceStorage(
+      this);
+
+  private final MemoryOverviewStorage overviewStorage = new MemoryOverviewStorage(
+      this);
+
+  @Override
+  public CustomerStorage customers() {
+    return customerStorage;
+  }
+
+  @Override
+  public AccountStorage accounts() {
+    return accountStorage;
+  }
+
+  @Override
+  public TransactionStorage transactions() {
+    return transactionStorage;
+  }
+
+  @Override
+  public BalanceStorage balances() {
+    return balanceStorage;
+  }
+
+  @Override
+  public OverviewStorage overviews() {
+    return overviewStorage;
+  }
+
+  /**
+   * Beginnen einer Transaktion. Der aktuelle Thread erhält die Schreibsperre
+   * und behält sie bis {@link #commitTransaction()} bzw.
+   * {@link #rollbackTransaction()}.
+   */
+  @Override
+  public void beginTransaction() throws SQLException {
+    if (lock.isWriteLockedByCurrentThread()) {
+      throw new SQLException("Es läuft bereits eine Transaktion.");
+    }
+    writeLock.lock();
+  }
+
+  @Override
+  public void commitTransaction() throws SQLException {
+    if (!lock.isWriteLockedByCurrentThread()) {
+      throw new SQLException("Es läuft keine Transaktion.");
+    }
+    writeLock.unlock();
+  }
+
+  /**
+   * Beenden einer noch laufenden Transaktion. Bereits ausgeführte Änderungen
+   * bleiben dabei erhalten.
+   */
+  @Override
+  public void rollbackTransaction() {
+    if (lock.isWriteLockedByCurrentThread()) {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public String getStatistics() {
+    readLock.lock();
+    try {
+      return "MemoryStorage[customers=" + customers.size() + ", accounts="
+          + accounts.size() + ", transactions=" + transactions.size()
+          + ", ledgers=" + ledgers.size() + "]";
+    }
+    finally {
+      readLock.unlock();
+    }
+  }
+
+  /*
+   * Die folgenden Methoden setzen voraus, dass der Aufrufer die Schreibsperre
+   * hält.
+   */
+
+  /**
+   * Vergeben des nächsten freien Primärschlüssels für einen Kunden.
+   */
+  int nextCustomerId() {
+    while (customers.containsKey(nextCustomerId)) {
+      nextCustomerId++;
+    }
+    return nextCustomerId++;
+  }
+
+  /**
+   * Vergeben des nächsten freien Primärschlüssels für ein Konto.
+   */
+  int nextAccountId() {
+    while (accounts.containsKey(nextAccountId)) {
+      nextAccountId++;
+    }
+    return nextAccountId++;
+  }
+
+  /**
+   * Vergeben des nächsten freien Primärschlüssels für eine Buchung.
+   */
+  int nextTransactionId() {
+    return nextTransactionId++;
+  }
+
+  /**
+   * Auslesen bzw. Anlegen der Buchungsübersicht eines Kontos.
+   */
+  Ledger ledger(int accountID) {
+    Ledger l = ledgers.get(accountID);
+    if (l == null) {
+      l = new Ledger();
+      ledgers.put(accountID, l);
+    }
+    return l;
+  }
+
+  /**
+   * Vermerken einer gespeicherten Buchung in den Übersichten ihres Quell- und
+   * Zielkontos.
+   */
+  void post(Transaction t) {
+    Ledger source = ledger(t.getSourceAccountID());
+    source.debits.addSorted(t.getId());
+    source.debitTotal += t.getAmount();
+
+    Ledger target = ledger(t.getTargetAccountID());
+    target.credits.addSorted(t.getId());
+    target.creditTotal += t.getAmount();
+  }
+
+  /**
+   * Entfernen einer Buchung aus den Übersichten ihres Quell- und Zielkontos.
+   */
+  void unpost(Transaction t) {
+    Ledger source = ledgers.get(t.getSourceAccountID());
+    if (source != null && source.debits.removeSorted(t.getId())) {
+      source.debitTotal -= t.getAmount();
+    }
+
+    Ledger target = ledgers.get(t.getTargetAccountID());
+    if (target != null && target.credits.removeSorted(t.getId())) {
+      target.creditTotal -= t.getAmount();
+    }
+  }
+
+  static Customer copy(Customer c) {
+    Customer result = new Customer();
+    result.setId(c.getId());
+    result.setFirstName(c.getFirstName());
+    result.setLastName(c.getLastName());
+    result.setVersion(c.getVersion());
+    return result;
+  }
+
+  static Account copy(Account a) {
+    Account result = new Account();
+    result.setId(a.getId());
+    result.setOwnerID(a.getOwnerID());
+    result.setVersion(a.getVersion());
+    return result;
+  }
+
+  static Transaction copy(Transaction t) {
+    Transaction result = new Transaction();
+    result.setId(t.getId());
+    result.setSourceAccountID(t.getSourceAccountID());
+    result.setTargetAccountID(t.getTargetAccountID());
+    result.setAmount(t.getAmount());
+    return result;
+  }
+}
@@ -0,0 +1,368 @@
+package de.hdm.thies.bankProjekt.server.storage.memory;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Vector;
+
+import de.hdm.thies.bankProjekt.server.storage.ObjectHandler;
+import de.hdm.thies.bankProjekt.server.storage.TransactionStorage;
+import de.hdm.thies.bankProjekt.shared.bo.Account;
+import de.hdm.thies.bankProjekt.shared.bo.Customer;
+import de.hdm.thies.bankProjekt.shared.bo.Transaction;
+
+/**
+ * Speicher für Buchungen im Hauptspeicher. Jede Buchung wird zusätzlich in den
+ * {@link MemoryStorage.Ledger Buchungsübersichten} ihres Quell- und Zielkontos
+ * vermerkt. Die Abfragen je Konto sowie Summen und Kontostände kommen damit
+ * ohne Durchlaufen aller Buchungen aus.
+ *
+ * @see MemoryStorage
+ * @author Thies
+ */
+class MemoryTransactionStorage implements TransactionStorage {
+
+  /**
+   * Sortierung nach dem Quellkonto, wie bei {@link #findAll()} der
+   * Datenbankanbindung.
+   */
+  private static final Comparator<Transaction> BY_SOURCE_ACCOUNT = new Comparator<Transaction>() {
+    @Override
+    public int compare(Transaction t1, Transaction t2) {
+      int s1 = t1.getSourceAccountID();
+      int s2 = t2.getSourceAccountID();
+      return s1 < s2 ? -1 : (s1 == s2 ? 0 : 1);
+    }
+  };
+
+  private final MemoryStorage store;
+
+  MemoryTransactionStorage(MemoryStorage store) {
+    this.store = store;
+  }
+
+  @Override
+  public Transaction findByKey(int id) {
+    store.readLock.lock();
+    try {
+      Transaction t = store.transactions.get(id);
+      return t == null ? null : MemoryStorage.copy(t);
+    }
+    finally {
+      store.readLock.unlock();
+    }
+  }
+
+  @Override
+  public HashMap<Integer, Transaction> findByKeys(int[] ids) {
+    HashMap<Integer, Transaction> result = new HashMap<Integer, Transaction>();
+    store.readLock.lock();
+    try {
+      for (int id : ids) {
+        Transaction t = store.transactions.get(id);
+        if (t != null) {
+          result.put(Integer.valueOf(id), MemoryStorage.copy(t));
+        }
+      }
+      return result;
+    }
+    finally {
+      store.readLock.unlock();
+    }
+  }
+
+  @Override
+  public Vector<Transaction> findAll() {
+    Vector<Transaction> result = findPage(0, Integer.MAX_VALUE);
+    Collections.sort(result, BY_SOURCE_ACCOUNT);
+    return result;
+  }
+
+  @Override
+  public int forEach(ObjectHandler<Transaction> handler) {
+    int count = 0;
+    int afterId = 0;
+
+    // Blockweise kopieren, damit die Sperre nicht während des Handlers gilt
+    for (;;) {
+      Vector<Transaction> chunk = findPage(afterId, MemoryStorage.CHUNK_SIZE);
+      for (Transaction t : chunk) {
+        handler.handle(t);
+        count++;
+      }
+      if (chunk.size() < MemoryStorage.CHUNK_SIZE) {
+        return count;
+      }
+      afterId = chunk.lastElement().getId();
+    }
+  }
+
+  @Override
+  public Vector<Transaction> findPage(int afterId, int limit) {
+    Vector<Transaction> result = new Vector<Transaction>();
+
+    store.readLock.lock();
+    try {
+      IntList ids = store.transactionIds;
+      for (int i = ids.indexAfter(afterId); i < ids.size()
+          && result.size() < limit; i++) {
+        result.addElement(MemoryStorage.copy(store.transactions.get(ids
+            .get(i))));
+      }
+    }
+    finally {
+      store.readLock.unlock();
+    }
+
+    return result;
+  }
+
+  @Override
+  public Vector<Transaction> findBySourceAccount(int accountID) {
+    store.readLock.lock();
+    try {
+      MemoryStorage.Ledger l = store.ledgers.get(accountID);
+      return l == null ? new Vector<Transaction>() : copies(l.debits);
+    }
+    finally {
+      store.readLock.unlock();
+    }
+  }
+
+  @Override
+  public Vector<Transaction> findByTargetAccount(int accountID) {
+    store.readLock.lock();
+    try {
+      MemoryStorage.Ledger l = store.ledgers.get(accountID);
+      return l == null ? new Vector<Transaction>() : copies(l.credits);
+    }
+    finally {
+      store.readLock.unlock();
+    }
+  }
+
+  /**
+   * Kopieren der Buchungen mit den angegebenen Primärschlüsseln.
+   */
+  private Vector<Transaction> copies(IntList ids) {
+    Vector<Transaction> result = new Vector<Transaction>(ids.size());
+    for (int i = 0; i < ids.size(); i++) {
+      result.addElement(MemoryStorage.copy(store.transactions.get(ids.get(i))));
+    }
+    return result;
+  }
+
+  @Override
+  public Double sumDebits(int accountID) {
+    store.readLock.lock();
+    try {
+      MemoryStorage.Ledger l = store.ledgers.get(accountID);
+      return Double.valueOf(l == null ? 0.0 : l.debitTotal);
+    }
+    finally {
+      store.readLock.unlock();
+    }
+  }
+
+  @Override
+  public Double sumCredits(int accountID) {
+    store.readLock.lock();
+    try {
+      MemoryStorage.Ledger l = store.ledgers.get(accountID);
+      return Double.valueOf(l == null ? 0.0 : l.creditTotal);
+    }
+    finally {
+      store.readLock.unlock();
+    }
+  }
+
+  @Override
+  public HashMap<Integer, Double> netBalances(int[] accountIDs) {
+    HashMap<Integer, Double> result = new HashMap<Integer, Double>();
+
+    store.readLock.lock();
+    try {
+      for (int id : accountIDs) {
+        MemoryStorage.Ledger l = store.ledgers.get(id);
+        result.put(Integer.valueOf(id),
+            Double.valueOf(l == null ? 0.0 : l.balance()));
+      }
+    }
+    finally {
+      store.readLock.unlock();
+    }
+
+    return result;
+  }
+
+  @Override
+  public Transaction insert(Transaction t) {
+    store.writeLock.lock();
+    try {
+      add(t);
+    }
+    finally {
+      store.writeLock.unlock();
+    }
+
+    return t;
+  }
+
+  @Override
+  public int[] insertBatch(List<Transaction> transactions) {
+    int[] ids = new int[transactions.size()];
+
+    // Die gesamte Menge wird unter einer einzigen Sperre gebucht
+    store.writeLock.lock();
+    try {
+      for (int i = 0; i < ids.length; i++) {
+        Transaction t = transactions.get(i);
+        add(t);
+        ids[i] = t.getId();
+      }
+    }
+    finally {
+      store.writeLock.unlock();
+    }
+
+    return ids;
+  }
+
+  /**
+   * Speichern und Verbuchen einer neuen Buchung. Der Aufrufer hält die
+   * Schreibsperre.
+   */
+  private void add(Transaction t) {
+    t.setId(store.nextTransactionId());
+
+    Transaction stored = MemoryStorage.copy(t);
+    store.transactions.put(stored.getId(), stored);
+    store.transactionIds.add(stored.getId());
+    store.post(stored);
+  }
+
+  @Override
+  public Transaction update(Transaction t) {
+    store.writeLock.lock();
+    try {
+      // Die bisherige Buchung wird storniert und die geänderte verbucht
+      Transaction old = store.transactions.get(t.getId());
+      if (old != null) {
+        Transaction stored = MemoryStorage.copy(t);
+        store.unpost(old);
+        store.transactions.put(stored.getId(), stored);
+        store.post(stored);
+      }
+    }
+    finally {
+      store.writeLock.unlock();
+    }
+
+    return t;
+  }
+
+  @Override
+  public void delete(Transaction t) {
+    store.writeLock.lock();
+    try {
+      Transaction old = store.transactions.remove(t.getId());
+      if (old != null) {
+        store.unpost(old);
+        store.transactionIds.removeSorted(old.getId());
+      }
+    }
+    finally {
+      store.writeLock.unlock();
+    }
+  }
+
+  @Override
+  public int deleteTransactionsOf(Account a) {
+    store.writeLock.lock();
+    try {
+      return deleteTransactions(new int[] { a.getId() });
+    }
+    finally {
+      store.writeLock.unlock();
+    }
+  }
+
+  @Override
+  public int deleteTransactionsOf(Customer c) {
+    store.writeLock.lock();
+    try {
+      IntList accounts = store.accountsByOwner.get(c.getId());
+      return accounts == null ? 0 : deleteTransactions(accounts.toArray());
+    }
+    finally {
+      store.writeLock.unlock();
+    }
+  }
+
+  /**
+   * Löschen sämtlicher Buchungen der angegebenen Konten. Die Übersichten
+   * dieser Konten werden anschließend auf einmal geleert, die der Gegenkonten
+   * je Buchung fortgeschrieben. Der Aufrufer hält die Schreibsperre.
+   *
+   * @param accountIDs die Kontonummern
+   * @return die Anzahl der gelöschten Buchungen
+   */
+  private int deleteTransactions(int[] accountIDs) {
+    IntObjectHashMap<MemoryStorage.Ledger> purged = new IntObjectHashMap<MemoryStorage.Ledger>(
+        accountIDs.length);
+    for (int id : accountIDs) {
+      MemoryStorage.Ledger l = store.ledgers.get(id);
+      if (l != null) {
+        purged.put(id, l);
+      }
+    }
+
+    int count = 0;
+    for (int account : purged.keys()) {
+      MemoryStorage.Ledger l = purged.get(account);
+      count += purge(l.debits, purged) + purge(l.credits, purged);
+    }
+
+    for (int account : purged.keys()) {
+      purged.get(account).clear();
+    }
+
+    if (count > 0) {
+      store.transactionIds.retainKeys(store.transactions);
+    }
+    return count;
+  }
+
+  /**
+   * Entfernen der Buchungen mit den angegebenen Primärschlüsseln samt ihrer
+   * Einträge in den Übersichten der Gegenkonten.
+   */
+  private int purge(IntList ids, IntObjectHashMap<MemoryStorage.Ledger> purged) {
+    int count = 0;
+
+    for (int i = 0; i < ids.size(); i++) {
+      Transaction t = store.transactions.remove(ids.get(i));
+      if (t == null) {
+        // Bereits als Buchung eines anderen betroffenen Kontos gelöscht
+        continue;
+      }
+      count++;
+
+      if (!purged.containsKey(t.getSourceAccountID())) {
+        MemoryStorage.Ledger source = store.ledgers.get(t.getSourceAccountID());
+        if (source != null && source.debits.removeSorted(t.getId())) {
+          source.debitTotal -= t.getAmount();
+        }
+      }
+      if (!purged.containsKey(t.getTargetAccountID())) {
+        MemoryStorage.Ledger target = store.ledgers.get(t.getTargetAccountID());
+        if (target != null && target.credits.removeSorted(t.getId())) {
+          target.creditTotal -= t.getAmount();
+        }
+      }
+    }
+
+    return count;
+  }
+}
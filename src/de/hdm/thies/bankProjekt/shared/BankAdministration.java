@@ -1,6 +1,7 @@
 package de.hdm.thies.bankProjekt.shared;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Vector;
 
 import com.google.gwt.user.client.rpc.RemoteService;
@@ -77,11 +78,28 @@ public interface BankAdministration extends RemoteService {
    * @param target das Zielkonto
    * @param value der zu buchende Betrag
    * @return fertiges Transaction-Objekt
-   * @throws IllegalArgumentException
+   * @throws IllegalArgumentException wenn der Betrag ungültig oder durch den
+   *           Kontostand des Quellkontos nicht gedeckt ist
    */
   public Transaction createTransactionFor(Account source, Account target,
       float value) throws IllegalArgumentException;
 
+  /**
+   * Eine ganze Reihe neuer Buchungen in einem Schritt erstellen, z.B. für
+   * Sammelüberweisungen. Die Buchungen werden in ihrer Reihenfolge auf Deckung
+   * geprüft und gemeinsam gespeichert: Entweder werden alle Buchungen angelegt
+   * oder keine.
+   * 
+   * @param transactions die zu speichernden Buchungen mit Quell- und Zielkonto
+   *          sowie Betrag
+   * @return die Primärschlüssel der angelegten Buchungen in der Reihenfolge der
+   *         übergebenen Buchungen
+   * @throws IllegalArgumentException wenn eine Buchung ungültig oder nicht
+   *           gedeckt ist oder die Buchungen nicht gespeichert werden konnten
+   */
+  public int[] createTransactions(Vector<Transaction> transactions)
+      throws IllegalArgumentException;
+
   /**
    * Hier wird der Use Case abgebildet, dass der Kunde eine Barabhebung von
    * einem Konto machen möchte. Es wird hierdurch ein Buchungssatz
@@ -98,8 +116,11 @@ public interface BankAdministration extends RemoteService {
    * @param amount der Betrag, der abgehoben werden soll.
    * @return Ein <code>Transaction</code>-Objekt, das den resultierenden
    *         Buchungssatz darstellt.
+   * @throws IllegalArgumentException wenn der Kontostand den Betrag nicht
+   *           deckt
    */
-  public Transaction createWithdrawal(Account customerAccount, float amount);
+  public Transaction createWithdrawal(Account customerAccount, float amount)
+      throws IllegalArgumentException;
   
   /**
    * Hier wird der Use Case abgebildet, dass der Kunde eine Bareinzahlung auf
@@ -118,7 +139,51 @@ public interface BankAdministration extends RemoteService {
    * @return Ein <code>Transaction</code>-Objekt, das den resultierenden
    *         Buchungssatz darstellt.
    */
-  public Transaction createDeposit(Account customerAccount, float amount);
+  public Transaction createDeposit(Account customerAccount, float amount)
+      throws IllegalArgumentException;
+
+  /**
+   * Wie {@link #createTransactionFor(Account, Account, float)}, jedoch mit
+   * dem neuen Stand der betroffenen Konten, ihren Kontoständen und Inhabern
+   * als Ergebnis. Die Anzeige kann damit ohne weitere Aufrufe aktualisiert
+   * werden.
+   * 
+   * @param source das Quellkonto
+   * @param target das Zielkonto
+   * @param value der zu buchende Betrag
+   * @return die Buchung samt betroffenen Konten, Kontoständen und Inhabern
+   * @throws IllegalArgumentException wenn der Betrag ungültig oder durch den
+   *           Kontostand des Quellkontos nicht gedeckt ist
+   */
+  public TransactionResult createTransactionWithResult(Account source,
+      Account target, float value) throws IllegalArgumentException;
+
+  /**
+   * Wie {@link #createWithdrawal(Account, float)}, jedoch mit dem neuen Stand
+   * des Kundenkontos, seinem Kontostand und seinem Inhaber als Ergebnis.
+   * 
+   * @param customerAccount das Kundenkonto, von dem die Barabhebung erfolgen
+   *          soll.
+   * @param amount der Betrag, der abgehoben werden soll.
+   * @return die Buchung samt Kundenkonto, Kontostand und Inhaber
+   * @throws IllegalArgumentException wenn der Kontostand den Betrag nicht
+   *           deckt
+   */
+  public TransactionResult createWithdrawalWithResult(Account customerAccount,
+      float amount) throws IllegalArgumentException;
+
+  /**
+   * Wie {@link #createDeposit(Account, float)}, jedoch mit dem neuen Stand
+   * des Kundenkontos, seinem Kontostand und seinem Inhaber als Ergebnis.
+   * 
+   * @param customerAccount das Kundenkonto, auf das der Betrag eingezahlt
+   *          werden soll.
+   * @param amount der Betrag, der eingezahlt wird.
+   * @return die Buchung samt Kundenkonto, Kontostand und Inhaber
+   * @throws IllegalArgumentException
+   */
+  public TransactionResult createDepositWithResult(Account customerAccount,
+      float amount) throws IllegalArgumentException;
   
   /**
    * <p>
@@ -202,6 +267,32 @@ public interface BankAdministration extends RemoteService {
    */
   public Customer getCustomerById(int id) throws IllegalArgumentException;
 
+  /**
+   * Suchen mehrerer Customer-Objekte, deren Kundennummern bekannt sind. Im
+   * Gegensatz zu wiederholten Aufrufen von {@link #getCustomerById(int)} wird
+   * dafür nur ein Aufruf an den Server geschickt, der die Kunden blockweise
+   * aus der Datenbank liest.
+   * 
+   * @param ids sind die Kundennummern.
+   * @return Die gefundenen Customer-Objekte, indiziert nach Kundennummer.
+   *         Unbekannte Kundennummern fehlen in der Map.
+   * @throws IllegalArgumentException
+   */
+  public HashMap<Integer, Customer> getCustomersByIds(int[] ids)
+      throws IllegalArgumentException;
+
+  /**
+   * Suchen mehrerer Account-Objekte, deren Kontonummern bekannt sind.
+   * 
+   * @param ids sind die Kontonummern.
+   * @return Die gefundenen Account-Objekte, indiziert nach Kontonummer.
+   *         Unbekannte Kontonummern fehlen in der Map.
+   * @throws IllegalArgumentException
+   * @see #getCustomersByIds(int[])
+   */
+  public HashMap<Integer, Account> getAccountsByIds(int[] ids)
+      throws IllegalArgumentException;
+
   /**
    * Sämtliche Kunden der Bank auslesen.
    * 
@@ -217,18 +308,105 @@ public interface BankAdministration extends RemoteService {
   public Vector<Account> getAllAccounts() throws IllegalArgumentException;
 
   /**
-   * Speichern eines Account-Objekts in der Datenbank.
+   * Seitenweises Auslesen der Kunden der Bank, aufsteigend sortiert nach der
+   * Kundennummer. Für die nächste Seite wird die Kundennummer des letzten
+   * Kunden der vorherigen Seite als <code>afterId</code> übergeben.
+   * 
+   * @param afterId Kundennummer des letzten bereits gelesenen Kunden bzw. 0 für
+   *          die erste Seite
+   * @param limit Höchstanzahl der zu liefernden Kunden
+   * @return Vector der Kunden dieser Seite, leer wenn es keine weiteren gibt
+   * @throws IllegalArgumentException
+   */
+  public Vector<Customer> getCustomersPage(int afterId, int limit)
+      throws IllegalArgumentException;
+
+  /**
+   * Seitenweises Auslesen der Konten der Bank, aufsteigend sortiert nach der
+   * Kontonummer.
+   * 
+   * @param afterId Kontonummer des letzten bereits gelesenen Kontos bzw. 0 für
+   *          die erste Seite
+   * @param limit Höchstanzahl der zu liefernden Konten
+   * @return Vector der Konten dieser Seite, leer wenn es keine weiteren gibt
+   * @throws IllegalArgumentException
+   * @see #getCustomersPage(int, int)
+   */
+  public Vector<Account> getAccountsPage(int afterId, int limit)
+      throws IllegalArgumentException;
+
+  /**
+   * Seitenweises Auslesen von Kontozusammenfassungen, aufsteigend sortiert
+   * nach der Kontonummer. Jede Zusammenfassung enthält neben der Kontonummer
+   * den Namen des Inhabers und den aktuellen Kontostand. Für eine Übersicht
+   * aller Konten genügt damit ein Aufruf je Seite, statt Inhaber und
+   * Kontostand für jedes Konto einzeln zu erfragen.
+   * 
+   * @param afterId Kontonummer des letzten bereits gelesenen Kontos bzw. 0 für
+   *          die erste Seite
+   * @param limit Höchstanzahl der zu liefernden Zusammenfassungen
+   * @return Vector der Zusammenfassungen dieser Seite, leer wenn es keine
+   *         weiteren gibt
+   * @throws IllegalArgumentException
+   * @see #getCustomersPage(int, int)
+   */
+  public Vector<AccountSummary> getAccountSummariesPage(int afterId, int limit)
+      throws IllegalArgumentException;
+
+  /**
+   * Seitenweises Auslesen des Kunden- und Kontenbaums. Geliefert werden
+   * höchstens <code>limit</code> Kunden, aufsteigend sortiert nach Nachname
+   * und Kundennummer, zusammen mit all ihren Konten und deren aktuellen
+   * Kontoständen. Für die Darstellung einer Seite des Baums genügt damit ein
+   * einziger Aufruf, statt die Konten und Kontostände je Kunde einzeln zu
+   * erfragen.
+   * 
+   * @param afterLastName Nachname des letzten bereits gelesenen Kunden bzw.
+   *          <code>""</code> für die erste Seite
+   * @param afterId Kundennummer des letzten bereits gelesenen Kunden bzw. 0
+   *          für die erste Seite
+   * @param limit Höchstanzahl der zu liefernden Kunden
+   * @return der Ausschnitt des Baums, ohne Kunden wenn es keine weiteren gibt
+   * @throws IllegalArgumentException
+   * @see CustomerTree#getLastCustomerLastName()
+   * @see CustomerTree#getLastCustomerID()
+   */
+  public CustomerTree getCustomerTree(String afterLastName, int afterId,
+      int limit) throws IllegalArgumentException;
+
+  /**
+   * Seitenweises Auslesen sämtlicher Buchungen der Bank, aufsteigend sortiert
+   * nach der Buchungsnummer.
+   * 
+   * @param afterId Nummer der letzten bereits gelesenen Buchung bzw. 0 für die
+   *          erste Seite
+   * @param limit Höchstanzahl der zu liefernden Buchungen
+   * @return Liste der Buchungen dieser Seite, leer wenn es keine weiteren gibt
+   * @throws IllegalArgumentException
+   * @see #getCustomersPage(int, int)
+   */
+  public ArrayList<Transaction> getTransactionsPage(int afterId, int limit)
+      throws IllegalArgumentException;
+
+  /**
+   * Speichern eines Account-Objekts in der Datenbank. Bei Erfolg steigt die
+   * Version des gespeicherten Objekts um 1.
    * 
    * @param a zu sicherndes Objekt.
    * @throws IllegalArgumentException
+   * @throws StaleObjectException wenn das Objekt seit dem Auslesen geändert
+   *           oder gelöscht wurde
    */
   public void save(Account a) throws IllegalArgumentException;
 
   /**
-   * Speichern eines Customer-Objekts in der Datenbank.
+   * Speichern eines Customer-Objekts in der Datenbank. Bei Erfolg steigt die
+   * Version des gespeicherten Objekts um 1.
    * 
    * @param c zu sicherndes Objekt.
    * @throws IllegalArgumentException
+   * @throws StaleObjectException wenn das Objekt seit dem Auslesen geändert
+   *           oder gelöscht wurde
    */
   public void save(Customer c) throws IllegalArgumentException;
 
@@ -241,6 +419,34 @@ public interface BankAdministration extends RemoteService {
    */
   public float getBalanceOf(Account k) throws IllegalArgumentException;
 
+  /**
+   * Auslesen des Kontostands des übergebenen Kontos nach einer bestimmten
+   * Buchung, d.h. unter Berücksichtigung aller Buchungen bis einschließlich
+   * der Buchung mit der Nummer <code>asOfTransactionID</code>.
+   * 
+   * @param k das Konto, dessen Kontostand wir auslesen möchten.
+   * @param asOfTransactionID Nummer der letzten zu berücksichtigenden Buchung
+   * @return Kontostand als <code>float</code>
+   * @throws IllegalArgumentException
+   */
+  public float getBalanceOf(Account k, int asOfTransactionID)
+      throws IllegalArgumentException;
+
+  /**
+   * Auslesen der Kontostände mehrerer Konten mit einem einzigen Aufruf, etwa
+   * für sämtliche Konten eines Kunden. Statt eines Aufrufs je Konto genügt
+   * damit ein Roundtrip zum Server, der die Kontostände wiederum mit einer
+   * einzigen Anfrage an die Datenbank ermittelt.
+   * 
+   * @param accountIDs die Kontonummern, höchstens so viele wie eine Seite
+   *          umfassen darf
+   * @return die Kontostände der angefragten Konten. Konten ohne Buchungen
+   *         haben den Kontostand 0.
+   * @throws IllegalArgumentException
+   */
+  public AccountBalances getBalancesOf(int[] accountIDs)
+      throws IllegalArgumentException;
+
   /**
    * Löschen des übergebenen Kontos.
    * 
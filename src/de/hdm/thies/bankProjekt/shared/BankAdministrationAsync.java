@@ -1,6 +1,7 @@
 package de.hdm.thies.bankProjekt.shared;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Vector;
 
 import com.google.gwt.user.client.rpc.AsyncCallback;
@@ -34,10 +35,31 @@ public interface BankAdministrationAsync {
   
   void getAllCustomers(AsyncCallback<Vector<Customer>> callback);
 
+  void getCustomersPage(int afterId, int limit,
+      AsyncCallback<Vector<Customer>> callback);
+
+  void getAccountsPage(int afterId, int limit,
+      AsyncCallback<Vector<Account>> callback);
+
+  void getAccountSummariesPage(int afterId, int limit,
+      AsyncCallback<Vector<AccountSummary>> callback);
+
+  void getCustomerTree(String afterLastName, int afterId, int limit,
+      AsyncCallback<CustomerTree> callback);
+
+  void getTransactionsPage(int afterId, int limit,
+      AsyncCallback<ArrayList<Transaction>> callback);
+
   void getBank(AsyncCallback<Bank> callback);
 
   void getCustomerById(int id, AsyncCallback<Customer> callback);
 
+  void getCustomersByIds(int[] ids,
+      AsyncCallback<HashMap<Integer, Customer>> callback);
+
+  void getAccountsByIds(int[] ids,
+      AsyncCallback<HashMap<Integer, Account>> callback);
+
   void save(Account a, AsyncCallback<Void> callback);
 
   void init(AsyncCallback<Void> callback);
@@ -45,8 +67,16 @@ public interface BankAdministrationAsync {
   void createTransactionFor(Account source, Account target, float value,
       AsyncCallback<Transaction> callback);
 
+  void createTransactions(Vector<Transaction> transactions,
+      AsyncCallback<int[]> callback);
+
   void getBalanceOf(Account k, AsyncCallback<Float> callback);
 
+  void getBalanceOf(Account k, int asOfTransactionID,
+      AsyncCallback<Float> callback);
+
+  void getBalancesOf(int[] accountIDs, AsyncCallback<AccountBalances> callback);
+
   void setBank(Bank b, AsyncCallback<Void> callback);
 
   void delete(Customer c, AsyncCallback<Void> callback);
@@ -64,4 +94,13 @@ public interface BankAdministrationAsync {
 
   void createDeposit(Account customerAccount, float amount,
       AsyncCallback<Transaction> callback);
+
+  void createTransactionWithResult(Account source, Account target,
+      float value, AsyncCallback<TransactionResult> callback);
+
+  void createWithdrawalWithResult(Account customerAccount, float amount,
+      AsyncCallback<TransactionResult> callback);
+
+  void createDepositWithResult(Account customerAccount, float amount,
+      AsyncCallback<TransactionResult> callback);
 }
@@ -0,0 +1,34 @@
+package de.hdm.thies.bankProjekt.shared;
+
+/**
+ * <p>
+ * Ausnahme für den Fall, dass ein Objekt gespeichert werden soll, dessen
+ * gespeicherter Stand sich seit dem Auslesen geändert hat. Kunden und Konten
+ * tragen hierzu eine Version, die bei jeder Änderung um 1 erhöht wird. Eine
+ * Änderung wird nur übernommen, wenn die Version des Objekts noch der
+ * gespeicherten entspricht (<em>optimistisches Sperrverfahren</em>).
+ * </p>
+ * <p>
+ * Als Subklasse von {@link IllegalArgumentException} kann die Ausnahme von
+ * jeder RPC-Methode ausgeworfen werden. Der Client erkennt an ihrem Typ, dass
+ * er das Objekt erneut auslesen und die Änderung ggf. wiederholen sollte.
+ * </p>
+ *
+ * @see de.hdm.thies.bankProjekt.shared.bo.Customer#getVersion()
+ * @see de.hdm.thies.bankProjekt.shared.bo.Account#getVersion()
+ */
+public class StaleObjectException extends IllegalArgumentException {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Für die Serialisierung durch GWT RPC ist ein No-Argument-Konstruktor
+   * erforderlich.
+   */
+  public StaleObjectException() {
+  }
+
+  public StaleObjectException(String message) {
+    super(message);
+  }
+}
@@ -17,6 +17,13 @@ public class Account extends BusinessObject {
    */
   private int ownerID = 0;
 
+  /**
+   * Version des gespeicherten Stands. Sie wird bei jeder Änderung um 1 erhöht
+   * und dient dem Erkennen gleichzeitiger Änderungen (siehe
+   * {@link de.hdm.thies.bankProjekt.shared.StaleObjectException}).
+   */
+  private int version = 0;
+
   /**
    * Auslesen des Fremdschlüssels zum Kontoinhaber.
    */
@@ -31,6 +38,20 @@ public class Account extends BusinessObject {
     this.ownerID = kundeID;
   }
 
+  /**
+   * Auslesen der Version des gespeicherten Stands.
+   */
+  public int getVersion() {
+    return this.version;
+  }
+
+  /**
+   * Setzen der Version des gespeicherten Stands.
+   */
+  public void setVersion(int version) {
+    this.version = version;
+  }
+
   /**
    * Erzeugen einer einfachen textuellen Repräsentation der jeweiligen
    * Kontoinstanz.
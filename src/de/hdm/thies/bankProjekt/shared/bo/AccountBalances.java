@@ -0,0 +1,114 @@
+package de.hdm.thies.bankProjekt.shared.bo;
+
+import java.io.Serializable;
+
+/**
+ * <p>
+ * Kontostände mehrerer Konten als Ergebnis einer einzigen Anfrage an den
+ * Server. Statt einer <code>HashMap&lt;Integer, Float&gt;</code>, bei der GWT
+ * RPC jeden Schlüssel und jeden Wert als eigenes Objekt überträgt, werden
+ * Kontonummern und Kontostände in zwei gleich langen Arrays abgelegt. Die
+ * Kontonummern sind aufsteigend sortiert, so dass ein Kontostand mittels
+ * binärer Suche gefunden wird.
+ * </p>
+ * <p>
+ * Wie {@link AccountSummary} ist dies ein reines Leseobjekt.
+ * </p>
+ *
+ * @author thies
+ * @version 1.0
+ */
+public class AccountBalances implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Die Kontonummern in aufsteigender Reihenfolge.
+   */
+  private int[] accountIDs = new int[0];
+
+  /**
+   * Die Kontostände, jeweils an derselben Position wie die Kontonummer.
+   */
+  private float[] balances = new float[0];
+
+  /**
+   * Für die Serialisierung durch GWT RPC ist ein No-Argument-Konstruktor
+   * erforderlich.
+   */
+  public AccountBalances() {
+  }
+
+  /**
+   * Anlegen aus bereits sortierten Kontonummern und zugehörigen Kontoständen.
+   *
+   * @param accountIDs die Kontonummern in aufsteigender Reihenfolge
+   * @param balances die Kontostände an denselben Positionen
+   */
+  public AccountBalances(int[] accountIDs, float[] balances) {
+    if (accountIDs.length != balances.length) {
+      throw new IllegalArgumentException(
+          "Kontonummern und Kontostände müssen gleich viele sein.");
+    }
+    this.accountIDs = accountIDs;
+    this.balances = balances;
+  }
+
+  /**
+   * Anzahl der enthaltenen Konten.
+   */
+  public int size() {
+    return this.accountIDs.length;
+  }
+
+  /**
+   * Auslesen der Kontonummer an einer Position.
+   */
+  public int getAccountID(int index) {
+    return this.accountIDs[index];
+  }
+
+  /**
+   * Auslesen des Kontostands an einer Position.
+   */
+  public float getBalance(int index) {
+    return this.balances[index];
+  }
+
+  /**
+   * Suchen der Position eines Kontos.
+   *
+   * @param accountID Kontonummer
+   * @return die Position oder -1, wenn das Konto nicht enthalten ist
+   */
+  public int indexOf(int accountID) {
+    int low = 0;
+    int high = this.accountIDs.length - 1;
+
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (this.accountIDs[mid] < accountID) {
+        low = mid + 1;
+      }
+      else if (this.accountIDs[mid] > accountID) {
+        high = mid - 1;
+      }
+      else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Auslesen des Kontostands eines Kontos.
+   *
+   * @param accountID Kontonummer
+   * @return der Kontostand oder <code>null</code>, wenn das Konto nicht
+   *         enthalten ist
+   */
+  public Float getBalanceOf(int accountID) {
+    int index = indexOf(accountID);
+    return index < 0 ? null : Float.valueOf(this.balances[index]);
+  }
+}
@@ -0,0 +1,130 @@
+package de.hdm.thies.bankProjekt.shared.bo;
+
+import java.io.Serializable;
+
+/**
+ * <p>
+ * Zusammenfassung eines Kontos für Übersichten und Reports: Kontonummer, Name
+ * des Kontoinhabers und aktueller Kontostand. Statt zu jedem Konto den
+ * Inhaber und den Kontostand einzeln beim Server zu erfragen, werden diese
+ * Angaben auf dem Server gemeinsam mit einer einzigen Anfrage ermittelt.
+ * </p>
+ * <p>
+ * Eine <code>AccountSummary</code> ist ein reines Leseobjekt. Sie ist kein
+ * {@link BusinessObject} und wird nicht gespeichert. Änderungen am Konto
+ * erfolgen weiterhin über {@link Account}.
+ * </p>
+ *
+ * @author thies
+ * @version 1.0
+ */
+public class AccountSummary implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Die Kontonummer.
+   */
+  private int accountID = 0;
+
+  /**
+   * Die Kundennummer des Kontoinhabers.
+   */
+  private int ownerID = 0;
+
+  /**
+   * Vorname des Kontoinhabers bzw. <code>""</code>, wenn der Kunde nicht mehr
+   * existiert.
+   */
+  private String ownerFirstName = "";
+
+  /**
+   * Nachname des Kontoinhabers bzw. <code>""</code>, wenn der Kunde nicht mehr
+   * existiert.
+   */
+  private String ownerLastName = "";
+
+  /**
+   * Der Kontostand zum Zeitpunkt des Auslesens.
+   */
+  private float balance = 0.0f;
+
+  /**
+   * Auslesen der Kontonummer.
+   */
+  public int getAccountID() {
+    return this.accountID;
+  }
+
+  /**
+   * Setzen der Kontonummer.
+   */
+  public void setAccountID(int accountID) {
+    this.accountID = accountID;
+  }
+
+  /**
+   * Auslesen der Kundennummer des Kontoinhabers.
+   */
+  public int getOwnerID() {
+    return this.ownerID;
+  }
+
+  /**
+   * Setzen der Kundennummer des Kontoinhabers.
+   */
+  public void setOwnerID(int ownerID) {
+    this.ownerID = ownerID;
+  }
+
+  /**
+   * Auslesen des Vornamens des Kontoinhabers.
+   */
+  public String getOwnerFirstName() {
+    return this.ownerFirstName;
+  }
+
+  /**
+   * Setzen des Vornamens des Kontoinhabers.
+   */
+  public void setOwnerFirstName(String firstName) {
+    this.ownerFirstName = firstName == null ? "" : firstName;
+  }
+
+  /**
+   * Auslesen des Nachnamens des Kontoinhabers.
+   */
+  public String getOwnerLastName() {
+    return this.ownerLastName;
+  }
+
+  /**
+   * Setzen des Nachnamens des Kontoinhabers.
+   */
+  public void setOwnerLastName(String lastName) {
+    this.ownerLastName = lastName == null ? "" : lastName;
+  }
+
+  /**
+   * Auslesen des Kontostands.
+   */
+  public float getBalance() {
+    return this.balance;
+  }
+
+  /**
+   * Setzen des Kontostands.
+   */
+  public void setBalance(float balance) {
+    this.balance = balance;
+  }
+
+  /**
+   * Erzeugen einer einfachen textuellen Darstellung der Kontozusammenfassung.
+   */
+  @Override
+  public String toString() {
+    return "Konto #" + this.accountID + " von " + this.ownerFirstName + " "
+        + this.ownerLastName + " (" + this.ownerID + "): " + this.balance;
+  }
+}
@@ -21,6 +21,13 @@ public class Customer extends BusinessObject {
    * Der Nachname des Kunden.
    */
   private String lastName = "";
+
+  /**
+   * Version des gespeicherten Stands. Sie wird bei jeder Änderung um 1 erhöht
+   * und dient dem Erkennen gleichzeitiger Änderungen (siehe
+   * {@link de.hdm.thies.bankProjekt.shared.StaleObjectException}).
+   */
+  private int version = 0;
   
   /**
    * Auslesen des Vornamens.
@@ -50,6 +57,20 @@ public class Customer extends BusinessObject {
     this.lastName = name;
   }
 
+  /**
+   * Auslesen der Version des gespeicherten Stands.
+   */
+  public int getVersion() {
+    return this.version;
+  }
+
+  /**
+   * Setzen der Version des gespeicherten Stands.
+   */
+  public void setVersion(int version) {
+    this.version = version;
+  }
+
   /**
    * Erzeugen einer einfachen textuellen Darstellung der jeweiligen Instanz.
    * Diese besteht aus dem Text, der durch die <code>toString()</code>-Methode
@@ -0,0 +1,165 @@
+package de.hdm.thies.bankProjekt.shared.bo;
+
+import java.io.Serializable;
+import java.util.Vector;
+
+/**
+ * <p>
+ * Ausschnitt des Kunden- und Kontenbaums: eine Seite von Kunden, aufsteigend
+ * sortiert nach Nachname und Kundennummer, zusammen mit sämtlichen Konten
+ * dieser Kunden und deren aktuellen Kontoständen. Der Ausschnitt wird auf dem
+ * Server mit einer einzigen Anfrage ermittelt, so dass der Client eine Seite
+ * des Baums ohne weitere Aufrufe je Kunde oder Konto darstellen kann.
+ * </p>
+ * <p>
+ * Die Konten liegen nach Inhaber gruppiert in derselben Reihenfolge wie die
+ * Kunden vor. Die Konten des Kunden an Position <code>i</code> reichen von
+ * <code>firstAccount[i]</code> bis ausschließlich
+ * <code>firstAccount[i + 1]</code>. Die Kontostände stehen, wie bei
+ * {@link AccountBalances}, in einem Array an derselben Position wie das Konto.
+ * </p>
+ * <p>
+ * Wie {@link AccountSummary} ist dies ein reines Leseobjekt.
+ * </p>
+ *
+ * @author thies
+ * @version 1.0
+ */
+public class CustomerTree implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Die Kunden dieser Seite in aufsteigender Reihenfolge von Nachname und
+   * Kundennummer.
+   */
+  private Vector<Customer> customers = new Vector<Customer>();
+
+  /**
+   * Die Konten der Kunden, nach Inhaber gruppiert.
+   */
+  private Vector<Account> accounts = new Vector<Account>();
+
+  /**
+   * Die Kontostände, jeweils an derselben Position wie das Konto.
+   */
+  private float[] balances = new float[0];
+
+  /**
+   * Position des ersten Kontos je Kunde, ergänzt um die Anzahl aller Konten.
+   */
+  private int[] firstAccount = new int[] { 0 };
+
+  /**
+   * Für die Serialisierung durch GWT RPC ist ein No-Argument-Konstruktor
+   * erforderlich.
+   */
+  public CustomerTree() {
+  }
+
+  /**
+   * Anlegen aus bereits gruppierten Kunden und Konten.
+   *
+   * @param customers die Kunden in aufsteigender Reihenfolge
+   * @param accounts die Konten, nach Inhaber in der Reihenfolge der Kunden
+   *          gruppiert
+   * @param balances die Kontostände an denselben Positionen wie die Konten
+   * @param firstAccount Position des ersten Kontos je Kunde, gefolgt von der
+   *          Anzahl aller Konten
+   */
+  public CustomerTree(Vector<Customer> customers, Vector<Account> accounts,
+      float[] balances, int[] firstAccount) {
+    if (accounts.size() != balances.length
+        || customers.size() + 1 != firstAccount.length) {
+      throw new IllegalArgumentException(
+          "Kunden, Konten und Kontostände passen nicht zueinander.");
+    }
+    this.customers = customers;
+    this.accounts = accounts;
+    this.balances = balances;
+    this.firstAccount = firstAccount;
+  }
+
+  /**
+   * Auslesen der Kunden dieser Seite.
+   */
+  public Vector<Customer> getCustomers() {
+    return this.customers;
+  }
+
+  /**
+   * Auslesen des Nachnamens des letzten Kunden dieser Seite, mit dem
+   * zusammen mit {@link #getLastCustomerID()} die folgende Seite angefordert
+   * wird.
+   *
+   * @return der Nachname oder <code>""</code>, wenn die Seite leer ist
+   */
+  public String getLastCustomerLastName() {
+    return this.customers.isEmpty() ? "" : this.customers.lastElement()
+        .getLastName();
+  }
+
+  /**
+   * Auslesen der Kundennummer des letzten Kunden dieser Seite, mit der
+   * zusammen mit {@link #getLastCustomerLastName()} die folgende Seite
+   * angefordert wird.
+   *
+   * @return die Kundennummer oder 0, wenn die Seite leer ist
+   */
+  public int getLastCustomerID() {
+    return this.customers.isEmpty() ? 0 : this.customers.lastElement().getId();
+  }
+
+  /**
+   * Auslesen der Konten eines Kunden dieser Seite.
+   *
+   * @param c der Kunde
+   * @return die Konten des Kunden oder <code>null</code>, wenn der Kunde nicht
+   *         auf dieser Seite liegt
+   */
+  public Vector<Account> getAccountsOf(Customer c) {
+    int index = this.customers.indexOf(c);
+    if (index < 0) {
+      return null;
+    }
+
+    Vector<Account> result = new Vector<Account>();
+    for (int i = this.firstAccount[index]; i < this.firstAccount[index + 1]; i++) {
+      result.addElement(this.accounts.elementAt(i));
+    }
+    return result;
+  }
+
+  /**
+   * Auslesen sämtlicher Konten dieser Seite, nach Inhaber gruppiert.
+   */
+  public Vector<Account> getAccounts() {
+    return this.accounts;
+  }
+
+  /**
+   * Auslesen des Kontostands an einer Position von {@link #getAccounts()}.
+   */
+  public float getBalance(int index) {
+    return this.balances[index];
+  }
+
+  /**
+   * Setzen des Kontostands an einer Position von {@link #getAccounts()}.
+   */
+  public void setBalance(int index, float balance) {
+    this.balances[index] = balance;
+  }
+
+  /**
+   * Auslesen des Kontostands eines Kontos dieser Seite.
+   *
+   * @param a das Konto
+   * @return der Kontostand oder <code>null</code>, wenn das Konto nicht auf
+   *         dieser Seite liegt
+   */
+  public Float getBalanceOf(Account a) {
+    int index = this.accounts.indexOf(a);
+    return index < 0 ? null : Float.valueOf(this.balances[index]);
+  }
+}
@@ -0,0 +1,136 @@
+package de.hdm.thies.bankProjekt.shared.bo;
+
+import java.io.Serializable;
+import java.util.Vector;
+
+/**
+ * <p>
+ * Ergebnis einer Buchung: die gespeicherte Buchung zusammen mit dem neuen
+ * Stand der betroffenen Kundenkonten, deren Kontoständen und den Inhabern
+ * dieser Konten. Der Client kann seine Anzeige damit unmittelbar
+ * aktualisieren, statt Konto, Kunde und Kontostand nach der Buchung einzeln
+ * beim Server zu erfragen.
+ * </p>
+ * <p>
+ * Das Kassenkonto der Bank ist in den Konten nicht enthalten. Die Kontostände
+ * werden in derselben Transaktion wie die Buchung ermittelt und enthalten
+ * daher genau diese Buchung, aber keine spätere. Werden Buchungen verzögert
+ * gespeichert (<em>Write-Behind</em>), ist das Ergebnis vorläufig: die
+ * Buchung hat dann noch den Primärschlüssel 0, und die Kontostände gelten
+ * nur, sofern die Buchung tatsächlich gespeichert wird.
+ * </p>
+ * <p>
+ * Wie {@link AccountSummary} ist dies ein reines Leseobjekt.
+ * </p>
+ *
+ * @author thies
+ * @version 1.0
+ */
+public class TransactionResult implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Die gespeicherte bzw. im Write-Behind-Betrieb eingestellte Buchung.
+   */
+  private Transaction transaction = null;
+
+  /**
+   * Die von der Buchung betroffenen Kundenkonten.
+   */
+  private Vector<Account> accounts = new Vector<Account>();
+
+  /**
+   * Die Inhaber der betroffenen Kundenkonten.
+   */
+  private Vector<Customer> owners = new Vector<Customer>();
+
+  /**
+   * Die Kontostände der betroffenen Kundenkonten nach der Buchung.
+   */
+  private AccountBalances balances = new AccountBalances();
+
+  /**
+   * Für die Serialisierung durch GWT RPC ist ein No-Argument-Konstruktor
+   * erforderlich.
+   */
+  public TransactionResult() {
+  }
+
+  /**
+   * Anlegen mit allen Bestandteilen des Ergebnisses.
+   *
+   * @param transaction die gespeicherte Buchung
+   * @param accounts die betroffenen Kundenkonten
+   * @param owners die Inhaber dieser Konten
+   * @param balances die Kontostände dieser Konten nach der Buchung
+   */
+  public TransactionResult(Transaction transaction, Vector<Account> accounts,
+      Vector<Customer> owners, AccountBalances balances) {
+    this.transaction = transaction;
+    this.accounts = accounts;
+    this.owners = owners;
+    this.balances = balances;
+  }
+
+  /**
+   * Auslesen der gespeicherten Buchung.
+   */
+  public Transaction getTransaction() {
+    return this.transaction;
+  }
+
+  /**
+   * Auslesen der betroffenen Kundenkonten.
+   */
+  public Vector<Account> getAccounts() {
+    return this.accounts;
+  }
+
+  /**
+   * Auslesen eines betroffenen Kundenkontos.
+   *
+   * @param accountID Kontonummer
+   * @return das Konto oder <code>null</code>, wenn es nicht betroffen ist
+   */
+  public Account getAccount(int accountID) {
+    for (Account a : this.accounts) {
+      if (a.getId() == accountID) {
+        return a;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Auslesen der Inhaber der betroffenen Kundenkonten.
+   */
+  public Vector<Customer> getOwners() {
+    return this.owners;
+  }
+
+  /**
+   * Auslesen des Inhabers eines betroffenen Kundenkontos.
+   *
+   * @param a das Konto
+   * @return der Inhaber oder <code>null</code>, wenn er nicht enthalten ist
+   */
+  public Customer getOwnerOf(Account a) {
+    for (Customer c : this.owners) {
+      if (c.getId() == a.getOwnerID()) {
+        return c;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Auslesen des Kontostands eines betroffenen Kundenkontos nach der Buchung.
+   *
+   * @param a das Konto
+   * @return der Kontostand oder <code>null</code>, wenn er nicht enthalten ist
+   */
+  public Float getBalanceOf(Account a) {
+    return this.balances.getBalanceOf(a.getId());
+  }
+}
@@ -0,0 +1,166 @@
+package de.hdm.thies.bankProjekt.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import de.hdm.thies.bankProjekt.server.storage.BalanceStorage;
+import de.hdm.thies.bankProjekt.server.storage.WriteBehindQueue;
+import de.hdm.thies.bankProjekt.server.storage.memory.MemoryStorage;
+
+/**
+ * <p>
+ * Belastungstest der {@link TransferEngine}: mehrere Threads buchen
+ * gleichzeitig zufällige Überweisungen zwischen einer festen Menge von Konten.
+ * Anschließend muss die Summe aller Kontostände unverändert sein, kein Konto
+ * darf im Minus stehen und jede Überweisung muss entweder gebucht oder
+ * abgewiesen worden sein.
+ * </p>
+ * <p>
+ * Die Zähler der {@link TransferEngine} müssen dabei mit den von den Threads
+ * gezählten gebuchten und abgewiesenen Überweisungen übereinstimmen.
+ * </p>
+ *
+ * @author thies
+ * @version 1.0
+ */
+public class TransferEngineStressTest {
+
+  private static final int CASH = 10000;
+
+  private static final int ACCOUNTS = 64;
+
+  private static final float START_BALANCE = 1000;
+
+  private static final int TRANSFERS_PER_THREAD = 20000;
+
+  private static final int THREADS = 8;
+
+  @Test
+  public void conservesMoneyWithoutWriteBehind() throws Exception {
+    MemoryStorage storage = new MemoryStorage();
+    TransferEngine engine = new TransferEngine(storage, null, CASH, 256, 5000);
+    fund(engine);
+
+    AtomicLong booked = new AtomicLong();
+    AtomicLong refused = new AtomicLong();
+    run(engine, 1, booked, refused);
+    run(engine, THREADS, booked, refused);
+
+    assertCounted(engine, booked, refused);
+    assertConsistent(storage.balances());
+  }
+
+  @Test
+  public void conservesMoneyWithWriteBehind() throws Exception {
+    MemoryStorage storage = new MemoryStorage();
+    WriteBehindQueue queue = new WriteBehindQueue(storage.transactions(), 1024,
+        100, 5000);
+    TransferEngine engine = new TransferEngine(storage, queue, CASH, 256, 5000);
+    fund(engine);
+
+    AtomicLong booked = new AtomicLong();
+    AtomicLong refused = new AtomicLong();
+    run(engine, 1, booked, refused);
+    run(engine, THREADS, booked, refused);
+    assertTrue(queue.flush(5000));
+
+    assertCounted(engine, booked, refused);
+    assertConsistent(storage.balances());
+  }
+
+  /**
+   * Einzahlung des Anfangsbestands auf jedes Konto.
+   */
+  private static void fund(TransferEngine engine) {
+    for (int i = 1; i <= ACCOUNTS; i++) {
+      engine.transfer(CASH, i, START_BALANCE);
+    }
+  }
+
+  /**
+   * Zufällige Überweisungen mit der angegebenen Anzahl von Threads.
+   *
+   * @param booked wird um die Anzahl der gebuchten Überweisungen erhöht
+   * @param refused wird um die Anzahl der abgewiesenen Überweisungen erhöht
+   */
+  private static void run(final TransferEngine engine, int threadCount,
+      final AtomicLong booked, final AtomicLong refused)
+      throws InterruptedException {
+    long bookedBefore = booked.get();
+    long refusedBefore = refused.get();
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[threadCount];
+
+    for (int i = 0; i < threadCount; i++) {
+      final long seed = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          Random random = new Random(seed);
+          try {
+            start.await();
+          }
+          catch (InterruptedException e) {
+            return;
+          }
+          for (int j = 0; j < TRANSFERS_PER_THREAD; j++) {
+            int source = 1 + random.nextInt(ACCOUNTS);
+            int target = 1 + (source + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+            try {
+              engine.transfer(source, target, 1 + random.nextInt(200));
+              booked.incrementAndGet();
+            }
+            catch (IllegalArgumentException e) {
+              refused.incrementAndGet();
+            }
+          }
+        }
+      };
+      threads[i].start();
+    }
+
+    start.countDown();
+    for (Thread t : threads) {
+      t.join();
+    }
+
+    long attempts = (long) threadCount * TRANSFERS_PER_THREAD;
+    assertEquals(attempts, booked.get() - bookedBefore + refused.get()
+        - refusedBefore);
+    assertTrue(booked.get() > bookedBefore);
+  }
+
+  /**
+   * Prüfung der Zähler der {@link TransferEngine}: Neben den Einzahlungen
+   * muss sie jede gebuchte Überweisung gezählt und jede abgewiesene als
+   * mangels Deckung abgelehnt erfasst haben.
+   */
+  private static void assertCounted(TransferEngine engine, AtomicLong booked,
+      AtomicLong refused) {
+    assertEquals(ACCOUNTS + booked.get(), engine.getTransferCount());
+    assertEquals(refused.get(), engine.getRejectedCount());
+  }
+
+  /**
+   * Prüfung der Kontostände nach allen Überweisungen.
+   */
+  private static void assertConsistent(BalanceStorage balances) {
+    double total = 0;
+    for (int i = 1; i <= ACCOUNTS; i++) {
+      double balance = balances.findByAccount(i).doubleValue();
+      assertTrue("Konto " + i + " im Minus: " + balance, balance > -0.001);
+      total += balance;
+    }
+
+    assertEquals(ACCOUNTS * START_BALANCE, total, 0.01);
+    assertEquals(-ACCOUNTS * START_BALANCE,
+        balances.findByAccount(CASH).doubleValue(), 0.01);
+    assertEquals(0, balances.verify());
+  }
+}